@@ -71,6 +71,161 @@ public class FileServApp implements Callable<Integer> {
     @Option(names = {"--allow-http"}, description = "Allow Basic Auth over insecure HTTP (not recommended for production)", defaultValue = "false")
     private boolean allowHttp;
 
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--transfer-mode"}, description = "How GET sends file content: ${COMPLETION-CANDIDATES}", defaultValue = "CHANNEL")
+    private TransferMode transferMode;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--hot-cache-size"}, description = "Bytes of small files to keep in memory (0 disables the cache)", defaultValue = "0")
+    private long hotCacheSize;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--hot-cache-max-file-size"}, description = "Largest file kept in the hot file cache in bytes", defaultValue = "65536")
+    private long hotCacheMaxFileSize;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--mmap-pool-size"}, description = "Bytes of large files to serve from shared memory mappings (0 disables mapping)", defaultValue = "0")
+    private long mmapPoolSize;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--mmap-min-file-size"}, description = "Smallest file served from a memory mapping in bytes", defaultValue = "16777216")
+    private long mmapMinFileSize;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--compression"}, description = "Negotiate Accept-Encoding: serve precompressed .br/.zst/.gz sidecars, gzip text files and PROPFIND responses", defaultValue = "false")
+    private boolean compression;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--compression-cache-size"}, description = "Bytes of gzip variants to keep in memory (0 compresses sidecars and PROPFIND only)", defaultValue = "33554432")
+    private long compressionCacheSize;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--open-file-cache-size"}, description = "Number of read-only file handles kept open between GETs (0 disables the cache)", defaultValue = "0")
+    private int openFileCacheSize;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--open-file-idle-timeout"}, description = "Milliseconds after which an unused cached file handle is closed", defaultValue = "30000")
+    private long openFileIdleTimeout;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--rate-limit"}, description = "Total GET/PUT transfer rate in bytes per second (0 is unlimited)", defaultValue = "0")
+    private long rateLimit;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--user-rate-limit"}, description = "Transfer rate per authenticated user in bytes per second (0 is unlimited)", defaultValue = "0")
+    private long userRateLimit;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--connection-rate-limit"}, description = "Transfer rate per connection in bytes per second (0 is unlimited)", defaultValue = "0")
+    private long connectionRateLimit;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--read-ahead"}, description = "Read the next part of large files while sending the current one", defaultValue = "false")
+    private boolean readAhead;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--read-ahead-size"}, description = "Read-ahead buffer size in bytes (0 picks 256 KiB for local disks, 1 MiB for network mounts)", defaultValue = "0")
+    private int readAheadSize;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--http2"}, description = "Offer HTTP/2 via ALPN on HTTPS and cleartext h2c on HTTP", defaultValue = "false")
+    private boolean http2;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--http2-max-concurrent-streams"}, description = "Concurrent HTTP/2 requests per connection", defaultValue = "128")
+    private int http2MaxConcurrentStreams;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--http2-stream-window"}, description = "HTTP/2 flow-control receive window per request in bytes", defaultValue = "524288")
+    private int http2StreamWindow;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--http2-session-window"}, description = "HTTP/2 flow-control receive window per connection in bytes", defaultValue = "1048576")
+    private int http2SessionWindow;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--virtual-threads"}, description = "Run requests on virtual threads; the platform pool only runs selectors and internal tasks", defaultValue = "false")
+    private boolean virtualThreads;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--max-threads"}, description = "Maximum number of platform threads in the server pool", defaultValue = "200")
+    private int maxThreads;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--fsync"}, description = "Durability of PUT: ${COMPLETION-CANDIDATES}", defaultValue = "FILE")
+    private FsyncPolicy fsyncPolicy;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--upload-session-timeout"}, description = "Milliseconds after which an unfinished resumable upload is deleted (0 keeps it)", defaultValue = "86400000")
+    private long uploadSessionTimeout;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--content-digest"}, description = "Hash PUT bodies (SHA-256) for strong ETags and Repr-Digest headers", defaultValue = "false")
+    private boolean contentDigest;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--dedup"}, description = "Store identical PUT bodies once (content-addressed hard links); needs --content-digest", defaultValue = "false")
+    private boolean dedup;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--quota"}, description = "Quota of a collection in bytes, as PATH=BYTES; repeatable")
+    private Map<String, Long> quotas = new LinkedHashMap<>();
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--home-quota"}, description = "Quota in bytes of every top-level collection, i.e. each user's home collection (0 is unlimited)", defaultValue = "0")
+    private long homeQuota;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--quota-reconcile-interval"}, description = "Milliseconds between walks that reconcile quota usage with the disk (0 only at startup)", defaultValue = "3600000")
+    private long quotaReconcileInterval;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--write-behind"}, description = "Acknowledge small PUTs once journaled and write the files in the background", defaultValue = "false")
+    private boolean writeBehind;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--write-behind-max-file-size"}, description = "Largest PUT body in bytes that is written behind", defaultValue = "65536")
+    private long writeBehindMaxFileSize;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--upload-pipeline"}, description = "Read PUT bodies and write them to disk in separate stages", defaultValue = "false")
+    private boolean uploadPipeline;
+
+    // Set by PicoCLI
+    @SuppressWarnings("unused")
+    @Option(names = {"--upload-pipeline-buffers"}, description = "Number of 256 KiB direct buffers shared by all pipelined uploads", defaultValue = "64")
+    private int uploadPipelineBuffers;
+
     // Set by PicoCLI
     @SuppressWarnings("unused")
     @Option(names = {"--passwd"}, description = "Path to a passwords file")
@@ -124,7 +279,24 @@ public class FileServApp implements Callable<Integer> {
                 keyStorePassword,
                 keyPassword,
                 authenticator
-        );
+        ).toBuilder()
+                .transferMode(transferMode)
+                .hotCache(hotCacheSize, hotCacheMaxFileSize)
+                .mmap(mmapPoolSize, mmapMinFileSize)
+                .compression(compression, compressionCacheSize)
+                .openFileCache(openFileCacheSize, openFileIdleTimeout)
+                .rateLimits(rateLimit, userRateLimit, connectionRateLimit)
+                .readAhead(readAhead, readAheadSize)
+                .http2(http2, http2MaxConcurrentStreams, http2StreamWindow, http2SessionWindow)
+                .threads(virtualThreads, maxThreads)
+                .fsyncPolicy(fsyncPolicy)
+                .uploadSessionTimeout(uploadSessionTimeout)
+                .contentDigest(contentDigest)
+                .dedup(dedup)
+                .quotas(quotas, homeQuota, quotaReconcileInterval)
+                .writeBehind(writeBehind, writeBehindMaxFileSize)
+                .uploadPipeline(uploadPipeline, uploadPipelineBuffers)
+                .build();
 
         server = WebDavServer.build(cfg);
 
@@ -143,6 +315,27 @@ public class FileServApp implements Callable<Integer> {
         LOG.info("  Auth: {}", authenticator);
         LOG.info("  behindProxy={}", behindProxy);
         LOG.info("  allowHttp={}", allowHttp);
+        LOG.info("  transferMode={}", transferMode);
+        LOG.info("  hotCacheSize={} (max file size {})", hotCacheSize, hotCacheMaxFileSize);
+        LOG.info("  mmapPoolSize={} (min file size {})", mmapPoolSize, mmapMinFileSize);
+        LOG.info("  compression={} (cache size {})", compression, compressionCacheSize);
+        LOG.info("  openFileCacheSize={} (idle timeout {} ms)", openFileCacheSize, openFileIdleTimeout);
+        LOG.info("  rateLimit={} B/s (per user {}, per connection {})", rateLimit, userRateLimit, connectionRateLimit);
+        LOG.info("  readAhead={} (buffer size {})", readAhead, readAheadSize);
+        LOG.info("  http2={} (max streams {}, stream window {}, session window {})",
+                http2, http2MaxConcurrentStreams, http2StreamWindow, http2SessionWindow);
+        LOG.info("  virtualThreads={} (max platform threads {})", virtualThreads, maxThreads);
+        LOG.info("  fsync={}", fsyncPolicy);
+        LOG.info("  uploadSessionTimeout={} ms", uploadSessionTimeout);
+        LOG.info("  contentDigest={}", contentDigest);
+        LOG.info("  dedup={}", dedup);
+        LOG.info("  quotas={}", quotas);
+        LOG.info("  homeQuota={}", homeQuota);
+        LOG.info("  quotaReconcileInterval={} ms", quotaReconcileInterval);
+        LOG.info("  writeBehind={}", writeBehind);
+        LOG.info("  writeBehindMaxFileSize={}", writeBehindMaxFileSize);
+        LOG.info("  uploadPipeline={}", uploadPipeline);
+        LOG.info("  uploadPipelineBuffers={}", uploadPipelineBuffers);
 
         server.start();
         LOG.info("File server runs...");
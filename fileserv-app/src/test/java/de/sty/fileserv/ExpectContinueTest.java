@@ -0,0 +1,158 @@
+package de.sty.fileserv;
+
+import de.sty.fileserv.core.FileServConfig;
+import de.sty.fileserv.core.SimpleAuthenticator;
+import de.sty.fileserv.core.WebDavServer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static de.sty.fileserv.core.WebDavConstants.AUTH_PREFIX_BASIC;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * PUTs with {@code Expect: 100-continue} over a raw socket: requests that will be rejected must be
+ * answered before the client sends any of the body.
+ */
+class ExpectContinueTest {
+
+    /** Announced body size; never sent unless the server asks for it. */
+    private static final long TEN_GIB = 10L * 1024 * 1024 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private Server server;
+    private int port;
+    private String auth;
+
+    @BeforeEach
+    void start() throws Exception {
+        auth = AUTH_PREFIX_BASIC + Base64.getEncoder().encodeToString("alice:secret".getBytes(StandardCharsets.UTF_8));
+        server = WebDavServer.build(new FileServConfig(tempDir, true, true, 0, 0, null, null, null,
+                new SimpleAuthenticator("alice", "secret")));
+        var connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.start();
+        port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        if (server != null) server.stop();
+    }
+
+    /**
+     * Sends the request head only and returns the status line and headers of the first response.
+     */
+    private List<String> putHead(String path, long length, String... headers) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10_000);
+            StringBuilder head = new StringBuilder()
+                    .append("PUT ").append(path).append(" HTTP/1.1\r\n")
+                    .append("Host: localhost\r\n")
+                    .append("X-Forwarded-Proto: https\r\n")
+                    .append("Content-Length: ").append(length).append("\r\n")
+                    .append("Expect: 100-continue\r\n");
+            for (String h : headers) head.append(h).append("\r\n");
+            head.append("\r\n");
+            OutputStream out = socket.getOutputStream();
+            out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) lines.add(line);
+            return lines;
+        }
+    }
+
+    @Test
+    void unauthenticatedPutIsRejectedBeforeBody() throws Exception {
+        List<String> response = putHead("/big.iso", TEN_GIB);
+
+        assertThat(response.get(0)).isEqualTo("HTTP/1.1 401 Unauthorized");
+        assertThat(tempDir.resolve("big.iso")).doesNotExist();
+    }
+
+    @Test
+    void lockedPutIsRejectedBeforeBody() throws Exception {
+        Files.writeString(tempDir.resolve("locked.iso"), "old");
+        var client = HttpClient.newHttpClient();
+        var lock = client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/locked.iso"))
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https")
+                .method("LOCK", HttpRequest.BodyPublishers.ofString(
+                        "<D:lockinfo xmlns:D='DAV:'><D:lockscope><D:exclusive/></D:lockscope>"
+                                + "<D:locktype><D:write/></D:locktype></D:lockinfo>"))
+                .build(), HttpResponse.BodyHandlers.discarding());
+        assertThat(lock.statusCode()).isEqualTo(200);
+
+        List<String> response = putHead("/locked.iso", TEN_GIB, "Authorization: " + auth);
+
+        assertThat(response.get(0)).isEqualTo("HTTP/1.1 423 Locked");
+        assertThat(Files.readString(tempDir.resolve("locked.iso"))).isEqualTo("old");
+    }
+
+    @Test
+    void failedPreconditionIsRejectedBeforeBody() throws Exception {
+        Files.writeString(tempDir.resolve("guarded.iso"), "old");
+
+        List<String> response = putHead("/guarded.iso", TEN_GIB, "Authorization: " + auth, "If-Match: \"stale\"");
+
+        assertThat(response.get(0)).isEqualTo("HTTP/1.1 412 Precondition Failed");
+    }
+
+    @Test
+    void bodyLargerThanFreeSpaceIsRejectedBeforeBody() throws Exception {
+        long moreThanFree = Files.getFileStore(tempDir).getUsableSpace() + TEN_GIB;
+
+        List<String> response = putHead("/huge.iso", moreThanFree, "Authorization: " + auth);
+
+        assertThat(response.get(0)).isEqualTo("HTTP/1.1 507 Insufficient Storage");
+        try (var files = Files.list(tempDir)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void acceptedPutGetsContinueAndStoresBody() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10_000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("PUT /small.txt HTTP/1.1\r\nHost: localhost\r\nX-Forwarded-Proto: https\r\n"
+                    + "Authorization: " + auth + "\r\nContent-Length: 5\r\nExpect: 100-continue\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            assertThat(in.readLine()).isEqualTo("HTTP/1.1 100 Continue");
+            assertThat(in.readLine()).isEmpty();
+
+            out.write("hello".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertThat(in.readLine()).isEqualTo("HTTP/1.1 201 Created");
+        }
+        assertThat(Files.readString(tempDir.resolve("small.txt"))).isEqualTo("hello");
+    }
+}
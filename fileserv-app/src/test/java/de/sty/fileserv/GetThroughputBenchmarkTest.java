@@ -0,0 +1,91 @@
+package de.sty.fileserv;
+
+import de.sty.fileserv.core.FileServConfig;
+import de.sty.fileserv.core.SimpleAuthenticator;
+import de.sty.fileserv.core.TransferMode;
+import de.sty.fileserv.core.WebDavServer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Base64;
+
+import static de.sty.fileserv.core.WebDavConstants.AUTH_PREFIX_BASIC;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares GET throughput of {@link TransferMode#STREAM}, {@link TransferMode#CHANNEL} and the
+ * memory-mapped file pool.
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class GetThroughputBenchmarkTest {
+
+    private static final long FILE_SIZE = 512L * 1024 * 1024;
+    private static final int ROUNDS = 5;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void compareTransferModes() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(tempDir.resolve("big.bin").toFile(), "rw")) {
+            raf.setLength(FILE_SIZE);
+        }
+
+        FileServConfig cfg = new FileServConfig(tempDir, true, true, -1, -1, null, null, null,
+                new SimpleAuthenticator("alice", "secret"));
+        double stream = measure(cfg.toBuilder().transferMode(TransferMode.STREAM).build());
+        double channel = measure(cfg.toBuilder().transferMode(TransferMode.CHANNEL).build());
+        double mmap = measure(cfg.toBuilder().mmap(FILE_SIZE, 0).build());
+
+        System.out.printf("GET %d MiB x %d: STREAM %.1f MiB/s, CHANNEL %.1f MiB/s (%.2fx), MMAP %.1f MiB/s (%.2fx)%n",
+                FILE_SIZE >> 20, ROUNDS, stream, channel, channel / stream, mmap, mmap / stream);
+    }
+
+    private double measure(FileServConfig cfg) throws Exception {
+        Server server = WebDavServer.build(cfg);
+        var connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.start();
+        try {
+            URI uri = URI.create("http://localhost:" + connector.getLocalPort() + "/big.bin");
+            String auth = AUTH_PREFIX_BASIC + Base64.getEncoder().encodeToString("alice:secret".getBytes(StandardCharsets.UTF_8));
+            HttpClient client = HttpClient.newHttpClient();
+            HttpRequest get = HttpRequest.newBuilder(uri).header("Authorization", auth).GET().build();
+
+            // warm up
+            drain(client.send(get, HttpResponse.BodyHandlers.ofInputStream()).body());
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                assertThat(drain(client.send(get, HttpResponse.BodyHandlers.ofInputStream()).body())).isEqualTo(FILE_SIZE);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            return (FILE_SIZE >> 20) * (double) ROUNDS / seconds;
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static long drain(InputStream in) throws Exception {
+        try (in) {
+            byte[] buf = new byte[256 * 1024];
+            long total = 0;
+            int n;
+            while ((n = in.read(buf)) > 0) total += n;
+            return total;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package de.sty.fileserv;
+
+import de.sty.fileserv.core.FileServConfig;
+import de.sty.fileserv.core.SimpleAuthenticator;
+import de.sty.fileserv.core.WebDavServer;
+import org.eclipse.jetty.io.ssl.SslHandshakeListener;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.sty.fileserv.core.WebDavConstants.AUTH_PREFIX_BASIC;
+
+/**
+ * Fetches many small files over HTTPS with a fixed number of requests in flight, once with
+ * HTTP/1.1 (one TLS connection per concurrent request) and once with HTTP/2 (all requests
+ * multiplexed on one connection), and reports total time, per-request latency and TLS handshakes.
+ * Every round starts with a new client, so connection setup is included.
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class Http2BenchmarkTest {
+
+    private static final int FILES = 2000;
+    private static final int FILE_SIZE = 4096;
+    private static final int IN_FLIGHT = 64;
+    private static final int ROUNDS = 5;
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicInteger handshakes = new AtomicInteger();
+
+    private final String auth = AUTH_PREFIX_BASIC
+            + Base64.getEncoder().encodeToString("alice:secret".getBytes(StandardCharsets.UTF_8));
+
+    @Test
+    void compareHttp11AndHttp2() throws Exception {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < FILES; i++) Files.write(data.resolve("f" + i + ".bin"), content);
+
+        Server server = WebDavServer.build(new FileServConfig(data, false, false, -1, 0,
+                generateTemporaryKeystore(tempDir), "changeit", "changeit",
+                new SimpleAuthenticator("alice", "secret")).toBuilder()
+                .http2(true, WebDavServer.DEFAULT_HTTP2_MAX_CONCURRENT_STREAMS, WebDavServer.DEFAULT_HTTP2_STREAM_WINDOW,
+                        WebDavServer.DEFAULT_HTTP2_SESSION_WINDOW).build());
+        server.getConnectors()[0].addBean(new SslHandshakeListener() {
+            @Override
+            public void handshakeSucceeded(Event event) {
+                handshakes.incrementAndGet();
+            }
+        });
+        server.start();
+        try {
+            int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            URI base = URI.create("https://localhost:" + port + "/");
+            for (int round = 0; round < ROUNDS; round++) {
+                for (HttpClient.Version version : HttpClient.Version.values()) {
+                    measure(base, version, round == 0);
+                }
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private void measure(URI base, HttpClient.Version version, boolean warmUp) throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(version).sslContext(insecureSslContext()).build();
+        Semaphore inFlight = new Semaphore(IN_FLIGHT);
+        long[] latencies = new long[FILES];
+        List<CompletableFuture<?>> all = new ArrayList<>(FILES);
+        handshakes.set(0);
+        long start = System.nanoTime();
+        // the JDK client opens one connection per request sent before its first HTTP/2 session is up
+        client.send(HttpRequest.newBuilder(base).header("Authorization", auth).method("OPTIONS",
+                HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+        for (int i = 0; i < FILES; i++) {
+            int n = i;
+            HttpRequest get = HttpRequest.newBuilder(base.resolve("f" + i + ".bin"))
+                    .header("Authorization", auth)
+                    .GET().build();
+            inFlight.acquire();
+            long sent = System.nanoTime();
+            all.add(client.sendAsync(get, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((resp, t) -> {
+                latencies[n] = System.nanoTime() - sent;
+                inFlight.release();
+                if (t == null && (resp.statusCode() != 200 || resp.version() != version)) {
+                    throw new IllegalStateException(resp.version() + " " + resp.statusCode());
+                }
+            }));
+        }
+        CompletableFuture.allOf(all.toArray(CompletableFuture[]::new)).join();
+        long total = System.nanoTime() - start;
+        client.close();
+        if (warmUp) return;
+
+        Arrays.sort(latencies);
+        System.out.printf("%-8s %d GETs: %6.0f ms total, %5.0f req/s, p50 %6.2f ms, p99 %7.2f ms, %d TLS handshakes%n",
+                version, FILES, total / 1e6, FILES / (total / 1e9), latencies[FILES / 2] / 1e6,
+                latencies[FILES * 99 / 100] / 1e6, handshakes.get());
+    }
+
+    private static SSLContext insecureSslContext() throws Exception {
+        TrustManager[] trustAll = new TrustManager[]{
+                new X509TrustManager() {
+                    public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                    }
+
+                    public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                    }
+
+                    public X509Certificate[] getAcceptedIssuers() {
+                        return new X509Certificate[0];
+                    }
+                }
+        };
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(null, trustAll, new SecureRandom());
+        return ctx;
+    }
+
+    private static String generateTemporaryKeystore(Path dir) throws Exception {
+        Path ksPath = dir.resolve("test-keystore.p12");
+        String[] command = {
+                "keytool", "-genkeypair",
+                "-alias", "webdav",
+                "-keyalg", "RSA",
+                "-keysize", "2048",
+                "-storetype", "PKCS12",
+                "-keystore", ksPath.toString(),
+                "-storepass", "changeit",
+                "-keypass", "changeit",
+                "-dname", "CN=localhost",
+                "-validity", "1"
+        };
+        Process process = new ProcessBuilder(command).start();
+        if (process.waitFor() != 0) {
+            throw new RuntimeException("Failed to generate test keystore");
+        }
+        return ksPath.toString();
+    }
+}
@@ -94,7 +94,9 @@ class HttpsSmokeTest {
                 "changeit",
                 "changeit",
                 authenticator
-        ));
+        ).toBuilder()
+                .http2(true, WebDavServer.DEFAULT_HTTP2_MAX_CONCURRENT_STREAMS, WebDavServer.DEFAULT_HTTP2_STREAM_WINDOW,
+                        WebDavServer.DEFAULT_HTTP2_SESSION_WINDOW).build());
 
         server.start();
         int httpsActualPort = 0;
@@ -137,5 +139,6 @@ class HttpsSmokeTest {
         var getResp = client.send(get, HttpResponse.BodyHandlers.ofString());
         assertThat(getResp.statusCode()).isEqualTo(OK_200);
         assertThat(getResp.body()).isEqualTo("secure");
+        assertThat(getResp.version()).isEqualTo(HttpClient.Version.HTTP_2);
     }
 }
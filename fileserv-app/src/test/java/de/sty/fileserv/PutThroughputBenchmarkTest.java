@@ -0,0 +1,94 @@
+package de.sty.fileserv;
+
+import de.sty.fileserv.core.FileServConfig;
+import de.sty.fileserv.core.FsyncPolicy;
+import de.sty.fileserv.core.SimpleAuthenticator;
+import de.sty.fileserv.core.WebDavServer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+
+import static de.sty.fileserv.core.WebDavConstants.AUTH_PREFIX_BASIC;
+
+/**
+ * Uploads a 1 GiB file several times, once with {@code Content-Length} (large direct
+ * buffer) and once chunked, where the length is unknown and the body is streamed in
+ * 64 KiB steps. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class PutThroughputBenchmarkTest {
+
+    private static final long FILE_SIZE = 1024L * 1024 * 1024;
+    private static final int ROUNDS = 3;
+
+    @TempDir
+    Path tempDir;
+
+    private final String auth = AUTH_PREFIX_BASIC
+            + Base64.getEncoder().encodeToString("alice:secret".getBytes(StandardCharsets.UTF_8));
+
+    @Test
+    void compareSizedAndChunkedUpload() throws Exception {
+        Path source = tempDir.resolve("source.bin");
+        byte[] block = new byte[1024 * 1024];
+        new Random(1).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(source)) {
+            for (long n = 0; n < FILE_SIZE; n += block.length) out.write(block);
+        }
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+
+        for (FsyncPolicy policy : new FsyncPolicy[] {FsyncPolicy.NONE, FsyncPolicy.FILE}) {
+            Server server = WebDavServer.build(new FileServConfig(data, true, true, -1, -1, null, null, null,
+                    new SimpleAuthenticator("alice", "secret")).toBuilder().fsyncPolicy(policy).build());
+            var connector = new ServerConnector(server);
+            connector.setPort(0);
+            server.addConnector(connector);
+            server.start();
+            try {
+                URI uri = URI.create("http://localhost:" + connector.getLocalPort() + "/upload.bin");
+                HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+                for (int round = 0; round < ROUNDS; round++) {
+                    measure(client, uri, policy, "sized", HttpRequest.BodyPublishers.ofFile(source));
+                    measure(client, uri, policy, "chunked", HttpRequest.BodyPublishers.ofInputStream(() -> open(source)));
+                }
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    private void measure(HttpClient client, URI uri, FsyncPolicy policy, String name,
+                         HttpRequest.BodyPublisher body) throws Exception {
+        HttpRequest put = HttpRequest.newBuilder(uri)
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https")
+                .PUT(body).build();
+        long start = System.nanoTime();
+        HttpResponse<Void> resp = client.send(put, HttpResponse.BodyHandlers.discarding());
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (resp.statusCode() / 100 != 2) throw new IllegalStateException("PUT failed: " + resp.statusCode());
+        System.out.printf("fsync=%-4s %-7s 1 GiB PUT: %6.1f MiB/s%n", policy, name, FILE_SIZE / 1024.0 / 1024.0 / seconds);
+    }
+
+    private static InputStream open(Path p) {
+        try {
+            return Files.newInputStream(p);
+        } catch (java.io.IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package de.sty.fileserv;
+
+import de.sty.fileserv.core.FileServConfig;
+import de.sty.fileserv.core.SimpleAuthenticator;
+import de.sty.fileserv.core.TransferMode;
+import de.sty.fileserv.core.WebDavServer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static de.sty.fileserv.core.WebDavConstants.AUTH_PREFIX_BASIC;
+
+/**
+ * Opens more and more clients that request a large file but never read it, and records after each
+ * step how many pool threads are busy and whether the server still answers a small GET. Compares
+ * {@link TransferMode#CHANNEL}, where every stalled download holds a pool thread, with
+ * {@link TransferMode#ASYNC}.
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class SlowClientBenchmarkTest {
+
+    private static final long FILE_SIZE = 32L * 1024 * 1024;
+    private static final int STEP = 100;
+    private static final int MAX_CLIENTS = 1000;
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(3);
+
+    @TempDir
+    Path tempDir;
+
+    private final String auth = AUTH_PREFIX_BASIC
+            + Base64.getEncoder().encodeToString("alice:secret".getBytes(StandardCharsets.UTF_8));
+
+    @Test
+    void compareBlockingAndAsyncGet() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(tempDir.resolve("big.bin").toFile(), "rw")) {
+            raf.setLength(FILE_SIZE);
+        }
+        Files.writeString(tempDir.resolve("probe.txt"), "ok");
+
+        for (TransferMode mode : new TransferMode[] {TransferMode.CHANNEL, TransferMode.ASYNC}) {
+            measure(mode);
+        }
+    }
+
+    private void measure(TransferMode mode) throws Exception {
+        Server server = WebDavServer.build(new FileServConfig(tempDir, true, true, -1, -1, null, null, null,
+                new SimpleAuthenticator("alice", "secret")).toBuilder().transferMode(mode).build());
+        var connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.start();
+        List<Socket> clients = new ArrayList<>();
+        try {
+            int port = connector.getLocalPort();
+            HttpClient probeClient = HttpClient.newHttpClient();
+            HttpRequest probe = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/probe.txt"))
+                    .header("Authorization", auth)
+                    .header("X-Forwarded-Proto", "https")
+                    .timeout(PROBE_TIMEOUT)
+                    .GET().build();
+            QueuedThreadPool pool = (QueuedThreadPool) server.getThreadPool();
+            int peakBusy = 0;
+            while (clients.size() < MAX_CLIENTS) {
+                for (int i = 0; i < STEP; i++) clients.add(stalledDownload(port));
+                Thread.sleep(500);
+                long start = System.nanoTime();
+                try {
+                    probeClient.send(probe, HttpResponse.BodyHandlers.ofString());
+                } catch (HttpTimeoutException e) {
+                    System.out.printf("  %s: %d stalled, probe timed out%n", mode, clients.size());
+                    break;
+                }
+                peakBusy = Math.max(peakBusy, pool.getBusyThreads());
+                System.out.printf("  %s: %d stalled, probe %.1f ms, %d/%d busy threads%n", mode, clients.size(),
+                        (System.nanoTime() - start) / 1e6, pool.getBusyThreads(), pool.getMaxThreads());
+            }
+            System.out.printf("%s: %d stalled downloads, peak %d busy threads%n", mode, clients.size(), peakBusy);
+        } finally {
+            for (Socket s : clients) s.close();
+            server.stop();
+        }
+    }
+
+    private Socket stalledDownload(int port) throws Exception {
+        Socket s = new Socket();
+        s.setReceiveBufferSize(4096);
+        s.connect(new InetSocketAddress("localhost", port));
+        s.getOutputStream().write(("GET /big.bin HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "Authorization: " + auth + "\r\n"
+                + "X-Forwarded-Proto: https\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        s.getOutputStream().flush();
+        return s;
+    }
+}
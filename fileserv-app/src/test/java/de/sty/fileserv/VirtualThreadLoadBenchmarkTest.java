@@ -0,0 +1,122 @@
+package de.sty.fileserv;
+
+import de.sty.fileserv.core.Authenticator;
+import de.sty.fileserv.core.FileServConfig;
+import de.sty.fileserv.core.WebDavServer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.sty.fileserv.core.WebDavConstants.AUTH_PREFIX_BASIC;
+
+/**
+ * Fires thousands of concurrent GETs whose authentication blocks for a while, like a slow LDAP
+ * bind, and reports latency, the peak number of busy pool threads and the peak number of live JVM
+ * threads, once on the default platform pool and once with virtual threads.
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class VirtualThreadLoadBenchmarkTest {
+
+    private static final int REQUESTS = 2000;
+    private static final long AUTH_MILLIS = 500;
+
+    @TempDir
+    Path tempDir;
+
+    private final String auth = AUTH_PREFIX_BASIC
+            + Base64.getEncoder().encodeToString("alice:secret".getBytes(StandardCharsets.UTF_8));
+
+    /** Accepts alice after a blocking pause. */
+    private static final Authenticator SLOW_AUTHENTICATOR = (user, password) -> {
+        try {
+            Thread.sleep(AUTH_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return "alice".equals(user) && "secret".equals(password);
+    };
+
+    @Test
+    void comparePlatformAndVirtualThreads() throws Exception {
+        Files.writeString(tempDir.resolve("small.txt"), "hello");
+        for (boolean virtual : new boolean[] {false, true, false, true}) {
+            measure(virtual);
+        }
+    }
+
+    private void measure(boolean virtual) throws Exception {
+        Server server = WebDavServer.build(new FileServConfig(tempDir, true, true, -1, -1, null, null, null,
+                SLOW_AUTHENTICATOR).toBuilder().threads(virtual, WebDavServer.DEFAULT_MAX_THREADS).build());
+        var connector = new ServerConnector(server);
+        connector.setPort(0);
+        connector.setAcceptQueueSize(REQUESTS);
+        server.addConnector(connector);
+        server.start();
+        QueuedThreadPool pool = (QueuedThreadPool) server.getThreadPool();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        AtomicInteger peakBusy = new AtomicInteger();
+        try {
+            sampler.scheduleAtFixedRate(() -> peakBusy.accumulateAndGet(pool.getBusyThreads(), Math::max),
+                    0, 10, TimeUnit.MILLISECONDS);
+            threads.resetPeakThreadCount();
+            URI uri = URI.create("http://localhost:" + connector.getLocalPort() + "/small.txt");
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(30)).build();
+            long[] latencies = new long[REQUESTS];
+            AtomicInteger failed = new AtomicInteger();
+            List<CompletableFuture<?>> all = new ArrayList<>(REQUESTS);
+            long start = System.nanoTime();
+            for (int i = 0; i < REQUESTS; i++) {
+                int n = i;
+                HttpRequest get = HttpRequest.newBuilder(uri)
+                        .header("Authorization", auth)
+                        .header("X-Forwarded-Proto", "https")
+                        .GET().build();
+                long sent = System.nanoTime();
+                all.add(client.sendAsync(get, HttpResponse.BodyHandlers.ofString()).whenComplete((resp, t) -> {
+                    latencies[n] = System.nanoTime() - sent;
+                    if (t != null || resp.statusCode() != 200) failed.incrementAndGet();
+                }));
+            }
+            CompletableFuture.allOf(all.toArray(CompletableFuture[]::new)).exceptionally(t -> null).join();
+            long total = System.nanoTime() - start;
+            client.close();
+
+            Arrays.sort(latencies);
+            System.out.printf("%-8s %d GETs (%d failed): %6.0f ms total, p50 %6.0f ms, p99 %6.0f ms, "
+                            + "peak %d/%d busy pool threads, peak %d JVM threads%n",
+                    virtual ? "virtual" : "platform", REQUESTS, failed.get(), total / 1e6,
+                    latencies[REQUESTS / 2] / 1e6, latencies[REQUESTS * 99 / 100] / 1e6,
+                    peakBusy.get(), pool.getMaxThreads(), threads.getPeakThreadCount());
+        } finally {
+            sampler.shutdownNow();
+            server.stop();
+        }
+    }
+}
@@ -3,19 +3,25 @@ package de.sty.fileserv;
 import de.sty.fileserv.core.Authenticator;
 import de.sty.fileserv.core.FileServConfig;
 import de.sty.fileserv.core.SimpleAuthenticator;
+import de.sty.fileserv.core.TransferMode;
 import de.sty.fileserv.core.WebDavServer;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
 
 import static de.sty.fileserv.core.WebDavConstants.AUTH_PREFIX_BASIC;
 import static de.sty.fileserv.core.WebDavConstants.HEADER_SERVER;
@@ -35,7 +41,7 @@ class WebDavIntegrationTest {
     void start() throws Exception {
         auth = AUTH_PREFIX_BASIC + Base64.getEncoder().encodeToString("alice:secret".getBytes(StandardCharsets.UTF_8));
         Authenticator authenticator = new SimpleAuthenticator("alice", "secret");
-        server = WebDavServer.build(new FileServConfig(
+        start(new FileServConfig(
                 tempDir,
                 true,   // behindProxy
                 true,   // allowHttp (for testing)
@@ -44,6 +50,10 @@ class WebDavIntegrationTest {
                 null, null, null,
                 authenticator
         ));
+    }
+
+    private void start(FileServConfig config) throws Exception {
+        server = WebDavServer.build(config);
 
         // Add a connector on port 0 (random)
         var connector = new ServerConnector(server);
@@ -224,4 +234,403 @@ class WebDavIntegrationTest {
         assertThat(getBResp.statusCode()).isEqualTo(OK_200);
         assertThat(getBResp.body()).isEqualTo("x");
     }
+
+    @Test
+    void rangeRequestsReturnPartialContent() throws Exception {
+        Files.writeString(tempDir.resolve("digits.txt"), "0123456789");
+
+        var single = HttpRequest.newBuilder(base.resolve("digits.txt"))
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https")
+                .header("Range", "bytes=3-")
+                .GET().build();
+        var singleResp = client.send(single, HttpResponse.BodyHandlers.ofString());
+        assertThat(singleResp.statusCode()).isEqualTo(PARTIAL_CONTENT_206);
+        assertThat(singleResp.headers().firstValue("Content-Range")).hasValue("bytes 3-9/10");
+        assertThat(singleResp.body()).isEqualTo("3456789");
+
+        var multi = HttpRequest.newBuilder(base.resolve("digits.txt"))
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https")
+                .header("Range", "bytes=0-0,9-9")
+                .GET().build();
+        var multiResp = client.send(multi, HttpResponse.BodyHandlers.ofString());
+        assertThat(multiResp.statusCode()).isEqualTo(PARTIAL_CONTENT_206);
+        assertThat(multiResp.headers().firstValue("Content-Type")).get().asString().startsWith("multipart/byteranges");
+        assertThat(multiResp.body()).contains("bytes 0-0/10\r\n\r\n0\r\n").contains("bytes 9-9/10\r\n\r\n9\r\n");
+    }
+
+    @Test
+    void asyncTransferModeServesFullAndPartialContent() throws Exception {
+        FileServConfig config = new FileServConfig(tempDir, true, true, 0, 0, null, null, null,
+                new SimpleAuthenticator("alice", "secret")).toBuilder().transferMode(TransferMode.ASYNC).build();
+        stop();
+        start(config);
+        byte[] content = new byte[1024 * 1024 + 17];
+        new Random(42).nextBytes(content);
+        Files.write(tempDir.resolve("big.bin"), content);
+
+        var full = HttpRequest.newBuilder(base.resolve("big.bin"))
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https")
+                .GET().build();
+        var fullResp = client.send(full, HttpResponse.BodyHandlers.ofByteArray());
+        assertThat(fullResp.statusCode()).isEqualTo(OK_200);
+        assertThat(fullResp.body()).isEqualTo(content);
+
+        var range = HttpRequest.newBuilder(base.resolve("big.bin"))
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https")
+                .header("Range", "bytes=100000-")
+                .GET().build();
+        var rangeResp = client.send(range, HttpResponse.BodyHandlers.ofByteArray());
+        assertThat(rangeResp.statusCode()).isEqualTo(PARTIAL_CONTENT_206);
+        assertThat(rangeResp.body()).isEqualTo(Arrays.copyOfRange(content, 100000, content.length));
+    }
+
+    @Test
+    void collectionDownloadsAsZip() throws Exception {
+        Files.createDirectories(tempDir.resolve("docs/sub"));
+        Files.writeString(tempDir.resolve("docs/a.txt"), "alpha");
+        Files.writeString(tempDir.resolve("docs/sub/b.txt"), "beta");
+
+        var get = HttpRequest.newBuilder(base.resolve("docs/"))
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https")
+                .header("Accept", "application/zip")
+                .GET().build();
+        var resp = client.send(get, HttpResponse.BodyHandlers.ofInputStream());
+        assertThat(resp.statusCode()).isEqualTo(OK_200);
+        assertThat(resp.headers().firstValue("Content-Type")).get().asString().startsWith("application/zip");
+
+        var names = new java.util.ArrayList<String>();
+        try (var zip = new java.util.zip.ZipInputStream(resp.body())) {
+            for (var e = zip.getNextEntry(); e != null; e = zip.getNextEntry()) names.add(e.getName());
+        }
+        assertThat(names).containsExactlyInAnyOrder("a.txt", "sub/", "sub/b.txt");
+    }
+
+    @Test
+    void userRateLimitThrottlesAsyncDownload() throws Exception {
+        long rate = 1024 * 1024;
+        FileServConfig config = new FileServConfig(tempDir, true, true, 0, 0, null, null, null,
+                new SimpleAuthenticator("alice", "secret")).toBuilder()
+                .transferMode(TransferMode.ASYNC)
+                .rateLimits(0, rate, 0).build();
+        stop();
+        start(config);
+        Files.write(tempDir.resolve("big.bin"), new byte[(int) (2 * rate)]);
+
+        var get = HttpRequest.newBuilder(base.resolve("big.bin"))
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https")
+                .GET().build();
+        long start = System.nanoTime();
+        var resp = client.send(get, HttpResponse.BodyHandlers.ofByteArray());
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(resp.statusCode()).isEqualTo(OK_200);
+        assertThat(resp.body()).hasSize((int) (2 * rate));
+        // one second of burst, then one second at the limit
+        assertThat(millis).isGreaterThan(800);
+    }
+
+    @Test
+    void cleartextConnectorUpgradesToH2c() throws Exception {
+        stop();
+        start(new FileServConfig(tempDir, true, true, 0, 0, null, null, null,
+                new SimpleAuthenticator("alice", "secret")).toBuilder()
+                .http2(true, WebDavServer.DEFAULT_HTTP2_MAX_CONCURRENT_STREAMS, WebDavServer.DEFAULT_HTTP2_STREAM_WINDOW,
+                        WebDavServer.DEFAULT_HTTP2_SESSION_WINDOW).build());
+        Files.writeString(tempDir.resolve("h2c.txt"), "multiplexed");
+
+        var get = HttpRequest.newBuilder(base.resolve("h2c.txt"))
+                .version(HttpClient.Version.HTTP_2)
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https")
+                .GET().build();
+        client.send(get, HttpResponse.BodyHandlers.ofString());
+        // the first request upgrades the connection, later ones use HTTP/2 directly
+        var resp = client.send(get, HttpResponse.BodyHandlers.ofString());
+
+        assertThat(resp.statusCode()).isEqualTo(OK_200);
+        assertThat(resp.version()).isEqualTo(HttpClient.Version.HTTP_2);
+        assertThat(resp.body()).isEqualTo("multiplexed");
+    }
+
+    @Test
+    void virtualThreadsServeRequests() throws Exception {
+        stop();
+        start(new FileServConfig(tempDir, true, true, 0, 0, null, null, null,
+                new SimpleAuthenticator("alice", "secret")).toBuilder().threads(true, 16).build());
+        Files.writeString(tempDir.resolve("vt.txt"), "virtual");
+
+        var get = HttpRequest.newBuilder(base.resolve("vt.txt"))
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https")
+                .GET().build();
+        var resp = client.send(get, HttpResponse.BodyHandlers.ofString());
+
+        assertThat(resp.statusCode()).isEqualTo(OK_200);
+        assertThat(resp.body()).isEqualTo("virtual");
+        var pool = (org.eclipse.jetty.util.thread.QueuedThreadPool) server.getThreadPool();
+        assertThat(pool.getVirtualThreadsExecutor()).isNotNull();
+        assertThat(pool.getMaxThreads()).isEqualTo(16);
+    }
+
+    private HttpResponse<String> putPart(URI target, String contentRange, String body, String... headers) throws Exception {
+        var put = HttpRequest.newBuilder(target)
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https")
+                .header("Content-Range", contentRange);
+        for (int i = 0; i < headers.length; i += 2) put.header(headers[i], headers[i + 1]);
+        return client.send(put.PUT(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void resumableUploadInParts() throws Exception {
+        URI target = base.resolve("resumable.txt");
+
+        var first = putPart(target, "bytes 0-4/16", "resum");
+        assertThat(first.statusCode()).isEqualTo(202);
+        assertThat(first.headers().firstValue("Upload-Offset")).hasValue("5");
+
+        var head = client.send(HttpRequest.newBuilder(target)
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https")
+                .method("HEAD", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+        assertThat(head.statusCode()).isEqualTo(NO_CONTENT_204);
+        assertThat(head.headers().firstValue("Upload-Offset")).hasValue("5");
+
+        var gap = putPart(target, "bytes 10-15/16", "upload");
+        assertThat(gap.statusCode()).isEqualTo(CONFLICT_409);
+        assertThat(gap.headers().firstValue("Upload-Offset")).hasValue("5");
+
+        var last = putPart(target, "bytes 5-15/16", "able upload");
+        assertThat(last.statusCode()).isEqualTo(CREATED_201);
+        assertThat(Files.readString(tempDir.resolve("resumable.txt"))).isEqualTo("resumable upload");
+    }
+
+    @Test
+    void resumableUploadHonoursLocks() throws Exception {
+        URI target = base.resolve("locked-upload.txt");
+        var lockResp = client.send(HttpRequest.newBuilder(target)
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https")
+                .header("Timeout", "Second-300")
+                .method("LOCK", HttpRequest.BodyPublishers.ofString(
+                        "<D:lockinfo xmlns:D='DAV:'><D:lockscope><D:exclusive/></D:lockscope>"
+                                + "<D:locktype><D:write/></D:locktype></D:lockinfo>"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        String token = lockResp.headers().firstValue("Lock-Token").orElseThrow().trim();
+
+        assertThat(putPart(target, "bytes 0-1/4", "ab").statusCode()).isEqualTo(LOCKED_423);
+        assertThat(putPart(target, "bytes 0-1/4", "ab", "If", "(" + token + ")").statusCode()).isEqualTo(202);
+        assertThat(putPart(target, "bytes 2-3/4", "cd").statusCode()).isEqualTo(LOCKED_423);
+        assertThat(putPart(target, "bytes 2-3/4", "cd", "If", "(" + token + ")").statusCode()).isIn(CREATED_201, NO_CONTENT_204);
+        assertThat(Files.readString(tempDir.resolve("locked-upload.txt"))).isEqualTo("abcd");
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(base.resolve(path))
+                .header("Authorization", auth)
+                .header("X-Forwarded-Proto", "https");
+    }
+
+    @Test
+    void strongETagFollowsContent() throws Exception {
+        stop();
+        start(new FileServConfig(tempDir, true, true, 0, 0, null, null, null,
+                new SimpleAuthenticator("alice", "secret")).toBuilder().contentDigest(true).build());
+        client.send(request("v.txt").PUT(HttpRequest.BodyPublishers.ofString("same")).build(),
+                HttpResponse.BodyHandlers.discarding());
+        var first = client.send(request("v.txt").GET().build(), HttpResponse.BodyHandlers.ofString());
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+        assertThat(first.headers().firstValue("Repr-Digest")).hasValueSatisfying(d -> assertThat(d).startsWith("sha-256=:"));
+
+        var propfind = client.send(request("v.txt").header("Depth", "0")
+                .method("PROPFIND", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(propfind.body()).contains("<D:getetag>" + etag.replace("\"", "&quot;") + "</D:getetag>");
+
+        // same content, new upload: same tag
+        client.send(request("v.txt").PUT(HttpRequest.BodyPublishers.ofString("same")).build(),
+                HttpResponse.BodyHandlers.discarding());
+        var again = client.send(request("v.txt").header("If-None-Match", etag).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(again.statusCode()).isEqualTo(NOT_MODIFIED_304);
+
+        // a copy carries the digest
+        client.send(request("v.txt").header("Destination", base.resolve("copy.txt").toString())
+                .method("COPY", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+        var copy = client.send(request("copy.txt").method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertThat(copy.headers().firstValue("ETag")).hasValue(etag);
+
+        // same size within the same millisecond still changes the tag
+        client.send(request("v.txt").PUT(HttpRequest.BodyPublishers.ofString("diff")).build(),
+                HttpResponse.BodyHandlers.discarding());
+        var changed = client.send(request("v.txt").header("If-None-Match", etag).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(changed.statusCode()).isEqualTo(OK_200);
+        assertThat(changed.body()).isEqualTo("diff");
+    }
+
+    @Test
+    void dedupStoresIdenticalUploadsOnce() throws Exception {
+        stop();
+        start(new FileServConfig(tempDir, true, true, 0, 0, null, null, null,
+                new SimpleAuthenticator("alice", "secret")).toBuilder().contentDigest(true).dedup(true).build());
+        String installer = "installer ".repeat(1000);
+
+        for (String dir : new String[]{"team", "team/a", "team/b", "other"}) {
+            client.send(request(dir).method("MKCOL", HttpRequest.BodyPublishers.noBody()).build(),
+                    HttpResponse.BodyHandlers.discarding());
+        }
+        for (String path : new String[]{"team/a/setup.exe", "team/b/setup.exe"}) {
+            var put = client.send(request(path).PUT(HttpRequest.BodyPublishers.ofString(installer)).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            assertThat(put.statusCode()).isEqualTo(CREATED_201);
+        }
+        for (String copy : new String[]{"team/archive.exe", "other/setup.exe"}) {
+            client.send(request("team/a/setup.exe").header("Destination", base.resolve(copy).toString())
+                    .method("COPY", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+        }
+
+        Path a = tempDir.resolve("team/a/setup.exe");
+        assertThat(Files.isSameFile(a, tempDir.resolve("team/b/setup.exe"))).isTrue();
+        assertThat(Files.isSameFile(a, tempDir.resolve("team/archive.exe"))).isTrue();
+        // another home gets a copy of its own
+        assertThat(Files.isSameFile(a, tempDir.resolve("other/setup.exe"))).isFalse();
+        var get = client.send(request("other/setup.exe").GET().build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(get.body()).isEqualTo(installer);
+        client.send(request("team/b/setup.exe").header("Destination", base.resolve("other/moved.exe").toString())
+                .method("MOVE", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+        assertThat(Files.isSameFile(a, tempDir.resolve("other/moved.exe"))).isFalse();
+        assertThat(Files.readString(tempDir.resolve("other/moved.exe"))).isEqualTo(installer);
+
+        for (String path : new String[]{"team/a/setup.exe", "other/moved.exe", "team/archive.exe", "other/setup.exe"}) {
+            client.send(request(path).DELETE().build(), HttpResponse.BodyHandlers.discarding());
+        }
+        try (var blobs = Files.walk(tempDir.resolve(".blobs.fileserv-tmp"))) {
+            assertThat(blobs.filter(Files::isRegularFile)).isEmpty();
+        }
+    }
+
+    @Test
+    void bulkUploadChecksLocksPerEntry() throws Exception {
+        client.send(request("bulk").method("MKCOL", HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.discarding());
+        Files.writeString(tempDir.resolve("bulk/locked.txt"), "mine");
+        var lock = client.send(request("bulk/locked.txt").header("Timeout", "Second-300")
+                .method("LOCK", HttpRequest.BodyPublishers.ofString(
+                        "<D:lockinfo xmlns:D='DAV:'><D:lockscope><D:exclusive/></D:lockscope>"
+                                + "<D:locktype><D:write/></D:locktype></D:lockinfo>"))
+                .build(), HttpResponse.BodyHandlers.discarding());
+        assertThat(lock.statusCode()).isEqualTo(OK_200);
+
+        var bytes = new java.io.ByteArrayOutputStream();
+        try (var zip = new java.util.zip.ZipOutputStream(bytes)) {
+            for (String name : new String[]{"locked.txt", "free/a.txt", "free/b.txt"}) {
+                zip.putNextEntry(new java.util.zip.ZipEntry(name));
+                zip.write(("new " + name).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        var resp = client.send(request("bulk/").header("Content-Type", "application/zip")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(bytes.toByteArray())).build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertThat(resp.statusCode()).isEqualTo(MULTI_STATUS_207);
+        assertThat(resp.body()).contains("<D:href>/bulk/locked.txt</D:href><D:status>HTTP/1.1 423 Locked</D:status>")
+                .contains("<D:href>/bulk/free/a.txt</D:href><D:status>HTTP/1.1 201 Created</D:status>");
+        assertThat(Files.readString(tempDir.resolve("bulk/locked.txt"))).isEqualTo("mine");
+        assertThat(Files.readString(tempDir.resolve("bulk/free/b.txt"))).isEqualTo("new free/b.txt");
+    }
+
+    @Test
+    void quotaLimitsWritesIntoCollection() throws Exception {
+        stop();
+        start(new FileServConfig(tempDir, true, true, 0, 0, null, null, null,
+                new SimpleAuthenticator("alice", "secret")).toBuilder().quotas(Map.of("/projects", 100L), 0, 0).build());
+        client.send(request("projects").method("MKCOL", HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        var put = client.send(request("projects/a.bin").PUT(HttpRequest.BodyPublishers.ofString("a".repeat(60))).build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertThat(put.statusCode()).isEqualTo(CREATED_201);
+        var full = client.send(request("projects/b.bin").PUT(HttpRequest.BodyPublishers.ofString("b".repeat(50))).build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertThat(full.statusCode()).isEqualTo(INSUFFICIENT_STORAGE_507);
+        var copy = client.send(request("projects/a.bin").header("Destination", base.resolve("projects/c.bin").toString())
+                .method("COPY", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+        assertThat(copy.statusCode()).isEqualTo(INSUFFICIENT_STORAGE_507);
+
+        var propfind = client.send(request("projects").header("Depth", "0")
+                .method("PROPFIND", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(propfind.body()).contains("<D:quota-used-bytes>60</D:quota-used-bytes>")
+                .contains("<D:quota-available-bytes>40</D:quota-available-bytes>");
+
+        var move = client.send(request("projects/a.bin").header("Destination", base.resolve("a.bin").toString())
+                .method("MOVE", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+        assertThat(move.statusCode()).isEqualTo(CREATED_201);
+        put = client.send(request("projects/b.bin").PUT(HttpRequest.BodyPublishers.ofString("b".repeat(50))).build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertThat(put.statusCode()).isEqualTo(CREATED_201);
+        client.send(request("projects/b.bin").DELETE().build(), HttpResponse.BodyHandlers.discarding());
+
+        propfind = client.send(request("projects").header("Depth", "0")
+                .method("PROPFIND", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(propfind.body()).contains("<D:quota-used-bytes>0</D:quota-used-bytes>");
+    }
+
+    @Test
+    void writeBehindReadsOwnWrites() throws Exception {
+        stop();
+        start(new FileServConfig(tempDir, true, true, 0, 0, null, null, null,
+                new SimpleAuthenticator("alice", "secret")).toBuilder().writeBehind(true, 1024).build());
+
+        for (int i = 0; i < 20; i++) {
+            var put = client.send(request("artifacts/build-" + i + ".log").PUT(HttpRequest.BodyPublishers.ofString("log " + i)).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            assertThat(put.statusCode()).isEqualTo(CREATED_201);
+            var get = client.send(request("artifacts/build-" + i + ".log").GET().build(), HttpResponse.BodyHandlers.ofString());
+            assertThat(get.body()).isEqualTo("log " + i);
+        }
+        var replace = client.send(request("artifacts/build-0.log").PUT(HttpRequest.BodyPublishers.ofString("again")).build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertThat(replace.statusCode()).isEqualTo(NO_CONTENT_204);
+
+        var propfind = client.send(request("artifacts").header("Depth", "1")
+                .method("PROPFIND", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(propfind.body()).contains("build-19.log").doesNotContain("journal");
+        assertThat(client.send(request("artifacts/build-0.log").GET().build(), HttpResponse.BodyHandlers.ofString()).body())
+                .isEqualTo("again");
+
+        stop();
+        assertThat(Files.readString(tempDir.resolve("artifacts/build-7.log"))).isEqualTo("log 7");
+        try (var journal = Files.list(tempDir.resolve(".journal.fileserv-tmp"))) {
+            assertThat(journal).isEmpty();
+        }
+    }
+
+    @Test
+    void uploadPipelineWritesKnownAndChunkedBodies() throws Exception {
+        stop();
+        start(new FileServConfig(tempDir, true, true, 0, 0, null, null, null,
+                new SimpleAuthenticator("alice", "secret")).toBuilder().uploadPipeline(true, 8).build());
+        byte[] data = new byte[3 * 1024 * 1024 + 17];
+        new Random(7).nextBytes(data);
+
+        var put = client.send(request("big.bin").PUT(HttpRequest.BodyPublishers.ofByteArray(data)).build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertThat(put.statusCode()).isEqualTo(CREATED_201);
+        // no Content-Length: sent chunked
+        var chunked = client.send(request("chunked.bin").version(HttpClient.Version.HTTP_1_1)
+                        .PUT(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(data))).build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertThat(chunked.statusCode()).isEqualTo(CREATED_201);
+
+        assertThat(client.send(request("big.bin").GET().build(), HttpResponse.BodyHandlers.ofByteArray()).body())
+                .isEqualTo(data);
+        assertThat(Files.readAllBytes(tempDir.resolve("chunked.bin"))).isEqualTo(data);
+    }
 }
@@ -0,0 +1,106 @@
+package de.sty.fileserv;
+
+import de.sty.fileserv.core.FileServConfig;
+import de.sty.fileserv.core.FsyncPolicy;
+import de.sty.fileserv.core.SimpleAuthenticator;
+import de.sty.fileserv.core.WebDavServer;
+import de.sty.fileserv.core.WriteBehind;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.sty.fileserv.core.WebDavConstants.AUTH_PREFIX_BASIC;
+
+/**
+ * A CI-style storm of small PUTs from concurrent clients, written directly and written behind.
+ * Reports acknowledged files per second and files per second until all are published (the server
+ * stop drains the write-behind queue). Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class WriteBehindBenchmarkTest {
+
+    private static final int FILES = 2000;
+    private static final int FILE_SIZE = 2048;
+    private static final int CLIENTS = 16;
+
+    @TempDir
+    Path tempDir;
+
+    private final String auth = AUTH_PREFIX_BASIC
+            + Base64.getEncoder().encodeToString("alice:secret".getBytes(StandardCharsets.UTF_8));
+
+    @Test
+    void compareDirectAndWriteBehind() throws Exception {
+        byte[] body = new byte[FILE_SIZE];
+        new Random(1).nextBytes(body);
+        int round = 0;
+        for (FsyncPolicy policy : new FsyncPolicy[] {FsyncPolicy.FILE, FsyncPolicy.NONE}) {
+            for (boolean writeBehind : new boolean[] {false, true}) {
+                Path data = Files.createDirectories(tempDir.resolve("data" + round++));
+                measure(data, policy, writeBehind, body);
+            }
+        }
+    }
+
+    private void measure(Path data, FsyncPolicy policy, boolean writeBehind, byte[] body) throws Exception {
+        Server server = WebDavServer.build(new FileServConfig(data, true, true, -1, -1, null, null, null,
+                new SimpleAuthenticator("alice", "secret")).toBuilder().fsyncPolicy(policy)
+                .writeBehind(writeBehind, WriteBehind.DEFAULT_MAX_FILE_SIZE).build());
+        var connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.start();
+        String base = "http://localhost:" + connector.getLocalPort() + "/artifacts/";
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        long start = System.nanoTime();
+        double acked;
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c++) {
+                futures.add(clients.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < FILES; i = next.getAndIncrement()) {
+                        HttpRequest put = HttpRequest.newBuilder(URI.create(base + "job-" + (i % 20) + "/file-" + i + ".bin"))
+                                .header("Authorization", auth)
+                                .header("X-Forwarded-Proto", "https")
+                                .PUT(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+                        HttpResponse<Void> resp = client.send(put, HttpResponse.BodyHandlers.discarding());
+                        if (resp.statusCode() != 201) throw new IllegalStateException("PUT failed: " + resp.statusCode());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+            acked = (System.nanoTime() - start) / 1e9;
+        } finally {
+            clients.shutdown();
+            server.stop();
+        }
+        double published = (System.nanoTime() - start) / 1e9;
+        try (var files = Files.list(data.resolve("artifacts/job-0"))) {
+            if (files.count() != FILES / 20) throw new IllegalStateException("Files missing after drain");
+        }
+        System.out.printf("fsync=%-4s %-12s %d x %d B PUT, %d clients: %7.0f files/s acknowledged, %7.0f files/s published%n",
+                policy, writeBehind ? "write-behind" : "direct", FILES, FILE_SIZE, CLIENTS,
+                FILES / acked, FILES / published);
+    }
+}
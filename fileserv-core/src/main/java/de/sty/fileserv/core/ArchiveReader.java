@@ -0,0 +1,314 @@
+package de.sty.fileserv.core;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the entries of a ZIP or tar archive from a stream, one after the other, without buffering
+ * the archive. Used to extract bulk uploads while they arrive.
+ * <p>
+ * Tar archives may be in ustar, GNU (long names) or pax format; only names and sizes of the
+ * extended headers are used. Links and device entries are reported as {@link Entry#isOther()
+ * other} and not extracted.
+ */
+public abstract sealed class ArchiveReader implements AutoCloseable {
+
+    /** Archive formats, by request {@code Content-Type}. */
+    public enum Format {
+        ZIP, TAR, TAR_GZIP;
+
+        /**
+         * Returns the format of a body of {@code contentType}, or {@code null} if it is not an archive.
+         */
+        public static Format of(String contentType) {
+            if (contentType == null) return null;
+            int semicolon = contentType.indexOf(';');
+            String type = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+            return switch (type) {
+                case "application/zip", "application/x-zip-compressed" -> ZIP;
+                case "application/x-tar", "application/tar" -> TAR;
+                case "application/gzip", "application/x-gzip", "application/x-gtar", "application/x-compressed-tar" -> TAR_GZIP;
+                default -> null;
+            };
+        }
+    }
+
+    /**
+     * An archive entry.
+     *
+     * @param name the path inside the archive, {@code /} separated
+     * @param type {@code '0'} for files, {@code '5'} for directories, anything else for other entries
+     * @param size the content length, or {@code -1} if unknown
+     */
+    public record Entry(String name, char type, long size) {
+
+        public boolean isFile() {
+            return type == '0';
+        }
+
+        public boolean isDirectory() {
+            return type == '5';
+        }
+
+        public boolean isOther() {
+            return !isFile() && !isDirectory();
+        }
+    }
+
+    /** The archive data is not in the expected format. */
+    public static final class MalformedArchiveException extends IOException {
+        MalformedArchiveException(String message) {
+            super(message);
+        }
+
+        MalformedArchiveException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Opens a reader for {@code in}. Closing the reader does not close {@code in}.
+     */
+    public static ArchiveReader open(Format format, InputStream in) throws IOException {
+        return switch (format) {
+            case ZIP -> new Zip(in);
+            case TAR -> new Tar(in);
+            case TAR_GZIP -> new Tar(new GZIPInputStream(in, FileSender.CHUNK_SIZE));
+        };
+    }
+
+    /**
+     * Advances to the next entry, skipping what is left of the current one.
+     *
+     * @return the entry, or {@code null} at the end of the archive
+     */
+    public abstract Entry next() throws IOException;
+
+    /**
+     * Returns the content of the current entry. The stream ends with the entry; closing it is not
+     * required and does not close the archive.
+     */
+    public abstract InputStream content();
+
+    @Override
+    public void close() {
+    }
+
+    /** Keeps an entry stream from closing the archive stream. */
+    private static class Unclosable extends FilterInputStream {
+        Unclosable(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class Zip extends ArchiveReader {
+
+        private final ZipInputStream zip;
+
+        Zip(InputStream in) {
+            zip = new ZipInputStream(new Unclosable(in), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Entry next() throws IOException {
+            try {
+                ZipEntry e = zip.getNextEntry();
+                if (e == null) return null;
+                return new Entry(e.getName(), e.isDirectory() ? '5' : '0', e.getSize());
+            } catch (ZipException e) {
+                throw new MalformedArchiveException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public InputStream content() {
+            return new Unclosable(zip) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    try {
+                        return super.read(b, off, len);
+                    } catch (ZipException e) {
+                        throw new MalformedArchiveException(e.getMessage(), e);
+                    }
+                }
+            };
+        }
+    }
+
+    private static final class Tar extends ArchiveReader {
+
+        private static final int BLOCK = 512;
+
+        private final InputStream in;
+        private final byte[] header = new byte[BLOCK];
+        /** Content bytes of the current entry not read yet. */
+        private long remaining;
+        /** Padding after the current entry's content. */
+        private long padding;
+
+        Tar(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public Entry next() throws IOException {
+            skip(remaining + padding);
+            remaining = padding = 0;
+            String longName = null;
+            long paxSize = -1;
+            while (true) {
+                if (!readBlock()) return null;
+                if (isZero(header)) return null;
+                verifyChecksum();
+                char type = (char) header[156];
+                long size = parseNumber(124, 12);
+                if (type == 'L' || type == 'x') {
+                    byte[] data = readData(size);
+                    if (type == 'L') {
+                        longName = cString(data, 0, data.length);
+                    } else {
+                        String path = paxValue(data, "path");
+                        if (path != null) longName = path;
+                        String s = paxValue(data, "size");
+                        if (s != null) paxSize = parsePaxSize(s);
+                    }
+                    continue;
+                }
+                if (type == 'g') {
+                    readData(size);
+                    continue;
+                }
+                String name = longName != null ? longName : name();
+                if (paxSize >= 0) size = paxSize;
+                if (type == '\0' || type == '7') type = '0';
+                if (type == '0' && name.endsWith("/")) type = '5';
+                if (type == '0') {
+                    remaining = size;
+                    padding = pad(size);
+                    return new Entry(name, type, size);
+                }
+                // links carry their target in the header; directories and devices have no content
+                long data = type == '1' || type == '2' ? 0 : size;
+                skip(data + pad(data));
+                return new Entry(name, type, type == '5' ? 0 : -1);
+            }
+        }
+
+        @Override
+        public InputStream content() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (remaining <= 0) return -1;
+                    int n = in.read(b, off, (int) Math.min(len, remaining));
+                    if (n < 0) throw new EOFException("Archive ended inside an entry");
+                    remaining -= n;
+                    return n;
+                }
+            };
+        }
+
+        private String name() {
+            String name = cString(header, 0, 100);
+            boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't'
+                    && header[260] == 'a' && header[261] == 'r';
+            String prefix = ustar ? cString(header, 345, 155) : "";
+            return prefix.isEmpty() ? name : prefix + "/" + name;
+        }
+
+        private boolean readBlock() throws IOException {
+            int n = in.readNBytes(header, 0, BLOCK);
+            if (n == 0) return false;
+            if (n < BLOCK) throw new MalformedArchiveException("Truncated tar header");
+            return true;
+        }
+
+        private byte[] readData(long size) throws IOException {
+            if (size < 0 || size > 1024 * 1024) throw new MalformedArchiveException("Extended header too large");
+            byte[] data = in.readNBytes((int) size);
+            if (data.length < size) throw new EOFException("Archive ended inside an extended header");
+            skip(pad(size));
+            return data;
+        }
+
+        private void skip(long n) throws IOException {
+            if (n > 0) in.skipNBytes(n);
+        }
+
+        private static long pad(long size) {
+            return (BLOCK - size % BLOCK) % BLOCK;
+        }
+
+        private void verifyChecksum() throws IOException {
+            long expected = parseNumber(148, 8);
+            long sum = 0;
+            for (int i = 0; i < BLOCK; i++) sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+            if (sum != expected) throw new MalformedArchiveException("Not a tar archive (bad header checksum)");
+        }
+
+        /** Octal, or base-256 if the high bit of the first byte is set (GNU). */
+        private long parseNumber(int off, int len) throws IOException {
+            if ((header[off] & 0x80) != 0) {
+                long v = header[off] & 0x7f;
+                for (int i = 1; i < len; i++) v = (v << 8) | (header[off + i] & 0xff);
+                return v;
+            }
+            String s = cString(header, off, len).trim();
+            if (s.isEmpty()) return 0;
+            try {
+                return Long.parseLong(s, 8);
+            } catch (NumberFormatException e) {
+                throw new MalformedArchiveException("Not a tar archive (bad number '" + s + "')");
+            }
+        }
+
+        private static long parsePaxSize(String s) throws IOException {
+            try {
+                return Long.parseLong(s.trim());
+            } catch (NumberFormatException e) {
+                throw new MalformedArchiveException("Bad pax size '" + s + "'");
+            }
+        }
+
+        private static String cString(byte[] b, int off, int len) {
+            int end = off;
+            while (end < off + len && b[end] != 0) end++;
+            return new String(b, off, end - off, StandardCharsets.UTF_8);
+        }
+
+        private static boolean isZero(byte[] b) {
+            for (byte x : b) if (x != 0) return false;
+            return true;
+        }
+
+        /** Looks up {@code key} in pax records ({@code "<length> <key>=<value>\n"}). */
+        private static String paxValue(byte[] data, String key) {
+            String records = new String(data, StandardCharsets.UTF_8);
+            for (String line : records.split("\n")) {
+                int space = line.indexOf(' ');
+                int eq = line.indexOf('=', space + 1);
+                if (space < 0 || eq < 0) continue;
+                if (line.substring(space + 1, eq).equals(key)) return line.substring(eq + 1);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package de.sty.fileserv.core;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import org.eclipse.jetty.ee10.servlet.HttpOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends a byte range of a file on an asynchronous response without holding a thread while the
+ * client is slow: file reads complete on an {@link AsynchronousFileChannel}, and writing resumes in
+ * {@link #onWritePossible()} once the socket drains.
+ * <p>
+ * At most one file read or one response write is outstanding at a time, so the state is only ever
+ * touched by one thread at a time.
+ */
+public final class AsyncFileSender implements WriteListener, CompletionHandler<Integer, Void> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncFileSender.class);
+
+    private final AsyncContext async;
+    private final ServletOutputStream out;
+    private final AsynchronousFileChannel ch;
+    private final ByteBuffer buf;
+    private final RateLimiter.Throttle throttle;
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    private long position;
+    private long remaining;
+    private boolean filled;
+
+    private AsyncFileSender(AsyncContext async, ServletOutputStream out, AsynchronousFileChannel ch,
+                            long offset, long length, RateLimiter.Throttle throttle) {
+        this.async = async;
+        this.out = out;
+        this.ch = ch;
+        this.buf = ByteBuffer.allocateDirect((int) Math.min(FileSender.CHUNK_SIZE, Math.max(1, length)));
+        this.position = offset;
+        this.remaining = length;
+        this.throttle = throttle;
+    }
+
+    /**
+     * Sends {@code length} bytes of {@code ch} starting at {@code offset} and completes
+     * {@code async} when done. Takes ownership of {@code ch}.
+     *
+     * @param throttle rate limits to honour, or {@code null}; waits are scheduled, not slept
+     */
+    public static void start(AsyncContext async, AsynchronousFileChannel ch, long offset, long length,
+                             RateLimiter.Throttle throttle) throws IOException {
+        ServletOutputStream out = async.getResponse().getOutputStream();
+        out.setWriteListener(new AsyncFileSender(async, out, ch, offset, length, throttle));
+    }
+
+    @Override
+    public void onWritePossible() {
+        pump();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        finish(t);
+    }
+
+    @Override
+    public void completed(Integer n, Void attachment) {
+        if (n < 0) {
+            finish(new EOFException("File shrank while sending, " + remaining + " bytes missing"));
+            return;
+        }
+        position += n;
+        remaining -= n;
+        buf.flip();
+        filled = true;
+        pump();
+    }
+
+    @Override
+    public void failed(Throwable t, Void attachment) {
+        finish(t);
+    }
+
+    /**
+     * Writes while the response is ready; returns when the socket is congested (the container calls
+     * {@link #onWritePossible()} later) or a file read is in flight or delayed by the rate limit
+     * ({@link #completed} continues).
+     */
+    private void pump() {
+        try {
+            while (out.isReady()) {
+                if (filled) {
+                    filled = false;
+                    write();
+                } else if (remaining == 0) {
+                    finish(null);
+                    return;
+                } else {
+                    buf.clear().limit((int) Math.min(buf.capacity(), remaining));
+                    long wait = throttle == null ? 0 : throttle.reserve(buf.remaining());
+                    if (wait > 0) RateLimiter.schedule(this::read, wait);
+                    else read();
+                    return;
+                }
+            }
+        } catch (Throwable t) {
+            finish(t);
+        }
+    }
+
+    private void read() {
+        try {
+            ch.read(buf, position, null, this);
+        } catch (Throwable t) {
+            finish(t);
+        }
+    }
+
+    private void write() throws IOException {
+        if (out instanceof HttpOutput jetty) {
+            jetty.write(buf);
+        } else {
+            byte[] bytes = new byte[buf.remaining()];
+            buf.get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    private void finish(Throwable failure) {
+        if (!finished.compareAndSet(false, true)) return;
+        try {
+            ch.close();
+        } catch (IOException e) {
+            LOG.debug("Cannot close file channel", e);
+        }
+        if (failure != null) LOG.debug("Async GET aborted: {}", failure.toString());
+        async.complete();
+    }
+}
@@ -0,0 +1,262 @@
+package de.sty.fileserv.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes files so that readers never see partial content: data goes to a hidden temp file in the
+ * target's directory, which then replaces the target with an atomic rename. Readers that opened
+ * the old version keep reading it; a crash leaves either the old or the new version, depending on
+ * the {@link FsyncPolicy}, plus possibly a stray temp file.
+ * <p>
+ * Temp files are named {@code .<name>.<random>.fileserv-tmp} and are left out of listings
+ * ({@link #isTemp(Path)}).
+ * <p>
+ * Large writes of known length are written in {@link #LARGE_BUFFER_SIZE} steps through a direct
+ * buffer, which saves write calls and copies into the kernel.
+ * <p>
+ * Given {@link ContentDigests}, the content is hashed while it is copied, without a second pass,
+ * and the digest is recorded on the temp file before the rename. Given a {@link BlobStore} as well,
+ * content that is already stored is linked to instead of kept twice.
+ * <p>
+ * Given an {@link UploadPipeline}, bodies larger than one of its buffers are read and written in
+ * two stages, so reading the next part overlaps with writing the previous one.
+ */
+public final class AtomicWrite {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AtomicWrite.class);
+
+    static final String TEMP_SUFFIX = ".fileserv-tmp";
+
+    /**
+     * Characters of the target name kept in a temp name; at three UTF-8 bytes each plus the
+     * random part this stays within the usual 255-byte name limit.
+     */
+    static final int TEMP_PREFIX_LENGTH = 48;
+
+    /** Writes of known length from this size on take the large-buffer path. */
+    static final long LARGE_WRITE_THRESHOLD = 1024 * 1024;
+
+    /** Bytes collected before each write call on the large-buffer path. */
+    static final int LARGE_BUFFER_SIZE = 1024 * 1024;
+
+    private AtomicWrite() {}
+
+    /**
+     * How {@link #write(InputStream, Path, Options)} writes a file. Start from {@link #of} and add
+     * what applies.
+     *
+     * @param policy   how durable the write is before it returns
+     * @param length   the number of bytes the stream will deliver, e.g. from {@code Content-Length},
+     *                 or {@code -1} if unknown; a stream ending early fails the write
+     * @param digests  where to record the content digest; {@code null} skips hashing
+     * @param blobs    the deduplicating store; {@code null}, or without {@code digests}, keeps every copy
+     * @param pipeline the pipeline to copy bodies of unknown length or larger than one of its buffers
+     *                 through; {@code null} copies on the calling thread
+     */
+    public record Options(FsyncPolicy policy, long length, ContentDigests digests, BlobStore blobs,
+                          UploadPipeline pipeline) {
+
+        public static Options of(FsyncPolicy policy) {
+            return new Options(policy, -1, null, null, null);
+        }
+
+        public Options withLength(long length) {
+            return new Options(policy, length, digests, blobs, pipeline);
+        }
+
+        public Options withDigests(ContentDigests digests) {
+            return new Options(policy, length, digests, blobs, pipeline);
+        }
+
+        public Options withBlobs(BlobStore blobs) {
+            return new Options(policy, length, digests, blobs, pipeline);
+        }
+
+        public Options withPipeline(UploadPipeline pipeline) {
+            return new Options(policy, length, digests, blobs, pipeline);
+        }
+    }
+
+    /**
+     * Streams {@code in} to {@code target}, replacing it atomically.
+     *
+     * @return the number of bytes written
+     */
+    public static long write(InputStream in, Path target, FsyncPolicy policy) throws IOException {
+        return write(in, target, Options.of(policy));
+    }
+
+    /**
+     * Streams {@code in} to {@code target}, replacing it atomically. With {@link Options#digests}
+     * the digest of the content is recorded as it streams by, before the new version becomes
+     * visible; with {@link Options#blobs} as well, the content is shared with an identical file
+     * instead of kept twice.
+     *
+     * @return the number of bytes written
+     */
+    public static long write(InputStream in, Path target, Options options) throws IOException {
+        long length = options.length();
+        FsyncPolicy policy = options.policy();
+        ContentDigests digests = options.digests();
+        BlobStore blobs = options.blobs();
+        UploadPipeline pipeline = options.pipeline();
+        MessageDigest md = digests == null ? null : ContentDigests.newDigest();
+        if (md != null) in = new DigestInputStream(in, md);
+        Path temp = createTemp(target);
+        try {
+            long size;
+            byte[] digest = null;
+            try (FileChannel ch = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                if (pipeline != null && (length < 0 || length > pipeline.bufferSize())) {
+                    size = pipeline.copy(in, ch);
+                } else if (length >= LARGE_WRITE_THRESHOLD) {
+                    size = copyDirect(in, ch);
+                } else {
+                    size = copy(in, ch);
+                }
+                if (length >= 0 && size != length) {
+                    throw new EOFException("Upload ended after " + size + " of " + length + " bytes");
+                }
+                if (md != null) {
+                    digest = md.digest();
+                    digests.store(temp, target, digest);
+                }
+                Path shared = digest != null && blobs != null ? blobs.intern(temp, target, digest, size) : temp;
+                if (shared != temp) {
+                    // the existing blob is already on disk
+                    temp = shared;
+                    digests.store(temp, target, digest);
+                } else if (policy != FsyncPolicy.NONE) {
+                    ch.force(true);
+                }
+            }
+            commit(temp, target, policy);
+            if (digest != null) digests.stamp(target);
+            return size;
+        } catch (IOException | RuntimeException e) {
+            discard(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Creates an empty temp file next to {@code target}.
+     */
+    public static Path createTemp(Path target) throws IOException {
+        return Files.createFile(tempPath(target));
+    }
+
+    /**
+     * Returns a fresh temp file name next to {@code target}, without creating the file. Long
+     * target names are cut to {@link #TEMP_PREFIX_LENGTH} characters; the random part keeps the
+     * name unique.
+     */
+    static Path tempPath(Path target) {
+        String prefix = target.getFileName().toString();
+        if (prefix.length() > TEMP_PREFIX_LENGTH) {
+            int end = TEMP_PREFIX_LENGTH;
+            if (Character.isHighSurrogate(prefix.charAt(end - 1))) end--;
+            prefix = prefix.substring(0, end);
+        }
+        String name = "." + prefix + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + TEMP_SUFFIX;
+        return target.resolveSibling(name);
+    }
+
+    /**
+     * Replaces {@code target} with the fully written {@code temp}. The caller has already forced
+     * {@code temp} if {@code policy} asks for it; the directory is forced here.
+     */
+    public static void commit(Path temp, Path target, FsyncPolicy policy) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            LOG.debug("Atomic rename not supported for {}, replacing non-atomically", target);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (policy == FsyncPolicy.FILE_AND_DIRECTORY) syncDirectory(target.getParent());
+    }
+
+    /**
+     * Deletes an abandoned temp file, if it still exists.
+     */
+    public static void discard(Path temp) {
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            LOG.warn("Cannot delete temp file {}: {}", temp, e.toString());
+        }
+    }
+
+    /**
+     * Whether {@code p} is a temp file of a write in progress (or of one interrupted by a crash).
+     */
+    public static boolean isTemp(Path p) {
+        Path name = p.getFileName();
+        if (name == null) return false;
+        String s = name.toString();
+        return s.startsWith(".") && s.endsWith(TEMP_SUFFIX);
+    }
+
+    /**
+     * Forces a directory, making renames and new entries in it durable. Not every platform can open
+     * a directory; there the rename is left to the file system.
+     */
+    static void syncDirectory(Path dir) throws IOException {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (IOException e) {
+            LOG.debug("Cannot force directory {}: {}", dir, e.toString());
+        }
+    }
+
+    private static long copy(InputStream in, FileChannel ch) throws IOException {
+        byte[] buf = new byte[FileSender.CHUNK_SIZE];
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        long size = 0;
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            bb.clear().limit(n);
+            while (bb.hasRemaining()) ch.write(bb);
+            size += n;
+        }
+        return size;
+    }
+
+    private static long copyDirect(InputStream in, FileChannel ch) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(LARGE_BUFFER_SIZE);
+        byte[] chunk = new byte[FileSender.CHUNK_SIZE];
+        long size = 0;
+        int n;
+        while ((n = in.read(chunk, 0, Math.min(chunk.length, buf.remaining()))) > 0) {
+            buf.put(chunk, 0, n);
+            size += n;
+            if (!buf.hasRemaining()) drain(buf, ch);
+        }
+        drain(buf, ch);
+        return size;
+    }
+
+    private static void drain(ByteBuffer buf, FileChannel ch) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+}
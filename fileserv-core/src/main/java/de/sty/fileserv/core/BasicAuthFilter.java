@@ -11,6 +11,10 @@ import java.util.Base64;
 import static de.sty.fileserv.core.WebDavConstants.*;
 
 public final class BasicAuthFilter implements Filter {
+
+    /** Request attribute holding the name of the authenticated user. */
+    public static final String USER_ATTRIBUTE = BasicAuthFilter.class.getName() + ".user";
+
     private final Authenticator authenticator;
     private final boolean behindProxy;
     private final boolean allowHttp;
@@ -55,6 +59,7 @@ public final class BasicAuthFilter implements Filter {
             return;
         }
 
+        req.setAttribute(USER_ATTRIBUTE, u);
         chain.doFilter(request, response);
     }
 
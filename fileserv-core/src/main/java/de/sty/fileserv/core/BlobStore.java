@@ -0,0 +1,282 @@
+package de.sty.fileserv.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressable storage that keeps one copy of identical files. Every blob is a hard link
+ * named by the {@link ContentDigests content digest} in the hidden directory {@value #DIRECTORY}
+ * below the data directory; the files that hold the same content are further hard links to it.
+ * The link count of a blob is its reference count: a blob linked only from its own directory is
+ * unused and deleted.
+ * <p>
+ * Writes never modify a file in place ({@link AtomicWrite} replaces it), so files sharing a blob
+ * cannot affect each other through the server. They do share the inode, and with it the
+ * modification time, permissions and owner. Blobs are therefore only shared within one home, i.e.
+ * top-level collection (files directly in the data directory form one more scope): a file never
+ * shares metadata with another user's files. An upload that shares a blob sets its modification
+ * time to the present, so {@code Last-Modified} only ever moves forward and a conditional GET
+ * cannot take a newly written file for one the client already has; a copy is linked without
+ * touching its source. Needs a file system with hard links and the {@code unix} attribute view,
+ * and digests in extended attributes, which are shared the same way.
+ */
+public final class BlobStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlobStore.class);
+
+    /** Blob directory below the data directory; hidden like all {@link AtomicWrite#isTemp temp files}. */
+    public static final String DIRECTORY = ".blobs" + AtomicWrite.TEMP_SUFFIX;
+
+    /** Blobs of the files in a top-level collection, in a directory named like it below this one. */
+    private static final String HOMES = "homes";
+
+    /** Blobs of the files directly in the data directory. */
+    private static final String ROOT = "root";
+
+    /**
+     * Space taken by the blobs and by the files referring to them.
+     *
+     * @param blobs           number of blobs
+     * @param storedBytes     bytes the blobs take on disk
+     * @param referencedBytes bytes of all files referring to a blob, as if each were a copy
+     */
+    public record Stats(long blobs, long storedBytes, long referencedBytes) {
+
+        /** Bytes not stored thanks to deduplication. */
+        public long savedBytes() {
+            return Math.max(0, referencedBytes - storedBytes);
+        }
+
+        /** Referenced to stored bytes, {@code 1.0} without any duplicates. */
+        public double ratio() {
+            return storedBytes == 0 ? 1.0 : (double) referencedBytes / storedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d blobs, %d bytes stored for %d bytes referenced (ratio %.2f, %d bytes saved)",
+                    blobs, storedBytes, referencedBytes, ratio(), savedBytes());
+        }
+    }
+
+    private final Path dataDir;
+    private final Path dir;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong hitBytes = new AtomicLong();
+
+    public BlobStore(Path dataDir) {
+        this.dataDir = dataDir;
+        this.dir = dataDir.resolve(DIRECTORY);
+    }
+
+    /**
+     * Whether the file store of {@code dataDir} supports link counts.
+     */
+    public static boolean isSupported(Path dataDir) {
+        try {
+            return Files.getFileStore(dataDir).supportsFileAttributeView("unix");
+        } catch (IOException e) {
+            LOG.debug("Cannot determine file store of {}: {}", dataDir, e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Stores the fully written {@code temp} with content {@code digest}. If a blob with that content
+     * exists, {@code temp} is replaced with a link to it; otherwise {@code temp} becomes the blob.
+     *
+     * @return the file to publish: {@code temp} or a new temp link to the existing blob
+     */
+    public Path intern(Path temp, Path target, byte[] digest, long size) throws IOException {
+        Path blob = blob(target, digest);
+        Files.createDirectories(blob.getParent());
+        try {
+            Files.createLink(blob, temp);
+            misses.incrementAndGet();
+            return temp;
+        } catch (FileAlreadyExistsException e) {
+            // fall through to share the existing blob
+        }
+        Path link = AtomicWrite.tempPath(target);
+        try {
+            if (Files.size(blob) != size) {
+                LOG.warn("Blob {} has unexpected size, not deduplicating {}", blob.getFileName(), target);
+                return temp;
+            }
+            Files.createLink(link, blob);
+        } catch (NoSuchFileException e) {
+            // swept in between; keep our own copy
+            return temp;
+        }
+        touch(link);
+        AtomicWrite.discard(temp);
+        hits.incrementAndGet();
+        hitBytes.addAndGet(size);
+        return link;
+    }
+
+    /**
+     * Whether {@code p} is a link to the blob with content {@code digest} of its home, rather than a
+     * file of its own, e.g. one written before deduplication was turned on.
+     */
+    public boolean isShared(Path p, byte[] digest) {
+        return isShared(p, p, digest);
+    }
+
+    private boolean isShared(Path home, Path p, byte[] digest) {
+        if (digest == null) return false;
+        try {
+            return Files.isSameFile(blob(home, digest), p);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether {@code a} and {@code b} may share blobs, i.e. are in the same home.
+     */
+    public boolean isSameHome(Path a, Path b) {
+        return home(a).equals(home(b));
+    }
+
+    /**
+     * Creates a temp link next to {@code target} that shares the content {@code digest} of
+     * {@code src}; the caller publishes it with {@link AtomicWrite#commit}. The source keeps its
+     * modification time, which the copy takes over.
+     *
+     * @return the temp link, or {@code null} if {@code src} is not {@link #isShared shared}, is in
+     *         another home, or is older than {@code target}, whose {@code Last-Modified} would go back
+     */
+    public Path link(Path src, Path target, byte[] digest) throws IOException {
+        if (!isSameHome(src, target) || !isShared(src, digest)) return null;
+        try {
+            if (Files.getLastModifiedTime(target).compareTo(Files.getLastModifiedTime(src)) >= 0) return null;
+        } catch (NoSuchFileException e) {
+            // a new file; any modification time will do
+        }
+        Path link = AtomicWrite.tempPath(target);
+        Files.createLink(link, src);
+        hitBytes.addAndGet(Files.size(src));
+        hits.incrementAndGet();
+        return link;
+    }
+
+    /**
+     * Gives {@code p}, moved from {@code from} in another home, its own copy of the content
+     * {@code digest}, shared with the files of its new home if they hold it; the caller publishes
+     * the copy with {@link AtomicWrite#commit} and {@link #release releases} {@code from}.
+     *
+     * @return the temp copy, or {@code null} if {@code p} did not share a blob of its old home
+     */
+    public Path unshare(Path from, Path p, byte[] digest) throws IOException {
+        if (isSameHome(from, p) || !isShared(from, p, digest)) return null;
+        Path copy = AtomicWrite.tempPath(p);
+        Files.copy(p, copy, StandardCopyOption.COPY_ATTRIBUTES);
+        return intern(copy, p, digest, Files.size(copy));
+    }
+
+    /**
+     * Deletes the blob with content {@code digest} of the home of {@code p} if no file refers to it
+     * any more; {@code p} is where the file that no longer refers to it was.
+     */
+    public void release(Path p, byte[] digest) {
+        if (digest == null) return;
+        Path blob = blob(p, digest);
+        try {
+            if (links(blob) <= 1) Files.deleteIfExists(blob);
+        } catch (NoSuchFileException e) {
+            // not a blob, or already released
+        } catch (IOException e) {
+            LOG.warn("Cannot release blob {}: {}", blob.getFileName(), e.toString());
+        }
+    }
+
+    /**
+     * Deletes all blobs no file refers to, e.g. after files were deleted outside the server.
+     *
+     * @return the number of blobs deleted
+     */
+    public int sweep() throws IOException {
+        if (!Files.isDirectory(dir)) return 0;
+        int[] deleted = new int[1];
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path blob, BasicFileAttributes attrs) throws IOException {
+                if (links(blob) <= 1 && Files.deleteIfExists(blob)) deleted[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return deleted[0];
+    }
+
+    /**
+     * Scans the blobs and sums up the space they save.
+     */
+    public Stats stats() throws IOException {
+        long[] sums = new long[3];
+        if (Files.isDirectory(dir)) {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    int references = links(file) - 1;
+                    if (references > 0) {
+                        sums[0]++;
+                        sums[1] += attrs.size();
+                        sums[2] += attrs.size() * references;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return new Stats(sums[0], sums[1], sums[2]);
+    }
+
+    /** Moves the modification time of a shared blob, and of every file of its home linking it, to the present. */
+    private static void touch(Path link) throws IOException {
+        Files.setLastModifiedTime(link, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    private Path blob(Path p, byte[] digest) {
+        String hex = HexFormat.of().formatHex(digest);
+        return home(p).resolve(hex.substring(0, 2)).resolve(hex);
+    }
+
+    /** Blob directory of the home of {@code p}: its top-level collection, or the data directory itself. */
+    private Path home(Path p) {
+        Path rel = dataDir.relativize(p);
+        return rel.getNameCount() > 1 ? dir.resolve(HOMES).resolve(rel.getName(0).toString()) : dir.resolve(ROOT);
+    }
+
+    private static int links(Path p) throws IOException {
+        return (Integer) Files.getAttribute(p, "unix:nlink");
+    }
+
+    /** Uploads and copies that shared an existing blob. */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** Uploads that created a new blob. */
+    public long misses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BlobStore[hits=" + hits + ", misses=" + misses + ", deduplicated bytes=" + hitBytes + "]";
+    }
+}
@@ -0,0 +1,91 @@
+package de.sty.fileserv.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parses HTTP {@code Range} headers (RFC 9110, section 14) for a representation of known length.
+ */
+public final class ByteRanges {
+
+    /** More ranges than this are answered with the full representation. */
+    static final int MAX_RANGES = 32;
+
+    private ByteRanges() {}
+
+    /**
+     * A satisfiable byte range; {@code last} is inclusive.
+     */
+    public record Range(long first, long last) {
+        public long length() { return last - first + 1; }
+
+        /** Value for the {@code Content-Range} header. */
+        public String contentRange(long size) {
+            return "bytes " + first + "-" + last + "/" + size;
+        }
+    }
+
+    /**
+     * Parses {@code header} for a representation of {@code size} bytes.
+     *
+     * @return {@code null} if the header is absent, malformed or has too many ranges (serve the
+     *         whole representation); an empty list if no range is satisfiable (answer 416);
+     *         otherwise the sorted, coalesced ranges
+     */
+    public static List<Range> parse(String header, long size) {
+        if (header == null) return null;
+        String h = header.trim();
+        if (!h.toLowerCase(Locale.ROOT).startsWith("bytes=")) return null;
+
+        String[] specs = h.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) return null;
+
+        List<Range> ranges = new ArrayList<>();
+        for (String raw : specs) {
+            String spec = raw.trim();
+            if (spec.isEmpty()) continue;
+            int dash = spec.indexOf('-');
+            if (dash < 0) return null;
+            String a = spec.substring(0, dash).trim();
+            String b = spec.substring(dash + 1).trim();
+            try {
+                if (a.isEmpty()) {
+                    // suffix range: last N bytes
+                    if (b.isEmpty()) return null;
+                    long n = Long.parseLong(b);
+                    if (n < 0) return null;
+                    if (n > 0 && size > 0) ranges.add(new Range(Math.max(0, size - n), size - 1));
+                } else {
+                    long first = Long.parseLong(a);
+                    long last = b.isEmpty() ? Long.MAX_VALUE : Long.parseLong(b);
+                    if (first < 0 || last < first) return null;
+                    if (first < size) ranges.add(new Range(first, Math.min(last, size - 1)));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return coalesce(ranges);
+    }
+
+    /** Sorts ranges and merges overlapping or adjacent ones. */
+    static List<Range> coalesce(List<Range> ranges) {
+        if (ranges.size() < 2) return ranges;
+        ranges.sort(Comparator.comparingLong(Range::first));
+        List<Range> merged = new ArrayList<>();
+        Range cur = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            Range next = ranges.get(i);
+            if (next.first() <= cur.last() + 1) {
+                cur = new Range(cur.first(), Math.max(cur.last(), next.last()));
+            } else {
+                merged.add(cur);
+                cur = next;
+            }
+        }
+        merged.add(cur);
+        return merged;
+    }
+}
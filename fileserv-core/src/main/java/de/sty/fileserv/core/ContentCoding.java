@@ -0,0 +1,87 @@
+package de.sty.fileserv.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Content codings {@link WebDavServlet} can serve, in order of preference.
+ * <p>
+ * Brotli and Zstandard are only served from precompressed sidecar files
+ * ({@code file.br}, {@code file.zst}); gzip is also produced on the fly.
+ */
+public enum ContentCoding {
+    BR("br", ".br"),
+    ZSTD("zstd", ".zst"),
+    GZIP("gzip", ".gz");
+
+    private final String token;
+    private final String suffix;
+
+    ContentCoding(String token, String suffix) {
+        this.token = token;
+        this.suffix = suffix;
+    }
+
+    /** The token used in {@code Accept-Encoding} and {@code Content-Encoding}. */
+    public String token() {
+        return token;
+    }
+
+    /** File name suffix of a precompressed sidecar. */
+    public String suffix() {
+        return suffix;
+    }
+
+    /** Entity tag of the variant encoded with this coding, derived from the tag of its source. */
+    public String etag(String sourceEtag) {
+        return sourceEtag.substring(0, sourceEtag.length() - 1) + "-" + token + "\"";
+    }
+
+    /**
+     * Parses an {@code Accept-Encoding} header (RFC 9110, section 12.5.3).
+     *
+     * @return the acceptable codings, highest quality first and by server preference among equals;
+     *         empty if the header is absent
+     */
+    public static List<ContentCoding> accepted(String header) {
+        if (header == null || header.isBlank()) return List.of();
+        Map<ContentCoding, Double> q = new EnumMap<>(ContentCoding.class);
+        Double wildcard = null;
+        for (String part : header.split(",")) {
+            String[] tokens = part.split(";");
+            String name = tokens[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals("*")) {
+                wildcard = quality;
+            } else {
+                for (ContentCoding c : values()) {
+                    if (c.token.equals(name) || (c == GZIP && name.equals("x-gzip"))) q.put(c, quality);
+                }
+            }
+        }
+        List<ContentCoding> result = new ArrayList<>();
+        for (ContentCoding c : values()) {
+            double quality = q.getOrDefault(c, wildcard == null ? 0 : wildcard);
+            if (quality > 0) {
+                q.put(c, quality);
+                result.add(c);
+            }
+        }
+        result.sort(Comparator.comparingDouble((ContentCoding c) -> q.get(c)).reversed());
+        return result;
+    }
+}
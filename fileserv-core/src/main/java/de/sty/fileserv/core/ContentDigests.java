@@ -0,0 +1,385 @@
+package de.sty.fileserv.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * SHA-256 digests of file content, computed while a PUT streams the body and kept with the file.
+ * They give files a strong entity tag that only changes with the content, and the
+ * {@code Repr-Digest} (RFC 9530) and {@code Digest} (RFC 3230) headers.
+ * <p>
+ * A digest is stored as the extended attribute {@value #ATTRIBUTE} of the file where the file
+ * system supports it, so it moves with renames. Elsewhere it goes to a file in the hidden
+ * directory {@value #DIRECTORY} below the data directory, named by a hash of the path, which
+ * {@link #removed} and {@link #moved} keep in step with deletes and renames. Either
+ * record holds the size, modification time and inode number of the file it was computed for; a
+ * file changed by other means no longer matches and has no digest until the next PUT.
+ * <p>
+ * As the modification time can be set from outside, the record is also checked against the change
+ * time, which cannot: the sidecar file holds the change time at which the record was last known to
+ * match (next to the record itself, or on its own where the record is an attribute, whose writes
+ * move the change time on). A file whose change time moved on without the server knowing, e.g.
+ * after a rename, a new hard link or a write that restored the modification time, is hashed again
+ * before its digest is trusted.
+ * <p>
+ * Looked up digests are cached per path and validated against the cheap {@link ResourceInfo#etag()}
+ * and the change time.
+ */
+public final class ContentDigests {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentDigests.class);
+
+    public static final String ALGORITHM = "SHA-256";
+
+    /** Name of the user-defined file attribute holding the record. */
+    static final String ATTRIBUTE = "fileserv.sha256";
+
+    /** Sidecar directory below the data directory; hidden like all {@link AtomicWrite#isTemp temp files}. */
+    public static final String DIRECTORY = ".digests" + AtomicWrite.TEMP_SUFFIX;
+
+    /** Default number of digests kept in memory. */
+    public static final int DEFAULT_CACHE_ENTRIES = 10_000;
+
+    private static final int DIGEST_LENGTH = 32;
+
+    /** Size, modification time in milliseconds, inode number, digest. */
+    private static final int RECORD_LENGTH = Long.BYTES + Long.BYTES + Long.BYTES + DIGEST_LENGTH;
+
+    /** Change time in nanoseconds at which the record last matched the file. */
+    private static final int STAMP_LENGTH = Long.BYTES;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] NONE = new byte[0];
+
+    /** Inode number and change time; both {@code 0} where the file system has no {@code unix} view. */
+    private record Inode(long ino, long ctime) {
+        static final Inode UNKNOWN = new Inode(0, 0);
+    }
+
+    private record Known(String etag, Inode inode, byte[] digest) {}
+
+    private final Path dir;
+    private final boolean attributes;
+    private final boolean unix;
+    private final int maxEntries;
+
+    /** Access ordered for LRU eviction; {@link #NONE} marks files without a digest. Guarded by {@code this}. */
+    private final LinkedHashMap<String, Known> known;
+
+    public ContentDigests(Path dataDir) {
+        this(dataDir, supportsAttributes(dataDir), DEFAULT_CACHE_ENTRIES);
+    }
+
+    /**
+     * @param attributes whether to store digests as extended attributes rather than sidecar files
+     */
+    ContentDigests(Path dataDir, boolean attributes, int maxEntries) {
+        this.dir = dataDir.resolve(DIRECTORY);
+        this.attributes = attributes;
+        this.unix = supportsUnix(dataDir);
+        this.maxEntries = maxEntries;
+        this.known = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Known> eldest) {
+                return size() > ContentDigests.this.maxEntries;
+            }
+        };
+    }
+
+    private static boolean supportsAttributes(Path dataDir) {
+        try {
+            Files.createDirectories(dataDir);
+            return Files.getFileStore(dataDir).supportsFileAttributeView(UserDefinedFileAttributeView.class);
+        } catch (IOException e) {
+            LOG.debug("Cannot determine file store of {}: {}", dataDir, e.toString());
+            return false;
+        }
+    }
+
+    private static boolean supportsUnix(Path dataDir) {
+        try {
+            return Files.getFileStore(dataDir).supportsFileAttributeView("unix");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Whether digests are kept in extended attributes, which hard links share, rather than sidecar files. */
+    public boolean usesAttributes() {
+        return attributes;
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Records {@code digest} for {@code target}, whose content has been written to {@code file}
+     * (the temp file that is about to replace it, or {@code target} itself).
+     */
+    public void store(Path file, Path target, byte[] digest) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        Inode inode = inode(file);
+        ByteBuffer record = record(attrs, inode, digest);
+        if (attributes) {
+            Files.getFileAttributeView(file, UserDefinedFileAttributeView.class).write(ATTRIBUTE, record);
+            inode = inode(file);
+        }
+        writeSidecar(target, record, inode);
+        String key = WebDavServlet.pathKey(target);
+        Known k = new Known(new ResourceInfo(target, attrs).etag(), inode, digest);
+        synchronized (this) {
+            known.put(key, k);
+        }
+    }
+
+    /**
+     * Confirms the digest just {@link #store stored} for {@code target} after the server moved its
+     * change time on without touching the content, e.g. by renaming the temp file it was stored for
+     * over {@code target}.
+     */
+    public void stamp(Path target) {
+        String key = WebDavServlet.pathKey(target);
+        Known k;
+        synchronized (this) {
+            k = known.get(key);
+        }
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(target, BasicFileAttributes.class);
+            Inode inode = inode(target);
+            String etag = new ResourceInfo(target, attrs).etag();
+            if (k == null || k.digest() == NONE || !k.etag().equals(etag) || k.inode().ino() != inode.ino()) return;
+            writeSidecar(target, record(attrs, inode, k.digest()), inode);
+            synchronized (this) {
+                known.put(key, new Known(etag, inode, k.digest()));
+            }
+        } catch (IOException e) {
+            // verified by hashing on the next lookup instead
+            LOG.debug("Cannot stamp digest of {}: {}", target, e.toString());
+        }
+    }
+
+    private static ByteBuffer record(BasicFileAttributes attrs, Inode inode, byte[] digest) {
+        return ByteBuffer.allocate(RECORD_LENGTH)
+                .putLong(attrs.size())
+                .putLong(attrs.lastModifiedTime().toMillis())
+                .putLong(inode.ino())
+                .put(digest)
+                .flip();
+    }
+
+    /**
+     * Writes the sidecar of {@code target}: the change time, preceded by {@code record} unless that
+     * is kept as an attribute.
+     */
+    private void writeSidecar(Path target, ByteBuffer record, Inode inode) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate(attributes ? STAMP_LENGTH : RECORD_LENGTH + STAMP_LENGTH);
+        if (!attributes) content.put(record.duplicate());
+        content.putLong(inode.ctime());
+        Files.createDirectories(dir);
+        Path sidecar = sidecar(target);
+        Path temp = AtomicWrite.createTemp(sidecar);
+        try {
+            Files.write(temp, content.array());
+            Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            AtomicWrite.discard(temp);
+            throw e;
+        }
+    }
+
+    private Inode inode(Path p) throws IOException {
+        if (!unix) return Inode.UNKNOWN;
+        Map<String, Object> attrs = Files.readAttributes(p, "unix:ino,ctime");
+        return new Inode((Long) attrs.get("ino"), ((FileTime) attrs.get("ctime")).to(TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Returns the digest of the file {@code r}, or {@code null} if none is recorded for its current
+     * content.
+     */
+    public byte[] get(ResourceInfo r) {
+        if (!r.exists() || r.isDirectory()) return null;
+        String key = WebDavServlet.pathKey(r.path());
+        String etag = r.etag();
+        Inode inode;
+        try {
+            inode = inode(r.path());
+        } catch (IOException e) {
+            LOG.debug("Cannot read inode of {}: {}", r.path(), e.toString());
+            return null;
+        }
+        synchronized (this) {
+            Known k = known.get(key);
+            if (k != null && k.etag().equals(etag) && k.inode().equals(inode)) {
+                return k.digest() == NONE ? null : k.digest();
+            }
+        }
+        byte[] digest = read(r, inode);
+        synchronized (this) {
+            known.put(key, new Known(etag, inode, digest == null ? NONE : digest));
+        }
+        return digest;
+    }
+
+    /**
+     * Forgets the cached digest of {@code p}, e.g. after it was replaced within the same
+     * modification time granule.
+     */
+    public synchronized void invalidate(Path p) {
+        known.remove(WebDavServlet.pathKey(p));
+    }
+
+    /**
+     * Forgets the digest of the deleted file {@code p} and removes its sidecar file.
+     */
+    public void removed(Path p) throws IOException {
+        invalidate(p);
+        Files.deleteIfExists(sidecar(p));
+    }
+
+    /**
+     * Carries the digests of {@code src} over to {@code dst}, which it has just been renamed to;
+     * for a directory, those of every file below it. Attributes move with the files; sidecar
+     * files are renamed here, and a sidecar left from a file that {@code dst} replaced is removed.
+     */
+    public void moved(Path src, Path dst, boolean directory) throws IOException {
+        invalidate(src);
+        invalidate(dst);
+        if (!directory) {
+            moveSidecar(src, dst);
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dst)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Path from = src.resolve(dst.relativize(file));
+                invalidate(from);
+                invalidate(file);
+                moveSidecar(from, file);
+            }
+        }
+    }
+
+    private void moveSidecar(Path src, Path dst) throws IOException {
+        try {
+            Files.move(sidecar(src), sidecar(dst), StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            Files.deleteIfExists(sidecar(dst));
+        }
+    }
+
+    private byte[] read(ResourceInfo r, Inode inode) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH);
+        long stamp;
+        try {
+            if (attributes) {
+                var view = Files.getFileAttributeView(r.path(), UserDefinedFileAttributeView.class);
+                if (!view.list().contains(ATTRIBUTE) || view.size(ATTRIBUTE) != RECORD_LENGTH) return null;
+                view.read(ATTRIBUTE, record);
+                stamp = readStamp(r.path());
+            } else {
+                byte[] bytes = Files.readAllBytes(sidecar(r.path()));
+                if (bytes.length != RECORD_LENGTH + STAMP_LENGTH) return null;
+                record.put(bytes, 0, RECORD_LENGTH);
+                stamp = ByteBuffer.wrap(bytes, RECORD_LENGTH, STAMP_LENGTH).getLong();
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.debug("Cannot read digest of {}: {}", r.path(), e.toString());
+            return null;
+        }
+        record.flip();
+        if (record.getLong() != r.attrs().size()) return null;
+        if (record.getLong() != r.attrs().lastModifiedTime().toMillis()) return null;
+        if (record.getLong() != inode.ino()) return null;
+        byte[] digest = Arrays.copyOfRange(record.array(), record.position(), RECORD_LENGTH);
+        if (stamp == inode.ctime()) return digest;
+        try {
+            if (!Arrays.equals(hash(r.path()), digest)) return null;
+            writeSidecar(r.path(), record.rewind(), inode);
+        } catch (IOException e) {
+            LOG.debug("Cannot verify digest of {}: {}", r.path(), e.toString());
+            return null;
+        }
+        return digest;
+    }
+
+    /** The change time the record of {@code p} last matched at, or {@code -1} if unknown. */
+    private long readStamp(Path p) throws IOException {
+        try {
+            byte[] bytes = Files.readAllBytes(sidecar(p));
+            return bytes.length == STAMP_LENGTH ? ByteBuffer.wrap(bytes).getLong() : -1;
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] hash(Path p) throws IOException {
+        MessageDigest md = newDigest();
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            while (ch.read(buf) >= 0) {
+                md.update(buf.flip());
+                buf.clear();
+            }
+        }
+        return md.digest();
+    }
+
+    private Path sidecar(Path target) {
+        byte[] hash = newDigest().digest(WebDavServlet.pathKey(target).getBytes(StandardCharsets.UTF_8));
+        return dir.resolve(HexFormat.of().formatHex(hash));
+    }
+
+    /** Strong entity tag for content with {@code digest}. */
+    public static String etag(byte[] digest) {
+        return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+    }
+
+    /** {@code Repr-Digest} field value (RFC 9530). */
+    public static String reprDigest(byte[] digest) {
+        return "sha-256=:" + Base64.getEncoder().encodeToString(digest) + ":";
+    }
+
+    /** {@code Digest} field value (RFC 3230). */
+    public static String legacyDigest(byte[] digest) {
+        return "SHA-256=" + Base64.getEncoder().encodeToString(digest);
+    }
+
+    public synchronized int size() {
+        return known.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ContentDigests[" + (attributes ? "extended attributes" : "sidecar files") + ", " + size() + " cached]";
+    }
+}
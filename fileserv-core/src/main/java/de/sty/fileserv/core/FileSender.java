@@ -0,0 +1,157 @@
+package de.sty.fileserv.core;
+
+import org.eclipse.jetty.ee10.servlet.HttpOutput;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies file content to a response output stream according to a {@link TransferMode}.
+ */
+public final class FileSender {
+
+    /** Size of the direct buffer used on Jetty outputs. */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /** Most direct buffers kept for reuse; further concurrent sends allocate their own. */
+    static final int MAX_POOLED_BUFFERS = 64;
+
+    /**
+     * Direct buffers of {@link #CHUNK_SIZE} bytes between sends. Allocating one per send costs a
+     * zeroed native allocation and leaves its release to the garbage collector.
+     */
+    private static final ConcurrentLinkedQueue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private FileSender() {}
+
+    /**
+     * A piece of content that can write any byte range of itself, e.g. an open file or a cached buffer.
+     */
+    @FunctionalInterface
+    public interface Source {
+        void send(long offset, long length, OutputStream out) throws IOException;
+    }
+
+    /**
+     * Sends {@code length} bytes of {@code content} starting at {@code offset} to {@code out}.
+     * The buffer itself is not modified.
+     */
+    public static void send(ByteBuffer content, long offset, long length, OutputStream out) throws IOException {
+        send(content, offset, length, out, null);
+    }
+
+    /**
+     * Like {@link #send(ByteBuffer, long, long, OutputStream)}, paced by {@code throttle} unless it
+     * is {@code null}.
+     */
+    public static void send(ByteBuffer content, long offset, long length, OutputStream out,
+                            RateLimiter.Throttle throttle) throws IOException {
+        ByteBuffer slice = content.duplicate();
+        slice.position((int) offset).limit((int) (offset + length));
+        write(slice, out, throttle);
+    }
+
+    /**
+     * Writes the remaining bytes of {@code buf} to {@code out}; with a {@code throttle}, in steps
+     * of {@link #CHUNK_SIZE} bytes, each debited before it is written.
+     */
+    static void write(ByteBuffer buf, OutputStream out, RateLimiter.Throttle throttle) throws IOException {
+        HttpOutput jetty = out instanceof HttpOutput h ? h : null;
+        byte[] bytes = null;
+        while (buf.hasRemaining()) {
+            int n = jetty != null && throttle == null ? buf.remaining() : Math.min(CHUNK_SIZE, buf.remaining());
+            if (throttle != null) throttle.acquire(n);
+            if (jetty != null) {
+                jetty.write(buf.slice(buf.position(), n));
+                buf.position(buf.position() + n);
+            } else {
+                if (bytes == null) bytes = new byte[n];
+                buf.get(bytes, 0, n);
+                out.write(bytes, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Sends {@code length} bytes of {@code ch} starting at {@code offset} to {@code out}.
+     * Uses positional reads, so the channel position is not modified.
+     */
+    public static void send(FileChannel ch, long offset, long length, OutputStream out, TransferMode mode) throws IOException {
+        send(ch, offset, length, out, mode, null);
+    }
+
+    /**
+     * Like {@link #send(FileChannel, long, long, OutputStream, TransferMode)}, paced by
+     * {@code throttle} unless it is {@code null}: each read is debited before it is written, in the
+     * same loop and buffer as an unlimited transfer.
+     */
+    public static void send(FileChannel ch, long offset, long length, OutputStream out, TransferMode mode,
+                            RateLimiter.Throttle throttle) throws IOException {
+        if (mode == TransferMode.STREAM) {
+            InputStream in = Channels.newInputStream(ch.position(offset));
+            byte[] buf = new byte[8192];
+            long remaining = length;
+            while (remaining > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (n < 0) break;
+                if (throttle != null) throttle.acquire(n);
+                out.write(buf, 0, n);
+                remaining -= n;
+            }
+        } else if (out instanceof HttpOutput jetty) {
+            // Direct buffers go straight to the endpoint (or the SSL engine) without a heap copy.
+            ByteBuffer buf = acquireBuffer();
+            try {
+                long pos = offset;
+                long end = offset + length;
+                while (pos < end) {
+                    buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+                    int n = ch.read(buf, pos);
+                    if (n < 0) break;
+                    buf.flip();
+                    if (throttle != null) throttle.acquire(n);
+                    jetty.write(buf);
+                    pos += n;
+                }
+            } finally {
+                releaseBuffer(buf);
+            }
+        } else {
+            // Not running in Jetty: let the JDK pick the best copy path for the target.
+            var target = Channels.newChannel(out);
+            long pos = offset;
+            long end = offset + length;
+            while (pos < end) {
+                long step = throttle == null ? end - pos : Math.min(CHUNK_SIZE, end - pos);
+                if (throttle != null) throttle.acquire(step);
+                long n = ch.transferTo(pos, step, target);
+                if (n <= 0) break;
+                pos += n;
+            }
+        }
+    }
+
+    /** Takes a direct buffer of {@link #CHUNK_SIZE} bytes from the pool, or allocates one. */
+    static ByteBuffer acquireBuffer() {
+        ByteBuffer buf = BUFFERS.poll();
+        if (buf == null) return ByteBuffer.allocateDirect(CHUNK_SIZE);
+        POOLED.decrementAndGet();
+        return buf.clear();
+    }
+
+    /** Returns a buffer from {@link #acquireBuffer()} once nothing refers to it any more. */
+    static void releaseBuffer(ByteBuffer buf) {
+        if (POOLED.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            BUFFERS.offer(buf);
+        } else {
+            POOLED.decrementAndGet();
+        }
+    }
+}
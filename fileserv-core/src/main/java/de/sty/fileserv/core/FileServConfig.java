@@ -1,6 +1,7 @@
 package de.sty.fileserv.core;
 
 import java.nio.file.Path;
+import java.util.Map;
 
 public record FileServConfig(
         Path dataDir,
@@ -11,6 +12,255 @@ public record FileServConfig(
         String keyStorePath,
         String keyStorePassword,
         String keyPassword,
-        Authenticator authenticator
+        Authenticator authenticator,
+        TransferMode transferMode,
+        long hotCacheSize,
+        long hotCacheMaxFileSize,
+        long mmapPoolSize,
+        long mmapMinFileSize,
+        boolean compression,
+        long compressionCacheSize,
+        int openFileCacheSize,
+        long openFileIdleTimeout,
+        long rateLimit,
+        long userRateLimit,
+        long connectionRateLimit,
+        boolean readAhead,
+        int readAheadSize,
+        boolean http2,
+        int http2MaxConcurrentStreams,
+        int http2StreamWindow,
+        int http2SessionWindow,
+        boolean virtualThreads,
+        int maxThreads,
+        FsyncPolicy fsyncPolicy,
+        long uploadSessionTimeout,
+        boolean contentDigest,
+        boolean dedup,
+        Map<String, Long> quotas,
+        long homeQuota,
+        long quotaReconcileInterval,
+        boolean writeBehind,
+        long writeBehindMaxFileSize,
+        boolean uploadPipeline,
+        int uploadPipelineBuffers
 ) {
+
+    /**
+     * Creates a configuration using defaults for all tuning options.
+     */
+    public FileServConfig(Path dataDir, boolean behindProxy, boolean allowHttp, int httpPort, int httpsPort,
+                          String keyStorePath, String keyStorePassword, String keyPassword,
+                          Authenticator authenticator) {
+        this(dataDir, behindProxy, allowHttp, httpPort, httpsPort, keyStorePath, keyStorePassword, keyPassword,
+                authenticator, TransferMode.CHANNEL, 0, WebDavServlet.DEFAULT_HOT_CACHE_MAX_FILE_SIZE,
+                0, WebDavServlet.DEFAULT_MMAP_MIN_FILE_SIZE, false, WebDavServlet.DEFAULT_COMPRESSION_CACHE_SIZE,
+                0, WebDavServlet.DEFAULT_OPEN_FILE_IDLE_TIMEOUT, 0, 0, 0,
+                false, 0, false, WebDavServer.DEFAULT_HTTP2_MAX_CONCURRENT_STREAMS,
+                WebDavServer.DEFAULT_HTTP2_STREAM_WINDOW, WebDavServer.DEFAULT_HTTP2_SESSION_WINDOW,
+                false, WebDavServer.DEFAULT_MAX_THREADS, FsyncPolicy.FILE, WebDavServlet.DEFAULT_UPLOAD_SESSION_TIMEOUT,
+                false, false, Map.of(), 0, Quotas.DEFAULT_RECONCILE_INTERVAL,
+                false, WriteBehind.DEFAULT_MAX_FILE_SIZE, false, UploadPipeline.DEFAULT_BUFFERS);
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Copies a configuration with some tuning options replaced; the options are set in the
+     * groups they are configured in on the command line.
+     */
+    public static final class Builder {
+        private final Path dataDir;
+        private final boolean behindProxy;
+        private final boolean allowHttp;
+        private final int httpPort;
+        private final int httpsPort;
+        private final String keyStorePath;
+        private final String keyStorePassword;
+        private final String keyPassword;
+        private final Authenticator authenticator;
+        private TransferMode transferMode;
+        private long hotCacheSize;
+        private long hotCacheMaxFileSize;
+        private long mmapPoolSize;
+        private long mmapMinFileSize;
+        private boolean compression;
+        private long compressionCacheSize;
+        private int openFileCacheSize;
+        private long openFileIdleTimeout;
+        private long rateLimit;
+        private long userRateLimit;
+        private long connectionRateLimit;
+        private boolean readAhead;
+        private int readAheadSize;
+        private boolean http2;
+        private int http2MaxConcurrentStreams;
+        private int http2StreamWindow;
+        private int http2SessionWindow;
+        private boolean virtualThreads;
+        private int maxThreads;
+        private FsyncPolicy fsyncPolicy;
+        private long uploadSessionTimeout;
+        private boolean contentDigest;
+        private boolean dedup;
+        private Map<String, Long> quotas;
+        private long homeQuota;
+        private long quotaReconcileInterval;
+        private boolean writeBehind;
+        private long writeBehindMaxFileSize;
+        private boolean uploadPipeline;
+        private int uploadPipelineBuffers;
+
+        private Builder(FileServConfig c) {
+            dataDir = c.dataDir;
+            behindProxy = c.behindProxy;
+            allowHttp = c.allowHttp;
+            httpPort = c.httpPort;
+            httpsPort = c.httpsPort;
+            keyStorePath = c.keyStorePath;
+            keyStorePassword = c.keyStorePassword;
+            keyPassword = c.keyPassword;
+            authenticator = c.authenticator;
+            transferMode = c.transferMode;
+            hotCacheSize = c.hotCacheSize;
+            hotCacheMaxFileSize = c.hotCacheMaxFileSize;
+            mmapPoolSize = c.mmapPoolSize;
+            mmapMinFileSize = c.mmapMinFileSize;
+            compression = c.compression;
+            compressionCacheSize = c.compressionCacheSize;
+            openFileCacheSize = c.openFileCacheSize;
+            openFileIdleTimeout = c.openFileIdleTimeout;
+            rateLimit = c.rateLimit;
+            userRateLimit = c.userRateLimit;
+            connectionRateLimit = c.connectionRateLimit;
+            readAhead = c.readAhead;
+            readAheadSize = c.readAheadSize;
+            http2 = c.http2;
+            http2MaxConcurrentStreams = c.http2MaxConcurrentStreams;
+            http2StreamWindow = c.http2StreamWindow;
+            http2SessionWindow = c.http2SessionWindow;
+            virtualThreads = c.virtualThreads;
+            maxThreads = c.maxThreads;
+            fsyncPolicy = c.fsyncPolicy;
+            uploadSessionTimeout = c.uploadSessionTimeout;
+            contentDigest = c.contentDigest;
+            dedup = c.dedup;
+            quotas = c.quotas;
+            homeQuota = c.homeQuota;
+            quotaReconcileInterval = c.quotaReconcileInterval;
+            writeBehind = c.writeBehind;
+            writeBehindMaxFileSize = c.writeBehindMaxFileSize;
+            uploadPipeline = c.uploadPipeline;
+            uploadPipelineBuffers = c.uploadPipelineBuffers;
+        }
+
+        public Builder transferMode(TransferMode transferMode) {
+            this.transferMode = transferMode;
+            return this;
+        }
+
+        public Builder hotCache(long hotCacheSize, long hotCacheMaxFileSize) {
+            this.hotCacheSize = hotCacheSize;
+            this.hotCacheMaxFileSize = hotCacheMaxFileSize;
+            return this;
+        }
+
+        public Builder mmap(long mmapPoolSize, long mmapMinFileSize) {
+            this.mmapPoolSize = mmapPoolSize;
+            this.mmapMinFileSize = mmapMinFileSize;
+            return this;
+        }
+
+        public Builder compression(boolean compression, long compressionCacheSize) {
+            this.compression = compression;
+            this.compressionCacheSize = compressionCacheSize;
+            return this;
+        }
+
+        public Builder openFileCache(int openFileCacheSize, long openFileIdleTimeout) {
+            this.openFileCacheSize = openFileCacheSize;
+            this.openFileIdleTimeout = openFileIdleTimeout;
+            return this;
+        }
+
+        public Builder rateLimits(long rateLimit, long userRateLimit, long connectionRateLimit) {
+            this.rateLimit = rateLimit;
+            this.userRateLimit = userRateLimit;
+            this.connectionRateLimit = connectionRateLimit;
+            return this;
+        }
+
+        public Builder readAhead(boolean readAhead, int readAheadSize) {
+            this.readAhead = readAhead;
+            this.readAheadSize = readAheadSize;
+            return this;
+        }
+
+        public Builder http2(boolean http2, int http2MaxConcurrentStreams, int http2StreamWindow,
+                             int http2SessionWindow) {
+            this.http2 = http2;
+            this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+            this.http2StreamWindow = http2StreamWindow;
+            this.http2SessionWindow = http2SessionWindow;
+            return this;
+        }
+
+        public Builder threads(boolean virtualThreads, int maxThreads) {
+            this.virtualThreads = virtualThreads;
+            this.maxThreads = maxThreads;
+            return this;
+        }
+
+        public Builder fsyncPolicy(FsyncPolicy fsyncPolicy) {
+            this.fsyncPolicy = fsyncPolicy;
+            return this;
+        }
+
+        public Builder uploadSessionTimeout(long uploadSessionTimeout) {
+            this.uploadSessionTimeout = uploadSessionTimeout;
+            return this;
+        }
+
+        public Builder contentDigest(boolean contentDigest) {
+            this.contentDigest = contentDigest;
+            return this;
+        }
+
+        public Builder dedup(boolean dedup) {
+            this.dedup = dedup;
+            return this;
+        }
+
+        public Builder quotas(Map<String, Long> quotas, long homeQuota, long quotaReconcileInterval) {
+            this.quotas = quotas;
+            this.homeQuota = homeQuota;
+            this.quotaReconcileInterval = quotaReconcileInterval;
+            return this;
+        }
+
+        public Builder writeBehind(boolean writeBehind, long writeBehindMaxFileSize) {
+            this.writeBehind = writeBehind;
+            this.writeBehindMaxFileSize = writeBehindMaxFileSize;
+            return this;
+        }
+
+        public Builder uploadPipeline(boolean uploadPipeline, int uploadPipelineBuffers) {
+            this.uploadPipeline = uploadPipeline;
+            this.uploadPipelineBuffers = uploadPipelineBuffers;
+            return this;
+        }
+
+        public FileServConfig build() {
+            return new FileServConfig(dataDir, behindProxy, allowHttp, httpPort, httpsPort, keyStorePath,
+                    keyStorePassword, keyPassword, authenticator, transferMode, hotCacheSize, hotCacheMaxFileSize,
+                    mmapPoolSize, mmapMinFileSize, compression, compressionCacheSize, openFileCacheSize,
+                    openFileIdleTimeout, rateLimit, userRateLimit, connectionRateLimit, readAhead, readAheadSize,
+                    http2, http2MaxConcurrentStreams, http2StreamWindow, http2SessionWindow, virtualThreads,
+                    maxThreads, fsyncPolicy, uploadSessionTimeout, contentDigest, dedup, quotas, homeQuota,
+                    quotaReconcileInterval, writeBehind, writeBehindMaxFileSize, uploadPipeline,
+                    uploadPipelineBuffers);
+        }
+    }
 }
@@ -0,0 +1,23 @@
+package de.sty.fileserv.core;
+
+import java.util.Locale;
+
+/**
+ * How durably {@link AtomicWrite} publishes a written file.
+ */
+public enum FsyncPolicy {
+    /** Leave flushing to the operating system. A crash may lose recent writes. */
+    NONE,
+    /** Force the file content to disk before it replaces the target. A crash leaves the old or the new version. */
+    FILE,
+    /** Like {@link #FILE}, and also force the directory, so the new version survives a crash once PUT returns. */
+    FILE_AND_DIRECTORY;
+
+    /**
+     * Parses a policy name case-insensitively; {@code null} or blank yields {@link #FILE}.
+     */
+    public static FsyncPolicy parse(String s) {
+        if (s == null || s.isBlank()) return FILE;
+        return valueOf(s.trim().toUpperCase(Locale.ROOT));
+    }
+}
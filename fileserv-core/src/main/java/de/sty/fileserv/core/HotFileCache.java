@@ -0,0 +1,196 @@
+package de.sty.fileserv.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the content of small, frequently read files in direct (off-heap) buffers.
+ * <p>
+ * Entries are keyed by path and validated against the ETag (size + mtime) of the current
+ * {@link ResourceInfo}, so a changed file is never served from the cache. The total size of all
+ * entries is bounded by a byte budget; the least recently used entries are evicted first.
+ * <p>
+ * By default the cache holds file content as is; with another {@link Loader} it holds derived
+ * variants, e.g. {@link #GZIP gzip-compressed} content.
+ */
+public final class HotFileCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HotFileCache.class);
+
+    /**
+     * Produces the cached bytes of a file.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * @return a buffer positioned at 0, or {@code null} if the file changed while loading
+         */
+        ByteBuffer load(ResourceInfo r) throws IOException;
+    }
+
+    /** Loads the file content as is. */
+    public static final Loader CONTENT = HotFileCache::loadContent;
+
+    /** Loads the gzip-compressed file content. */
+    public static final Loader GZIP = HotFileCache::loadGzip;
+
+    private final long maxBytes;
+    private final long maxFileSize;
+    private final Loader loader;
+
+    /** Access ordered: iteration starts at the least recently used entry. Guarded by {@code this}. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private record Entry(String etag, ByteBuffer content) {}
+
+    /**
+     * Cache statistics.
+     */
+    public record Stats(long hits, long misses, long evictions, int entries, long bytes) {
+        /** Fraction of lookups answered from the cache, {@code 0} if there were none. */
+        public double hitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    /**
+     * @param maxBytes    total byte budget for all cached files
+     * @param maxFileSize files larger than this are never cached
+     */
+    public HotFileCache(long maxBytes, long maxFileSize) {
+        this(maxBytes, maxFileSize, CONTENT);
+    }
+
+    /**
+     * @param maxBytes    total byte budget for all cached variants
+     * @param maxFileSize files larger than this are never cached
+     * @param loader      produces the cached variant of a file
+     */
+    public HotFileCache(long maxBytes, long maxFileSize, Loader loader) {
+        this.maxBytes = maxBytes;
+        this.maxFileSize = Math.min(maxFileSize, maxBytes);
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the cached variant of {@code r}, loading it on a miss if the file is small enough.
+     *
+     * @return a read-only buffer positioned at 0, or {@code null} if the file is not cacheable
+     */
+    public ByteBuffer get(ResourceInfo r) throws IOException {
+        if (!r.exists() || r.isDirectory() || r.size() > maxFileSize) return null;
+
+        String key = WebDavServlet.pathKey(r.path());
+        String etag = r.etag();
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null) {
+                if (e.etag().equals(etag)) {
+                    hits.increment();
+                    return e.content().duplicate();
+                }
+                remove(key);
+            }
+        }
+        misses.increment();
+
+        ByteBuffer content = loader.load(r);
+        if (content == null || content.capacity() > maxBytes) return null;
+        synchronized (this) {
+            Entry old = entries.put(key, new Entry(etag, content));
+            if (old != null) bytes -= old.content().capacity();
+            bytes += content.capacity();
+            evictOverBudget();
+        }
+        return content.duplicate();
+    }
+
+    /**
+     * Drops {@code path} and, if it is a collection, everything below it.
+     */
+    public synchronized void invalidate(Path path) {
+        String key = WebDavServlet.pathKey(path);
+        remove(key);
+        String prefix = key.endsWith("/") ? key : key + "/";
+        entries.entrySet().removeIf(e -> {
+            if (!e.getKey().startsWith(prefix)) return false;
+            bytes -= e.getValue().content().capacity();
+            return true;
+        });
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), bytes);
+    }
+
+    @Override
+    public String toString() {
+        Stats s = stats();
+        return String.format("HotFileCache[entries=%d, bytes=%d/%d, hitRatio=%.3f, evictions=%d]",
+                s.entries(), s.bytes(), maxBytes, s.hitRatio(), s.evictions());
+    }
+
+    private static ByteBuffer loadContent(ResourceInfo r) throws IOException {
+        int size = (int) r.size();
+        ByteBuffer buf = ByteBuffer.allocateDirect(size);
+        try (FileChannel ch = FileChannel.open(r.path(), StandardOpenOption.READ)) {
+            while (buf.hasRemaining()) {
+                if (ch.read(buf) < 0) break;
+            }
+            if (buf.hasRemaining() || ch.size() != size) {
+                LOG.debug("File changed while caching, not cached: {}", r.path());
+                return null;
+            }
+        }
+        return buf.flip().asReadOnlyBuffer();
+    }
+
+    private static ByteBuffer loadGzip(ResourceInfo r) throws IOException {
+        byte[] content = Files.readAllBytes(r.path());
+        if (content.length != r.size()) {
+            LOG.debug("File changed while compressing, not cached: {}", r.path());
+            return null;
+        }
+        var compressed = new ByteArrayOutputStream((int) Math.max(64, r.size() / 4));
+        try (OutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(content);
+        }
+        return ByteBuffer.allocateDirect(compressed.size()).put(compressed.toByteArray()).flip().asReadOnlyBuffer();
+    }
+
+    private void remove(String key) {
+        Entry e = entries.remove(key);
+        if (e != null) bytes -= e.content().capacity();
+    }
+
+    private void evictOverBudget() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            bytes -= eldest.getValue().content().capacity();
+            it.remove();
+            evictions.increment();
+            LOG.debug("Evicted {} from hot file cache", eldest.getKey());
+        }
+    }
+}
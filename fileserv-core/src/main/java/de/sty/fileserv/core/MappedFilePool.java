@@ -0,0 +1,221 @@
+package de.sty.fileserv.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shares read-only memory mappings of large files between concurrent downloads.
+ * <p>
+ * Mappings are keyed by path and validated against the ETag (size + mtime) of the current
+ * {@link ResourceInfo}. Each {@link Mapping} is reference counted: the pool holds one reference,
+ * every reader acquires another and releases it when done. A mapping dropped from the pool on
+ * eviction or file change stays usable until its last reader releases it. The JDK offers no
+ * explicit unmap, so the address space is returned once the released buffers are collected.
+ * <p>
+ * Files must not be truncated in place while mapped; accessing a mapped page past the new end of
+ * file fails with an {@link InternalError}.
+ */
+public final class MappedFilePool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedFilePool.class);
+
+    /** A single {@link MappedByteBuffer} is limited to {@code Integer.MAX_VALUE} bytes. */
+    static final long SEGMENT_SIZE = 1L << 30;
+
+    private final long maxBytes;
+    private final long minFileSize;
+
+    /** Access ordered: iteration starts at the least recently used mapping. Guarded by {@code this}. */
+    private final LinkedHashMap<String, Mapping> mappings = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Pool statistics.
+     */
+    public record Stats(long hits, long misses, long evictions, int mappings, long bytes) {}
+
+    /**
+     * A reference counted, read-only mapping of a whole file.
+     * Closing it releases the reference taken by {@link #acquire(ResourceInfo)}.
+     */
+    public static final class Mapping implements AutoCloseable {
+
+        private final String etag;
+        private final long size;
+        private final AtomicInteger refs = new AtomicInteger(1);
+        private volatile MappedByteBuffer[] segments;
+
+        private Mapping(String etag, long size, MappedByteBuffer[] segments) {
+            this.etag = etag;
+            this.size = size;
+            this.segments = segments;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Writes {@code length} bytes starting at {@code offset} to {@code out}, paced by
+         * {@code throttle} unless it is {@code null}.
+         */
+        public void send(long offset, long length, OutputStream out, RateLimiter.Throttle throttle) throws IOException {
+            MappedByteBuffer[] segs = segments;
+            if (segs == null) throw new IllegalStateException("Mapping already released");
+            long end = offset + length;
+            while (offset < end) {
+                int i = (int) (offset / SEGMENT_SIZE);
+                long segStart = i * SEGMENT_SIZE;
+                long n = Math.min(end, segStart + segs[i].capacity()) - offset;
+                FileSender.send(segs[i], offset - segStart, n, out, throttle);
+                offset += n;
+            }
+        }
+
+        /** Takes another reference unless the mapping was already released. */
+        private boolean retain() {
+            int n;
+            do {
+                n = refs.get();
+                if (n == 0) return false;
+            } while (!refs.compareAndSet(n, n + 1));
+            return true;
+        }
+
+        @Override
+        public void close() {
+            if (refs.decrementAndGet() == 0) {
+                segments = null;
+                LOG.debug("Released mapping of {} bytes", size);
+            }
+        }
+
+        int refCount() {
+            return refs.get();
+        }
+    }
+
+    /**
+     * @param maxBytes    total size of all files mapped by the pool
+     * @param minFileSize smaller files are not mapped
+     */
+    public MappedFilePool(long maxBytes, long minFileSize) {
+        this.maxBytes = maxBytes;
+        this.minFileSize = minFileSize;
+    }
+
+    /**
+     * Returns a mapping of {@code r}, mapping it on a miss. The caller must close it.
+     *
+     * @return the acquired mapping, or {@code null} if {@code r} is outside the size thresholds
+     */
+    public Mapping acquire(ResourceInfo r) throws IOException {
+        if (!r.exists() || r.isDirectory() || r.size() < minFileSize || r.size() > maxBytes) return null;
+
+        String key = WebDavServlet.pathKey(r.path());
+        String etag = r.etag();
+        synchronized (this) {
+            Mapping m = mappings.get(key);
+            if (m != null) {
+                if (m.etag.equals(etag) && m.retain()) {
+                    hits.increment();
+                    return m;
+                }
+                remove(key);
+            }
+        }
+        misses.increment();
+
+        Mapping m = map(r.path(), etag, r.size());
+        if (m == null) return null;
+        m.retain();
+        synchronized (this) {
+            Mapping old = mappings.put(key, m);
+            if (old != null) {
+                bytes -= old.size;
+                old.close();
+            }
+            bytes += m.size;
+            evictOverBudget();
+        }
+        return m;
+    }
+
+    /**
+     * Drops the mapping of {@code path} and, if it is a collection, of everything below it.
+     * Readers still holding a mapping may finish.
+     */
+    public synchronized void invalidate(Path path) {
+        String key = WebDavServlet.pathKey(path);
+        remove(key);
+        String prefix = key.endsWith("/") ? key : key + "/";
+        mappings.entrySet().removeIf(e -> {
+            if (!e.getKey().startsWith(prefix)) return false;
+            bytes -= e.getValue().size;
+            e.getValue().close();
+            return true;
+        });
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), mappings.size(), bytes);
+    }
+
+    @Override
+    public String toString() {
+        Stats s = stats();
+        return String.format("MappedFilePool[mappings=%d, bytes=%d/%d, hits=%d, misses=%d, evictions=%d]",
+                s.mappings(), s.bytes(), maxBytes, s.hits(), s.misses(), s.evictions());
+    }
+
+    private static Mapping map(Path p, String etag, long size) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            if (ch.size() != size) {
+                LOG.debug("File changed while mapping, not mapped: {}", p);
+                return null;
+            }
+            var segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+            return new Mapping(etag, size, segments);
+        }
+    }
+
+    private void remove(String key) {
+        Mapping m = mappings.remove(key);
+        if (m != null) {
+            bytes -= m.size;
+            m.close();
+        }
+    }
+
+    private void evictOverBudget() {
+        Iterator<Map.Entry<String, Mapping>> it = mappings.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Mapping> eldest = it.next();
+            bytes -= eldest.getValue().size;
+            it.remove();
+            eldest.getValue().close();
+            evictions.increment();
+            LOG.debug("Evicted mapping of {}", eldest.getKey());
+        }
+    }
+}
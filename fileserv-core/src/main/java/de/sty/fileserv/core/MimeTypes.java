@@ -0,0 +1,251 @@
+package de.sty.fileserv.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static de.sty.fileserv.core.WebDavConstants.CONTENT_TYPE_OCTET_STREAM;
+
+/**
+ * Resolves the media type of a file: by extension first, then by sniffing its first bytes.
+ * <p>
+ * Sniffed types are cached per path and validated against the ETag, so each version of a file
+ * is read at most once.
+ */
+public final class MimeTypes {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MimeTypes.class);
+
+    /** Bytes read for magic number detection. */
+    static final int SNIFF_LENGTH = 512;
+
+    /** Default number of sniffed types kept. */
+    public static final int DEFAULT_CACHE_ENTRIES = 10_000;
+
+    private static final Map<String, String> BY_EXTENSION = new HashMap<>();
+
+    static {
+        add("text/plain", "txt", "text", "log", "conf", "ini", "properties", "cfg");
+        add("text/html", "html", "htm");
+        add("text/css", "css");
+        add("text/csv", "csv");
+        add("text/tab-separated-values", "tsv");
+        add("text/markdown", "md", "markdown");
+        add("text/javascript", "js", "mjs");
+        add("text/x-java-source", "java");
+        add("text/x-python", "py");
+        add("text/x-c", "c", "h", "cpp", "hpp");
+        add("text/x-shellscript", "sh");
+        add("text/calendar", "ics");
+        add("text/vcard", "vcf");
+        add("application/json", "json");
+        add("application/xml", "xml", "xsd", "xsl");
+        add("application/xhtml+xml", "xhtml");
+        add("application/yaml", "yaml", "yml");
+        add("application/toml", "toml");
+        add("application/sql", "sql");
+        add("application/rtf", "rtf");
+        add("application/x-tex", "tex");
+        add("application/pdf", "pdf");
+        add("application/zip", "zip");
+        add("application/gzip", "gz", "tgz");
+        add("application/x-tar", "tar");
+        add("application/x-7z-compressed", "7z");
+        add("application/x-bzip2", "bz2");
+        add("application/x-xz", "xz");
+        add("application/zstd", "zst");
+        add("application/x-iso9660-image", "iso");
+        add("application/java-archive", "jar");
+        add("application/vnd.android.package-archive", "apk");
+        add("application/wasm", "wasm");
+        add("application/msword", "doc");
+        add("application/vnd.ms-excel", "xls");
+        add("application/vnd.ms-powerpoint", "ppt");
+        add("application/vnd.openxmlformats-officedocument.wordprocessingml.document", "docx");
+        add("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx");
+        add("application/vnd.openxmlformats-officedocument.presentationml.presentation", "pptx");
+        add("application/vnd.oasis.opendocument.text", "odt");
+        add("application/vnd.oasis.opendocument.spreadsheet", "ods");
+        add("application/epub+zip", "epub");
+        add("image/png", "png");
+        add("image/jpeg", "jpg", "jpeg");
+        add("image/gif", "gif");
+        add("image/webp", "webp");
+        add("image/avif", "avif");
+        add("image/bmp", "bmp");
+        add("image/tiff", "tif", "tiff");
+        add("image/svg+xml", "svg");
+        add("image/x-icon", "ico");
+        add("image/heic", "heic");
+        add("audio/mpeg", "mp3");
+        add("audio/ogg", "ogg", "oga");
+        add("audio/flac", "flac");
+        add("audio/wav", "wav");
+        add("audio/aac", "aac");
+        add("audio/mp4", "m4a");
+        add("video/mp4", "mp4", "m4v");
+        add("video/webm", "webm");
+        add("video/x-matroska", "mkv");
+        add("video/quicktime", "mov");
+        add("video/x-msvideo", "avi");
+        add("font/woff", "woff");
+        add("font/woff2", "woff2");
+        add("font/ttf", "ttf");
+        add("font/otf", "otf");
+    }
+
+    private static void add(String type, String... extensions) {
+        for (String e : extensions) BY_EXTENSION.put(e, type);
+    }
+
+    private record Sniffed(String etag, String type) {}
+
+    private final int maxEntries;
+
+    /** Access ordered for LRU eviction. Guarded by {@code this}. */
+    private final LinkedHashMap<String, Sniffed> sniffed;
+
+    public MimeTypes() {
+        this(DEFAULT_CACHE_ENTRIES);
+    }
+
+    public MimeTypes(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.sniffed = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Sniffed> eldest) {
+                return size() > MimeTypes.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the media type of the file {@code r}.
+     */
+    public String resolve(ResourceInfo r) {
+        String name = r.path().getFileName() == null ? "" : r.path().getFileName().toString();
+        String type = byExtension(name);
+        if (type != null) return type;
+        if (!r.exists() || r.isDirectory()) return CONTENT_TYPE_OCTET_STREAM;
+
+        String key = WebDavServlet.pathKey(r.path());
+        String etag = r.etag();
+        synchronized (this) {
+            Sniffed s = sniffed.get(key);
+            if (s != null && s.etag().equals(etag)) return s.type();
+        }
+        type = sniff(r);
+        synchronized (this) {
+            sniffed.put(key, new Sniffed(etag, type));
+        }
+        return type;
+    }
+
+    /**
+     * Returns the media type registered for the extension of {@code fileName}, or {@code null}.
+     */
+    public static String byExtension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0) return null;
+        return BY_EXTENSION.get(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Whether content of {@code type} is textual and thus worth compressing.
+     */
+    public static boolean isCompressible(String type) {
+        return type.startsWith("text/") || type.endsWith("+xml") || type.endsWith("/xml")
+                || type.equals("application/json") || type.equals("application/yaml")
+                || type.equals("application/toml") || type.equals("application/sql")
+                || type.equals("application/rtf") || type.equals("application/x-tex");
+    }
+
+    public synchronized int size() {
+        return sniffed.size();
+    }
+
+    private static String sniff(ResourceInfo r) {
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(SNIFF_LENGTH, r.size()));
+        try (FileChannel ch = FileChannel.open(r.path(), StandardOpenOption.READ)) {
+            while (head.hasRemaining() && ch.read(head) >= 0) {
+                // fill
+            }
+        } catch (IOException e) {
+            LOG.debug("Cannot sniff {}: {}", r.path(), e.toString());
+            return CONTENT_TYPE_OCTET_STREAM;
+        }
+        head.flip();
+        return byMagic(head);
+    }
+
+    /**
+     * Detects the media type from the first bytes of a file.
+     */
+    static String byMagic(ByteBuffer head) {
+        byte[] b = new byte[head.remaining()];
+        head.duplicate().get(b);
+        if (startsWith(b, 0, 0x89, 'P', 'N', 'G')) return "image/png";
+        if (startsWith(b, 0, 0xFF, 0xD8, 0xFF)) return "image/jpeg";
+        if (startsWith(b, 0, 'G', 'I', 'F', '8')) return "image/gif";
+        if (startsWith(b, 0, 'R', 'I', 'F', 'F') && startsWith(b, 8, 'W', 'E', 'B', 'P')) return "image/webp";
+        if (startsWith(b, 0, 'R', 'I', 'F', 'F') && startsWith(b, 8, 'W', 'A', 'V', 'E')) return "audio/wav";
+        if (startsWith(b, 0, '%', 'P', 'D', 'F', '-')) return "application/pdf";
+        if (startsWith(b, 0, 'P', 'K', 0x03, 0x04)) return "application/zip";
+        if (startsWith(b, 0, 0x1F, 0x8B)) return "application/gzip";
+        if (startsWith(b, 0, 0x28, 0xB5, 0x2F, 0xFD)) return "application/zstd";
+        if (startsWith(b, 0, 'B', 'Z', 'h')) return "application/x-bzip2";
+        if (startsWith(b, 0, 0xFD, '7', 'z', 'X', 'Z', 0x00)) return "application/x-xz";
+        if (startsWith(b, 0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C)) return "application/x-7z-compressed";
+        if (startsWith(b, 0, 'I', 'D', '3') || startsWith(b, 0, 0xFF, 0xFB)) return "audio/mpeg";
+        if (startsWith(b, 0, 'O', 'g', 'g', 'S')) return "audio/ogg";
+        if (startsWith(b, 0, 'f', 'L', 'a', 'C')) return "audio/flac";
+        if (startsWith(b, 4, 'f', 't', 'y', 'p')) return "video/mp4";
+        if (startsWith(b, 0, 0x1A, 0x45, 0xDF, 0xA3)) return "video/webm";
+        if (startsWith(b, 0, 0x7F, 'E', 'L', 'F')) return "application/x-executable";
+        if (startsWith(b, 0, '<', '?', 'x', 'm', 'l')) return "application/xml";
+        if (isText(b)) return "text/plain";
+        return CONTENT_TYPE_OCTET_STREAM;
+    }
+
+    private static boolean startsWith(byte[] b, int offset, int... magic) {
+        if (b.length < offset + magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if ((b[offset + i] & 0xFF) != magic[i]) return false;
+        }
+        return true;
+    }
+
+    /** UTF-8 without control characters other than whitespace; a sequence cut at the end is fine. */
+    private static boolean isText(byte[] b) {
+        if (b.length == 0) return false;
+        for (byte c : b) {
+            if (c >= 0 && c < 0x20 && c != '\n' && c != '\r' && c != '\t' && c != '\f') return false;
+        }
+        int end = b.length;
+        for (int i = 1; i <= 3 && end - i >= 0; i++) {
+            int c = b[end - i] & 0xFF;
+            if (c >= 0xC0) { end -= i; break; }
+            if (c < 0x80) break;
+        }
+        try {
+            StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(b, 0, end));
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package de.sty.fileserv.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps read-only {@link FileChannel}s open between requests, so clients fetching a file in many
+ * small ranges do not pay an open/close per request.
+ * <p>
+ * Channels are keyed by path and validated against the ETag (size + mtime) of the current
+ * {@link ResourceInfo}. A channel is shared by concurrent requests and must only be used with
+ * positional reads. Each {@link Handle} is reference counted like {@link MappedFilePool.Mapping}:
+ * a channel dropped on eviction, idle timeout or change is closed when its last user releases it.
+ */
+public final class OpenFileCache implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenFileCache.class);
+
+    private final int maxOpen;
+    private final long idleNanos;
+
+    /** Access ordered: iteration starts at the least recently used channel. Guarded by {@code this}. */
+    private final LinkedHashMap<String, Handle> handles = new LinkedHashMap<>(64, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * Cache statistics.
+     */
+    public record Stats(long hits, long misses, long evictions, int open) {}
+
+    /**
+     * A reference counted, shared read-only channel. Closing it releases the reference taken by
+     * {@link #acquire(ResourceInfo)}.
+     */
+    public static final class Handle implements AutoCloseable {
+
+        private final String etag;
+        private final FileChannel channel;
+        private final AtomicInteger refs = new AtomicInteger(1);
+        private volatile long lastUsed = System.nanoTime();
+
+        private Handle(String etag, FileChannel channel) {
+            this.etag = etag;
+            this.channel = channel;
+        }
+
+        public FileChannel channel() {
+            return channel;
+        }
+
+        private boolean retain() {
+            int n;
+            do {
+                n = refs.get();
+                if (n == 0) return false;
+            } while (!refs.compareAndSet(n, n + 1));
+            lastUsed = System.nanoTime();
+            return true;
+        }
+
+        @Override
+        public void close() {
+            if (refs.decrementAndGet() == 0) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOG.debug("Cannot close cached file channel", e);
+                }
+            }
+        }
+
+        int refCount() {
+            return refs.get();
+        }
+    }
+
+    /**
+     * @param maxOpen       maximum number of channels kept open
+     * @param idleTimeoutMs channels unused for this long are closed; {@code 0} keeps them until evicted
+     */
+    public OpenFileCache(int maxOpen, long idleTimeoutMs) {
+        this.maxOpen = maxOpen;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+        if (idleTimeoutMs > 0) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "open-file-cache-sweeper");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(100, idleTimeoutMs / 2);
+            sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            sweeper = null;
+        }
+    }
+
+    /**
+     * Returns an open channel for {@code r}, opening it on a miss. The caller must close the handle.
+     */
+    public Handle acquire(ResourceInfo r) throws IOException {
+        String key = WebDavServlet.pathKey(r.path());
+        String etag = r.etag();
+        synchronized (this) {
+            Handle h = handles.get(key);
+            if (h != null) {
+                if (h.etag.equals(etag) && h.retain()) {
+                    hits.increment();
+                    return h;
+                }
+                remove(key);
+            }
+        }
+        misses.increment();
+
+        Handle h = new Handle(etag, FileChannel.open(r.path(), StandardOpenOption.READ));
+        h.retain();
+        synchronized (this) {
+            Handle old = handles.put(key, h);
+            if (old != null) old.close();
+            Iterator<Handle> it = handles.values().iterator();
+            while (handles.size() > maxOpen && it.hasNext()) {
+                Handle eldest = it.next();
+                it.remove();
+                eldest.close();
+                evictions.increment();
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Drops the channel of {@code path} and, if it is a collection, of everything below it.
+     */
+    public synchronized void invalidate(Path path) {
+        String key = WebDavServlet.pathKey(path);
+        remove(key);
+        String prefix = key.endsWith("/") ? key : key + "/";
+        handles.entrySet().removeIf(e -> {
+            if (!e.getKey().startsWith(prefix)) return false;
+            e.getValue().close();
+            return true;
+        });
+    }
+
+    /**
+     * Closes channels that were not used within the idle timeout.
+     */
+    public void evictIdle() {
+        long now = System.nanoTime();
+        List<Handle> idle = new ArrayList<>();
+        synchronized (this) {
+            handles.values().removeIf(h -> {
+                if (now - h.lastUsed < idleNanos) return false;
+                idle.add(h);
+                return true;
+            });
+        }
+        for (Handle h : idle) {
+            h.close();
+            evictions.increment();
+        }
+        if (!idle.isEmpty()) LOG.debug("Closed {} idle file channels", idle.size());
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), handles.size());
+    }
+
+    @Override
+    public String toString() {
+        Stats s = stats();
+        return String.format("OpenFileCache[open=%d/%d, hits=%d, misses=%d, evictions=%d]",
+                s.open(), maxOpen, s.hits(), s.misses(), s.evictions());
+    }
+
+    /**
+     * Stops the idle sweeper and releases all cached channels.
+     */
+    @Override
+    public void close() {
+        if (sweeper != null) sweeper.shutdownNow();
+        synchronized (this) {
+            for (Map.Entry<String, Handle> e : handles.entrySet()) e.getValue().close();
+            handles.clear();
+        }
+    }
+
+    private void remove(String key) {
+        Handle h = handles.remove(key);
+        if (h != null) h.close();
+    }
+}
@@ -0,0 +1,111 @@
+package de.sty.fileserv.core;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.sty.fileserv.core.WebDavConstants.*;
+
+/**
+ * Evaluates HTTP conditional request headers (RFC 9110, section 13) against the current state of a resource.
+ * Callers pass validators they have already computed, so evaluation needs no file system access.
+ */
+public final class Preconditions {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Preconditions.class);
+
+    /** Result meaning "no precondition failed; process the request". */
+    public static final int PROCEED = 0;
+
+    private Preconditions() {}
+
+    /**
+     * Evaluates {@code If-Match}, {@code If-Unmodified-Since}, {@code If-None-Match} and
+     * {@code If-Modified-Since} in the order mandated by RFC 9110, section 13.2.2.
+     *
+     * @param etag         current entity tag, or {@code null} if the resource does not exist
+     * @param lastModified current modification time, or {@code null} if unknown or not existing
+     * @return {@link #PROCEED}, {@link WebDavConstants#SC_304_NOT_MODIFIED} or
+     *         {@link WebDavConstants#SC_412_PRECONDITION_FAILED}
+     */
+    public static int evaluate(HttpServletRequest req, String etag, Instant lastModified) {
+        boolean safe = METHOD_GET.equals(req.getMethod()) || METHOD_HEAD.equals(req.getMethod());
+
+        String ifMatch = req.getHeader(HEADER_IF_MATCH);
+        if (ifMatch != null) {
+            if (!matches(ifMatch, etag, true)) return SC_412_PRECONDITION_FAILED;
+        } else {
+            Instant ius = parseDate(req.getHeader(HEADER_IF_UNMODIFIED_SINCE));
+            if (ius != null && lastModified != null && lastModified.getEpochSecond() > ius.getEpochSecond()) {
+                return SC_412_PRECONDITION_FAILED;
+            }
+        }
+
+        String ifNoneMatch = req.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            if (matches(ifNoneMatch, etag, false)) return safe ? SC_304_NOT_MODIFIED : SC_412_PRECONDITION_FAILED;
+        } else if (safe) {
+            Instant ims = parseDate(req.getHeader(HEADER_IF_MODIFIED_SINCE));
+            if (ims != null && lastModified != null && lastModified.getEpochSecond() <= ims.getEpochSecond()) {
+                return SC_304_NOT_MODIFIED;
+            }
+        }
+        return PROCEED;
+    }
+
+    /**
+     * Checks whether an entity-tag list header matches {@code etag}.
+     * {@code *} matches any existing resource.
+     */
+    static boolean matches(String header, String etag, boolean strong) {
+        if (etag == null) return false;
+        String h = header.trim();
+        if (h.equals("*")) return true;
+        for (String candidate : splitTags(h)) {
+            if (strong) {
+                if (!candidate.startsWith("W/") && !etag.startsWith("W/") && candidate.equals(etag)) return true;
+            } else if (opaque(candidate).equals(opaque(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaque(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    /** Splits a comma separated list of entity tags, honouring commas inside quotes. */
+    static List<String> splitTags(String header) {
+        List<String> tags = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < header.length(); i++) {
+            char c = header.charAt(i);
+            if (c == '"') quoted = !quoted;
+            if (c == ',' && !quoted) {
+                if (!cur.toString().isBlank()) tags.add(cur.toString().trim());
+                cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        if (!cur.toString().isBlank()) tags.add(cur.toString().trim());
+        return tags;
+    }
+
+    static Instant parseDate(String value) {
+        if (value == null) return null;
+        try {
+            return Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(value.trim()));
+        } catch (Exception e) {
+            LOG.debug("Ignore unparsable HTTP date: {}", value);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package de.sty.fileserv.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage quotas for collections, backed by an index of the bytes stored below every directory.
+ * The write methods keep the index up to date as they go, so checking a quota or reporting usage
+ * never walks the tree. A background task walks it at a fixed interval anyway and replaces the
+ * index, correcting drift from changes made outside the server or by failed requests.
+ * <p>
+ * A limit belongs to a collection and covers everything below it, whoever writes there. Limits are
+ * configured per path; the home limit applies to every top-level collection, i.e. the home
+ * collections of users such as {@code /alice}. Usage counts the logical size of files; internal
+ * {@link AtomicWrite#isTemp temp files}, such as unfinished resumable uploads, do not count.
+ * <p>
+ * Limits are checked when a request is admitted, so concurrent uploads into the same collection
+ * may together exceed it by up to their sizes.
+ */
+public final class Quotas implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Quotas.class);
+
+    /** Default interval between two walks that reconcile the index with the disk: one hour. */
+    public static final long DEFAULT_RECONCILE_INTERVAL = 60 * 60 * 1000L;
+
+    /** The request would exceed the quota of a collection, or the space left on the disk. */
+    public static final class QuotaExceededException extends IOException {
+        QuotaExceededException(String message) {
+            super(message);
+        }
+    }
+
+    private final Path dataDir;
+    private final Map<Path, Long> limits;
+    private final long homeLimit;
+    private final long reconcileIntervalMs;
+    private final ScheduledExecutorService reconciler;
+
+    /** Bytes stored below each directory that ever held a file. Guarded by {@code this}. */
+    private Map<Path, Long> used = new HashMap<>();
+
+    /**
+     * @param dataDir             the served directory
+     * @param limits              byte limits by collection path relative to {@code dataDir}, e.g. {@code /shared}
+     * @param homeLimit           byte limit of each top-level collection; {@code 0} for none
+     * @param reconcileIntervalMs interval of the background {@link #reconcile()}; {@code 0} only reconciles on demand
+     */
+    public Quotas(Path dataDir, Map<String, Long> limits, long homeLimit, long reconcileIntervalMs) {
+        this.dataDir = dataDir;
+        this.limits = new LinkedHashMap<>();
+        limits.forEach((path, limit) -> {
+            Path p = dataDir.resolve(path.startsWith("/") ? path.substring(1) : path).normalize();
+            if (!p.startsWith(dataDir)) throw new IllegalArgumentException("Quota path outside the data directory: " + path);
+            this.limits.put(p, limit);
+        });
+        this.homeLimit = homeLimit;
+        this.reconcileIntervalMs = reconcileIntervalMs;
+        if (reconcileIntervalMs > 0) {
+            reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "quota-reconciler");
+                t.setDaemon(true);
+                return t;
+            });
+            reconciler.scheduleWithFixedDelay(this::reconcileQuietly, reconcileIntervalMs, reconcileIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            reconciler = null;
+        }
+    }
+
+    /**
+     * Parses limits written as {@code path=bytes[,path=bytes...]}.
+     *
+     * @throws IllegalArgumentException if an entry is malformed
+     */
+    public static Map<String, Long> parseLimits(String spec) {
+        Map<String, Long> limits = new LinkedHashMap<>();
+        if (spec == null || spec.isBlank()) return limits;
+        for (String entry : spec.split(",")) {
+            int eq = entry.lastIndexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Expected path=bytes: " + entry);
+            long limit = Long.parseLong(entry.substring(eq + 1).trim());
+            if (limit < 0) throw new IllegalArgumentException("Negative quota: " + entry);
+            limits.put(entry.substring(0, eq).trim(), limit);
+        }
+        return limits;
+    }
+
+    /** The inverse of {@link #parseLimits}. */
+    public static String formatLimits(Map<String, Long> limits) {
+        List<String> entries = new ArrayList<>();
+        limits.forEach((path, limit) -> entries.add(path + "=" + limit));
+        return String.join(",", entries);
+    }
+
+    /**
+     * Returns the limit of {@code dir}, or {@code -1} if it has none of its own.
+     */
+    public long limit(Path dir) {
+        Long limit = limits.get(dir);
+        if (limit != null) return limit;
+        return homeLimit > 0 && dataDir.equals(dir.getParent()) ? homeLimit : -1;
+    }
+
+    /**
+     * Returns the bytes stored below {@code dir}.
+     */
+    public synchronized long used(Path dir) {
+        return used.getOrDefault(dir, 0L);
+    }
+
+    /**
+     * Returns how many bytes may still be added below {@code dir}: the least room left by the limit
+     * of {@code dir} or of any collection above it, {@link Long#MAX_VALUE} if there is no limit.
+     */
+    public long available(Path dir) {
+        return available(dir, null);
+    }
+
+    /**
+     * Returns how many bytes moved from {@code from} may be added below {@code dir}; limits of
+     * collections holding both are left out, since a move within them does not change their usage.
+     */
+    public synchronized long available(Path dir, Path from) {
+        long available = Long.MAX_VALUE;
+        for (Path d = dir; d != null && d.startsWith(dataDir); d = d.getParent()) {
+            if (from != null && from.startsWith(d)) continue;
+            long limit = limit(d);
+            if (limit >= 0) available = Math.min(available, Math.max(0, limit - used(d)));
+        }
+        return available;
+    }
+
+    /**
+     * Cuts {@code in} off with a {@link QuotaExceededException} once it delivers more than fits
+     * into {@code dir}, for bodies of unknown length.
+     *
+     * @param replaced the size of the file the body replaces, which is freed
+     */
+    public InputStream limit(InputStream in, Path dir, long replaced) {
+        long available = available(dir);
+        if (available == Long.MAX_VALUE) return in;
+        return limit(in, available + replaced, "Quota exceeded");
+    }
+
+    /**
+     * Cuts {@code in} off with a {@link QuotaExceededException} with {@code message} once it
+     * delivers more than {@code max} bytes.
+     */
+    public static InputStream limit(InputStream in, long max, String message) {
+        if (max == Long.MAX_VALUE) return in;
+        return new FilterInputStream(in) {
+            private long count;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) exceeded(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) exceeded(n);
+                return n;
+            }
+
+            private void exceeded(int n) throws QuotaExceededException {
+                count += n;
+                if (count > max) throw new QuotaExceededException(message);
+            }
+        };
+    }
+
+    /**
+     * Records that the file {@code file} grew by {@code delta} bytes (negative if it shrank or was
+     * deleted).
+     */
+    public synchronized void add(Path file, long delta) {
+        if (delta == 0) return;
+        for (Path d = file.getParent(); d != null && d.startsWith(dataDir); d = d.getParent()) {
+            used.merge(d, delta, Long::sum);
+        }
+    }
+
+    /**
+     * Records that the directory {@code dir} and everything below it was deleted.
+     */
+    public synchronized void removeTree(Path dir) {
+        add(dir, -used(dir));
+        used.keySet().removeIf(k -> k.startsWith(dir));
+    }
+
+    /**
+     * Records that the directory {@code src} was renamed to {@code dst}.
+     */
+    public synchronized void moveTree(Path src, Path dst) {
+        long bytes = used(src);
+        add(src, -bytes);
+        Map<Path, Long> moved = new HashMap<>();
+        used.entrySet().removeIf(e -> {
+            if (!e.getKey().startsWith(src)) return false;
+            moved.put(dst.resolve(src.relativize(e.getKey())), e.getValue());
+            return true;
+        });
+        used.putAll(moved);
+        add(dst, bytes);
+    }
+
+    /**
+     * Walks the data directory and replaces the index with what is on disk. Changes made during
+     * the walk may be counted wrongly until the next one.
+     *
+     * @return the bytes by which the total usage was off
+     */
+    public long reconcile() throws IOException {
+        Map<Path, Long> scanned = new HashMap<>();
+        Files.walkFileTree(dataDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return AtomicWrite.isTemp(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !AtomicWrite.isTemp(file)) {
+                    scanned.merge(file.getParent(), attrs.size(), Long::sum);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                LOG.debug("Cannot read {} for quota usage: {}", file, exc.toString());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                Long bytes = scanned.get(dir);
+                if (bytes != null && !dir.equals(dataDir)) scanned.merge(dir.getParent(), bytes, Long::sum);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        synchronized (this) {
+            long drift = scanned.getOrDefault(dataDir, 0L) - used(dataDir);
+            used = scanned;
+            return drift;
+        }
+    }
+
+    private void reconcileQuietly() {
+        try {
+            long drift = reconcile();
+            if (drift != 0) LOG.info("Quota usage reconciled, corrected by {} bytes", drift);
+        } catch (IOException e) {
+            LOG.warn("Cannot reconcile quota usage of {}: {}", dataDir, e.toString());
+        }
+    }
+
+    /**
+     * Stops the background reconciliation.
+     */
+    @Override
+    public void close() {
+        if (reconciler != null) reconciler.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "Quotas[limits=" + limits.size() + ", home limit=" + homeLimit + ", used=" + used(dataDir)
+                + " bytes, reconcile every " + reconcileIntervalMs + " ms]";
+    }
+}
@@ -0,0 +1,200 @@
+package de.sty.fileserv.core;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limits for transferred bytes: one bucket shared by all requests, one per
+ * authenticated user and one per connection. A transfer is debited from every bucket that applies
+ * and waits for the slowest.
+ * <p>
+ * Buckets may go into debt: {@link Throttle#reserve(long)} always succeeds and returns how long the
+ * caller has to wait. Blocking transfers sleep for that time, asynchronous ones schedule their next
+ * step with {@link #schedule(Runnable, long)}; nothing spins.
+ */
+public final class RateLimiter {
+
+    /** Buckets not used for this long are dropped. */
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    /** Dropping idle buckets is considered once a map grows beyond this. */
+    private static final int PRUNE_THRESHOLD = 1024;
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rate-limit-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long userRate;
+    private final long connectionRate;
+    private final TokenBucket global;
+    private final ConcurrentHashMap<String, TokenBucket> users = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TokenBucket> connections = new ConcurrentHashMap<>();
+
+    /**
+     * A token bucket holding up to one second worth of bytes.
+     */
+    static final class TokenBucket {
+
+        private final long rate;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt;
+        private volatile long lastUsed;
+
+        TokenBucket(long bytesPerSecond) {
+            this.rate = bytesPerSecond;
+            this.capacity = Math.max(bytesPerSecond, FileSender.CHUNK_SIZE);
+            this.tokens = capacity;
+            this.refilledAt = System.nanoTime();
+            this.lastUsed = refilledAt;
+        }
+
+        /**
+         * Takes {@code n} tokens, going into debt if needed.
+         *
+         * @return nanoseconds until the debt is paid off, {@code 0} if there was no debt
+         */
+        synchronized long reserve(long n) {
+            long now = System.nanoTime();
+            lastUsed = now;
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * rate / 1e9);
+            refilledAt = now;
+            tokens -= n;
+            return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1e9 / rate);
+        }
+    }
+
+    /**
+     * The buckets that apply to one request.
+     */
+    public static final class Throttle {
+
+        private final List<TokenBucket> buckets;
+
+        private Throttle(List<TokenBucket> buckets) {
+            this.buckets = buckets;
+        }
+
+        /**
+         * Debits {@code n} bytes from all buckets.
+         *
+         * @return nanoseconds to wait before transferring them
+         */
+        public long reserve(long n) {
+            long wait = 0;
+            for (TokenBucket b : buckets) wait = Math.max(wait, b.reserve(n));
+            return wait;
+        }
+
+        /**
+         * Debits {@code n} bytes and sleeps until they may be transferred.
+         */
+        public void acquire(long n) throws InterruptedIOException {
+            long wait = reserve(n);
+            if (wait <= 0) return;
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+
+        /** Throttles writes to {@code out}. */
+        public OutputStream wrap(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    acquire(len);
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    acquire(1);
+                    out.write(b);
+                }
+            };
+        }
+
+        /** Throttles reads from {@code in}. */
+        public InputStream wrap(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = in.read(b, off, Math.min(len, FileSender.CHUNK_SIZE));
+                    if (n > 0) acquire(n);
+                    return n;
+                }
+
+                @Override
+                public int read() throws IOException {
+                    int c = in.read();
+                    if (c >= 0) acquire(1);
+                    return c;
+                }
+            };
+        }
+    }
+
+    /**
+     * All rates are in bytes per second; {@code 0} or less means unlimited.
+     */
+    public RateLimiter(long globalRate, long userRate, long connectionRate) {
+        this.global = globalRate > 0 ? new TokenBucket(globalRate) : null;
+        this.userRate = userRate;
+        this.connectionRate = connectionRate;
+    }
+
+    /** Whether any limit is configured. */
+    public boolean isEnabled() {
+        return global != null || userRate > 0 || connectionRate > 0;
+    }
+
+    /**
+     * Returns the throttle for a request.
+     *
+     * @param user       the authenticated user, or {@code null}
+     * @param connection an identifier of the client connection, or {@code null}
+     */
+    public Throttle throttle(String user, String connection) {
+        List<TokenBucket> buckets = new ArrayList<>(3);
+        if (global != null) buckets.add(global);
+        if (userRate > 0 && user != null) buckets.add(bucket(users, user, userRate));
+        if (connectionRate > 0 && connection != null) buckets.add(bucket(connections, connection, connectionRate));
+        return new Throttle(buckets);
+    }
+
+    /**
+     * Runs {@code task} after {@code delayNanos} on a shared timer thread.
+     */
+    public static void schedule(Runnable task, long delayNanos) {
+        TIMER.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static TokenBucket bucket(ConcurrentHashMap<String, TokenBucket> map, String key, long rate) {
+        if (map.size() > PRUNE_THRESHOLD) {
+            long now = System.nanoTime();
+            map.values().removeIf(b -> now - b.lastUsed > IDLE_NANOS);
+        }
+        return map.computeIfAbsent(key, k -> new TokenBucket(rate));
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter[global=" + (global == null ? 0 : global.rate) + ", user=" + userRate
+                + ", connection=" + connectionRate + " bytes/s]";
+    }
+}
@@ -0,0 +1,246 @@
+package de.sty.fileserv.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Double-buffered read-ahead for large sequential downloads: while one buffer is written to the
+ * client, a background thread fills the other with the next part of the file. A disk or network
+ * mount with high read latency then no longer stalls the socket between writes.
+ * <p>
+ * The buffer size depends on the file store a file lives on: network file systems get larger
+ * buffers to amortise their round trips, local disks smaller ones. The store type is looked up once
+ * per directory. A fixed size can be configured instead.
+ * <p>
+ * At most {@code maxTransfers} downloads are read ahead at a time, each with one read in flight on
+ * a fixed pool of as many reader threads, and their buffers are pooled by size; so threads and
+ * direct memory stay bounded however many clients download. Further downloads are sent without
+ * read-ahead until a transfer finishes.
+ * <p>
+ * Rate limited transfers keep reading ahead; the buffers are written in
+ * {@link FileSender#CHUNK_SIZE} steps, each debited from the throttle before it is written.
+ */
+public final class ReadAhead {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReadAhead.class);
+
+    /** Buffer size for local file stores. */
+    public static final int LOCAL_BUFFER_SIZE = 256 * 1024;
+
+    /** Buffer size for network file stores. */
+    public static final int NETWORK_BUFFER_SIZE = 1024 * 1024;
+
+    /** {@link FileStore#type()} values (or prefixes, ending in a dot) of network file systems. */
+    private static final Set<String> NETWORK_TYPES = Set.of("nfs", "nfs4", "cifs", "smb", "smbfs", "smb3",
+            "9p", "ceph", "glusterfs", "lustre", "afs", "davfs", "webdav", "fuse.");
+
+    /** Directories whose buffer size is remembered. */
+    private static final int MAX_DIRECTORIES = 1024;
+
+    /** Default number of downloads read ahead at the same time. */
+    public static final int DEFAULT_MAX_TRANSFERS = 16;
+
+    private final int fixedSize;
+    private final Semaphore transfers;
+    private final ExecutorService readers;
+
+    /**
+     * Free buffers by capacity. At most two per transfer are in use, so no more than that are ever
+     * allocated per size.
+     */
+    private final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<ByteBuffer>> free = new ConcurrentHashMap<>();
+
+    private final AtomicLong readAheads = new AtomicLong();
+    /** Transfers sent without read-ahead because {@code maxTransfers} were already running. */
+    private final AtomicLong saturated = new AtomicLong();
+
+    /** Access ordered buffer sizes by directory. Guarded by {@code this}. */
+    private final LinkedHashMap<String, Integer> byDirectory = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_DIRECTORIES;
+        }
+    };
+
+    /**
+     * @param bufferSize bytes per buffer; {@code 0} picks the size by file store
+     */
+    public ReadAhead(int bufferSize) {
+        this(bufferSize, DEFAULT_MAX_TRANSFERS);
+    }
+
+    /**
+     * @param bufferSize   bytes per buffer; {@code 0} picks the size by file store
+     * @param maxTransfers downloads read ahead at the same time
+     */
+    public ReadAhead(int bufferSize, int maxTransfers) {
+        this.fixedSize = bufferSize;
+        this.transfers = new Semaphore(Math.max(1, maxTransfers));
+        this.readers = Executors.newFixedThreadPool(Math.max(1, maxTransfers), r -> {
+            Thread t = new Thread(r, "read-ahead");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns the buffer size to use for {@code file}.
+     */
+    public int bufferSize(Path file) {
+        if (fixedSize > 0) return fixedSize;
+        Path dir = file.getParent();
+        if (dir == null) return LOCAL_BUFFER_SIZE;
+        String key = WebDavServlet.pathKey(dir);
+        synchronized (this) {
+            Integer size = byDirectory.get(key);
+            if (size != null) return size;
+        }
+        int size;
+        try {
+            size = bufferSize(Files.getFileStore(dir));
+        } catch (IOException e) {
+            LOG.debug("Cannot determine file store of {}: {}", dir, e.toString());
+            size = LOCAL_BUFFER_SIZE;
+        }
+        synchronized (this) {
+            byDirectory.put(key, size);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the buffer size for files on {@code store}.
+     */
+    static int bufferSize(FileStore store) {
+        return isNetwork(store.type()) ? NETWORK_BUFFER_SIZE : LOCAL_BUFFER_SIZE;
+    }
+
+    static boolean isNetwork(String type) {
+        String t = type.toLowerCase(Locale.ROOT);
+        if (NETWORK_TYPES.contains(t)) return true;
+        int dot = t.indexOf('.');
+        return dot > 0 && NETWORK_TYPES.contains(t.substring(0, dot + 1));
+    }
+
+    /**
+     * Sends {@code length} bytes of {@code ch} starting at {@code offset} to {@code out}, reading the
+     * next {@code bufferSize} bytes while the previous ones are written. Uses positional reads, so
+     * {@code ch} may be shared.
+     *
+     * @param throttle rate limits to honour, or {@code null}
+     */
+    public void send(FileChannel ch, long offset, long length, OutputStream out, int bufferSize,
+                     RateLimiter.Throttle throttle) throws IOException {
+        if (!transfers.tryAcquire()) {
+            saturated.incrementAndGet();
+            FileSender.send(ch, offset, length, out, TransferMode.CHANNEL, throttle);
+            return;
+        }
+        readAheads.incrementAndGet();
+        int capacity = (int) Math.min(bufferSize, Math.max(1, length));
+        ByteBuffer[] buffers = {acquire(capacity), acquire(capacity)};
+        long pos = offset;
+        long end = offset + length;
+        int i = 0;
+        Future<ByteBuffer> next = fill(ch, buffers[0], pos, end);
+        try {
+            while (next != null) {
+                ByteBuffer current = await(next);
+                pos += current.remaining();
+                next = pos < end ? fill(ch, buffers[++i & 1], pos, end) : null;
+                FileSender.write(current, out, throttle);
+            }
+        } finally {
+            // a read still in flight owns its buffer until it ends
+            if (next != null) awaitQuietly(next);
+            release(buffers[0]);
+            release(buffers[1]);
+            transfers.release();
+        }
+    }
+
+    private ByteBuffer acquire(int capacity) {
+        ByteBuffer buf = free.computeIfAbsent(capacity, c -> new ConcurrentLinkedQueue<>()).poll();
+        return buf != null ? buf : ByteBuffer.allocateDirect(capacity);
+    }
+
+    private void release(ByteBuffer buf) {
+        free.get(buf.capacity()).offer(buf);
+    }
+
+    private Future<ByteBuffer> fill(FileChannel ch, ByteBuffer buf, long pos, long end) {
+        return readers.submit(() -> {
+            buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+            long p = pos;
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, p);
+                if (n < 0) throw new EOFException("File shrank while sending, " + (end - p) + " bytes missing");
+                p += n;
+            }
+            return buf.flip();
+        });
+    }
+
+    private static ByteBuffer await(Future<ByteBuffer> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading ahead");
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("Read-ahead cancelled");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void awaitQuietly(Future<ByteBuffer> f) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                f.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException | CancellationException e) {
+                break;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /** Stops the reader threads; transfers still running fail. */
+    public void close() {
+        readers.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "ReadAhead[" + (fixedSize > 0 ? fixedSize + " bytes" : "by file store")
+                + ", transfers=" + readAheads + ", without read-ahead=" + saturated + "]";
+    }
+}
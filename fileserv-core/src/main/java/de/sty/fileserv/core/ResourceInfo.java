@@ -0,0 +1,57 @@
+package de.sty.fileserv.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+
+/**
+ * Metadata of a resource, read with a single {@code stat} call.
+ * Handlers pass it along instead of asking the file system again.
+ *
+ * @param path  the resolved path
+ * @param attrs the attributes, or {@code null} if the resource does not exist
+ */
+public record ResourceInfo(Path path, BasicFileAttributes attrs) {
+
+    /** Directories share a constant entity tag. */
+    public static final String DIRECTORY_ETAG = "\"dir\"";
+
+    /**
+     * Reads the attributes of {@code p}; a missing file yields a non-existing info.
+     */
+    public static ResourceInfo read(Path p) throws IOException {
+        try {
+            return new ResourceInfo(p, Files.readAttributes(p, BasicFileAttributes.class));
+        } catch (NoSuchFileException e) {
+            return new ResourceInfo(p, null);
+        }
+    }
+
+    public boolean exists() {
+        return attrs != null;
+    }
+
+    public boolean isDirectory() {
+        return attrs != null && attrs.isDirectory();
+    }
+
+    /** Content length; {@code 0} for collections and missing resources. */
+    public long size() {
+        return attrs == null || attrs.isDirectory() ? 0 : attrs.size();
+    }
+
+    /** Modification time, or {@code null} if the resource does not exist. */
+    public Instant lastModified() {
+        return attrs == null ? null : attrs.lastModifiedTime().toInstant();
+    }
+
+    /** Cheap entity tag (size + mtime), or {@code null} if the resource does not exist. */
+    public String etag() {
+        if (attrs == null) return null;
+        if (attrs.isDirectory()) return DIRECTORY_ETAG;
+        return "\"" + attrs.size() + "-" + attrs.lastModifiedTime().toMillis() + "\"";
+    }
+}
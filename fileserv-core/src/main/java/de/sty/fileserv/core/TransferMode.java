@@ -0,0 +1,26 @@
+package de.sty.fileserv.core;
+
+import java.util.Locale;
+
+/**
+ * How {@link WebDavServlet} copies file content to the response.
+ */
+public enum TransferMode {
+    /** Copy through a heap buffer via {@link java.io.InputStream#transferTo}. The legacy behaviour. */
+    STREAM,
+    /** Hand a {@link java.nio.channels.FileChannel} to the container, avoiding heap copies. */
+    CHANNEL,
+    /**
+     * Like {@link #CHANNEL}, but full and single-range file responses are sent asynchronously
+     * ({@link AsyncFileSender}), so slow clients do not hold a thread.
+     */
+    ASYNC;
+
+    /**
+     * Parses a mode name case-insensitively; {@code null} or blank yields {@link #CHANNEL}.
+     */
+    public static TransferMode parse(String s) {
+        if (s == null || s.isBlank()) return CHANNEL;
+        return valueOf(s.trim().toUpperCase(Locale.ROOT));
+    }
+}
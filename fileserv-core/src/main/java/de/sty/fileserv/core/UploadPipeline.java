@@ -0,0 +1,265 @@
+package de.sty.fileserv.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-stage upload: the request thread reads the body into direct buffers and hands full buffers
+ * to a writer thread, which writes them to the file and returns them to a shared pool. A slow disk
+ * then no longer stops the socket from being read, and a slow client no longer leaves the disk
+ * idle while it is written.
+ * <p>
+ * Both stages are bounded. An upload has at most {@link #MAX_IN_FLIGHT} buffers waiting for the
+ * disk, fewer if the pool is smaller; beyond that the reader stops reading the socket, so TCP flow
+ * control slows the client down. Writers only run while an upload has full buffers, so a slow
+ * client holds one partly filled buffer but no writer thread. All uploads share one pool of
+ * buffers. When it is exhausted, readers wait for a buffer, but no longer than
+ * {@link #POOL_WAIT_MILLIS}; then they read into a heap buffer, which is dropped once written, so
+ * a request thread is never parked indefinitely behind other uploads.
+ */
+public final class UploadPipeline implements AutoCloseable {
+
+    /** Bytes per buffer. */
+    public static final int BUFFER_SIZE = 256 * 1024;
+
+    /** Default number of buffers in the pool. */
+    public static final int DEFAULT_BUFFERS = 64;
+
+    /** Most buffers of one upload waiting for the disk. */
+    static final int MAX_IN_FLIGHT = 4;
+
+    /** Longest wait for a pooled buffer before falling back to a heap buffer. */
+    static final long POOL_WAIT_MILLIS = 1000;
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    /** Most buffers of one upload waiting for the disk; leaves one of the pool for the reader. */
+    private final int maxInFlight;
+    private final long poolWaitNanos;
+    private final LinkedBlockingQueue<ByteBuffer> free = new LinkedBlockingQueue<>();
+    /** Buffers allocated so far; they are allocated on first use. */
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final ExecutorService writers;
+
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    /** Times a reader waited because its upload's buffers were all waiting for the disk. */
+    private final AtomicLong diskWaits = new AtomicLong();
+    /** Times a reader waited because the pool was empty. */
+    private final AtomicLong poolWaits = new AtomicLong();
+    /** Heap buffers used because no pooled buffer became free in time. */
+    private final AtomicLong heapBuffers = new AtomicLong();
+    /** Times a writer ran out of full buffers and had to wait for the client. */
+    private final AtomicLong clientWaits = new AtomicLong();
+
+    /**
+     * @param buffers    buffers in the pool; also determines the number of writer threads
+     * @param bufferSize bytes per buffer
+     */
+    public UploadPipeline(int buffers, int bufferSize) {
+        this(buffers, bufferSize, TimeUnit.MILLISECONDS.toNanos(POOL_WAIT_MILLIS));
+    }
+
+    UploadPipeline(int buffers, int bufferSize, long poolWaitNanos) {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = Math.max(2, buffers);
+        this.maxInFlight = Math.min(MAX_IN_FLIGHT, maxBuffers - 1);
+        this.poolWaitNanos = poolWaitNanos;
+        // enough writers for every upload that holds its share of the pool
+        this.writers = Executors.newFixedThreadPool(Math.max(1, maxBuffers / maxInFlight), r -> {
+            Thread t = new Thread(r, "upload-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Bytes per buffer. */
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Copies {@code in} to {@code out} until the end of {@code in}, writing on a writer thread
+     * while the next buffer is read. Returns once everything is written.
+     *
+     * @return the number of bytes copied
+     */
+    public long copy(InputStream in, WritableByteChannel out) throws IOException {
+        uploads.incrementAndGet();
+        Upload upload = new Upload(out);
+        byte[] chunk = new byte[FileSender.CHUNK_SIZE];
+        ByteBuffer buf = null;
+        long size = 0;
+        boolean complete = false;
+        try {
+            while (true) {
+                if (buf == null) buf = upload.acquire();
+                int n = in.read(chunk, 0, Math.min(chunk.length, buf.remaining()));
+                if (n < 0) break;
+                buf.put(chunk, 0, n);
+                size += n;
+                if (!buf.hasRemaining()) {
+                    upload.submit(buf);
+                    buf = null;
+                }
+            }
+            if (buf != null && buf.position() > 0) {
+                upload.submit(buf);
+                buf = null;
+            }
+            upload.await();
+            complete = true;
+            return size;
+        } finally {
+            if (buf != null) release(buf);
+            if (!complete) upload.cancel();
+        }
+    }
+
+    private ByteBuffer take() throws InterruptedException {
+        ByteBuffer buf = free.poll();
+        if (buf != null) return buf;
+        if (allocated.getAndUpdate(n -> n < maxBuffers ? n + 1 : n) < maxBuffers) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        poolWaits.incrementAndGet();
+        buf = free.poll(poolWaitNanos, TimeUnit.NANOSECONDS);
+        if (buf != null) return buf;
+        heapBuffers.incrementAndGet();
+        return ByteBuffer.allocate(bufferSize);
+    }
+
+    private void release(ByteBuffer buf) {
+        // heap buffers only bridge an exhausted pool
+        if (buf.isDirect()) free.add(buf.clear());
+    }
+
+    /** The buffers of one upload between its reader and its writer. */
+    private final class Upload {
+        final WritableByteChannel out;
+        /** Full buffers in upload order. */
+        final ConcurrentLinkedQueue<ByteBuffer> full = new ConcurrentLinkedQueue<>();
+        /** Permits for full buffers not written yet. */
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        /** Whether a writer runs or is about to run {@link #drain()}. */
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile IOException failure;
+        volatile boolean cancelled;
+        /** Whether a buffer was submitted before; only used by the reader. */
+        boolean submitted;
+
+        Upload(WritableByteChannel out) {
+            this.out = out;
+        }
+
+        /** Returns an empty buffer from the pool. */
+        ByteBuffer acquire() throws IOException {
+            checkFailure();
+            try {
+                return take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for an upload buffer");
+            }
+        }
+
+        /** Queues a full buffer for the writer; waits while too many are queued. */
+        void submit(ByteBuffer buf) throws IOException {
+            try {
+                if (!inFlight.tryAcquire()) {
+                    diskWaits.incrementAndGet();
+                    inFlight.acquire();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the disk");
+            }
+            full.add(buf.flip());
+            if (scheduled.compareAndSet(false, true)) {
+                // the writer had run dry before this buffer was read
+                if (submitted) clientWaits.incrementAndGet();
+                try {
+                    writers.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // closed while uploads run
+                    drain();
+                }
+            }
+            submitted = true;
+        }
+
+        private void drain() {
+            while (true) {
+                ByteBuffer buf;
+                while ((buf = full.poll()) != null) {
+                    try {
+                        if (failure == null && !cancelled) {
+                            int n = buf.remaining();
+                            while (buf.hasRemaining()) out.write(buf);
+                            bytes.addAndGet(n);
+                        }
+                    } catch (IOException e) {
+                        failure = e;
+                    } catch (RuntimeException e) {
+                        failure = new IOException(e);
+                    } finally {
+                        release(buf);
+                        inFlight.release();
+                    }
+                }
+                scheduled.set(false);
+                // a buffer submitted after the last poll has found the flag still set
+                if (full.isEmpty() || !scheduled.compareAndSet(false, true)) return;
+            }
+        }
+
+        /** Waits until all submitted buffers are written. */
+        void await() throws IOException {
+            try {
+                inFlight.acquire(maxInFlight);
+                inFlight.release(maxInFlight);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the disk");
+            }
+            checkFailure();
+        }
+
+        /** Drops the buffers not written yet and waits until the writer has let go of the channel. */
+        void cancel() {
+            cancelled = true;
+            inFlight.acquireUninterruptibly(maxInFlight);
+        }
+
+        private void checkFailure() throws IOException {
+            IOException e = failure;
+            if (e != null) throw new IOException("Cannot write upload: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        writers.shutdown();
+        free.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "UploadPipeline[" + maxBuffers + " x " + bufferSize + " bytes, allocated=" + allocated
+                + ", uploads=" + uploads + ", bytes=" + bytes + ", waits for disk=" + diskWaits
+                + ", waits for buffers=" + poolWaits + ", heap buffers=" + heapBuffers + ", waits for clients=" + clientWaits + "]";
+    }
+}
@@ -0,0 +1,312 @@
+package de.sty.fileserv.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resumable uploads: a PUT with {@code Content-Range} appends to a staging file instead of
+ * replacing the target, and the last part publishes the staging file with an atomic rename.
+ * <p>
+ * There is one session per target path. Its state is on disk, so sessions survive a restart: the
+ * offset is the size of the staging file, and the first total a part announces is kept in a
+ * {@value #TOTAL_SUFFIX} file next to it; later parts must agree with it. Staging files live in
+ * the hidden directory {@value #DIRECTORY} below the data directory, on the same file system as
+ * the targets, and are named by a hash of the target path. Sessions without writes for the
+ * timeout are deleted by a background sweep, started with the first part.
+ * <p>
+ * A session is claimed in memory while a part is written, up to and including the publishing of
+ * the last one, so concurrent parts of the same session are rejected instead of writing to a
+ * staging file that is being renamed into place.
+ */
+public final class UploadSessions implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UploadSessions.class);
+
+    /** Staging directory below the data directory; hidden like all {@link AtomicWrite#isTemp temp files}. */
+    public static final String DIRECTORY = ".uploads" + AtomicWrite.TEMP_SUFFIX;
+
+    /** Suffix of the file next to a staging file that holds the total size of the upload. */
+    static final String TOTAL_SUFFIX = ".total";
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+
+    private final Path dir;
+    private final long timeoutMs;
+    /** Path keys of the sessions a part is being written to. */
+    private final Set<String> busy = ConcurrentHashMap.newKeySet();
+    /** Started with the first part; guarded by {@code this}. */
+    private ScheduledExecutorService sweeper;
+    private boolean closed;
+
+    /**
+     * A parsed {@code Content-Range: bytes first-last/total} request header.
+     *
+     * @param total the complete size, or {@code -1} for {@code *} (more parts follow)
+     */
+    public record ContentRange(long first, long last, long total) {
+
+        public long length() {
+            return last - first + 1;
+        }
+
+        /** Whether this part ends the upload. */
+        public boolean isFinal() {
+            return total >= 0 && last + 1 == total;
+        }
+
+        /**
+         * Parses the header value; returns {@code null} if it is malformed or inconsistent.
+         */
+        public static ContentRange parse(String header) {
+            if (header == null) return null;
+            Matcher m = CONTENT_RANGE.matcher(header.trim());
+            if (!m.matches()) return null;
+            try {
+                long first = Long.parseLong(m.group(1));
+                long last = Long.parseLong(m.group(2));
+                long total = m.group(3).equals("*") ? -1 : Long.parseLong(m.group(3));
+                if (last < first || (total >= 0 && last >= total)) return null;
+                return new ContentRange(first, last, total);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A part that does not continue the upload: it starts after the current offset, announces a
+     * different total than an earlier part or reaches beyond it, or another part of the same
+     * session is being written.
+     */
+    public static final class ConflictException extends IOException {
+
+        private final long offset;
+
+        ConflictException(String message, long offset) {
+            super(message);
+            this.offset = offset;
+        }
+
+        /** The offset the client should resume from. */
+        public long offset() {
+            return offset;
+        }
+    }
+
+    /**
+     * @param dataDir   the served directory
+     * @param timeoutMs sessions without writes for this long are deleted; {@code 0} keeps them
+     */
+    public UploadSessions(Path dataDir, long timeoutMs) {
+        this.dir = dataDir.resolve(DIRECTORY);
+        this.timeoutMs = timeoutMs;
+    }
+
+    /** Starts the background sweep, unless it runs already or sessions are kept forever. */
+    private synchronized void startSweeper() {
+        if (sweeper != null || closed || timeoutMs <= 0) return;
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "upload-session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, timeoutMs / 4);
+        sweeper.scheduleWithFixedDelay(this::sweepQuietly, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /** Whether the background sweep has been started. */
+    synchronized boolean isSweeping() {
+        return sweeper != null;
+    }
+
+    /**
+     * Returns the staging file of {@code target}'s session, whether or not it exists.
+     */
+    public Path staging(Path target) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(WebDavServlet.pathKey(target).getBytes(StandardCharsets.UTF_8));
+            return dir.resolve(HexFormat.of().formatHex(hash));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Path totalFile(Path staging) {
+        return staging.resolveSibling(staging.getFileName() + TOTAL_SUFFIX);
+    }
+
+    /** Returns the total size announced for the session, or {@code -1} if none was. */
+    private static long readTotal(Path staging) throws IOException {
+        try {
+            return Long.parseLong(Files.readString(totalFile(staging)).trim());
+        } catch (NoSuchFileException e) {
+            return -1;
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring malformed upload total of {}", staging);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns how many bytes of {@code target}'s upload have arrived, or {@code -1} if there is no
+     * session.
+     */
+    public long offset(Path target) throws IOException {
+        try {
+            return Files.size(staging(target));
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Writes one part to {@code target}'s session, starting one if needed. A part may repeat bytes
+     * that already arrived but must not leave a gap; a part starting at 0 starts over. Bytes read
+     * before the body breaks off are kept. A part that completes the upload publishes it, replacing
+     * {@code target} atomically, and ends the session.
+     *
+     * @return the new offset; equal to {@link ContentRange#total()} if the upload was published
+     * @throws ConflictException if the part starts beyond the offset, disagrees with the total of
+     *                           an earlier part or the session is busy
+     */
+    public long write(Path target, ContentRange range, InputStream in, FsyncPolicy policy) throws IOException {
+        Path staging = staging(target);
+        String key = WebDavServlet.pathKey(target);
+        if (!busy.add(key)) throw new ConflictException("Upload in progress", Math.max(0, offset(target)));
+        try {
+            startSweeper();
+            Files.createDirectories(dir);
+            return write(staging, target, range, in, policy);
+        } finally {
+            busy.remove(key);
+        }
+    }
+
+    private long write(Path staging, Path target, ContentRange range, InputStream in, FsyncPolicy policy)
+            throws IOException {
+        long size;
+        try (FileChannel ch = FileChannel.open(staging, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (range.first() == 0) {
+                ch.truncate(0);
+                Files.deleteIfExists(totalFile(staging));
+            }
+            long offset = ch.size();
+            if (range.first() > offset) {
+                throw new ConflictException("Part starts at " + range.first() + ", expected " + offset, offset);
+            }
+            long total = readTotal(staging);
+            if (total >= 0 && range.total() >= 0 && range.total() != total) {
+                throw new ConflictException("Upload is " + total + " bytes, part says " + range.total(), offset);
+            }
+            if (total >= 0 && range.last() >= total) {
+                throw new ConflictException("Part ends at " + range.last() + ", upload is " + total + " bytes", offset);
+            }
+            if (total < 0 && range.total() >= 0) Files.writeString(totalFile(staging), Long.toString(range.total()));
+            byte[] buf = new byte[FileSender.CHUNK_SIZE];
+            long pos = range.first();
+            long end = range.last() + 1;
+            while (pos < end) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, end - pos));
+                if (n < 0) break;
+                ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+                while (bb.hasRemaining()) pos += ch.write(bb, pos);
+            }
+            if (range.total() >= 0 && ch.size() > range.total()) ch.truncate(range.total());
+            size = ch.size();
+            if (size == range.total() && policy != FsyncPolicy.NONE) ch.force(true);
+        }
+        // still claimed, so no other part of the session can open the staging file meanwhile
+        if (size == range.total()) {
+            AtomicWrite.commit(staging, target, policy);
+            Files.deleteIfExists(totalFile(staging));
+        }
+        return size;
+    }
+
+    /**
+     * Ends {@code target}'s session, discarding what was uploaded.
+     *
+     * @return whether there was a session
+     */
+    public boolean cancel(Path target) throws IOException {
+        Path staging = staging(target);
+        Files.deleteIfExists(totalFile(staging));
+        return Files.deleteIfExists(staging);
+    }
+
+    /**
+     * Deletes staging files that were not written to within the timeout.
+     *
+     * @return the number of sessions deleted
+     */
+    public int sweep() throws IOException {
+        long cutoff = System.currentTimeMillis() - timeoutMs;
+        int removed = 0;
+        if (!Files.isDirectory(dir)) return 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                try {
+                    if (p.getFileName().toString().endsWith(TOTAL_SUFFIX)) {
+                        // left behind by a session that ended between deleting its two files
+                        String name = p.getFileName().toString();
+                        Path staging = p.resolveSibling(name.substring(0, name.length() - TOTAL_SUFFIX.length()));
+                        if (Files.notExists(staging) && Files.getLastModifiedTime(p).toMillis() < cutoff) {
+                            Files.deleteIfExists(p);
+                        }
+                    } else if (Files.getLastModifiedTime(p).toMillis() < cutoff && Files.deleteIfExists(p)) {
+                        Files.deleteIfExists(totalFile(p));
+                        removed++;
+                    }
+                } catch (NoSuchFileException e) {
+                    // committed meanwhile
+                }
+            }
+        }
+        if (removed > 0) LOG.info("Removed {} abandoned upload sessions", removed);
+        return removed;
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (IOException e) {
+            LOG.warn("Cannot sweep upload sessions in {}: {}", dir, e.toString());
+        }
+    }
+
+    /**
+     * Stops the background sweep. Sessions stay on disk and can be resumed after a restart.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (sweeper != null) sweeper.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "UploadSessions[" + dir + ", timeout=" + timeoutMs + " ms]";
+    }
+}
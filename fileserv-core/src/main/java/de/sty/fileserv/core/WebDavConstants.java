@@ -21,6 +21,7 @@ public final class WebDavConstants {
     public static final String METHOD_HEAD     = "HEAD";
     public static final String METHOD_PUT      = "PUT";
     public static final String METHOD_DELETE   = "DELETE";
+    public static final String METHOD_POST     = "POST";
 
     // --- WebDAV + HTTP Headers ---
     public static final String HEADER_DAV           = "DAV";
@@ -32,12 +33,28 @@ public final class WebDavConstants {
     public static final String HEADER_OVERWRITE     = "Overwrite";
     public static final String HEADER_ALLOW         = "Allow";
     public static final String HEADER_ETAG          = "ETag";
+    public static final String HEADER_DIGEST        = "Digest";
+    public static final String HEADER_REPR_DIGEST   = "Repr-Digest";
     public static final String HEADER_LAST_MODIFIED = "Last-Modified";
     public static final String HEADER_AUTHORIZATION = "Authorization";
     public static final String HEADER_WWW_AUTHENTICATE = "WWW-Authenticate";
     public static final String HEADER_CONTENT_TYPE  = "Content-Type";
     public static final String HEADER_CONTENT_LENGTH = "Content-Length";
     public static final String HEADER_SERVER         = "Server";
+    public static final String HEADER_ACCEPT_RANGES  = "Accept-Ranges";
+    public static final String HEADER_RANGE          = "Range";
+    public static final String HEADER_IF_RANGE       = "If-Range";
+    public static final String HEADER_CONTENT_RANGE  = "Content-Range";
+    public static final String HEADER_IF_MATCH            = "If-Match";
+    public static final String HEADER_IF_NONE_MATCH       = "If-None-Match";
+    public static final String HEADER_IF_MODIFIED_SINCE   = "If-Modified-Since";
+    public static final String HEADER_IF_UNMODIFIED_SINCE = "If-Unmodified-Since";
+    public static final String HEADER_ACCEPT_ENCODING     = "Accept-Encoding";
+    public static final String HEADER_CONTENT_ENCODING    = "Content-Encoding";
+    public static final String HEADER_VARY                = "Vary";
+    public static final String HEADER_ACCEPT              = "Accept";
+    public static final String HEADER_CONTENT_DISPOSITION = "Content-Disposition";
+    public static final String HEADER_UPLOAD_OFFSET       = "Upload-Offset";
 
     // --- Auth ---
     public static final String AUTH_PREFIX_BASIC     = "Basic ";
@@ -52,18 +69,28 @@ public final class WebDavConstants {
     // --- Status Codes ---
     public static final int SC_200_OK = HttpServletResponse.SC_OK;                // 200
     public static final int SC_201_CREATED = HttpServletResponse.SC_CREATED;           // 201
+    public static final int SC_202_ACCEPTED = HttpServletResponse.SC_ACCEPTED;          // 202
     public static final int SC_204_NO_CONTENT = HttpServletResponse.SC_NO_CONTENT;        // 204
+    public static final int SC_206_PARTIAL_CONTENT = HttpServletResponse.SC_PARTIAL_CONTENT; // 206
     public static final int SC_207_MULTI_STATUS = 207;
+    public static final int SC_304_NOT_MODIFIED = HttpServletResponse.SC_NOT_MODIFIED;     // 304
     public static final int SC_400_BAD_REQUEST = HttpServletResponse.SC_BAD_REQUEST;       // 400
     public static final int SC_401_UNAUTHORIZED = HttpServletResponse.SC_UNAUTHORIZED;      // 401
     public static final int SC_403_FORBIDDEN = HttpServletResponse.SC_FORBIDDEN;         // 403
     public static final int SC_404_NOT_FOUND = HttpServletResponse.SC_NOT_FOUND;         // 404
     public static final int SC_405_METHOD_NOT_ALLOWED = HttpServletResponse.SC_METHOD_NOT_ALLOWED; // 405
     public static final int SC_409_CONFLICT = HttpServletResponse.SC_CONFLICT;          // 409
+    public static final int SC_412_PRECONDITION_FAILED = HttpServletResponse.SC_PRECONDITION_FAILED; // 412
+    public static final int SC_415_UNSUPPORTED_MEDIA_TYPE = HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE; // 415
+    public static final int SC_416_RANGE_NOT_SATISFIABLE = HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE; // 416
     public static final int SC_423_LOCKED = 423;
+    public static final int SC_507_INSUFFICIENT_STORAGE = 507;
 
     // --- Content Types ---
     public static final String CONTENT_TYPE_XML = "application/xml; charset=utf-8";
+    public static final String CONTENT_TYPE_OCTET_STREAM = "application/octet-stream";
+    public static final String CONTENT_TYPE_MULTIPART_BYTERANGES = "multipart/byteranges";
+    public static final String CONTENT_TYPE_ZIP = "application/zip";
 
     // --- Protocols ---
     public static final String PROTOCOL_HTTP_1_1 = "HTTP/1.1";
@@ -74,4 +101,11 @@ public final class WebDavConstants {
     public static final String TIMEOUT_INFINITE = "Infinite";
     public static final String TIMEOUT_SECOND = "Second-";
 
+    // --- HTTP Values ---
+    public static final String ACCEPT_RANGES_BYTES = "bytes";
+
+    // --- Query Parameters ---
+    public static final String PARAM_ARCHIVE = "archive";
+    public static final String ARCHIVE_ZIP   = "zip";
+
 }
@@ -1,8 +1,15 @@
 package de.sty.fileserv.core;
 
 import jakarta.servlet.DispatcherType;
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
 import org.eclipse.jetty.ee10.servlet.FilterHolder;
 import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee10.servlet.ServletHolder;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.AbstractHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.ForwardedRequestCustomizer;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpConnectionFactory;
@@ -10,23 +17,46 @@ import org.eclipse.jetty.server.SecureRequestCustomizer;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.VirtualThreads;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 
 public final class WebDavServer {
     private static final Logger LOG = LoggerFactory.getLogger(WebDavServer.class);
 
+    /** Default size of the platform thread pool. */
+    public static final int DEFAULT_MAX_THREADS = 200;
+
+    /** Default number of concurrent HTTP/2 streams per connection. */
+    public static final int DEFAULT_HTTP2_MAX_CONCURRENT_STREAMS = 128;
+
+    /** Default HTTP/2 flow-control receive window per stream in bytes. */
+    public static final int DEFAULT_HTTP2_STREAM_WINDOW = 512 * 1024;
+
+    /** Default HTTP/2 flow-control receive window per connection in bytes. */
+    public static final int DEFAULT_HTTP2_SESSION_WINDOW = 1024 * 1024;
+
     private WebDavServer() {}
 
     public static Server build(FileServConfig cfg) {
-        LOG.info("Building WebDavServer (behindProxy={}, httpPort={}, httpsPort={})",
-                cfg.behindProxy(), cfg.httpPort(), cfg.httpsPort());
+        LOG.info("Building WebDavServer (behindProxy={}, httpPort={}, httpsPort={}, http2={})",
+                cfg.behindProxy(), cfg.httpPort(), cfg.httpsPort(), cfg.http2());
         LOG.info("Data directory: {}", cfg.dataDir().toAbsolutePath().normalize());
 
-        Server server = new Server();
+        QueuedThreadPool threads = new QueuedThreadPool(cfg.maxThreads());
+        threads.setName("fileserv");
+        if (cfg.virtualThreads()) {
+            // selectors and internal tasks stay on the bounded platform pool, requests run on virtual threads
+            threads.setVirtualThreadsExecutor(VirtualThreads.getNamedVirtualThreadsExecutor("fileserv-vt-"));
+            LOG.info("Dispatching requests on virtual threads (platform pool max {})", cfg.maxThreads());
+        }
+        Server server = new Server(threads);
 
         HttpConfiguration httpConfig = new HttpConfiguration();
         httpConfig.setSendServerVersion(false);
@@ -36,10 +66,16 @@ public final class WebDavServer {
         }
 
         if (cfg.httpPort() >= 0) {
-            ServerConnector http = new ServerConnector(server, new HttpConnectionFactory(httpConfig));
+            List<ConnectionFactory> factories = new ArrayList<>();
+            factories.add(new HttpConnectionFactory(httpConfig));
+            if (cfg.http2()) {
+                // cleartext HTTP/2 for proxies: prior knowledge or "Upgrade: h2c"
+                factories.add(configure(new HTTP2CServerConnectionFactory(httpConfig), cfg));
+            }
+            ServerConnector http = new ServerConnector(server, factories.toArray(ConnectionFactory[]::new));
             http.setPort(cfg.httpPort());
             server.addConnector(http);
-            LOG.debug("Added HTTP connector on port {}", cfg.httpPort());
+            LOG.debug("Added HTTP connector on port {} ({})", cfg.httpPort(), http.getProtocols());
         }
 
         if (cfg.httpsPort() >= 0) {
@@ -52,30 +88,85 @@ public final class WebDavServer {
             ssl.setKeyManagerPassword(cfg.keyPassword());
             LOG.debug("Configured SSL with keystore at {} (passwords not logged)", cfg.keyStorePath());
 
-            ServerConnector https = new ServerConnector(
-                    server,
-                    new SslConnectionFactory(ssl, "http/1.1"),
-                    new HttpConnectionFactory(httpsConfig)
-            );
+            ServerConnector https;
+            if (cfg.http2()) {
+                // h2 requires TLS 1.2+ ciphers outside the RFC 9113 block list to be preferred
+                ssl.setCipherComparator(HTTP2Cipher.COMPARATOR);
+                ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory();
+                alpn.setDefaultProtocol("http/1.1");
+                https = new ServerConnector(
+                        server,
+                        new SslConnectionFactory(ssl, alpn.getProtocol()),
+                        alpn,
+                        configure(new HTTP2ServerConnectionFactory(httpsConfig), cfg),
+                        new HttpConnectionFactory(httpsConfig)
+                );
+            } else {
+                https = new ServerConnector(
+                        server,
+                        new SslConnectionFactory(ssl, "http/1.1"),
+                        new HttpConnectionFactory(httpsConfig)
+                );
+            }
             https.setPort(cfg.httpsPort());
             server.addConnector(https);
-            LOG.debug("Added HTTPS connector on port {}", cfg.httpsPort());
+            LOG.debug("Added HTTPS connector on port {} ({})", cfg.httpsPort(), https.getProtocols());
         }
 
         ServletContextHandler ctx = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
         ctx.setContextPath("/");
 
-        ctx.addFilter(new FilterHolder(new FileServVersionFilter()),
-                "/*", EnumSet.of(DispatcherType.REQUEST));
+        // async support lets TransferMode.ASYNC release the request thread
+        FilterHolder versionFilter = new FilterHolder(new FileServVersionFilter());
+        versionFilter.setAsyncSupported(true);
+        ctx.addFilter(versionFilter, "/*", EnumSet.of(DispatcherType.REQUEST));
 
-        ctx.addFilter(new FilterHolder(new BasicAuthFilter(cfg.authenticator(), cfg.behindProxy(), cfg.allowHttp())),
-                "/*", EnumSet.of(DispatcherType.REQUEST));
+        FilterHolder authFilter = new FilterHolder(new BasicAuthFilter(cfg.authenticator(), cfg.behindProxy(), cfg.allowHttp()));
+        authFilter.setAsyncSupported(true);
+        ctx.addFilter(authFilter, "/*", EnumSet.of(DispatcherType.REQUEST));
 
-        ctx.addServlet(WebDavServlet.class, "/*")
-                .setInitParameter(WebDavServlet.DATA_DIR, cfg.dataDir().toAbsolutePath().normalize().toString());
+        ServletHolder servlet = ctx.addServlet(WebDavServlet.class, "/*");
+        servlet.setAsyncSupported(true);
+        servlet.setInitParameter(WebDavServlet.DATA_DIR, cfg.dataDir().toAbsolutePath().normalize().toString());
+        if (cfg.transferMode() != null) {
+            servlet.setInitParameter(WebDavServlet.TRANSFER_MODE, cfg.transferMode().name());
+        }
+        if (cfg.fsyncPolicy() != null) {
+            servlet.setInitParameter(WebDavServlet.FSYNC_POLICY, cfg.fsyncPolicy().name());
+        }
+        servlet.setInitParameter(WebDavServlet.UPLOAD_SESSION_TIMEOUT, Long.toString(cfg.uploadSessionTimeout()));
+        servlet.setInitParameter(WebDavServlet.CONTENT_DIGEST, Boolean.toString(cfg.contentDigest()));
+        servlet.setInitParameter(WebDavServlet.DEDUP, Boolean.toString(cfg.dedup()));
+        servlet.setInitParameter(WebDavServlet.QUOTAS, Quotas.formatLimits(cfg.quotas()));
+        servlet.setInitParameter(WebDavServlet.HOME_QUOTA, Long.toString(cfg.homeQuota()));
+        servlet.setInitParameter(WebDavServlet.QUOTA_RECONCILE_INTERVAL, Long.toString(cfg.quotaReconcileInterval()));
+        servlet.setInitParameter(WebDavServlet.WRITE_BEHIND, Boolean.toString(cfg.writeBehind()));
+        servlet.setInitParameter(WebDavServlet.WRITE_BEHIND_MAX_FILE_SIZE, Long.toString(cfg.writeBehindMaxFileSize()));
+        servlet.setInitParameter(WebDavServlet.UPLOAD_PIPELINE, Boolean.toString(cfg.uploadPipeline()));
+        servlet.setInitParameter(WebDavServlet.UPLOAD_PIPELINE_BUFFERS, Integer.toString(cfg.uploadPipelineBuffers()));
+        servlet.setInitParameter(WebDavServlet.HOT_CACHE_SIZE, Long.toString(cfg.hotCacheSize()));
+        servlet.setInitParameter(WebDavServlet.HOT_CACHE_MAX_FILE_SIZE, Long.toString(cfg.hotCacheMaxFileSize()));
+        servlet.setInitParameter(WebDavServlet.MMAP_POOL_SIZE, Long.toString(cfg.mmapPoolSize()));
+        servlet.setInitParameter(WebDavServlet.MMAP_MIN_FILE_SIZE, Long.toString(cfg.mmapMinFileSize()));
+        servlet.setInitParameter(WebDavServlet.COMPRESSION, Boolean.toString(cfg.compression()));
+        servlet.setInitParameter(WebDavServlet.COMPRESSION_CACHE_SIZE, Long.toString(cfg.compressionCacheSize()));
+        servlet.setInitParameter(WebDavServlet.OPEN_FILE_CACHE_SIZE, Integer.toString(cfg.openFileCacheSize()));
+        servlet.setInitParameter(WebDavServlet.OPEN_FILE_IDLE_TIMEOUT, Long.toString(cfg.openFileIdleTimeout()));
+        servlet.setInitParameter(WebDavServlet.RATE_LIMIT, Long.toString(cfg.rateLimit()));
+        servlet.setInitParameter(WebDavServlet.USER_RATE_LIMIT, Long.toString(cfg.userRateLimit()));
+        servlet.setInitParameter(WebDavServlet.CONNECTION_RATE_LIMIT, Long.toString(cfg.connectionRateLimit()));
+        servlet.setInitParameter(WebDavServlet.READ_AHEAD, Boolean.toString(cfg.readAhead()));
+        servlet.setInitParameter(WebDavServlet.READ_AHEAD_SIZE, Integer.toString(cfg.readAheadSize()));
 
         server.setHandler(ctx);
         LOG.info("Servlet context configured at path '/'. WebDAV servlet mounted at '/*'.");
         return server;
     }
+
+    private static <T extends AbstractHTTP2ServerConnectionFactory> T configure(T h2, FileServConfig cfg) {
+        h2.setMaxConcurrentStreams(cfg.http2MaxConcurrentStreams());
+        h2.setInitialStreamRecvWindow(cfg.http2StreamWindow());
+        h2.setInitialSessionRecvWindow(cfg.http2SessionWindow());
+        return h2;
+    }
 }
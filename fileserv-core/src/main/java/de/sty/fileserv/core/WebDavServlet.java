@@ -1,11 +1,16 @@
 package de.sty.fileserv.core;
 
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.ServletConfig;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.*;
 
 import java.io.*;
 import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -13,10 +18,12 @@ import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.zip.GZIPOutputStream;
 import javax.xml.parsers.DocumentBuilderFactory;
 
 import static de.sty.fileserv.core.WebDavConstants.*;
 
+import org.eclipse.jetty.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -32,9 +39,153 @@ public class WebDavServlet extends HttpServlet {
     /** The parameter used in ServletConfig for {@link #dataDir}. */
     public static final String DATA_DIR = "data";
 
+    /** The parameter used in ServletConfig for {@link #transferMode}. */
+    public static final String TRANSFER_MODE = "transferMode";
+
+    /** The parameter used in ServletConfig for the byte budget of {@link #hotFileCache}; 0 disables it. */
+    public static final String HOT_CACHE_SIZE = "hotCacheSize";
+
+    /** The parameter used in ServletConfig for the largest file kept in {@link #hotFileCache}. */
+    public static final String HOT_CACHE_MAX_FILE_SIZE = "hotCacheMaxFileSize";
+
+    /** Default for {@link #HOT_CACHE_MAX_FILE_SIZE}. */
+    public static final long DEFAULT_HOT_CACHE_MAX_FILE_SIZE = 64 * 1024;
+
+    /** The parameter used in ServletConfig for the total size of {@link #mappedFilePool}; 0 disables it. */
+    public static final String MMAP_POOL_SIZE = "mmapPoolSize";
+
+    /** The parameter used in ServletConfig for the smallest file served from {@link #mappedFilePool}. */
+    public static final String MMAP_MIN_FILE_SIZE = "mmapMinFileSize";
+
+    /** Default for {@link #MMAP_MIN_FILE_SIZE}. */
+    public static final long DEFAULT_MMAP_MIN_FILE_SIZE = 16 * 1024 * 1024;
+
+    /** The parameter used in ServletConfig for {@link #compression}. */
+    public static final String COMPRESSION = "compression";
+
+    /** The parameter used in ServletConfig for the byte budget of {@link #compressedCache}; 0 disables it. */
+    public static final String COMPRESSION_CACHE_SIZE = "compressionCacheSize";
+
+    /** Default for {@link #COMPRESSION_CACHE_SIZE}. */
+    public static final long DEFAULT_COMPRESSION_CACHE_SIZE = 32 * 1024 * 1024;
+
+    /** The parameter used in ServletConfig for the number of channels kept in {@link #openFileCache}; 0 disables it. */
+    public static final String OPEN_FILE_CACHE_SIZE = "openFileCacheSize";
+
+    /** The parameter used in ServletConfig for the idle timeout of {@link #openFileCache} in milliseconds. */
+    public static final String OPEN_FILE_IDLE_TIMEOUT = "openFileIdleTimeout";
+
+    /** Default for {@link #OPEN_FILE_IDLE_TIMEOUT}. */
+    public static final long DEFAULT_OPEN_FILE_IDLE_TIMEOUT = 30_000;
+
+    /** The parameter used in ServletConfig for the total transfer rate limit in bytes per second; 0 is unlimited. */
+    public static final String RATE_LIMIT = "rateLimit";
+
+    /** The parameter used in ServletConfig for the per-user transfer rate limit in bytes per second. */
+    public static final String USER_RATE_LIMIT = "userRateLimit";
+
+    /** The parameter used in ServletConfig for the per-connection transfer rate limit in bytes per second. */
+    public static final String CONNECTION_RATE_LIMIT = "connectionRateLimit";
+
+    /** The parameter used in ServletConfig to enable {@link #readAhead}. */
+    public static final String READ_AHEAD = "readAhead";
+
+    /** The parameter used in ServletConfig for the read-ahead buffer size in bytes; 0 picks it by file store. */
+    public static final String READ_AHEAD_SIZE = "readAheadSize";
+
+    /** The parameter used in ServletConfig for {@link #fsyncPolicy}. */
+    public static final String FSYNC_POLICY = "fsyncPolicy";
+
+    /** The parameter used in ServletConfig for the idle time in milliseconds after which {@link #uploadSessions} are deleted. */
+    public static final String UPLOAD_SESSION_TIMEOUT = "uploadSessionTimeout";
+
+    /** Default for {@link #UPLOAD_SESSION_TIMEOUT}: one day. */
+    public static final long DEFAULT_UPLOAD_SESSION_TIMEOUT = 24 * 60 * 60 * 1000L;
+
+    /** The parameter used in ServletConfig to enable {@link #contentDigests}. */
+    public static final String CONTENT_DIGEST = "contentDigest";
+
+    /** The parameter used in ServletConfig to enable {@link #blobStore}. */
+    public static final String DEDUP = "dedup";
+
+    /** The parameter used in ServletConfig for the {@link #quotas} of collections, as {@code path=bytes[,path=bytes...]}. */
+    public static final String QUOTAS = "quotas";
+
+    /** The parameter used in ServletConfig for the quota of each top-level (home) collection in bytes; 0 is unlimited. */
+    public static final String HOME_QUOTA = "homeQuota";
+
+    /** The parameter used in ServletConfig for the interval in milliseconds at which {@link #quotas} are reconciled with the disk. */
+    public static final String QUOTA_RECONCILE_INTERVAL = "quotaReconcileInterval";
+
+    /** The parameter used in ServletConfig to enable {@link #writeBehind}. */
+    public static final String WRITE_BEHIND = "writeBehind";
+
+    /** The parameter used in ServletConfig for the largest PUT body in bytes that is written behind. */
+    public static final String WRITE_BEHIND_MAX_FILE_SIZE = "writeBehindMaxFileSize";
+
+    /** The parameter used in ServletConfig to enable {@link #uploadPipeline}. */
+    public static final String UPLOAD_PIPELINE = "uploadPipeline";
+
+    /** The parameter used in ServletConfig for the number of buffers shared by the {@link #uploadPipeline}. */
+    public static final String UPLOAD_PIPELINE_BUFFERS = "uploadPipelineBuffers";
+
+    /** Smaller bodies are not worth compressing on the fly. */
+    protected static final int COMPRESSION_MIN_SIZE = 1024;
+
+    /** Larger files are not compressed on the fly, only served from precompressed sidecars. */
+    protected static final long COMPRESSION_MAX_FILE_SIZE = 1024 * 1024;
+
     /** The directory to serve */
     protected Path dataDir;
 
+    /** How GET copies file content to the response. */
+    protected TransferMode transferMode = TransferMode.CHANNEL;
+
+    /** Content of small files; {@code null} if disabled. */
+    protected HotFileCache hotFileCache;
+
+    /** Shared mappings of large files; {@code null} if disabled. */
+    protected MappedFilePool mappedFilePool;
+
+    /** Whether GET, HEAD and PROPFIND negotiate {@code Accept-Encoding}. */
+    protected boolean compression;
+
+    /** Gzip variants of compressible files; {@code null} if disabled. */
+    protected HotFileCache compressedCache;
+
+    /** Open channels of recently read files; {@code null} if disabled. */
+    protected OpenFileCache openFileCache;
+
+    /** Bandwidth limits for GET and PUT bodies; {@code null} if unlimited. */
+    protected RateLimiter rateLimiter;
+
+    /** How durably PUT publishes a file. */
+    protected FsyncPolicy fsyncPolicy = FsyncPolicy.FILE;
+
+    /** Resumable uploads, i.e. PUT with {@code Content-Range}. */
+    protected UploadSessions uploadSessions;
+
+    /** Content digests recorded by PUT, for strong entity tags; {@code null} if disabled. */
+    protected ContentDigests contentDigests;
+
+    /** Keeps one copy of identical files; {@code null} if disabled. */
+    protected BlobStore blobStore;
+
+    /** Journals small PUTs and publishes them in the background; {@code null} if disabled. */
+    protected WriteBehind writeBehind;
+
+    /** Reads PUT bodies and writes them to disk in separate stages; {@code null} if disabled. */
+    protected UploadPipeline uploadPipeline;
+
+    /** Storage limits and the usage index; {@code null} if no quota is configured. */
+    protected Quotas quotas;
+
+    /** Prefetches large files while sending them; {@code null} if disabled. */
+    protected ReadAhead readAhead;
+
+    /** Resolves and caches media types. */
+    protected final MimeTypes mimeTypes = new MimeTypes();
+
     /** Holds all locks in memory. */
     private final LockManager locks = new LockManager();
 
@@ -48,6 +199,97 @@ public class WebDavServlet extends HttpServlet {
         String r = Objects.requireNonNull(config.getInitParameter(DATA_DIR),
                 "init-param '" + DATA_DIR + "' required");
         dataDir = Path.of(r).toAbsolutePath().normalize();
+        transferMode = TransferMode.parse(config.getInitParameter(TRANSFER_MODE));
+        fsyncPolicy = FsyncPolicy.parse(config.getInitParameter(FSYNC_POLICY));
+
+        long hotCacheSize = parseLong(config.getInitParameter(HOT_CACHE_SIZE), 0);
+        if (hotCacheSize > 0) {
+            hotFileCache = new HotFileCache(hotCacheSize,
+                    parseLong(config.getInitParameter(HOT_CACHE_MAX_FILE_SIZE), DEFAULT_HOT_CACHE_MAX_FILE_SIZE));
+            LOG.info("Hot file cache enabled: {}", hotFileCache);
+        }
+        long mmapPoolSize = parseLong(config.getInitParameter(MMAP_POOL_SIZE), 0);
+        if (mmapPoolSize > 0) {
+            mappedFilePool = new MappedFilePool(mmapPoolSize,
+                    parseLong(config.getInitParameter(MMAP_MIN_FILE_SIZE), DEFAULT_MMAP_MIN_FILE_SIZE));
+            LOG.info("Memory-mapped serving enabled: {}", mappedFilePool);
+        }
+        compression = Boolean.parseBoolean(config.getInitParameter(COMPRESSION));
+        long compressionCacheSize = parseLong(config.getInitParameter(COMPRESSION_CACHE_SIZE), DEFAULT_COMPRESSION_CACHE_SIZE);
+        if (compression && compressionCacheSize > 0) {
+            compressedCache = new HotFileCache(compressionCacheSize, COMPRESSION_MAX_FILE_SIZE, HotFileCache.GZIP);
+        }
+        if (compression) LOG.info("Content encoding enabled, compressed variant cache: {}", compressedCache);
+        int openFileCacheSize = (int) parseLong(config.getInitParameter(OPEN_FILE_CACHE_SIZE), 0);
+        if (openFileCacheSize > 0) {
+            openFileCache = new OpenFileCache(openFileCacheSize,
+                    parseLong(config.getInitParameter(OPEN_FILE_IDLE_TIMEOUT), DEFAULT_OPEN_FILE_IDLE_TIMEOUT));
+            LOG.info("Open file cache enabled: {}", openFileCache);
+        }
+        uploadSessions = new UploadSessions(dataDir,
+                parseLong(config.getInitParameter(UPLOAD_SESSION_TIMEOUT), DEFAULT_UPLOAD_SESSION_TIMEOUT));
+        if (Boolean.parseBoolean(config.getInitParameter(CONTENT_DIGEST))) {
+            contentDigests = new ContentDigests(dataDir);
+            LOG.info("Content digests enabled: {}", contentDigests);
+        }
+        if (Boolean.parseBoolean(config.getInitParameter(DEDUP))) {
+            if (contentDigests == null) {
+                LOG.warn("Deduplication needs content digests, disabled");
+            } else if (!contentDigests.usesAttributes()) {
+                LOG.warn("Deduplication needs extended attributes to keep digests with shared content, not supported by {}",
+                        dataDir);
+            } else if (!BlobStore.isSupported(dataDir)) {
+                LOG.warn("Deduplication needs hard links with link counts, not supported by {}", dataDir);
+            } else {
+                blobStore = new BlobStore(dataDir);
+                try {
+                    int swept = blobStore.sweep();
+                    LOG.info("Deduplication enabled: {} ({} unused blobs removed)", blobStore.stats(), swept);
+                } catch (IOException e) {
+                    throw new ServletException(e);
+                }
+            }
+        }
+        if (Boolean.parseBoolean(config.getInitParameter(WRITE_BEHIND))) {
+            writeBehind = new WriteBehind(dataDir, fsyncPolicy,
+                    parseLong(config.getInitParameter(WRITE_BEHIND_MAX_FILE_SIZE), WriteBehind.DEFAULT_MAX_FILE_SIZE),
+                    this::writeFile);
+            try {
+                int recovered = writeBehind.recover();
+                LOG.info("Write-behind enabled: {} ({} journaled files recovered)", writeBehind, recovered);
+            } catch (IOException e) {
+                throw new ServletException(e);
+            }
+        }
+        if (Boolean.parseBoolean(config.getInitParameter(UPLOAD_PIPELINE))) {
+            uploadPipeline = new UploadPipeline((int) parseLong(config.getInitParameter(UPLOAD_PIPELINE_BUFFERS),
+                    UploadPipeline.DEFAULT_BUFFERS), UploadPipeline.BUFFER_SIZE);
+            LOG.info("Upload pipeline enabled: {}", uploadPipeline);
+        }
+        Map<String, Long> quotaLimits = Quotas.parseLimits(config.getInitParameter(QUOTAS));
+        long homeQuota = parseLong(config.getInitParameter(HOME_QUOTA), 0);
+        if (!quotaLimits.isEmpty() || homeQuota > 0) {
+            quotas = new Quotas(dataDir, quotaLimits, homeQuota,
+                    parseLong(config.getInitParameter(QUOTA_RECONCILE_INTERVAL), Quotas.DEFAULT_RECONCILE_INTERVAL));
+            try {
+                Files.createDirectories(dataDir);
+                quotas.reconcile();
+            } catch (IOException e) {
+                throw new ServletException(e);
+            }
+            LOG.info("Quotas enabled: {}", quotas);
+        }
+        if (Boolean.parseBoolean(config.getInitParameter(READ_AHEAD))) {
+            readAhead = new ReadAhead((int) parseLong(config.getInitParameter(READ_AHEAD_SIZE), 0));
+            LOG.info("Read-ahead enabled: {}", readAhead);
+        }
+        RateLimiter limiter = new RateLimiter(parseLong(config.getInitParameter(RATE_LIMIT), 0),
+                parseLong(config.getInitParameter(USER_RATE_LIMIT), 0),
+                parseLong(config.getInitParameter(CONNECTION_RATE_LIMIT), 0));
+        if (limiter.isEnabled()) {
+            rateLimiter = limiter;
+            LOG.info("Rate limits enabled: {}", rateLimiter);
+        }
         try {
             Files.createDirectories(dataDir);
         } catch (IOException e) {
@@ -55,10 +297,89 @@ public class WebDavServlet extends HttpServlet {
         }
     }
 
+    @Override
+    public void destroy() {
+        if (hotFileCache != null) LOG.info("Hot file cache at shutdown: {}", hotFileCache);
+        if (mappedFilePool != null) LOG.info("Mapped file pool at shutdown: {}", mappedFilePool);
+        if (compressedCache != null) LOG.info("Compressed variant cache at shutdown: {}", compressedCache);
+        if (openFileCache != null) {
+            LOG.info("Open file cache at shutdown: {}", openFileCache);
+            openFileCache.close();
+        }
+        if (readAhead != null) {
+            LOG.info("Read-ahead at shutdown: {}", readAhead);
+            readAhead.close();
+        }
+        if (uploadSessions != null) uploadSessions.close();
+        if (writeBehind != null) {
+            writeBehind.close();
+            LOG.info("Write-behind at shutdown: {}", writeBehind);
+        }
+        if (uploadPipeline != null) {
+            LOG.info("Upload pipeline at shutdown: {}", uploadPipeline);
+            uploadPipeline.close();
+        }
+        if (quotas != null) {
+            LOG.info("Quotas at shutdown: {}", quotas);
+            quotas.close();
+        }
+        if (blobStore != null) {
+            try {
+                LOG.info("Deduplication at shutdown: {}, {}", blobStore, blobStore.stats());
+            } catch (IOException e) {
+                LOG.warn("Cannot read deduplication statistics: {}", e.toString());
+            }
+        }
+        super.destroy();
+    }
+
+    /** The hot file cache, e.g. to read its statistics; {@code null} if disabled. */
+    public HotFileCache getHotFileCache() {
+        return hotFileCache;
+    }
+
+    /** The cache of open file channels, e.g. to read its statistics; {@code null} if disabled. */
+    public OpenFileCache getOpenFileCache() {
+        return openFileCache;
+    }
+
+    /** The pool of memory-mapped files, e.g. to read its statistics; {@code null} if disabled. */
+    public MappedFilePool getMappedFilePool() {
+        return mappedFilePool;
+    }
+
+    /** The deduplicating blob store, e.g. to read its statistics; {@code null} if disabled. */
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
+    /** The write-behind journal, e.g. to read its statistics; {@code null} if disabled. */
+    public WriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    /** The upload pipeline, e.g. to read its statistics; {@code null} if disabled. */
+    public UploadPipeline getUploadPipeline() {
+        return uploadPipeline;
+    }
+
+    /** The quotas and usage index, e.g. to reconcile them; {@code null} if disabled. */
+    public Quotas getQuotas() {
+        return quotas;
+    }
+
     // --- Core dispatch ---------------------------------------------------------
 
     @Override protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException, ServletException {
         String method = req.getMethod();
+        if (writeBehind != null && !writeBehind.isEmpty()) {
+            // read-your-writes: publish what is pending where this request looks
+            writeBehind.flush(resolve(req));
+            if (method.equals(METHOD_MOVE) || method.equals(METHOD_COPY)) {
+                Path dst = destination(req);
+                if (dst != null && dst.startsWith(dataDir)) writeBehind.flush(dst);
+            }
+        }
         switch (method) {
             case METHOD_OPTIONS  -> doOptions(req, resp);
             case METHOD_PROPFIND -> doPropFind(req, resp);
@@ -77,78 +398,579 @@ public class WebDavServlet extends HttpServlet {
         resp.setHeader(HEADER_MS_AUTHOR_VIA, HEADER_DAV);       // helps some MS clients
         resp.setHeader(HEADER_ALLOW,
                 METHOD_OPTIONS + ", " + METHOD_PROPFIND + ", " + METHOD_GET + ", " + METHOD_HEAD + ", " +
-                METHOD_PUT + ", " + METHOD_DELETE + ", " + METHOD_MKCOL + ", " + METHOD_MOVE + ", " +
+                METHOD_PUT + ", " + METHOD_POST + ", " + METHOD_DELETE + ", " + METHOD_MKCOL + ", " + METHOD_MOVE + ", " +
                 METHOD_COPY + ", " + METHOD_LOCK + ", " + METHOD_UNLOCK);
     }
 
     @Override protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        Path p = resolve(req);
-        if (!Files.exists(p)) { resp.sendError(SC_404_NOT_FOUND); return; }
-        if (Files.isDirectory(p)) { resp.sendError(SC_405_METHOD_NOT_ALLOWED); return; }
+        ResourceInfo r = stat(resolve(req));
+        if (!r.exists()) { resp.sendError(SC_404_NOT_FOUND); return; }
+        if (r.isDirectory()) {
+            if (wantsZip(req)) sendZip(req, resp, r);
+            else resp.sendError(SC_405_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        String contentType = mimeTypes.resolve(r);
+        EncodedVariant variant = encodedVariant(req, r, contentType);
+        long size = variant == null ? r.size() : variant.size();
+        byte[] digest = variant == null ? digest(r) : null;
+        String etag = variant != null ? variant.etag() : digest != null ? ContentDigests.etag(digest) : r.etag();
+        Instant lastModified = r.lastModified();
+        if (compression) resp.setHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+        if (!checkPreconditions(req, resp, etag, lastModified)) return;
+
+        setRepresentationHeaders(resp, contentType, variant, etag, digest, lastModified);
+
+        List<ByteRanges.Range> ranges = ifRangeMatches(req.getHeader(HEADER_IF_RANGE), etag, lastModified)
+                ? ByteRanges.parse(req.getHeader(HEADER_RANGE), size)
+                : null;
+        if (ranges != null && ranges.isEmpty()) {
+            resp.setHeader(HEADER_CONTENT_RANGE, "bytes */" + size);
+            resp.sendError(SC_416_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        RateLimiter.Throttle throttle = throttle(req);
+        if (variant != null && variant.content() != null) {
+            sendContent(resp, contentType, size, ranges,
+                    (off, len, out) -> FileSender.send(variant.content(), off, len, out, throttle));
+            return;
+        }
+        ResourceInfo source = variant == null ? r : variant.sidecar();
+        ByteBuffer cached = hotFileCache == null ? null : hotFileCache.get(source);
+        if (cached != null) {
+            sendContent(resp, contentType, size, ranges, (off, len, out) -> FileSender.send(cached, off, len, out, throttle));
+            return;
+        }
+        MappedFilePool.Mapping mapping = mappedFilePool == null ? null : mappedFilePool.acquire(source);
+        if (mapping != null) {
+            try (mapping) {
+                sendContent(resp, contentType, size, ranges, (off, len, out) -> mapping.send(off, len, out, throttle));
+            }
+            return;
+        }
+        if (transferMode == TransferMode.ASYNC && req.isAsyncSupported() && (ranges == null || ranges.size() == 1)) {
+            sendAsync(req, resp, source, size, ranges == null ? null : ranges.get(0));
+            return;
+        }
+        if (openFileCache != null && transferMode != TransferMode.STREAM) {
+            // shared channel: positional reads only, which rules out STREAM
+            try (OpenFileCache.Handle handle = openFileCache.acquire(source)) {
+                sendContent(resp, contentType, size, ranges, channelSource(handle.channel(), source, throttle));
+            }
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(source.path(), StandardOpenOption.READ)) {
+            sendContent(resp, contentType, size, ranges, channelSource(ch, source, throttle));
+        }
+    }
+
+    /**
+     * Reads {@code ch} in the configured {@link #transferMode}, with read-ahead for parts larger
+     * than one read-ahead buffer, paced by {@code throttle} unless it is {@code null}.
+     */
+    protected FileSender.Source channelSource(FileChannel ch, ResourceInfo source, RateLimiter.Throttle throttle) {
+        if (readAhead == null || transferMode == TransferMode.STREAM) {
+            return (off, len, out) -> FileSender.send(ch, off, len, out, transferMode, throttle);
+        }
+        int bufferSize = readAhead.bufferSize(source.path());
+        return (off, len, out) -> {
+            if (len > bufferSize) readAhead.send(ch, off, len, out, bufferSize, throttle);
+            else FileSender.send(ch, off, len, out, transferMode, throttle);
+        };
+    }
+
+    /**
+     * Whether a GET on a collection asks for a ZIP archive, via {@code ?archive=zip} or
+     * {@code Accept: application/zip}.
+     */
+    protected static boolean wantsZip(HttpServletRequest req) {
+        if (ARCHIVE_ZIP.equalsIgnoreCase(req.getParameter(PARAM_ARCHIVE))) return true;
+        String accept = req.getHeader(HEADER_ACCEPT);
+        return accept != null && accept.toLowerCase(Locale.ROOT).contains(CONTENT_TYPE_ZIP);
+    }
 
+    /**
+     * Streams the subtree of the collection {@code r} as a ZIP archive, built on the fly.
+     */
+    protected void sendZip(HttpServletRequest req, HttpServletResponse resp, ResourceInfo r) throws IOException {
+        Path name = r.path().equals(dataDir) ? null : r.path().getFileName();
+        String fileName = (name == null ? "archive" : name.toString()) + ".zip";
         resp.setStatus(SC_200_OK);
-        resp.setHeader(HEADER_ETAG, etag(p));
-        resp.setHeader(HEADER_LAST_MODIFIED, HTTP_DATE.format(lastModified(p)));
-        resp.setContentLengthLong(Files.size(p));
+        resp.setContentType(CONTENT_TYPE_ZIP);
+        resp.setHeader(HEADER_CONTENT_DISPOSITION, "attachment; filename*=UTF-8''"
+                + URLEncoder.encode(fileName, StandardCharsets.UTF_8).replace("+", "%20"));
+        try (OutputStream out = resp.getOutputStream()) {
+            RateLimiter.Throttle throttle = throttle(req);
+            ZipStreamer.write(r.path(), throttle == null ? out : throttle.wrap(out),
+                    f -> MimeTypes.isCompressible(mimeTypes.resolve(f)));
+        }
+    }
+
+    /**
+     * A representation of a file in a content coding.
+     *
+     * @param sidecar the precompressed file, or {@code null} if compressed on the fly
+     * @param content the content compressed on the fly, or {@code null} if served from {@code sidecar}
+     */
+    protected record EncodedVariant(ContentCoding coding, String etag, long size, ResourceInfo sidecar,
+                                    ByteBuffer content) {}
+
+    /**
+     * Negotiates the content coding of {@code r}: a precompressed sidecar ({@code file.br},
+     * {@code file.zst}, {@code file.gz}) that is not older than the file wins, otherwise files of a
+     * textual {@code contentType} are gzipped on the fly if that makes them smaller.
+     *
+     * @return the variant to serve, or {@code null} for the identity coding
+     */
+    protected EncodedVariant encodedVariant(HttpServletRequest req, ResourceInfo r, String contentType) throws IOException {
+        if (!compression) return null;
+        List<ContentCoding> accepted = ContentCoding.accepted(req.getHeader(HEADER_ACCEPT_ENCODING));
+        String name = r.path().getFileName().toString();
+        for (ContentCoding coding : accepted) {
+            ResourceInfo sidecar = stat(r.path().resolveSibling(name + coding.suffix()));
+            if (sidecar.exists() && !sidecar.isDirectory() && !sidecar.lastModified().isBefore(r.lastModified())) {
+                return new EncodedVariant(coding, coding.etag(sidecar.etag()), sidecar.size(), sidecar, null);
+            }
+        }
+        if (compressedCache != null && accepted.contains(ContentCoding.GZIP)
+                && r.size() >= COMPRESSION_MIN_SIZE && MimeTypes.isCompressible(contentType)) {
+            ByteBuffer gzip = compressedCache.get(r);
+            if (gzip != null && gzip.remaining() < r.size()) {
+                return new EncodedVariant(ContentCoding.GZIP, ContentCoding.GZIP.etag(etag(r)), gzip.remaining(), null, gzip);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the validator, digest and content coding headers shared by GET and HEAD.
+     *
+     * @param digest the content digest of the identity representation, or {@code null}
+     */
+    protected void setRepresentationHeaders(HttpServletResponse resp, String contentType, EncodedVariant variant,
+                                            String etag, byte[] digest, Instant lastModified) {
+        resp.setContentType(contentType);
+        resp.setHeader(HEADER_ACCEPT_RANGES, ACCEPT_RANGES_BYTES);
+        resp.setHeader(HEADER_ETAG, etag);
+        resp.setHeader(HEADER_LAST_MODIFIED, HTTP_DATE.format(lastModified));
+        if (variant != null) resp.setHeader(HEADER_CONTENT_ENCODING, variant.coding().token());
+        if (digest != null) {
+            resp.setHeader(HEADER_REPR_DIGEST, ContentDigests.reprDigest(digest));
+            resp.setHeader(HEADER_DIGEST, ContentDigests.legacyDigest(digest));
+        }
+    }
+
+    /**
+     * Returns the entity tag of {@code r}: strong, from the recorded content digest, if there is
+     * one, otherwise the cheap {@link ResourceInfo#etag()}.
+     */
+    protected String etag(ResourceInfo r) {
+        byte[] digest = digest(r);
+        return digest == null ? r.etag() : ContentDigests.etag(digest);
+    }
 
-        try (InputStream in = Files.newInputStream(p); OutputStream out = resp.getOutputStream()) {
-            in.transferTo(out);
+    /**
+     * Returns the recorded content digest of {@code r}, or {@code null}.
+     */
+    protected byte[] digest(ResourceInfo r) {
+        return contentDigests == null ? null : contentDigests.get(r);
+    }
+
+    /**
+     * Writes the full content ({@code ranges == null}) or the requested ranges of {@code source},
+     * which applies the rate limits itself.
+     */
+    protected void sendContent(HttpServletResponse resp, String contentType, long size,
+                               List<ByteRanges.Range> ranges, FileSender.Source source) throws IOException {
+        try (OutputStream out = resp.getOutputStream()) {
+            if (ranges == null) {
+                resp.setStatus(SC_200_OK);
+                resp.setContentLengthLong(size);
+                source.send(0, size, out);
+            } else if (ranges.size() == 1) {
+                ByteRanges.Range range = ranges.get(0);
+                resp.setStatus(SC_206_PARTIAL_CONTENT);
+                resp.setHeader(HEADER_CONTENT_RANGE, range.contentRange(size));
+                resp.setContentLengthLong(range.length());
+                source.send(range.first(), range.length(), out);
+            } else {
+                resp.setStatus(SC_206_PARTIAL_CONTENT);
+                sendMultipartRanges(resp, contentType, source, ranges, size, out);
+            }
+        }
+    }
+
+    /**
+     * Sends the full content ({@code range == null}) or a single range of {@code source} without
+     * blocking the calling thread.
+     */
+    protected void sendAsync(HttpServletRequest req, HttpServletResponse resp, ResourceInfo source, long size,
+                             ByteRanges.Range range) throws IOException {
+        long offset = 0;
+        long length = size;
+        if (range == null) {
+            resp.setStatus(SC_200_OK);
+        } else {
+            resp.setStatus(SC_206_PARTIAL_CONTENT);
+            resp.setHeader(HEADER_CONTENT_RANGE, range.contentRange(size));
+            offset = range.first();
+            length = range.length();
+        }
+        resp.setContentLengthLong(length);
+        AsynchronousFileChannel ch = AsynchronousFileChannel.open(source.path(), StandardOpenOption.READ);
+        try {
+            AsyncContext async = req.startAsync();
+            async.setTimeout(0);
+            AsyncFileSender.start(async, ch, offset, length, throttle(req));
+        } catch (IOException | RuntimeException e) {
+            // the sender closes the channel once it runs; until then it is ours
+            ch.close();
+            throw e;
         }
     }
 
     @Override protected void doHead(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        Path p = resolve(req);
-        if (!Files.exists(p)) { resp.sendError(SC_404_NOT_FOUND); return; }
-        if (Files.isDirectory(p)) { resp.sendError(SC_405_METHOD_NOT_ALLOWED); return; }
+        ResourceInfo r = stat(resolve(req));
+        long uploaded = uploadSessions.offset(r.path());
+        if (uploaded >= 0) resp.setHeader(HEADER_UPLOAD_OFFSET, Long.toString(uploaded));
+        if (!r.exists() && uploaded >= 0) { resp.setStatus(SC_204_NO_CONTENT); return; }
+        if (!r.exists()) { resp.sendError(SC_404_NOT_FOUND); return; }
+        if (r.isDirectory()) { resp.sendError(SC_405_METHOD_NOT_ALLOWED); return; }
+
+        String contentType = mimeTypes.resolve(r);
+        EncodedVariant variant = encodedVariant(req, r, contentType);
+        byte[] digest = variant == null ? digest(r) : null;
+        String etag = variant != null ? variant.etag() : digest != null ? ContentDigests.etag(digest) : r.etag();
+        if (compression) resp.setHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+        if (!checkPreconditions(req, resp, etag, r.lastModified())) return;
 
         resp.setStatus(SC_200_OK);
-        resp.setHeader(HEADER_ETAG, etag(p));
-        resp.setHeader(HEADER_LAST_MODIFIED, HTTP_DATE.format(lastModified(p)));
-        resp.setContentLengthLong(Files.size(p));
+        setRepresentationHeaders(resp, contentType, variant, etag, digest, r.lastModified());
+        resp.setContentLengthLong(variant == null ? r.size() : variant.size());
     }
 
     @Override protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         Path p = resolve(req);
         if (!checkWriteLock(req, resp, p)) return;
 
+        ResourceInfo r = stat(p);
+        if (!checkPreconditions(req, resp, etag(r), r.lastModified())) return;
+        if (!checkStorage(req, resp, r.isDirectory() ? p : p.getParent(), growth(req, r))) return;
+
+        ArchiveReader.Format archive = ArchiveReader.Format.of(req.getContentType());
+        if (r.isDirectory() && archive != null) {
+            extract(req, resp, r, archive);
+            return;
+        }
+        if (r.isDirectory()) { resp.sendError(SC_405_METHOD_NOT_ALLOWED); return; }
+
         Files.createDirectories(p.getParent());
 
-        boolean existed = Files.exists(p);
-        try (InputStream in = req.getInputStream()) {
-            Files.copy(in, p, StandardCopyOption.REPLACE_EXISTING);
+        String contentRange = req.getHeader(HEADER_CONTENT_RANGE);
+        if (contentRange != null) {
+            putPart(req, resp, r, contentRange);
+            return;
+        }
+
+        boolean existed = r.exists();
+        long length = req.getContentLengthLong();
+        if (writeBehind != null && !r.isDirectory() && length >= 0 && length <= writeBehind.maxFileSize()) {
+            byte[] content = readBody(req, (int) length);
+            if (!writeBehind.offer(p, content)) writeFile(p, content);
+            if (quotas != null) quotas.add(p, length - r.size());
+            resp.setStatus(existed ? SC_204_NO_CONTENT : SC_201_CREATED);
+            return;
+        }
+
+        byte[] replaced = blobStore == null ? null : digest(r);
+        RateLimiter.Throttle throttle = throttle(req);
+        long size;
+        try (InputStream in = throttle == null ? req.getInputStream() : throttle.wrap(req.getInputStream())) {
+            InputStream body = quotas == null || req.getContentLengthLong() >= 0 ? in : quotas.limit(in, p.getParent(), r.size());
+            size = AtomicWrite.write(body, p, writeOptions(req.getContentLengthLong()).withPipeline(uploadPipeline));
+        } catch (Quotas.QuotaExceededException e) {
+            resp.sendError(SC_507_INSUFFICIENT_STORAGE, e.getMessage());
+            return;
         }
+        released(p, replaced);
+        if (quotas != null) quotas.add(p, size - r.size());
+        changed(p);
 
         resp.setStatus(existed ? SC_204_NO_CONTENT : SC_201_CREATED);
     }
 
+    /**
+     * Reads a small request body of {@code length} bytes completely.
+     */
+    private byte[] readBody(HttpServletRequest req, int length) throws IOException {
+        RateLimiter.Throttle throttle = throttle(req);
+        try (InputStream in = throttle == null ? req.getInputStream() : throttle.wrap(req.getInputStream())) {
+            byte[] content = in.readNBytes(length);
+            if (content.length < length) {
+                throw new EOFException("Upload ended after " + content.length + " of " + length + " bytes");
+            }
+            return content;
+        }
+    }
+
+    /**
+     * How PUT and its relatives write files of {@code length} bytes, or {@code -1} if unknown.
+     */
+    private AtomicWrite.Options writeOptions(long length) {
+        return AtomicWrite.Options.of(fsyncPolicy).withLength(length).withDigests(contentDigests).withBlobs(blobStore);
+    }
+
+    /**
+     * Publishes a file whose body was read completely, e.g. one written behind: the steps of a
+     * PUT after the checks.
+     */
+    protected void writeFile(Path p, byte[] content) throws IOException {
+        Files.createDirectories(p.getParent());
+        byte[] replaced = blobStore == null ? null : digest(stat(p));
+        AtomicWrite.write(new ByteArrayInputStream(content), p, writeOptions(content.length));
+        released(p, replaced);
+        changed(p);
+    }
+
+    /**
+     * Writes one part of a resumable upload. Answers {@code 202} with the new {@code Upload-Offset}
+     * while parts are missing, {@code 201}/{@code 204} once the last byte has arrived and the file
+     * is published, and {@code 409} with the offset to resume from if the part leaves a gap.
+     */
+    protected void putPart(HttpServletRequest req, HttpServletResponse resp, ResourceInfo r,
+                           String contentRange) throws IOException {
+        Path p = r.path();
+        UploadSessions.ContentRange range = UploadSessions.ContentRange.parse(contentRange);
+        if (range == null) { resp.sendError(SC_400_BAD_REQUEST, "Invalid Content-Range"); return; }
+
+        byte[] replaced = blobStore == null || !range.isFinal() ? null : digest(r);
+        long offset;
+        RateLimiter.Throttle throttle = throttle(req);
+        try (InputStream in = throttle == null ? req.getInputStream() : throttle.wrap(req.getInputStream())) {
+            offset = uploadSessions.write(p, range, in, fsyncPolicy);
+        } catch (UploadSessions.ConflictException e) {
+            resp.setHeader(HEADER_UPLOAD_OFFSET, Long.toString(e.offset()));
+            resp.sendError(SC_409_CONFLICT, e.getMessage());
+            return;
+        }
+        resp.setHeader(HEADER_UPLOAD_OFFSET, Long.toString(offset));
+        if (offset != range.total()) {
+            resp.setStatus(SC_202_ACCEPTED);
+            return;
+        }
+        released(p, replaced);
+        if (quotas != null) quotas.add(p, range.total() - r.size());
+        changed(p);
+        resp.setStatus(r.exists() ? SC_204_NO_CONTENT : SC_201_CREATED);
+    }
+
+    /**
+     * Bulk upload: extracts a ZIP or tar body into the collection, which is created if needed.
+     */
+    @Override protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        Path p = resolve(req);
+        if (!checkWriteLock(req, resp, p)) return;
+
+        ArchiveReader.Format archive = ArchiveReader.Format.of(req.getContentType());
+        if (archive == null) { resp.sendError(SC_415_UNSUPPORTED_MEDIA_TYPE, "Expected a ZIP or tar archive"); return; }
+        ResourceInfo r = stat(p);
+        if (r.exists() && !r.isDirectory()) { resp.sendError(SC_405_METHOD_NOT_ALLOWED); return; }
+        if (!checkStorage(req, resp, p, req.getContentLengthLong())) return;
+        if (!r.exists()) {
+            Files.createDirectories(p);
+            r = stat(p);
+        }
+        extract(req, resp, r, archive);
+    }
+
+    /**
+     * Extracts the archive in the request body into {@code collection} while it streams in. Each
+     * file goes through the lock check and the atomic write of a single PUT; the response is a
+     * multistatus with one status per entry. Entries that escape the collection, name internal
+     * files or are links get {@code 400}/{@code 403} and are skipped. Each file must fit into the
+     * space left on the disk, whatever the size of the body, or gets {@code 507}.
+     */
+    protected void extract(HttpServletRequest req, HttpServletResponse resp, ResourceInfo collection,
+                           ArchiveReader.Format format) throws IOException {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>")
+                .append("<D:multistatus xmlns:D=\"").append(DAV_NAMESPACE).append("\">");
+        String base = hrefFor(req, collection);
+        RateLimiter.Throttle throttle = throttle(req);
+        try (InputStream in = throttle == null ? req.getInputStream() : throttle.wrap(req.getInputStream());
+             ArchiveReader archive = ArchiveReader.open(format, in)) {
+            ArchiveReader.Entry entry;
+            while ((entry = archive.next()) != null) {
+                Path p = resolveEntry(collection.path(), entry.name());
+                String href = p == null ? base + encodeControls(entry.name()) : hrefFor(req, new ResourceInfo(p, null))
+                        + (entry.isDirectory() ? "/" : "");
+                int status;
+                if (p == null) status = SC_400_BAD_REQUEST;
+                else if (entry.isOther()) status = SC_403_FORBIDDEN;
+                else if (!isWriteAllowed(req, p)) status = SC_423_LOCKED;
+                else status = extractEntry(archive, entry, p);
+                appendStatus(xml, href, status);
+            }
+        } catch (ArchiveReader.MalformedArchiveException e) {
+            LOG.debug("Bulk upload into {} stopped: {}", collection.path(), e.toString());
+            appendStatus(xml, base, SC_400_BAD_REQUEST);
+        }
+        xml.append("</D:multistatus>");
+        resp.setStatus(SC_207_MULTI_STATUS);
+        resp.setContentType(CONTENT_TYPE_XML);
+        writeXml(req, resp, xml);
+    }
+
+    private int extractEntry(ArchiveReader archive, ArchiveReader.Entry entry, Path p) throws IOException {
+        ResourceInfo r = stat(p);
+        try {
+            if (entry.isDirectory()) {
+                if (r.isDirectory()) return SC_200_OK;
+                Files.createDirectories(p);
+                return SC_201_CREATED;
+            }
+            if (r.isDirectory()) return SC_409_CONFLICT;
+            // the body's length says nothing about what a compressed archive expands to
+            long usable = usableSpace();
+            if (entry.size() > usable) return SC_507_INSUFFICIENT_STORAGE;
+            InputStream content = Quotas.limit(archive.content(), usable, "Not enough space");
+            if (quotas != null) {
+                if (entry.size() - r.size() > quotas.available(p.getParent())) return SC_507_INSUFFICIENT_STORAGE;
+                content = quotas.limit(content, p.getParent(), r.size());
+            }
+            Files.createDirectories(p.getParent());
+            byte[] replaced = blobStore == null ? null : digest(r);
+            long size = AtomicWrite.write(content, p, writeOptions(entry.size()));
+            released(p, replaced);
+            if (quotas != null) quotas.add(p, size - r.size());
+            changed(p);
+            return r.exists() ? SC_204_NO_CONTENT : SC_201_CREATED;
+        } catch (Quotas.QuotaExceededException e) {
+            return SC_507_INSUFFICIENT_STORAGE;
+        } catch (FileSystemException e) {
+            // e.g. a file where the entry needs a directory; the body is intact, go on
+            LOG.debug("Cannot extract {}: {}", p, e.toString());
+            return e instanceof AccessDeniedException ? SC_403_FORBIDDEN : SC_409_CONFLICT;
+        }
+    }
+
+    /**
+     * Resolves an archive entry name below {@code collection}; returns {@code null} if it is
+     * absolute, escapes the collection, names an internal file or is not a valid file name here.
+     */
+    protected Path resolveEntry(Path collection, String name) {
+        String n = name.replace('\\', '/');
+        if (n.startsWith("/") || n.matches("[A-Za-z]:.*")) return null;
+        Path p;
+        try {
+            p = collection.resolve(n).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (!p.startsWith(collection) || p.equals(collection) || !p.startsWith(dataDir)) return null;
+        for (Path part : dataDir.relativize(p)) {
+            if (AtomicWrite.isTemp(part)) return null;
+        }
+        return p;
+    }
+
+    /** Percent-encodes control characters, which may not appear in XML, in a rejected entry name. */
+    private static String encodeControls(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (char c : name.toCharArray()) {
+            if (Character.isISOControl(c)) sb.append('%').append(String.format("%02X", (int) c));
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static void appendStatus(StringBuilder xml, String href, int status) {
+        xml.append("<D:response><D:href>").append(escapeXml(href)).append("</D:href><D:status>")
+                .append(PROTOCOL_HTTP_1_1).append(' ').append(status).append(' ').append(HttpStatus.getMessage(status))
+                .append("</D:status></D:response>");
+    }
+
     @Override protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         Path p = resolve(req);
         if (!checkWriteLock(req, resp, p)) return;
 
-        if (!Files.exists(p)) { resp.sendError(SC_404_NOT_FOUND); return; }
-        if (Files.isDirectory(p)) {
+        ResourceInfo r = stat(p);
+        if (!checkPreconditions(req, resp, etag(r), r.lastModified())) return;
+
+        if (uploadSessions.cancel(p) && !r.exists()) { resp.setStatus(SC_204_NO_CONTENT); return; }
+        if (!r.exists()) { resp.sendError(SC_404_NOT_FOUND); return; }
+        if (r.isDirectory()) {
             // recursive delete
             Files.walkFileTree(p, new SimpleFileVisitor<>() {
                 @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    Files.deleteIfExists(file); return FileVisitResult.CONTINUE;
+                    deleteFile(new ResourceInfo(file, attrs)); return FileVisitResult.CONTINUE;
                 }
                 @Override public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
                     Files.deleteIfExists(dir); return FileVisitResult.CONTINUE;
                 }
             });
+            if (quotas != null) quotas.removeTree(p);
         } else {
-            Files.deleteIfExists(p);
+            deleteFile(r);
+            if (quotas != null) quotas.add(p, -r.size());
         }
+        changed(p);
         resp.setStatus(SC_204_NO_CONTENT);
     }
 
+    /**
+     * Deletes a file, its recorded digest and the blob it shared, if that was the last reference.
+     */
+    private void deleteFile(ResourceInfo r) throws IOException {
+        byte[] replaced = blobStore == null ? null : digest(r);
+        Files.deleteIfExists(r.path());
+        if (contentDigests != null) contentDigests.removed(r.path());
+        released(r.path(), replaced);
+    }
+
+    /**
+     * Releases the blob of content the file at {@code p} no longer refers to; see {@link BlobStore#release}.
+     */
+    protected void released(Path p, byte[] digest) {
+        if (blobStore != null) blobStore.release(p, digest);
+    }
+
+    /**
+     * Gives files moved from {@code src} to another home their own copy of content they shared
+     * with files of their old home; see {@link BlobStore#unshare}.
+     */
+    private void unshare(Path src, Path dst, boolean directory) throws IOException {
+        if (blobStore == null || blobStore.isSameHome(src, dst)) return;
+        if (!directory) {
+            unshareFile(src, dst);
+            return;
+        }
+        Files.walkFileTree(dst, new SimpleFileVisitor<>() {
+            @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!AtomicWrite.isTemp(file)) unshareFile(src.resolve(dst.relativize(file)), file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void unshareFile(Path from, Path p) throws IOException {
+        byte[] digest = digest(stat(p));
+        Path copy = blobStore.unshare(from, p, digest);
+        if (copy == null) return;
+        AtomicWrite.commit(copy, p, fsyncPolicy);
+        contentDigests.store(p, p, digest);
+        released(from, digest);
+    }
+
     // --- WebDAV methods --------------------------------------------------------
 
     protected void doMkCol(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         Path p = resolve(req);
         if (!checkWriteLock(req, resp, p)) return;
 
-        if (Files.exists(p)) { resp.sendError(SC_405_METHOD_NOT_ALLOWED); return; }
+        if (stat(p).exists()) { resp.sendError(SC_405_METHOD_NOT_ALLOWED); return; }
         Files.createDirectories(p);
         resp.setStatus(SC_201_CREATED);
     }
@@ -159,8 +981,28 @@ public class WebDavServlet extends HttpServlet {
         Path dst = resolveDestination(req, resp);
         if (dst == null) return;
 
+        ResourceInfo target = stat(dst);
+        ResourceInfo moved = quotas == null && contentDigests == null ? null : stat(src);
+        if (quotas != null && !fitsQuota(resp, moved, dst, src, target.size())) return;
         Files.createDirectories(dst.getParent());
+        byte[] replaced = blobStore == null ? null : digest(target);
         Files.move(src, dst, StandardCopyOption.REPLACE_EXISTING);
+        if (contentDigests != null) {
+            contentDigests.moved(src, dst, moved.isDirectory());
+            unshare(src, dst, moved.isDirectory());
+        }
+        released(dst, replaced);
+        if (quotas != null) {
+            quotas.add(dst, -target.size());
+            if (moved.isDirectory()) {
+                quotas.moveTree(src, dst);
+            } else {
+                quotas.add(src, -moved.size());
+                quotas.add(dst, moved.size());
+            }
+        }
+        changed(src);
+        changed(dst);
         resp.setStatus(SC_201_CREATED);
     }
 
@@ -169,29 +1011,66 @@ public class WebDavServlet extends HttpServlet {
         Path dst = resolveDestination(req, resp);
         if (dst == null) return;
 
-        if (Files.isDirectory(src)) {
+        ResourceInfo source = stat(src);
+        if (quotas != null && !fitsQuota(resp, source, dst, null, stat(dst).size())) return;
+        if (source.isDirectory()) {
             Files.walkFileTree(src, new SimpleFileVisitor<>() {
                 @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (AtomicWrite.isTemp(dir)) return FileVisitResult.SKIP_SUBTREE;
                     Path rel = src.relativize(dir);
                     Files.createDirectories(dst.resolve(rel));
                     return FileVisitResult.CONTINUE;
                 }
                 @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (AtomicWrite.isTemp(file)) return FileVisitResult.CONTINUE;
                     Path rel = src.relativize(file);
-                    Files.copy(file, dst.resolve(rel), StandardCopyOption.REPLACE_EXISTING);
+                    copyFile(file, dst.resolve(rel));
                     return FileVisitResult.CONTINUE;
                 }
             });
         } else {
             Files.createDirectories(dst.getParent());
-            Files.copy(src, dst, StandardCopyOption.REPLACE_EXISTING);
+            copyFile(src, dst);
         }
+        changed(dst);
         resp.setStatus(SC_201_CREATED);
     }
 
+    /**
+     * Copies a file, carrying its content digest over to the copy. With deduplication, a copy of a
+     * file that shares a blob is a link to the same content and no data is copied.
+     */
+    private void copyFile(Path src, Path dst) throws IOException {
+        ResourceInfo source = stat(src);
+        ResourceInfo target = stat(dst);
+        byte[] digest = digest(source);
+        byte[] replaced = blobStore == null ? null : digest(target);
+        Path link = blobStore == null ? null : blobStore.link(src, dst, digest);
+        if (link != null) {
+            AtomicWrite.commit(link, dst, fsyncPolicy);
+        } else {
+            Files.copy(src, dst, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (digest != null) contentDigests.store(dst, dst, digest);
+        released(dst, replaced);
+        if (quotas != null) quotas.add(dst, source.size() - target.size());
+    }
+
+    /**
+     * Sends 507 if copying or moving {@code r} to {@code dst}, replacing a file of {@code replaced}
+     * bytes, would exceed a quota; {@code from} is the source of a move.
+     */
+    private boolean fitsQuota(HttpServletResponse resp, ResourceInfo r, Path dst, Path from, long replaced)
+            throws IOException {
+        long bytes = (r.isDirectory() ? quotas.used(r.path()) : r.size()) - replaced;
+        if (bytes <= 0 || bytes <= quotas.available(dst.getParent(), from)) return true;
+        resp.sendError(SC_507_INSUFFICIENT_STORAGE, "Quota exceeded");
+        return false;
+    }
+
     protected void doPropFind(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        Path p = resolve(req);
-        if (!Files.exists(p)) { resp.sendError(SC_404_NOT_FOUND); return; }
+        ResourceInfo r = stat(resolve(req));
+        if (!r.exists()) { resp.sendError(SC_404_NOT_FOUND); return; }
 
         int depth = parseDepth(req.getHeader(HEADER_DEPTH)); // 0 or 1 enough for Finder/Explorer listing
         String hrefBase = req.getRequestURL().toString();
@@ -206,19 +1085,41 @@ public class WebDavServlet extends HttpServlet {
         xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>")
                 .append("<D:multistatus xmlns:D=\"").append(DAV_NAMESPACE).append("\">");
 
+        // collections report the free space, which is the same for every row
+        long usableSpace = quotas != null && r.isDirectory() ? usableSpace() : Long.MAX_VALUE;
+
         // self
-        xml.append(propResponse(req, p, hrefFor(req, p)));
+        xml.append(propResponse(req, r, hrefFor(req, r), usableSpace));
 
-        if (depth >= 1 && Files.isDirectory(p)) {
-            try (DirectoryStream<Path> ds = Files.newDirectoryStream(p)) {
+        if (depth >= 1 && r.isDirectory()) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(r.path())) {
                 for (Path child : ds) {
-                    xml.append(propResponse(req, child, hrefFor(req, child)));
+                    if (AtomicWrite.isTemp(child)) continue;
+                    ResourceInfo c = stat(child);
+                    if (!c.exists()) continue; // vanished while listing
+                    xml.append(propResponse(req, c, hrefFor(req, c), usableSpace));
                 }
             }
         }
 
         xml.append("</D:multistatus>");
-        resp.getWriter().write(xml.toString());
+        writeXml(req, resp, xml);
+    }
+
+    /**
+     * Writes an XML response body, gzipped if large and the client accepts it.
+     */
+    protected void writeXml(HttpServletRequest req, HttpServletResponse resp, CharSequence xml) throws IOException {
+        if (compression) resp.setHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+        if (compression && xml.length() >= COMPRESSION_MIN_SIZE
+                && ContentCoding.accepted(req.getHeader(HEADER_ACCEPT_ENCODING)).contains(ContentCoding.GZIP)) {
+            resp.setHeader(HEADER_CONTENT_ENCODING, ContentCoding.GZIP.token());
+            try (OutputStream gzip = new GZIPOutputStream(resp.getOutputStream(), FileSender.CHUNK_SIZE)) {
+                gzip.write(xml.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        } else {
+            resp.getWriter().write(xml.toString());
+        }
     }
 
     protected void doLock(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -276,12 +1177,29 @@ public class WebDavServlet extends HttpServlet {
         // prevent .. traversal
         Path p = dataDir.resolve(decoded.substring(1)).normalize();
         if (!p.startsWith(dataDir)) throw new IllegalArgumentException("Invalid path");
+        // temp files and upload staging are internal
+        for (Path name : dataDir.relativize(p)) {
+            if (AtomicWrite.isTemp(name)) throw new IllegalArgumentException("Invalid path");
+        }
         return p;
     }
 
     protected Path resolveDestination(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        Path p = destination(req);
+        if (p == null) { resp.sendError(SC_400_BAD_REQUEST, "Missing Destination"); return null; }
+        if (!p.startsWith(dataDir)) { resp.sendError(403); return null; }
+        for (Path name : dataDir.relativize(p)) {
+            if (AtomicWrite.isTemp(name)) { resp.sendError(SC_403_FORBIDDEN); return null; }
+        }
+        return p;
+    }
+
+    /**
+     * Maps the {@code Destination} header to a path, unchecked; {@code null} if there is none.
+     */
+    protected Path destination(HttpServletRequest req) {
         String dest = req.getHeader(HEADER_DESTINATION);
-        if (dest == null) { resp.sendError(SC_400_BAD_REQUEST, "Missing Destination"); return null; }
+        if (dest == null) return null;
 
         String pathPart = dest;
 
@@ -314,25 +1232,41 @@ public class WebDavServlet extends HttpServlet {
             }
         }
 
-        Path p = dataDir.resolve(decoded.startsWith("/") ? decoded.substring(1) : decoded).normalize();
-        if (!p.startsWith(dataDir)) { resp.sendError(403); return null; }
-        return p;
+        return dataDir.resolve(decoded.startsWith("/") ? decoded.substring(1) : decoded).normalize();
     }
 
-    private String hrefFor(HttpServletRequest req, Path p) {
+    private String hrefFor(HttpServletRequest req, ResourceInfo r) {
         // build href relative to servlet dataDir
         String ctx = req.getContextPath() == null ? "" : req.getContextPath();
         String base = ctx + "/";
-        Path rel = dataDir.relativize(p);
+        Path rel = dataDir.relativize(r.path());
         String href = base + rel.toString().replace(File.separatorChar, '/');
-        if (Files.isDirectory(p) && !href.endsWith("/")) href += "/";
+        if (r.isDirectory() && !href.endsWith("/")) href += "/";
         if (!href.startsWith("/")) href = "/" + href;
         return href;
     }
 
-    protected String propResponse(HttpServletRequest req, Path p, String href) throws IOException {
-        boolean dir = Files.isDirectory(p);
-        long size = dir ? 0 : Files.size(p);
+    /**
+     * Returns the usable space of the file store holding the data directory, or
+     * {@link Long#MAX_VALUE} if it cannot be read.
+     */
+    protected long usableSpace() {
+        try {
+            return Files.getFileStore(dataDir).getUsableSpace();
+        } catch (IOException e) {
+            LOG.debug("Cannot read usable space of {}: {}", dataDir, e.toString());
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @param usableSpace free space of the data directory's file store, which caps the
+     *                    {@code quota-available-bytes} of collections
+     */
+    protected String propResponse(HttpServletRequest req, ResourceInfo r, String href, long usableSpace) {
+        Path p = r.path();
+        boolean dir = r.isDirectory();
+        long size = r.size();
 
         StringBuilder sb = new StringBuilder();
         // Appends display name to XML response
@@ -340,10 +1274,18 @@ public class WebDavServlet extends HttpServlet {
                 .append("<D:href>").append(escapeXml(href)).append("</D:href>")
                 .append("<D:propstat><D:prop>")
                 .append("<D:displayname>").append(escapeXml(p.getFileName() == null ? "" : p.getFileName().toString())).append("</D:displayname>")
-                .append("<D:getlastmodified>").append(HTTP_DATE.format(lastModified(p))).append("</D:getlastmodified>")
-                .append("<D:getetag>").append(escapeXml(etag(p))).append("</D:getetag>")
+                .append("<D:getlastmodified>").append(HTTP_DATE.format(r.lastModified())).append("</D:getlastmodified>")
+                .append("<D:getetag>").append(escapeXml(etag(r))).append("</D:getetag>")
                 .append("<D:resourcetype>").append(dir ? "<D:collection/>" : "").append("</D:resourcetype>")
                 .append("<D:getcontentlength>").append(size).append("</D:getcontentlength>");
+        if (!dir) {
+            sb.append("<D:getcontenttype>").append(escapeXml(mimeTypes.resolve(r))).append("</D:getcontenttype>");
+        } else if (quotas != null) {
+            // RFC 4331, from the usage index
+            long available = Math.min(quotas.available(p), usableSpace);
+            sb.append("<D:quota-available-bytes>").append(available).append("</D:quota-available-bytes>")
+                    .append("<D:quota-used-bytes>").append(quotas.used(p)).append("</D:quota-used-bytes>");
+        }
 
         // Lock discovery if locked
         locks.getActiveLock(pathKey(p)).ifPresent(l -> {
@@ -362,6 +1304,47 @@ public class WebDavServlet extends HttpServlet {
     }
 
     protected boolean checkWriteLock(HttpServletRequest req, HttpServletResponse resp, Path p) throws IOException {
+        if (isWriteAllowed(req, p)) return true;
+        resp.sendError(SC_423_LOCKED, "Locked");
+        return false;
+    }
+
+    /**
+     * Sends 507 if the announced request body does not fit into the usable space of the data
+     * store, or if adding {@code growth} bytes below {@code collection} would exceed a quota. Like
+     * the lock and precondition checks it runs before the body is touched: Jetty sends
+     * {@code 100 Continue} only on the first read, so a client that waits for it never uploads a
+     * body that would be rejected.
+     */
+    protected boolean checkStorage(HttpServletRequest req, HttpServletResponse resp, Path collection,
+                                   long growth) throws IOException {
+        long length = req.getContentLengthLong();
+        if (length > 0 && length > Files.getFileStore(dataDir).getUsableSpace()) {
+            resp.sendError(SC_507_INSUFFICIENT_STORAGE, "Not enough space for " + length + " bytes");
+            return false;
+        }
+        if (quotas != null && growth > 0 && growth > quotas.available(collection)) {
+            resp.sendError(SC_507_INSUFFICIENT_STORAGE, "Quota exceeded");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns by how many bytes a PUT to {@code r} grows the tree, as far as the headers tell: the
+     * announced length (for a resumable upload the total) less the size of the file it replaces.
+     */
+    protected static long growth(HttpServletRequest req, ResourceInfo r) {
+        long length = req.getContentLengthLong();
+        UploadSessions.ContentRange range = UploadSessions.ContentRange.parse(req.getHeader(HEADER_CONTENT_RANGE));
+        if (range != null) length = range.total() >= 0 ? range.total() : range.last() + 1;
+        return length < 0 ? 0 : length - r.size();
+    }
+
+    /**
+     * Whether {@code p} is unlocked, or the request carries its lock token.
+     */
+    protected boolean isWriteAllowed(HttpServletRequest req, Path p) {
         // If the resource is locked, require correct token in If: or Lock-Token:
         var lockOpt = locks.getActiveLock(pathKey(p));
         if (lockOpt.isEmpty()) return true;
@@ -370,11 +1353,25 @@ public class WebDavServlet extends HttpServlet {
         String ifHeader = req.getHeader(HEADER_IF);
         String lockTokenHeader = extractLockToken(req.getHeader(HEADER_LOCK_TOKEN));
 
-        if (containsToken(ifHeader, expected) || (lockTokenHeader != null && lockTokenHeader.equals(expected))) {
-            return true;
-        }
+        return containsToken(ifHeader, expected) || (lockTokenHeader != null && lockTokenHeader.equals(expected));
+    }
 
-        resp.sendError(SC_423_LOCKED, "Locked");
+    /**
+     * Evaluates conditional request headers against validators the caller has already read.
+     * Sends 304 or 412 and returns {@code false} if the request must not be processed.
+     */
+    protected boolean checkPreconditions(HttpServletRequest req, HttpServletResponse resp,
+                                         String etag, Instant lastModified) throws IOException {
+        int result = Preconditions.evaluate(req, etag, lastModified);
+        if (result == Preconditions.PROCEED) return true;
+
+        if (result == SC_304_NOT_MODIFIED) {
+            resp.setStatus(SC_304_NOT_MODIFIED);
+            resp.setHeader(HEADER_ETAG, etag);
+            if (lastModified != null) resp.setHeader(HEADER_LAST_MODIFIED, HTTP_DATE.format(lastModified));
+        } else {
+            resp.sendError(result);
+        }
         return false;
     }
 
@@ -401,6 +1398,11 @@ public class WebDavServlet extends HttpServlet {
         }
     }
 
+    protected static long parseLong(String value, long defaultValue) {
+        if (value == null || value.isBlank()) return defaultValue;
+        return Long.parseLong(value.trim());
+    }
+
     protected static long parseTimeoutSeconds(String timeout) {
         if (timeout == null) return 600;
         // formats: Second-600, Infinite
@@ -451,16 +1453,82 @@ public class WebDavServlet extends HttpServlet {
         return "";
     }
 
-    protected static Instant lastModified(Path p) throws IOException {
-        return Files.getLastModifiedTime(p).toInstant();
+    /**
+     * Writes a {@code multipart/byteranges} body with one part per range.
+     */
+    protected void sendMultipartRanges(HttpServletResponse resp, String contentType, FileSender.Source source,
+                                       List<ByteRanges.Range> ranges, long size, OutputStream out) throws IOException {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> heads = new ArrayList<>(ranges.size());
+        long length = 0;
+        for (ByteRanges.Range r : ranges) {
+            byte[] head = ("\r\n--" + boundary + "\r\n"
+                    + HEADER_CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HEADER_CONTENT_RANGE + ": " + r.contentRange(size) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            heads.add(head);
+            length += head.length + r.length();
+        }
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        length += tail.length;
+
+        resp.setContentType(CONTENT_TYPE_MULTIPART_BYTERANGES + "; boundary=" + boundary);
+        resp.setContentLengthLong(length);
+        for (int i = 0; i < ranges.size(); i++) {
+            ByteRanges.Range r = ranges.get(i);
+            out.write(heads.get(i));
+            source.send(r.first(), r.length(), out);
+        }
+        out.write(tail);
+    }
+
+    /**
+     * Evaluates an {@code If-Range} header: ranges apply only if it is absent or still matches
+     * the current representation. Entity tags are compared strongly, dates exactly.
+     */
+    protected static boolean ifRangeMatches(String ifRange, String etag, Instant lastModified) {
+        if (ifRange == null) return true;
+        String v = ifRange.trim();
+        if (v.startsWith("W/")) return false;
+        if (v.startsWith("\"")) return v.equals(etag);
+        try {
+            Instant since = Instant.from(HTTP_DATE.parse(v));
+            return since.getEpochSecond() == lastModified.getEpochSecond();
+        } catch (Exception e) {
+            LOG.debug("Ignore unparsable If-Range header: {}", ifRange);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the rate limits that apply to {@code req}, or {@code null} if there are none.
+     */
+    protected RateLimiter.Throttle throttle(HttpServletRequest req) {
+        if (rateLimiter == null) return null;
+        Object user = req.getAttribute(BasicAuthFilter.USER_ATTRIBUTE);
+        String connection = req.getRemoteAddr() == null ? null : req.getRemoteAddr() + ":" + req.getRemotePort();
+        return rateLimiter.throttle(user == null ? null : user.toString(), connection);
+    }
+
+    /**
+     * Called after {@code p} (and, for collections, everything below it) was modified or removed.
+     * Drops any state cached for it.
+     */
+    protected void changed(Path p) {
+        if (hotFileCache != null) hotFileCache.invalidate(p);
+        if (mappedFilePool != null) mappedFilePool.invalidate(p);
+        if (compressedCache != null) compressedCache.invalidate(p);
+        if (openFileCache != null) openFileCache.invalidate(p);
+        if (contentDigests != null) contentDigests.invalidate(p);
     }
 
-    protected static String etag(Path p) throws IOException {
-        // cheap ETag: size + mtime
-        if (!Files.exists(p) || Files.isDirectory(p)) return "\"dir\"";
-        long size = Files.size(p);
-        long lm = Files.getLastModifiedTime(p).toMillis();
-        return "\"" + size + "-" + lm + "\"";
+    /**
+     * Reads the basic attributes of {@code p}. Handlers get size, type and modification time
+     * through here, once per resource and request. Content type sniffing, recorded digests and
+     * the file store's free space are read separately.
+     */
+    protected ResourceInfo stat(Path p) throws IOException {
+        return ResourceInfo.read(p);
     }
 
     protected static String escapeXml(String s) {
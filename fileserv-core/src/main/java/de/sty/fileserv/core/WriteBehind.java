@@ -0,0 +1,579 @@
+package de.sty.fileserv.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-behind for small PUT bodies. A body is appended to a journal segment and the PUT is
+ * answered once the segment is durable; a background thread then publishes the files to their
+ * targets in batches. Concurrent appends share one {@code force} of the segment (group commit),
+ * so a storm of tiny uploads costs one journal sync per batch on the request threads instead of a
+ * file create, write, sync and rename each.
+ * <p>
+ * Pending files are kept in memory until they are published. {@link #flush(Path)} publishes those
+ * at, below or above a path; the servlet calls it before any request touches a path, so every
+ * request sees the writes acknowledged before it (read-your-writes). A file that cannot be
+ * published stays pending: the writer retries it, and a flush that reaches it fails.
+ * <p>
+ * Each published file is marked in the journal, and the marks are synced with the next batch.
+ * Segments left by a crash are replayed by {@link #recover()}, which skips marked files, so a
+ * file deleted, moved or overwritten after it was published does not come back. A segment is
+ * deleted once all its files are published and all older segments are deleted, so a mark, which
+ * always lands in the same or a newer segment, outlives the record it marks.
+ * <p>
+ * Journal records are {@code magic, path length, path, content length, content, CRC32C}, with
+ * the path relative to the data directory; marks are {@code magic, segment number, record offset,
+ * CRC32C}. A torn record at the end of a segment ends the replay of that segment.
+ */
+public final class WriteBehind implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehind.class);
+
+    /** Journal directory below the data directory; hidden like all {@link AtomicWrite#isTemp temp files}. */
+    public static final String DIRECTORY = ".journal" + AtomicWrite.TEMP_SUFFIX;
+
+    /** Default for the largest body that is written behind. */
+    public static final long DEFAULT_MAX_FILE_SIZE = 64 * 1024;
+
+    /** Pending bytes above which PUTs are written directly again, until the writer catches up. */
+    static final long MAX_PENDING_BYTES = 64L * 1024 * 1024;
+
+    /** A segment is rotated once it reaches this size. */
+    static final long SEGMENT_SIZE = 16L * 1024 * 1024;
+
+    /** Most files published in one batch. */
+    private static final int BATCH_SIZE = 512;
+
+    /** Pause of the writer after a file could not be published. */
+    static final long RETRY_INTERVAL_MS = 1000;
+
+    private static final int MAGIC = 0x46535742; // "FSWB"
+    private static final int MAGIC_PUBLISHED = 0x46535750; // "FSWP"
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String QUARANTINE_PREFIX = "quarantine-";
+
+    /** Publishes a file to its target. */
+    @FunctionalInterface
+    public interface Sink {
+        void write(Path target, byte[] content) throws IOException;
+    }
+
+    private final Path dataDir;
+    private final Path dir;
+    private final FsyncPolicy policy;
+    private final long maxFileSize;
+    private final Sink sink;
+
+    /** Pending files by {@link WebDavServlet#pathKey path key}, for lookups by path and prefix. */
+    private final ConcurrentSkipListMap<String, Entry> pending = new ConcurrentSkipListMap<>();
+    /** Pending files in journal order, for the writer. */
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong journaled = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final Thread writer;
+
+    /** Guards appending, rotation and deletion of segments. */
+    private final Object appendLock = new Object();
+    private Segment segment;
+    /** Segments not deleted yet, oldest first; the last one is {@link #segment}. */
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private long nextSegment;
+    private volatile boolean closed;
+
+    /** Where a record starts: segment number and offset. */
+    private record Position(long segment, long offset) {}
+
+    /** A file read back from the journal. */
+    private record Journaled(Path target, byte[] content, Position position) {}
+
+    private final class Segment {
+        final long number;
+        final Path file;
+        final FileChannel channel;
+        /** Files written to this segment and not published yet. */
+        final AtomicInteger outstanding = new AtomicInteger();
+        final Object syncLock = new Object();
+        /** End of the last record. */
+        volatile long written;
+        /** Position up to which the segment is known to be durable. Guarded by {@link #syncLock}. */
+        long synced;
+        /** Whether appends have moved on to a newer segment. */
+        volatile boolean rotated;
+
+        Segment(long number) throws IOException {
+            this.number = number;
+            this.file = dir.resolve(String.format("%s%019d", SEGMENT_PREFIX, number));
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Makes the segment durable up to {@code end}. Threads arriving while another one forces
+         * the channel wait and are then usually covered by that force.
+         */
+        void sync(long end) throws IOException {
+            synchronized (syncLock) {
+                if (synced >= end) return;
+                long upTo = written;
+                channel.force(false);
+                syncs.incrementAndGet();
+                synced = upTo;
+            }
+        }
+
+        void release() {
+            if (outstanding.decrementAndGet() == 0 && rotated) deleteReleased();
+        }
+
+        void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOG.warn("Cannot delete journal segment {}: {}", file, e.toString());
+            }
+        }
+    }
+
+    private final class Entry {
+        final String key;
+        final Path target;
+        final byte[] content;
+        final Segment segment;
+        /** Where the record starts in {@link #segment}. */
+        final long offset;
+        /** Guarded by {@code this}. */
+        boolean done;
+        /** Failed attempts to publish. Guarded by {@code this}. */
+        int attempts;
+
+        Entry(String key, Path target, byte[] content, Segment segment, long offset) {
+            this.key = key;
+            this.target = target;
+            this.content = content;
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        /**
+         * Publishes the file unless that happened already or a newer PUT replaced it. Holding the
+         * lock while writing makes a concurrent {@link #flush} wait until the file is in place. If
+         * the file cannot be published, it stays pending and in the journal.
+         *
+         * @return whether the file was published by this call
+         */
+        synchronized boolean publish() throws IOException {
+            if (done) return false;
+            try {
+                sink.write(target, content);
+            } catch (IOException | RuntimeException e) {
+                failures.incrementAndGet();
+                if (attempts++ == 0) {
+                    LOG.error("Cannot publish written-behind {}; it stays pending: {}", target, e.toString());
+                }
+                throw new IOException("Cannot publish written-behind " + target + ": " + e.getMessage(), e);
+            }
+            done = true;
+            published.incrementAndGet();
+            pending.remove(key, this);
+            pendingBytes.addAndGet(-content.length);
+            markPublished(this);
+            segment.release();
+            return true;
+        }
+
+        /** Marks the entry as replaced by a newer PUT of the same path. */
+        synchronized void supersede() {
+            if (done) return;
+            done = true;
+            pendingBytes.addAndGet(-content.length);
+            segment.release();
+        }
+    }
+
+    /**
+     * @param maxFileSize the largest body to write behind
+     * @param sink        publishes a file; called on the writer thread and by {@link #flush}
+     */
+    public WriteBehind(Path dataDir, FsyncPolicy policy, long maxFileSize, Sink sink) {
+        this.dataDir = dataDir;
+        this.dir = dataDir.resolve(DIRECTORY);
+        this.policy = policy;
+        this.maxFileSize = maxFileSize;
+        this.sink = sink;
+        this.writer = new Thread(this::run, "write-behind");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Publishes the files journaled before a crash and deletes the old segments, then starts the
+     * background writer. Files that cannot be published are logged and kept in a quarantine file
+     * in the journal directory, which is not replayed, so one bad record does not stop the start.
+     *
+     * @return the number of files published
+     */
+    public int recover() throws IOException {
+        Files.createDirectories(dir);
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*")) {
+            ds.forEach(segments::add);
+        }
+        segments.sort(null);
+        List<Journaled> records = new ArrayList<>();
+        Set<Position> marked = new HashSet<>();
+        for (Path s : segments) {
+            long number = segmentNumber(s);
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(s));
+            while (buf.hasRemaining()) {
+                int start = buf.position();
+                if (!readRecord(buf, number, records, marked)) {
+                    LOG.warn("Journal segment {} ends with a torn record at {}", s.getFileName(), start);
+                    break;
+                }
+            }
+            nextSegment = Math.max(nextSegment, number + 1);
+        }
+        // the last write of a path wins; if it was published, there is nothing to do for the path
+        Map<Path, byte[]> files = new LinkedHashMap<>();
+        for (Journaled r : records) {
+            files.remove(r.target());
+            if (!marked.contains(r.position())) files.put(r.target(), r.content());
+        }
+        int recovered = 0;
+        Path quarantine = dir.resolve(QUARANTINE_PREFIX + System.currentTimeMillis());
+        for (Map.Entry<Path, byte[]> e : files.entrySet()) {
+            try {
+                sink.write(e.getKey(), e.getValue());
+                recovered++;
+            } catch (IOException | RuntimeException ex) {
+                LOG.error("Cannot publish journaled {}, kept in {}: {}", e.getKey(), quarantine.getFileName(), ex.toString());
+                Files.write(quarantine, record(e.getKey(), e.getValue()).array(),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        }
+        for (Path s : segments) Files.delete(s);
+        writer.start();
+        return recovered;
+    }
+
+    /**
+     * Reads one file record into {@code records} or one mark into {@code marked}; returns
+     * {@code false} if it is incomplete or corrupt.
+     */
+    private boolean readRecord(ByteBuffer buf, long segment, List<Journaled> records, Set<Position> marked) {
+        try {
+            int start = buf.position();
+            int magic = buf.getInt();
+            if (magic == MAGIC_PUBLISHED) {
+                Position position = new Position(buf.getLong(), buf.getLong());
+                if (!checksum(buf, start)) return false;
+                marked.add(position);
+                return true;
+            }
+            if (magic != MAGIC) return false;
+            byte[] path = new byte[length(buf)];
+            buf.get(path);
+            byte[] content = new byte[length(buf)];
+            buf.get(content);
+            if (!checksum(buf, start)) return false;
+            Path target = dataDir.resolve(new String(path, StandardCharsets.UTF_8)).normalize();
+            if (!target.startsWith(dataDir) || target.equals(dataDir)) return false;
+            records.add(new Journaled(target, content, new Position(segment, start)));
+            return true;
+        } catch (RuntimeException e) {
+            // BufferUnderflow or a garbage length
+            return false;
+        }
+    }
+
+    private static boolean checksum(ByteBuffer buf, int start) {
+        CRC32C crc = new CRC32C();
+        crc.update(buf.array(), start, buf.position() - start);
+        return buf.getInt() == (int) crc.getValue();
+    }
+
+    private static int length(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0 || length > buf.remaining()) throw new IllegalStateException("Bad record length " + length);
+        return length;
+    }
+
+    private static long segmentNumber(Path segment) {
+        try {
+            return Long.parseLong(segment.getFileName().toString().substring(SEGMENT_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** The largest body that is written behind. */
+    public long maxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * Journals {@code content} for {@code target} and returns once it is as durable as the
+     * policy asks; the file itself is published later.
+     *
+     * @return {@code false}, without journaling, if too much is pending and the caller should
+     * write the file itself
+     */
+    public boolean offer(Path target, byte[] content) throws IOException {
+        if (closed || pendingBytes.get() + content.length > MAX_PENDING_BYTES) return false;
+        ByteBuffer record = record(target, content);
+
+        Segment s;
+        long start;
+        long end;
+        synchronized (appendLock) {
+            s = segment();
+            start = s.channel.position();
+            while (record.hasRemaining()) s.channel.write(record);
+            end = s.written = s.channel.position();
+            s.outstanding.incrementAndGet();
+        }
+        if (policy != FsyncPolicy.NONE) s.sync(end);
+        journaled.incrementAndGet();
+
+        Entry entry = new Entry(WebDavServlet.pathKey(target), target, content, s, start);
+        pendingBytes.addAndGet(content.length);
+        pending.compute(entry.key, (k, previous) -> {
+            if (previous != null) previous.supersede();
+            return entry;
+        });
+        queue.add(entry);
+        return true;
+    }
+
+    /** Encodes a file record, ready to be written. */
+    private ByteBuffer record(Path target, byte[] content) {
+        byte[] path = dataDir.relativize(target).toString().replace('\\', '/').getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(4 + 4 + path.length + 4 + content.length + 4)
+                .putInt(MAGIC).putInt(path.length).put(path).putInt(content.length).put(content);
+        sealRecord(record);
+        return record;
+    }
+
+    /** Appends the checksum to a record filled up to its last four bytes and flips it. */
+    private static void sealRecord(ByteBuffer record) {
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue()).flip();
+    }
+
+    /**
+     * Marks the record of {@code e} as published, so {@link #recover()} skips it. The mark is
+     * synced with the next batch or flush; should it be lost, the file is published once more.
+     */
+    private void markPublished(Entry e) {
+        ByteBuffer mark = ByteBuffer.allocate(4 + 8 + 8 + 4)
+                .putInt(MAGIC_PUBLISHED).putLong(e.segment.number).putLong(e.offset);
+        sealRecord(mark);
+        try {
+            synchronized (appendLock) {
+                Segment s = segment();
+                while (mark.hasRemaining()) s.channel.write(mark);
+                s.written = s.channel.position();
+            }
+        } catch (IOException ex) {
+            LOG.warn("Cannot mark {} as published; a restart after a crash publishes it again: {}", e.target, ex.toString());
+        }
+    }
+
+    /** Makes the marks appended so far durable, if the policy asks for it. */
+    private void syncJournal() {
+        if (policy == FsyncPolicy.NONE) return;
+        Segment s;
+        long end;
+        synchronized (appendLock) {
+            s = segment;
+            if (s == null) return;
+            end = s.written;
+        }
+        try {
+            s.sync(end);
+        } catch (ClosedChannelException e) {
+            // deleted meanwhile, so nothing of it is replayed
+        } catch (IOException e) {
+            LOG.warn("Cannot sync journal segment {}: {}", s.file, e.toString());
+        }
+    }
+
+    /** Returns the segment to append to, rotating a full one. Called with {@link #appendLock} held. */
+    private Segment segment() throws IOException {
+        if (segment != null && segment.written < SEGMENT_SIZE) return segment;
+        Segment full = segment;
+        // marks in the full segment must not be lost once it is no longer synced by syncJournal
+        if (full != null && policy != FsyncPolicy.NONE) full.sync(full.written);
+        segment = new Segment(nextSegment++);
+        segments.add(segment);
+        if (policy == FsyncPolicy.FILE_AND_DIRECTORY) AtomicWrite.syncDirectory(dir);
+        if (full != null) {
+            full.rotated = true;
+            deleteReleased();
+        }
+        return segment;
+    }
+
+    /**
+     * Deletes the oldest segments as long as they are rotated and all their files are published;
+     * a newer segment may hold the marks of an older one.
+     */
+    private void deleteReleased() {
+        synchronized (appendLock) {
+            Segment oldest;
+            while ((oldest = segments.peek()) != null && oldest.rotated && oldest.outstanding.get() == 0) {
+                segments.poll().delete();
+            }
+        }
+    }
+
+    /** Whether no file is waiting to be published. */
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Publishes the pending files at {@code p}, below it and above it (a pending file where
+     * {@code p} needs a directory) before the caller looks at {@code p}.
+     *
+     * The marks of those files are synced before it returns, also when the writer published them
+     * meanwhile, so a change the caller makes next cannot be undone by a replay.
+     *
+     * @throws IOException if one of them cannot be published; it stays pending
+     */
+    public void flush(Path p) throws IOException {
+        String key = WebDavServlet.pathKey(p);
+        List<Entry> found = new ArrayList<>();
+        for (Path a = p.getParent(); a != null && a.startsWith(dataDir); a = a.getParent()) {
+            Entry e = pending.get(WebDavServlet.pathKey(a));
+            if (e != null) found.add(e);
+        }
+        Entry e = pending.get(key);
+        if (e != null) found.add(e);
+        // '0' follows '/', so this is everything below key
+        ConcurrentNavigableMap<String, Entry> below = pending.subMap(key + "/", key + "0");
+        found.addAll(below.values());
+        if (found.isEmpty()) return;
+        try {
+            // waits for a publish by the writer, which holds the entry while it runs
+            for (Entry f : found) f.publish();
+        } finally {
+            syncJournal();
+        }
+    }
+
+    /**
+     * Publishes all pending files.
+     *
+     * @throws IOException if one of them cannot be published; it stays pending
+     */
+    public void flushAll() throws IOException {
+        boolean any = false;
+        try {
+            for (Entry e : pending.values()) {
+                any = true;
+                e.publish();
+            }
+        } finally {
+            if (any) syncJournal();
+        }
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        List<Entry> failed = new ArrayList<>();
+        while (!closed) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                for (Entry e : batch) {
+                    try {
+                        e.publish();
+                    } catch (IOException ex) {
+                        failed.add(e);
+                    }
+                }
+                syncJournal();
+                batches.incrementAndGet();
+                if (!failed.isEmpty()) {
+                    queue.addAll(failed);
+                    failed.clear();
+                    Thread.sleep(RETRY_INTERVAL_MS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Stops the writer, publishes what is pending and deletes the journal. Files that cannot be
+     * published stay in the journal for the next start.
+     */
+    @Override
+    public void close() {
+        // not interrupted: that would close the channels of a file being published
+        closed = true;
+        try {
+            writer.join(10_000 + RETRY_INTERVAL_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flushAll();
+        } catch (IOException e) {
+            LOG.error("Written-behind files left in the journal for the next start: {}", e.toString());
+        }
+        queue.clear();
+        synchronized (appendLock) {
+            if (segment != null) segment.rotated = true;
+            deleteReleased();
+            for (Segment s : segments) {
+                try {
+                    s.channel.close();
+                } catch (IOException e) {
+                    LOG.warn("Cannot close journal segment {}: {}", s.file, e.toString());
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehind[max file size=" + maxFileSize + ", journaled=" + journaled + ", published=" + published
+                + ", pending=" + pending.size() + ", failed publishes=" + failures + ", batches=" + batches + ", journal syncs=" + syncs + "]";
+    }
+}
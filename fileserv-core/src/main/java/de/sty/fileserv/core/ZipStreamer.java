@@ -0,0 +1,108 @@
+package de.sty.fileserv.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams a ZIP archive of a directory tree straight to an output stream.
+ * <p>
+ * Memory use is constant: entries are copied through a fixed buffer and nothing is staged on disk.
+ * A blocking response stream throttles the walk to the client's pace. Files whose content is
+ * already compressed are STORED; as ZIP needs the CRC of a STORED entry before its data, those
+ * files are read twice, and one modified in between aborts the archive.
+ */
+public final class ZipStreamer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZipStreamer.class);
+
+    private ZipStreamer() {}
+
+    /**
+     * Writes all regular files and directories below {@code dir} to {@code out}. Symbolic links and
+     * temp files and directories are skipped; files vanishing during the walk are left out.
+     *
+     * @param compress whether a file is worth deflating
+     */
+    public static void write(Path dir, OutputStream out, Predicate<ResourceInfo> compress) throws IOException {
+        byte[] buf = new byte[FileSender.CHUNK_SIZE];
+        ZipOutputStream zip = new ZipOutputStream(out);
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                // upload staging, journal, blobs and digests
+                if (AtomicWrite.isTemp(d)) return FileVisitResult.SKIP_SUBTREE;
+                if (!d.equals(dir)) {
+                    ZipEntry e = new ZipEntry(entryName(dir, d) + "/");
+                    e.setLastModifiedTime(attrs.lastModifiedTime());
+                    zip.putNextEntry(e);
+                    zip.closeEntry();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!attrs.isRegularFile() || AtomicWrite.isTemp(file)) return FileVisitResult.CONTINUE;
+                try {
+                    addFile(zip, entryName(dir, file), file, attrs, compress.test(new ResourceInfo(file, attrs)), buf);
+                } catch (NoSuchFileException e) {
+                    LOG.debug("File vanished while archiving: {}", file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                LOG.debug("Skip unreadable {} in archive: {}", file, e.toString());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        zip.finish();
+        zip.flush();
+    }
+
+    private static void addFile(ZipOutputStream zip, String name, Path file, BasicFileAttributes attrs,
+                                boolean deflate, byte[] buf) throws IOException {
+        ZipEntry e = new ZipEntry(name);
+        e.setLastModifiedTime(attrs.lastModifiedTime());
+        if (!deflate) {
+            CRC32 crc = new CRC32();
+            long size = 0;
+            try (InputStream in = Files.newInputStream(file)) {
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    crc.update(buf, 0, n);
+                    size += n;
+                }
+            }
+            e.setMethod(ZipEntry.STORED);
+            e.setSize(size);
+            e.setCompressedSize(size);
+            e.setCrc(crc.getValue());
+        }
+        zip.putNextEntry(e);
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) zip.write(buf, 0, n);
+        }
+        zip.closeEntry();
+    }
+
+    private static String entryName(Path root, Path p) {
+        return root.relativize(p).toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,174 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ArchiveReaderTest {
+
+    /** Writes ustar archives for tests. */
+    static final class TarBuilder {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        TarBuilder file(String name, String content) {
+            return entry(name, '0', content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        TarBuilder directory(String name) {
+            return entry(name, '5', new byte[0]);
+        }
+
+        TarBuilder symlink(String name) {
+            return entry(name, '2', new byte[0]);
+        }
+
+        /** A GNU long name entry followed by the file. */
+        TarBuilder longFile(String name, String content) {
+            entry("././@LongLink", 'L', (name + "\0").getBytes(StandardCharsets.UTF_8));
+            return entry(name.substring(0, 50), '0', content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /** A pax header overriding the path, followed by the file. */
+        TarBuilder paxFile(String name, String content) {
+            String record = " path=" + name + "\n";
+            int len = record.length() + 2;
+            record = len + record;
+            entry("PaxHeaders/x", 'x', record.getBytes(StandardCharsets.UTF_8));
+            return entry("ignored", '0', content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        TarBuilder entry(String name, char type, byte[] data) {
+            byte[] h = new byte[512];
+            put(h, 0, name);
+            put(h, 100, "0000644");
+            put(h, 108, "0000000");
+            put(h, 116, "0000000");
+            put(h, 124, String.format("%011o", data.length));
+            put(h, 136, "00000000000");
+            h[156] = (byte) type;
+            put(h, 257, "ustar");
+            put(h, 263, "00");
+            for (int i = 148; i < 156; i++) h[i] = ' ';
+            long sum = 0;
+            for (byte b : h) sum += b & 0xff;
+            put(h, 148, String.format("%06o", sum));
+            h[154] = 0;
+            out.writeBytes(h);
+            out.writeBytes(data);
+            out.writeBytes(new byte[(512 - data.length % 512) % 512]);
+            return this;
+        }
+
+        private static void put(byte[] h, int off, String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(b, 0, h, off, b.length);
+        }
+
+        byte[] build() {
+            out.writeBytes(new byte[1024]);
+            return out.toByteArray();
+        }
+    }
+
+    static byte[] zip(String... namesAndContents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+                if (namesAndContents[i + 1] != null) zip.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<String> readAll(ArchiveReader.Format format, byte[] archive, boolean readContent) throws IOException {
+        List<String> seen = new ArrayList<>();
+        try (ArchiveReader reader = ArchiveReader.open(format, new ByteArrayInputStream(archive))) {
+            ArchiveReader.Entry e;
+            while ((e = reader.next()) != null) {
+                String content = readContent && e.isFile()
+                        ? "=" + new String(reader.content().readAllBytes(), StandardCharsets.UTF_8) : "";
+                seen.add(e.type() + ":" + e.name() + content);
+            }
+        }
+        return seen;
+    }
+
+    @Test
+    void readsTarEntries() throws Exception {
+        String longName = "deep/" + "x".repeat(120) + ".txt";
+        byte[] tar = new TarBuilder()
+                .directory("docs/")
+                .file("docs/a.txt", "alpha")
+                .file("docs/big.bin", "b".repeat(1500))
+                .symlink("docs/link")
+                .longFile(longName, "long")
+                .paxFile("pax/ü.txt", "pax")
+                .build();
+
+        assertThat(readAll(ArchiveReader.Format.TAR, tar, true)).containsExactly(
+                "5:docs/", "0:docs/a.txt=alpha", "0:docs/big.bin=" + "b".repeat(1500), "2:docs/link",
+                "0:" + longName + "=long", "0:pax/ü.txt=pax");
+    }
+
+    @Test
+    void skipsUnreadContent() throws Exception {
+        byte[] tar = new TarBuilder().file("a", "a".repeat(700)).file("b", "bee").build();
+
+        List<String> seen = new ArrayList<>();
+        try (ArchiveReader reader = ArchiveReader.open(ArchiveReader.Format.TAR, new ByteArrayInputStream(tar))) {
+            reader.next();
+            reader.content().readNBytes(10);
+            reader.next();
+            seen.add(new String(reader.content().readAllBytes(), StandardCharsets.UTF_8));
+            assertThat(reader.next()).isNull();
+        }
+        assertThat(seen).containsExactly("bee");
+    }
+
+    @Test
+    void readsGzippedTar() throws Exception {
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gz)) {
+            out.write(new TarBuilder().file("a.txt", "zipped").build());
+        }
+        assertThat(readAll(ArchiveReader.Format.TAR_GZIP, gz.toByteArray(), true)).containsExactly("0:a.txt=zipped");
+    }
+
+    @Test
+    void readsZipEntries() throws Exception {
+        byte[] zip = zip("dir/", null, "dir/a.txt", "alpha", "b.txt", "beta");
+
+        assertThat(readAll(ArchiveReader.Format.ZIP, zip, false)).containsExactly("5:dir/", "0:dir/a.txt", "0:b.txt");
+        assertThat(readAll(ArchiveReader.Format.ZIP, zip, true)).containsExactly("5:dir/", "0:dir/a.txt=alpha", "0:b.txt=beta");
+    }
+
+    @Test
+    void rejectsGarbage() {
+        byte[] garbage = "this is not a tar file".repeat(50).getBytes(StandardCharsets.UTF_8);
+
+        assertThatThrownBy(() -> readAll(ArchiveReader.Format.TAR, garbage, true))
+                .isInstanceOf(ArchiveReader.MalformedArchiveException.class);
+    }
+
+    @Test
+    void detectsFormatByContentType() {
+        assertThat(ArchiveReader.Format.of("application/zip")).isEqualTo(ArchiveReader.Format.ZIP);
+        assertThat(ArchiveReader.Format.of("application/x-tar; charset=binary")).isEqualTo(ArchiveReader.Format.TAR);
+        assertThat(ArchiveReader.Format.of("application/gzip")).isEqualTo(ArchiveReader.Format.TAR_GZIP);
+        assertThat(ArchiveReader.Format.of("text/plain")).isNull();
+        assertThat(ArchiveReader.Format.of(null)).isNull();
+    }
+}
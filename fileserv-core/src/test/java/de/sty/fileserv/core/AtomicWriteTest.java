@@ -0,0 +1,131 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AtomicWriteTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static InputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void replacesTargetAndLeavesNoTempFile() throws Exception {
+        Path p = Files.writeString(tempDir.resolve("a.txt"), "old content");
+
+        for (FsyncPolicy policy : FsyncPolicy.values()) {
+            long size = AtomicWrite.write(stream("new " + policy), p, policy);
+
+            assertThat(Files.readString(p)).isEqualTo("new " + policy);
+            assertThat(size).isEqualTo(("new " + policy).length());
+        }
+        try (var files = Files.list(tempDir)) {
+            assertThat(files).containsExactly(p);
+        }
+    }
+
+    @Test
+    void openReaderKeepsOldVersion() throws Exception {
+        Path p = Files.writeString(tempDir.resolve("a.txt"), "old");
+
+        try (FileChannel reader = FileChannel.open(p, StandardOpenOption.READ)) {
+            AtomicWrite.write(stream("new and longer"), p, FsyncPolicy.NONE);
+
+            ByteBuffer buf = ByteBuffer.allocate(64);
+            reader.read(buf, 0);
+            assertThat(new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8)).isEqualTo("old");
+        }
+        assertThat(Files.readString(p)).isEqualTo("new and longer");
+    }
+
+    @Test
+    void failedUploadKeepsTarget() throws Exception {
+        Path p = Files.writeString(tempDir.resolve("a.txt"), "old");
+        InputStream broken = new SequenceInputStream(stream("partial"), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        });
+
+        assertThatThrownBy(() -> AtomicWrite.write(broken, p, FsyncPolicy.FILE)).hasMessage("connection reset");
+
+        assertThat(Files.readString(p)).isEqualTo("old");
+        try (var files = Files.list(tempDir)) {
+            assertThat(files).containsExactly(p);
+        }
+    }
+
+    @Test
+    void writesLargeUploadOfKnownLength() throws Exception {
+        byte[] data = new byte[(int) AtomicWrite.LARGE_WRITE_THRESHOLD * 3 + 12345];
+        new java.util.Random(7).nextBytes(data);
+        Path p = tempDir.resolve("large.bin");
+
+        long size = AtomicWrite.write(new ByteArrayInputStream(data), p,
+                AtomicWrite.Options.of(FsyncPolicy.NONE).withLength(data.length));
+
+        assertThat(size).isEqualTo(data.length);
+        assertThat(Files.readAllBytes(p)).isEqualTo(data);
+    }
+
+    @Test
+    void shortUploadOfKnownLengthFails() throws Exception {
+        Path p = Files.writeString(tempDir.resolve("a.bin"), "old");
+        byte[] data = new byte[(int) AtomicWrite.LARGE_WRITE_THRESHOLD];
+
+        assertThatThrownBy(() -> AtomicWrite.write(new ByteArrayInputStream(data), p,
+                AtomicWrite.Options.of(FsyncPolicy.NONE).withLength(data.length + 1)))
+                .isInstanceOf(java.io.EOFException.class);
+
+        assertThat(Files.readString(p)).isEqualTo("old");
+        try (var files = Files.list(tempDir)) {
+            assertThat(files).containsExactly(p);
+        }
+    }
+
+    @Test
+    void recognisesTempFiles() throws Exception {
+        Path temp = AtomicWrite.createTemp(tempDir.resolve("report.pdf"));
+
+        assertThat(AtomicWrite.isTemp(temp)).isTrue();
+        assertThat(temp.getParent()).isEqualTo(tempDir);
+        assertThat(AtomicWrite.isTemp(tempDir.resolve("report.pdf"))).isFalse();
+        assertThat(AtomicWrite.isTemp(tempDir.resolve("notes.fileserv-tmp"))).isFalse();
+    }
+
+    @Test
+    void writesTargetWithLongestPossibleName() throws Exception {
+        Path p = tempDir.resolve("n".repeat(250) + ".txt");
+
+        AtomicWrite.write(stream("data"), p, FsyncPolicy.FILE);
+
+        assertThat(p).hasContent("data");
+        Path temp = AtomicWrite.tempPath(p);
+        assertThat(AtomicWrite.isTemp(temp)).isTrue();
+        assertThat(temp.getFileName().toString()).startsWith("." + "n".repeat(AtomicWrite.TEMP_PREFIX_LENGTH) + ".");
+    }
+
+    @Test
+    void parsesPolicy() {
+        assertThat(FsyncPolicy.parse(null)).isEqualTo(FsyncPolicy.FILE);
+        assertThat(FsyncPolicy.parse(" file_and_directory ")).isEqualTo(FsyncPolicy.FILE_AND_DIRECTORY);
+    }
+}
@@ -44,6 +44,7 @@ class BasicAuthFilterTest {
         filter.doFilter(request, new ServletStubs.StubHttpServletResponse(), (req, res) -> chainCalled.set(true));
         
         assertThat(chainCalled.get()).isTrue();
+        assertThat(request.getAttribute(BasicAuthFilter.USER_ATTRIBUTE)).isEqualTo("user");
     }
 
     @Test
@@ -0,0 +1,199 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assumptions.assumeThat;
+
+class BlobStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ContentDigests digests;
+    private BlobStore blobs;
+
+    @BeforeEach
+    void setUp() {
+        assumeThat(BlobStore.isSupported(tempDir)).isTrue();
+        digests = new ContentDigests(tempDir);
+        assumeThat(digests.usesAttributes()).isTrue();
+        blobs = new BlobStore(tempDir);
+    }
+
+    private void put(Path target, String content) throws IOException {
+        Files.createDirectories(target.getParent());
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        AtomicWrite.write(new ByteArrayInputStream(bytes), target,
+                AtomicWrite.Options.of(FsyncPolicy.NONE).withLength(bytes.length).withDigests(digests).withBlobs(blobs));
+    }
+
+    @Test
+    void identicalUploadsShareOneCopy() throws Exception {
+        Path a = tempDir.resolve("team/a/installer.bin");
+        Path b = tempDir.resolve("team/b/installer.bin");
+        Path c = tempDir.resolve("team/c/other.bin");
+        put(a, "same bytes");
+        put(b, "same bytes");
+        put(c, "other bytes");
+
+        assertThat(Files.isSameFile(a, b)).isTrue();
+        assertThat(Files.isSameFile(a, c)).isFalse();
+        assertThat(Files.readString(b)).isEqualTo("same bytes");
+        assertThat(digests.get(ResourceInfo.read(b))).isEqualTo(digests.get(ResourceInfo.read(a)));
+        assertThat(blobs.hits()).isEqualTo(1);
+        assertThat(blobs.misses()).isEqualTo(2);
+
+        BlobStore.Stats stats = blobs.stats();
+        assertThat(stats.blobs()).isEqualTo(2);
+        assertThat(stats.storedBytes()).isEqualTo(10 + 11);
+        assertThat(stats.referencedBytes()).isEqualTo(2 * 10 + 11);
+        assertThat(stats.savedBytes()).isEqualTo(10);
+        assertThat(stats.ratio()).isGreaterThan(1.0);
+    }
+
+    @Test
+    void homesDoNotShareBlobs() throws Exception {
+        Path alice = tempDir.resolve("alice/installer.bin");
+        Path bob = tempDir.resolve("bob/installer.bin");
+        put(alice, "same bytes");
+        put(bob, "same bytes");
+
+        assertThat(Files.isSameFile(alice, bob)).isFalse();
+        assertThat(blobs.isSameHome(alice, bob)).isFalse();
+        assertThat(blobs.isSameHome(alice, tempDir.resolve("alice/sub/other.bin"))).isTrue();
+        assertThat(blobs.hits()).isZero();
+        assertThat(blobs.stats().blobs()).isEqualTo(2);
+    }
+
+    @Test
+    void replacingOneCopyLeavesTheOthers() throws Exception {
+        Path a = tempDir.resolve("a.bin");
+        Path b = tempDir.resolve("b.bin");
+        put(a, "shared");
+        put(b, "shared");
+
+        put(b, "changed");
+
+        assertThat(Files.readString(a)).isEqualTo("shared");
+        assertThat(Files.readString(b)).isEqualTo("changed");
+        assertThat(Files.isSameFile(a, b)).isFalse();
+    }
+
+    @Test
+    void lastReferenceReleasesBlob() throws Exception {
+        Path a = tempDir.resolve("a.bin");
+        Path b = tempDir.resolve("b.bin");
+        put(a, "shared");
+        put(b, "shared");
+        byte[] digest = digests.get(ResourceInfo.read(a));
+
+        Files.delete(a);
+        blobs.release(a, digest);
+        assertThat(blobs.stats().blobs()).isEqualTo(1);
+
+        Files.delete(b);
+        blobs.release(b, digest);
+        assertThat(blobs.stats().blobs()).isZero();
+        assertThat(blobs.sweep()).isZero();
+    }
+
+    @Test
+    void sweepRemovesUnreferencedBlobs() throws Exception {
+        put(tempDir.resolve("a.bin"), "one");
+        put(tempDir.resolve("b.bin"), "two");
+        Files.delete(tempDir.resolve("a.bin"));
+
+        assertThat(blobs.sweep()).isEqualTo(1);
+        assertThat(blobs.stats().blobs()).isEqualTo(1);
+    }
+
+    @Test
+    void linkSharesContentWithoutCopying() throws Exception {
+        Path src = tempDir.resolve("src.bin");
+        Path dst = tempDir.resolve("dst.bin");
+        put(src, "content");
+        Files.writeString(dst, "old");
+        Files.setLastModifiedTime(dst, FileTime.fromMillis(System.currentTimeMillis() - 86_400_000L));
+        FileTime modified = Files.getLastModifiedTime(src);
+
+        AtomicWrite.commit(blobs.link(src, dst, digests.get(ResourceInfo.read(src))), dst, FsyncPolicy.NONE);
+
+        assertThat(Files.isSameFile(src, dst)).isTrue();
+        assertThat(Files.readString(dst)).isEqualTo("content");
+        assertThat(Files.getLastModifiedTime(src)).isEqualTo(modified);
+    }
+
+    @Test
+    void linkDoesNotMoveLastModifiedBackOrLeaveTheHome() throws Exception {
+        Path src = tempDir.resolve("alice/src.bin");
+        put(src, "content");
+        byte[] digest = digests.get(ResourceInfo.read(src));
+        Files.setLastModifiedTime(src, FileTime.fromMillis(System.currentTimeMillis() - 86_400_000L));
+        Path newer = tempDir.resolve("alice/newer.bin");
+        Files.writeString(newer, "old");
+
+        assertThat(blobs.link(src, newer, digest)).isNull();
+        assertThat(blobs.link(src, tempDir.resolve("bob/copy.bin"), digest)).isNull();
+        assertThat(blobs.link(src, tempDir.resolve("alice/copy.bin"), digest)).isNotNull();
+    }
+
+    @Test
+    void unshareGivesFilesMovedToAnotherHomeTheirOwnCopy() throws Exception {
+        Path kept = tempDir.resolve("alice/kept.bin");
+        Path from = tempDir.resolve("alice/moved.bin");
+        put(kept, "content");
+        put(from, "content");
+        byte[] digest = digests.get(ResourceInfo.read(from));
+        Path to = tempDir.resolve("bob/moved.bin");
+        Files.createDirectories(to.getParent());
+        Files.move(from, to);
+
+        AtomicWrite.commit(blobs.unshare(from, to, digest), to, FsyncPolicy.NONE);
+        blobs.release(from, digest);
+
+        assertThat(Files.isSameFile(kept, to)).isFalse();
+        assertThat(Files.readString(to)).isEqualTo("content");
+        assertThat(blobs.isShared(to, digest)).isTrue();
+        assertThat(blobs.isShared(kept, digest)).isTrue();
+        assertThat(blobs.unshare(kept, tempDir.resolve("alice/other.bin"), digest)).isNull();
+    }
+
+    @Test
+    void sharingMovesLastModifiedForward() throws Exception {
+        Path a = tempDir.resolve("a.bin");
+        Path b = tempDir.resolve("b.bin");
+        put(a, "content");
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 86_400_000L);
+        Files.setLastModifiedTime(a, old);
+
+        put(b, "content");
+
+        assertThat(Files.isSameFile(a, b)).isTrue();
+        assertThat(Files.getLastModifiedTime(b)).isGreaterThan(old);
+        // the digest record is shared with the content and still matches the other file
+        assertThat(digests.get(ResourceInfo.read(a))).isEqualTo(digests.get(ResourceInfo.read(b))).isNotNull();
+    }
+
+    @Test
+    void onlyLinksToBlobsAreShared() throws Exception {
+        Path shared = tempDir.resolve("shared.bin");
+        Path own = tempDir.resolve("own.bin");
+        put(shared, "content");
+        Files.writeString(own, "content");
+        byte[] digest = digests.get(ResourceInfo.read(shared));
+
+        assertThat(blobs.isShared(shared, digest)).isTrue();
+        assertThat(blobs.isShared(own, digest)).isFalse();
+        assertThat(blobs.isShared(shared, null)).isFalse();
+    }
+}
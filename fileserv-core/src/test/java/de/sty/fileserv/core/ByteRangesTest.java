@@ -0,0 +1,43 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ByteRangesTest {
+
+    @Test
+    void parsesSimpleOpenAndSuffixRanges() {
+        assertThat(ByteRanges.parse("bytes=0-99", 1000)).containsExactly(new ByteRanges.Range(0, 99));
+        assertThat(ByteRanges.parse("bytes=900-", 1000)).containsExactly(new ByteRanges.Range(900, 999));
+        assertThat(ByteRanges.parse("bytes=-100", 1000)).containsExactly(new ByteRanges.Range(900, 999));
+        assertThat(ByteRanges.parse("bytes=990-2000", 1000)).containsExactly(new ByteRanges.Range(990, 999));
+    }
+
+    @Test
+    void coalescesOverlappingAndAdjacentRanges() {
+        assertThat(ByteRanges.parse("bytes=50-99,0-49,200-299,250-260", 1000))
+                .containsExactly(new ByteRanges.Range(0, 99), new ByteRanges.Range(200, 299));
+    }
+
+    @Test
+    void malformedOrMissingHeaderMeansFullContent() {
+        assertThat(ByteRanges.parse(null, 10)).isNull();
+        assertThat(ByteRanges.parse("items=0-1", 10)).isNull();
+        assertThat(ByteRanges.parse("bytes=5-1", 10)).isNull();
+        assertThat(ByteRanges.parse("bytes=a-b", 10)).isNull();
+    }
+
+    @Test
+    void unsatisfiableRangesYieldEmptyList() {
+        assertThat(ByteRanges.parse("bytes=10-20", 10)).isEmpty();
+        assertThat(ByteRanges.parse("bytes=-0", 10)).isEmpty();
+        assertThat(ByteRanges.parse("bytes=0-", 0)).isEmpty();
+    }
+
+    @Test
+    void tooManyRangesMeansFullContent() {
+        String header = "bytes=" + "0-0,".repeat(ByteRanges.MAX_RANGES) + "2-2";
+        assertThat(ByteRanges.parse(header, 10)).isNull();
+    }
+}
@@ -0,0 +1,32 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+
+import static de.sty.fileserv.core.ContentCoding.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentCodingTest {
+
+    @Test
+    void absentHeaderAcceptsNothing() {
+        assertThat(accepted(null)).isEmpty();
+        assertThat(accepted("identity")).isEmpty();
+    }
+
+    @Test
+    void equalQualityFollowsServerPreference() {
+        assertThat(accepted("gzip, deflate, br, zstd")).containsExactly(BR, ZSTD, GZIP);
+    }
+
+    @Test
+    void qualityValuesOrderAndExclude() {
+        assertThat(accepted("br;q=0.5, gzip")).containsExactly(GZIP, BR);
+        assertThat(accepted("*;q=0.3, br;q=0")).containsExactly(ZSTD, GZIP);
+        assertThat(accepted("x-gzip")).containsExactly(GZIP);
+    }
+
+    @Test
+    void variantEtagIsDerivedFromSource() {
+        assertThat(GZIP.etag("\"10-1700000000000\"")).isEqualTo("\"10-1700000000000-gzip\"");
+    }
+}
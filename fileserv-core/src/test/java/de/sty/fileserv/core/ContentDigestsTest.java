@@ -0,0 +1,170 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assumptions.assumeThat;
+
+class ContentDigestsTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static byte[] sha256(String s) {
+        return ContentDigests.newDigest().digest(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void assumeAttributes() throws Exception {
+        assumeThat(Files.getFileStore(tempDir).supportsFileAttributeView(UserDefinedFileAttributeView.class)).isTrue();
+    }
+
+    @Test
+    void recordsDigestInAttribute() throws Exception {
+        assumeAttributes();
+        recordsDigestWhileWriting(true);
+    }
+
+    @Test
+    void recordsDigestInSidecar() throws Exception {
+        recordsDigestWhileWriting(false);
+    }
+
+    @Test
+    void ignoresAttributeOfChangedFile() throws Exception {
+        assumeAttributes();
+        ignoresRecordOfChangedFile(true);
+    }
+
+    @Test
+    void ignoresSidecarOfChangedFile() throws Exception {
+        ignoresRecordOfChangedFile(false);
+    }
+
+    private void recordsDigestWhileWriting(boolean attributes) throws Exception {
+        var digests = new ContentDigests(tempDir, attributes, 100);
+        Path file = tempDir.resolve("a.txt");
+
+        AtomicWrite.write(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)), file,
+                AtomicWrite.Options.of(FsyncPolicy.NONE).withLength(5).withDigests(digests));
+
+        assertThat(digests.get(ResourceInfo.read(file))).isEqualTo(sha256("hello"));
+        // survives a restart
+        var fresh = new ContentDigests(tempDir, attributes, 100);
+        assertThat(fresh.get(ResourceInfo.read(file))).isEqualTo(sha256("hello"));
+    }
+
+    private void ignoresRecordOfChangedFile(boolean attributes) throws Exception {
+        var digests = new ContentDigests(tempDir, attributes, 100);
+        Path file = tempDir.resolve("a.txt");
+        AtomicWrite.write(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)), file,
+                FsyncPolicy.NONE);
+        digests.store(file, file, sha256("hello"));
+
+        Files.writeString(file, "world");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+
+        assertThat(new ContentDigests(tempDir, attributes, 100).get(ResourceInfo.read(file))).isNull();
+        assertThat(digests.get(ResourceInfo.read(file))).isNull();
+    }
+
+    @Test
+    void ignoresRecordOfFileChangedInPlaceWithRestoredModificationTime() throws Exception {
+        assumeThat(Files.getFileStore(tempDir).supportsFileAttributeView("unix")).isTrue();
+        var digests = new ContentDigests(tempDir);
+        Path file = tempDir.resolve("a.txt");
+        AtomicWrite.write(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)), file,
+                AtomicWrite.Options.of(FsyncPolicy.NONE).withLength(5).withDigests(digests));
+        FileTime modified = Files.getLastModifiedTime(file);
+        assertThat(digests.get(ResourceInfo.read(file))).isEqualTo(sha256("hello"));
+
+        Thread.sleep(10);
+        Files.writeString(file, "world");
+        Files.setLastModifiedTime(file, modified);
+
+        assertThat(digests.get(ResourceInfo.read(file))).isNull();
+        assertThat(new ContentDigests(tempDir).get(ResourceInfo.read(file))).isNull();
+    }
+
+    @Test
+    void keepsRecordOfFileWhoseInodeChangedButNotItsContent() throws Exception {
+        assumeThat(Files.getFileStore(tempDir).supportsFileAttributeView("unix")).isTrue();
+        var digests = new ContentDigests(tempDir);
+        Path file = tempDir.resolve("a.txt");
+        AtomicWrite.write(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)), file,
+                AtomicWrite.Options.of(FsyncPolicy.NONE).withLength(5).withDigests(digests));
+
+        Thread.sleep(10);
+        Files.createLink(tempDir.resolve("b.txt"), file);
+
+        assertThat(digests.get(ResourceInfo.read(file))).isEqualTo(sha256("hello"));
+        assertThat(new ContentDigests(tempDir).get(ResourceInfo.read(file))).isEqualTo(sha256("hello"));
+    }
+
+    @Test
+    void sidecarsFollowMovesAndDeletes() throws Exception {
+        var digests = new ContentDigests(tempDir, false, 100);
+        Path dir = Files.createDirectories(tempDir.resolve("a"));
+        for (String name : new String[] {"x.txt", "y.txt"}) {
+            AtomicWrite.write(new ByteArrayInputStream(name.getBytes(StandardCharsets.UTF_8)), dir.resolve(name),
+                    AtomicWrite.Options.of(FsyncPolicy.NONE).withLength(5).withDigests(digests));
+        }
+        Path sidecars = tempDir.resolve(ContentDigests.DIRECTORY);
+
+        Path moved = tempDir.resolve("b");
+        Files.move(dir, moved);
+        digests.moved(dir, moved, true);
+        Path file = tempDir.resolve("z.txt");
+        Files.move(moved.resolve("y.txt"), file);
+        digests.moved(moved.resolve("y.txt"), file, false);
+
+        var fresh = new ContentDigests(tempDir, false, 100);
+        assertThat(fresh.get(ResourceInfo.read(moved.resolve("x.txt")))).isEqualTo(sha256("x.txt"));
+        assertThat(fresh.get(ResourceInfo.read(file))).isEqualTo(sha256("y.txt"));
+        try (var files = Files.list(sidecars)) {
+            assertThat(files).hasSize(2);
+        }
+
+        Files.delete(file);
+        digests.removed(file);
+        Files.delete(moved.resolve("x.txt"));
+        digests.removed(moved.resolve("x.txt"));
+        try (var files = Files.list(sidecars)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void fileWithoutRecordHasNoDigest() throws Exception {
+        Path file = tempDir.resolve("plain.txt");
+        Files.writeString(file, "plain");
+        var digests = new ContentDigests(tempDir);
+
+        assertThat(digests.get(ResourceInfo.read(file))).isNull();
+        assertThat(digests.get(ResourceInfo.read(tempDir))).isNull();
+        assertThat(digests.get(ResourceInfo.read(tempDir.resolve("missing")))).isNull();
+    }
+
+    @Test
+    void sidecarDirectoryIsHidden() {
+        assertThat(AtomicWrite.isTemp(tempDir.resolve(ContentDigests.DIRECTORY))).isTrue();
+    }
+
+    @Test
+    void formatsHeaders() {
+        byte[] digest = sha256("hello");
+        String b64 = Base64.getEncoder().encodeToString(digest);
+
+        assertThat(ContentDigests.reprDigest(digest)).isEqualTo("sha-256=:" + b64 + ":");
+        assertThat(ContentDigests.legacyDigest(digest)).isEqualTo("SHA-256=" + b64);
+        assertThat(ContentDigests.etag(digest)).startsWith("\"").endsWith("\"").doesNotContain("W/", "=", "+", "/");
+    }
+}
@@ -0,0 +1,40 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileSenderTest {
+
+    @Test
+    void reusesReleasedBuffers() {
+        ByteBuffer buf = FileSender.acquireBuffer();
+        assertThat(buf.isDirect()).isTrue();
+        assertThat(buf.capacity()).isEqualTo(FileSender.CHUNK_SIZE);
+        buf.limit(10).position(3);
+        FileSender.releaseBuffer(buf);
+
+        ByteBuffer again = FileSender.acquireBuffer();
+        assertThat(again).isSameAs(buf);
+        assertThat(again.position()).isZero();
+        assertThat(again.limit()).isEqualTo(FileSender.CHUNK_SIZE);
+        FileSender.releaseBuffer(again);
+    }
+
+    @Test
+    void keepsAtMostTheConfiguredNumberOfBuffers() {
+        ByteBuffer[] taken = new ByteBuffer[FileSender.MAX_POOLED_BUFFERS + 1];
+        for (int i = 0; i < taken.length; i++) taken[i] = FileSender.acquireBuffer();
+        for (ByteBuffer b : taken) FileSender.releaseBuffer(b);
+
+        ByteBuffer[] again = new ByteBuffer[taken.length];
+        for (int i = 0; i < again.length; i++) again[i] = FileSender.acquireBuffer();
+        // the one beyond the limit was dropped and replaced by a new allocation
+        ByteBuffer dropped = taken[taken.length - 1];
+        assertThat(Arrays.stream(again).noneMatch(b -> b == dropped)).isTrue();
+        for (ByteBuffer b : again) FileSender.releaseBuffer(b);
+    }
+}
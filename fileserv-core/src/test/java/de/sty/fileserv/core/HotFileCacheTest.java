@@ -0,0 +1,101 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotFileCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path write(String name, String content) throws Exception {
+        Path p = tempDir.resolve(name);
+        Files.createDirectories(p.getParent());
+        Files.writeString(p, content);
+        return p;
+    }
+
+    private static String text(ByteBuffer buf) {
+        return StandardCharsets.UTF_8.decode(buf).toString();
+    }
+
+    @Test
+    void servesRepeatedReadsFromCache() throws Exception {
+        var cache = new HotFileCache(1024, 1024);
+        Path p = write("a.txt", "hello");
+
+        assertThat(text(cache.get(ResourceInfo.read(p)))).isEqualTo("hello");
+        assertThat(text(cache.get(ResourceInfo.read(p)))).isEqualTo("hello");
+
+        HotFileCache.Stats stats = cache.stats();
+        assertThat(stats.hits()).isEqualTo(1);
+        assertThat(stats.misses()).isEqualTo(1);
+        assertThat(stats.entries()).isEqualTo(1);
+        assertThat(stats.bytes()).isEqualTo(5);
+        assertThat(stats.hitRatio()).isEqualTo(0.5);
+    }
+
+    @Test
+    void changedFileIsReloaded() throws Exception {
+        var cache = new HotFileCache(1024, 1024);
+        Path p = write("a.txt", "hello");
+        cache.get(ResourceInfo.read(p));
+
+        Files.writeString(p, "changed");
+        Files.setLastModifiedTime(p, FileTime.fromMillis(Files.getLastModifiedTime(p).toMillis() + 2000));
+
+        assertThat(text(cache.get(ResourceInfo.read(p)))).isEqualTo("changed");
+        assertThat(cache.stats().misses()).isEqualTo(2);
+        assertThat(cache.stats().bytes()).isEqualTo(7);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedOverBudget() throws Exception {
+        var cache = new HotFileCache(10, 10);
+        Path a = write("a.txt", "aaaa");
+        Path b = write("b.txt", "bbbb");
+        Path c = write("c.txt", "cccc");
+
+        cache.get(ResourceInfo.read(a));
+        cache.get(ResourceInfo.read(b));
+        cache.get(ResourceInfo.read(a));
+        cache.get(ResourceInfo.read(c));
+
+        assertThat(cache.stats().evictions()).isEqualTo(1);
+        assertThat(cache.stats().bytes()).isEqualTo(8);
+        cache.get(ResourceInfo.read(a));
+        assertThat(cache.stats().hits()).isEqualTo(2);
+    }
+
+    @Test
+    void largeFilesAndDirectoriesAreNotCached() throws Exception {
+        var cache = new HotFileCache(1024, 4);
+        Path p = write("big.txt", "too large");
+
+        assertThat(cache.get(ResourceInfo.read(p))).isNull();
+        assertThat(cache.get(ResourceInfo.read(tempDir))).isNull();
+        assertThat(cache.stats().entries()).isZero();
+    }
+
+    @Test
+    void invalidateDropsCollectionMembers() throws Exception {
+        var cache = new HotFileCache(1024, 1024);
+        Path inner = write("dir/inner.txt", "x");
+        Path sibling = write("dir2.txt", "y");
+        cache.get(ResourceInfo.read(inner));
+        cache.get(ResourceInfo.read(sibling));
+
+        cache.invalidate(tempDir.resolve("dir"));
+
+        assertThat(cache.stats().entries()).isEqualTo(1);
+        assertThat(cache.stats().bytes()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,113 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MappedFilePoolTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path write(String name, String content) throws Exception {
+        Path p = tempDir.resolve(name);
+        Files.createDirectories(p.getParent());
+        Files.writeString(p, content);
+        return p;
+    }
+
+    private static String read(MappedFilePool.Mapping m, long offset, long length) throws Exception {
+        var out = new ByteArrayOutputStream();
+        m.send(offset, length, out, null);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void concurrentReadersShareOneMapping() throws Exception {
+        var pool = new MappedFilePool(1024, 4);
+        Path p = write("a.bin", "0123456789");
+
+        try (var first = pool.acquire(ResourceInfo.read(p));
+             var second = pool.acquire(ResourceInfo.read(p))) {
+            assertThat(second).isSameAs(first);
+            assertThat(first.refCount()).isEqualTo(3);
+            assertThat(read(first, 2, 3)).isEqualTo("234");
+        }
+
+        MappedFilePool.Stats stats = pool.stats();
+        assertThat(stats.hits()).isEqualTo(1);
+        assertThat(stats.misses()).isEqualTo(1);
+        assertThat(stats.mappings()).isEqualTo(1);
+        assertThat(stats.bytes()).isEqualTo(10);
+    }
+
+    @Test
+    void filesOutsideThresholdsAreNotMapped() throws Exception {
+        var pool = new MappedFilePool(8, 4);
+
+        assertThat(pool.acquire(ResourceInfo.read(write("small.bin", "abc")))).isNull();
+        assertThat(pool.acquire(ResourceInfo.read(write("large.bin", "0123456789")))).isNull();
+        assertThat(pool.acquire(ResourceInfo.read(tempDir))).isNull();
+        assertThat(pool.stats().mappings()).isZero();
+    }
+
+    @Test
+    void invalidatedMappingStaysUsableUntilReleased() throws Exception {
+        var pool = new MappedFilePool(1024, 1);
+        Path p = write("dir/a.bin", "0123456789");
+
+        var m = pool.acquire(ResourceInfo.read(p));
+        pool.invalidate(tempDir.resolve("dir"));
+        assertThat(pool.stats().mappings()).isZero();
+        assertThat(m.refCount()).isEqualTo(1);
+        assertThat(read(m, 0, 10)).isEqualTo("0123456789");
+
+        m.close();
+        assertThat(m.refCount()).isZero();
+        assertThatThrownBy(() -> read(m, 0, 1)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void changedFileIsMappedAgain() throws Exception {
+        var pool = new MappedFilePool(1024, 1);
+        Path p = write("a.bin", "old");
+        var old = pool.acquire(ResourceInfo.read(p));
+
+        Files.writeString(p, "newer");
+        Files.setLastModifiedTime(p, FileTime.fromMillis(Files.getLastModifiedTime(p).toMillis() + 2000));
+
+        try (var m = pool.acquire(ResourceInfo.read(p))) {
+            assertThat(m).isNotSameAs(old);
+            assertThat(read(m, 0, 5)).isEqualTo("newer");
+        }
+        assertThat(old.refCount()).isEqualTo(1);
+        old.close();
+        assertThat(pool.stats().bytes()).isEqualTo(5);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedOverBudget() throws Exception {
+        var pool = new MappedFilePool(10, 1);
+        Path a = write("a.bin", "aaaa");
+        Path b = write("b.bin", "bbbb");
+        Path c = write("c.bin", "cccc");
+
+        pool.acquire(ResourceInfo.read(a)).close();
+        pool.acquire(ResourceInfo.read(b)).close();
+        pool.acquire(ResourceInfo.read(a)).close();
+        pool.acquire(ResourceInfo.read(c)).close();
+
+        assertThat(pool.stats().evictions()).isEqualTo(1);
+        assertThat(pool.stats().bytes()).isEqualTo(8);
+        pool.acquire(ResourceInfo.read(a)).close();
+        assertThat(pool.stats().hits()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,66 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MimeTypesTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void extensionWinsWithoutReadingTheFile() throws Exception {
+        var mimeTypes = new MimeTypes();
+        Path p = tempDir.resolve("Photo.JPG");
+        Files.writeString(p, "not really a jpeg");
+
+        assertThat(mimeTypes.resolve(ResourceInfo.read(p))).isEqualTo("image/jpeg");
+        assertThat(mimeTypes.size()).isZero();
+    }
+
+    @Test
+    void unknownExtensionIsSniffedOncePerVersion() throws Exception {
+        var mimeTypes = new MimeTypes();
+        Path p = tempDir.resolve("blob");
+        Files.write(p, new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0});
+
+        assertThat(mimeTypes.resolve(ResourceInfo.read(p))).isEqualTo("image/png");
+        assertThat(mimeTypes.size()).isEqualTo(1);
+
+        Files.writeString(p, "now it is text");
+        Files.setLastModifiedTime(p, FileTime.fromMillis(Files.getLastModifiedTime(p).toMillis() + 2000));
+        assertThat(mimeTypes.resolve(ResourceInfo.read(p))).isEqualTo("text/plain");
+        assertThat(mimeTypes.size()).isEqualTo(1);
+    }
+
+    @Test
+    void magicBytes() {
+        assertThat(MimeTypes.byMagic(bytes("%PDF-1.7\n"))).isEqualTo("application/pdf");
+        assertThat(MimeTypes.byMagic(bytes("PK\u0003\u0004rest"))).isEqualTo("application/zip");
+        assertThat(MimeTypes.byMagic(bytes("<?xml version=\"1.0\"?>"))).isEqualTo("application/xml");
+        assertThat(MimeTypes.byMagic(bytes("Grüße\n"))).isEqualTo("text/plain");
+        assertThat(MimeTypes.byMagic(ByteBuffer.wrap(new byte[] {1, 2, 3, 0}))).isEqualTo("application/octet-stream");
+        assertThat(MimeTypes.byMagic(ByteBuffer.allocate(0))).isEqualTo("application/octet-stream");
+    }
+
+    @Test
+    void textualTypesAreCompressible() {
+        assertThat(MimeTypes.isCompressible("text/markdown")).isTrue();
+        assertThat(MimeTypes.isCompressible("image/svg+xml")).isTrue();
+        assertThat(MimeTypes.isCompressible("application/json")).isTrue();
+        assertThat(MimeTypes.isCompressible("image/png")).isFalse();
+        assertThat(MimeTypes.isCompressible("application/zip")).isFalse();
+    }
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,107 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OpenFileCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path write(String name, String content) throws Exception {
+        Path p = tempDir.resolve(name);
+        Files.createDirectories(p.getParent());
+        Files.writeString(p, content);
+        return p;
+    }
+
+    private static String read(OpenFileCache.Handle h, long position, int length) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        h.channel().read(buf, position);
+        return new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void repeatedReadsShareOneChannel() throws Exception {
+        try (var cache = new OpenFileCache(4, 0)) {
+            Path p = write("a.bin", "0123456789");
+
+            try (var first = cache.acquire(ResourceInfo.read(p))) {
+                assertThat(read(first, 2, 3)).isEqualTo("234");
+            }
+            try (var second = cache.acquire(ResourceInfo.read(p))) {
+                assertThat(read(second, 7, 3)).isEqualTo("789");
+            }
+
+            assertThat(cache.stats()).isEqualTo(new OpenFileCache.Stats(1, 1, 0, 1));
+        }
+    }
+
+    @Test
+    void changedFileIsReopened() throws Exception {
+        try (var cache = new OpenFileCache(4, 0)) {
+            Path p = write("a.bin", "old");
+            cache.acquire(ResourceInfo.read(p)).close();
+
+            Files.writeString(p, "newer");
+            Files.setLastModifiedTime(p, FileTime.fromMillis(Files.getLastModifiedTime(p).toMillis() + 2000));
+
+            try (var h = cache.acquire(ResourceInfo.read(p))) {
+                assertThat(read(h, 0, 5)).isEqualTo("newer");
+            }
+            assertThat(cache.stats().misses()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void invalidatedChannelStaysOpenUntilReleased() throws Exception {
+        try (var cache = new OpenFileCache(4, 0)) {
+            Path p = write("dir/a.bin", "0123456789");
+            var h = cache.acquire(ResourceInfo.read(p));
+
+            cache.invalidate(tempDir.resolve("dir"));
+            assertThat(cache.stats().open()).isZero();
+            assertThat(h.channel().isOpen()).isTrue();
+
+            h.close();
+            assertThat(h.refCount()).isZero();
+            assertThat(h.channel().isOpen()).isFalse();
+        }
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondLimit() throws Exception {
+        try (var cache = new OpenFileCache(2, 0)) {
+            var a = cache.acquire(ResourceInfo.read(write("a.bin", "a")));
+            a.close();
+            cache.acquire(ResourceInfo.read(write("b.bin", "b"))).close();
+            cache.acquire(ResourceInfo.read(write("c.bin", "c"))).close();
+
+            assertThat(cache.stats().evictions()).isEqualTo(1);
+            assertThat(cache.stats().open()).isEqualTo(2);
+            assertThat(a.channel().isOpen()).isFalse();
+        }
+    }
+
+    @Test
+    void idleChannelsAreClosed() throws Exception {
+        try (var cache = new OpenFileCache(4, 1)) {
+            var h = cache.acquire(ResourceInfo.read(write("a.bin", "a")));
+            h.close();
+            Thread.sleep(5);
+
+            cache.evictIdle();
+
+            assertThat(cache.stats().open()).isZero();
+            assertThat(h.channel().isOpen()).isFalse();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import static de.sty.fileserv.core.WebDavConstants.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PreconditionsTest {
+
+    private static final String ETAG = "\"10-1700000000000\"";
+    private static final Instant MODIFIED = Instant.ofEpochSecond(1_700_000_000L);
+
+    private static ServletStubs.StubHttpServletRequest request(String method, String header, String value) {
+        var req = new ServletStubs.StubHttpServletRequest();
+        req.setMethod(method);
+        req.setHeader(header, value);
+        return req;
+    }
+
+    private static String date(Instant i) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC).format(i);
+    }
+
+    @Test
+    void noConditionalHeadersProceed() {
+        assertThat(Preconditions.evaluate(request(METHOD_GET, "X", "y"), ETAG, MODIFIED)).isEqualTo(Preconditions.PROCEED);
+    }
+
+    @Test
+    void ifNoneMatchUsesWeakComparison() {
+        assertThat(Preconditions.evaluate(request(METHOD_GET, HEADER_IF_NONE_MATCH, "W/" + ETAG), ETAG, MODIFIED))
+                .isEqualTo(SC_304_NOT_MODIFIED);
+        assertThat(Preconditions.evaluate(request(METHOD_DELETE, HEADER_IF_NONE_MATCH, "*"), ETAG, MODIFIED))
+                .isEqualTo(SC_412_PRECONDITION_FAILED);
+        assertThat(Preconditions.evaluate(request(METHOD_PUT, HEADER_IF_NONE_MATCH, "*"), null, null))
+                .isEqualTo(Preconditions.PROCEED);
+    }
+
+    @Test
+    void ifMatchUsesStrongComparison() {
+        assertThat(Preconditions.evaluate(request(METHOD_PUT, HEADER_IF_MATCH, ETAG), ETAG, MODIFIED))
+                .isEqualTo(Preconditions.PROCEED);
+        assertThat(Preconditions.evaluate(request(METHOD_PUT, HEADER_IF_MATCH, "W/" + ETAG), ETAG, MODIFIED))
+                .isEqualTo(SC_412_PRECONDITION_FAILED);
+        assertThat(Preconditions.evaluate(request(METHOD_PUT, HEADER_IF_MATCH, "*"), null, null))
+                .isEqualTo(SC_412_PRECONDITION_FAILED);
+    }
+
+    @Test
+    void modificationDatesAreComparedInSeconds() {
+        assertThat(Preconditions.evaluate(request(METHOD_GET, HEADER_IF_MODIFIED_SINCE, date(MODIFIED)), ETAG, MODIFIED.plusMillis(500)))
+                .isEqualTo(SC_304_NOT_MODIFIED);
+        assertThat(Preconditions.evaluate(request(METHOD_GET, HEADER_IF_MODIFIED_SINCE, date(MODIFIED.minusSeconds(1))), ETAG, MODIFIED))
+                .isEqualTo(Preconditions.PROCEED);
+        assertThat(Preconditions.evaluate(request(METHOD_PUT, HEADER_IF_UNMODIFIED_SINCE, date(MODIFIED.minusSeconds(1))), ETAG, MODIFIED))
+                .isEqualTo(SC_412_PRECONDITION_FAILED);
+        assertThat(Preconditions.evaluate(request(METHOD_GET, HEADER_IF_MODIFIED_SINCE, "not a date"), ETAG, MODIFIED))
+                .isEqualTo(Preconditions.PROCEED);
+    }
+
+    @Test
+    void ifNoneMatchTakesPrecedenceOverIfModifiedSince() {
+        var req = request(METHOD_GET, HEADER_IF_NONE_MATCH, "\"other\"");
+        req.setHeader(HEADER_IF_MODIFIED_SINCE, date(MODIFIED));
+        assertThat(Preconditions.evaluate(req, ETAG, MODIFIED)).isEqualTo(Preconditions.PROCEED);
+    }
+}
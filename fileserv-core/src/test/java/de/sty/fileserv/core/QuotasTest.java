@@ -0,0 +1,127 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class QuotasTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path dataDir;
+    private Quotas quotas;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dataDir = tempDir.toAbsolutePath().normalize();
+        quotas = new Quotas(dataDir, Map.of("/shared/team", 1000L), 500, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        quotas.close();
+    }
+
+    private Path file(String path, int size) throws IOException {
+        Path p = dataDir.resolve(path);
+        Files.createDirectories(p.getParent());
+        Files.write(p, new byte[size]);
+        return p;
+    }
+
+    @Test
+    void parsesAndFormatsLimits() {
+        Map<String, Long> limits = Quotas.parseLimits("/a=10, /b/c=2000");
+
+        assertThat(limits).containsExactly(Map.entry("/a", 10L), Map.entry("/b/c", 2000L));
+        assertThat(Quotas.parseLimits(Quotas.formatLimits(limits))).isEqualTo(limits);
+        assertThat(Quotas.parseLimits(null)).isEmpty();
+        assertThatThrownBy(() -> Quotas.parseLimits("/a")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Quotas.parseLimits("/a=-1")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void reconcileSumsSubtreesAndSkipsTempFiles() throws Exception {
+        file("alice/a.bin", 100);
+        file("alice/docs/b.bin", 50);
+        file("shared/team/c.bin", 10);
+        file(UploadSessions.DIRECTORY + "/staging", 999);
+        file("alice/.d.bin" + AtomicWrite.TEMP_SUFFIX, 999);
+
+        assertThat(quotas.reconcile()).isEqualTo(160);
+
+        assertThat(quotas.used(dataDir)).isEqualTo(160);
+        assertThat(quotas.used(dataDir.resolve("alice"))).isEqualTo(150);
+        assertThat(quotas.used(dataDir.resolve("alice/docs"))).isEqualTo(50);
+        assertThat(quotas.used(dataDir.resolve("shared"))).isEqualTo(10);
+        assertThat(quotas.reconcile()).isZero();
+    }
+
+    @Test
+    void homeAndCollectionLimitsApplyToTheirTrees() throws Exception {
+        file("alice/a.bin", 100);
+        file("shared/team/c.bin", 10);
+        quotas.reconcile();
+
+        assertThat(quotas.limit(dataDir.resolve("alice"))).isEqualTo(500);
+        assertThat(quotas.limit(dataDir.resolve("alice/docs"))).isEqualTo(-1);
+        assertThat(quotas.available(dataDir.resolve("alice/docs"))).isEqualTo(400);
+        assertThat(quotas.available(dataDir.resolve("shared/team/sub"))).isEqualTo(490);
+        assertThat(quotas.available(dataDir)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    void updatesFollowWritesWithoutWalking() throws Exception {
+        Path a = dataDir.resolve("alice/docs/a.bin");
+        quotas.add(a, 300);
+        quotas.add(dataDir.resolve("bob/b.bin"), 20);
+
+        assertThat(quotas.used(dataDir.resolve("alice"))).isEqualTo(300);
+        assertThat(quotas.used(dataDir)).isEqualTo(320);
+
+        quotas.moveTree(dataDir.resolve("alice/docs"), dataDir.resolve("bob/docs"));
+        assertThat(quotas.used(dataDir.resolve("alice"))).isZero();
+        assertThat(quotas.used(dataDir.resolve("bob"))).isEqualTo(320);
+        assertThat(quotas.used(dataDir.resolve("bob/docs"))).isEqualTo(300);
+        assertThat(quotas.used(dataDir.resolve("alice/docs"))).isZero();
+
+        quotas.removeTree(dataDir.resolve("bob/docs"));
+        assertThat(quotas.used(dataDir.resolve("bob"))).isEqualTo(20);
+        assertThat(quotas.used(dataDir)).isEqualTo(20);
+        assertThat(quotas.used(dataDir.resolve("bob/docs"))).isZero();
+    }
+
+    @Test
+    void moveWithinALimitedTreeIgnoresItsLimit() {
+        quotas.add(dataDir.resolve("alice/a.bin"), 450);
+        Path from = dataDir.resolve("alice/a.bin");
+
+        assertThat(quotas.available(dataDir.resolve("alice/docs"))).isEqualTo(50);
+        assertThat(quotas.available(dataDir.resolve("alice/docs"), from)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    void limitCutsOffBodiesOfUnknownLength() throws Exception {
+        quotas.add(dataDir.resolve("alice/a.bin"), 400);
+        Path alice = dataDir.resolve("alice");
+
+        try (InputStream in = quotas.limit(new ByteArrayInputStream(new byte[150]), alice, 50)) {
+            assertThat(in.readAllBytes()).hasSize(150);
+        }
+        try (InputStream in = quotas.limit(new ByteArrayInputStream(new byte[151]), alice, 50)) {
+            assertThatThrownBy(in::readAllBytes).isInstanceOf(Quotas.QuotaExceededException.class);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimiterTest {
+
+    private static final long RATE = 1024 * 1024;
+
+    @Test
+    void bucketAllowsBurstThenGoesIntoDebt() {
+        var bucket = new RateLimiter.TokenBucket(RATE);
+
+        assertThat(bucket.reserve(RATE)).isZero();
+        long wait = bucket.reserve(RATE / 2);
+        assertThat(wait).isBetween(400_000_000L, 510_000_000L);
+    }
+
+    @Test
+    void throttleWaitsForSlowestBucket() {
+        var limiter = new RateLimiter(10 * RATE, RATE, 0);
+        RateLimiter.Throttle throttle = limiter.throttle("alice", "127.0.0.1:1234");
+
+        throttle.reserve(RATE);
+        assertThat(throttle.reserve(RATE)).isGreaterThan(900_000_000L);
+        assertThat(limiter.throttle("bob", null).reserve(RATE)).isZero();
+    }
+
+    @Test
+    void usersShareTheirBucketAcrossRequests() {
+        var limiter = new RateLimiter(0, RATE, 0);
+
+        limiter.throttle("alice", "a").reserve(RATE);
+        assertThat(limiter.throttle("alice", "b").reserve(RATE)).isPositive();
+    }
+
+    @Test
+    void unlimitedWithoutRates() {
+        var limiter = new RateLimiter(0, 0, 0);
+        assertThat(limiter.isEnabled()).isFalse();
+        assertThat(limiter.throttle("alice", "a").reserve(Long.MAX_VALUE / 2)).isZero();
+    }
+
+    @Test
+    void sendsAndStreamsAreThrottled() throws Exception {
+        byte[] data = new byte[(int) (RATE + RATE / 4)];
+
+        RateLimiter.Throttle throttle = new RateLimiter(RATE, 0, 0).throttle(null, null);
+        var out = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        FileSender.send(ByteBuffer.wrap(data), 0, data.length, out, throttle);
+        assertThat(out.size()).isEqualTo(data.length);
+        assertThat(System.nanoTime() - start).isGreaterThan(200_000_000L);
+
+        RateLimiter.Throttle upload = new RateLimiter(RATE, 0, 0).throttle(null, null);
+        start = System.nanoTime();
+        try (InputStream in = upload.wrap(new ByteArrayInputStream(data))) {
+            assertThat(in.readAllBytes()).hasSize(data.length);
+        }
+        assertThat(System.nanoTime() - start).isGreaterThan(200_000_000L);
+    }
+
+    @Test
+    void readAheadKeepsReadingAheadWhenThrottled(@TempDir Path dir) throws Exception {
+        byte[] data = new byte[(int) (RATE + RATE / 4)];
+        new Random(3).nextBytes(data);
+        Path file = Files.write(dir.resolve("f"), data);
+
+        RateLimiter.Throttle throttle = new RateLimiter(RATE, 0, 0).throttle(null, null);
+        var readAhead = new ReadAhead(0);
+        var out = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        try (FileChannel ch = FileChannel.open(file)) {
+            readAhead.send(ch, 0, data.length, out, 256 * 1024, throttle);
+            assertThat(readAhead.toString()).contains("transfers=1,");
+        } finally {
+            readAhead.close();
+        }
+        assertThat(out.toByteArray()).isEqualTo(data);
+        assertThat(System.nanoTime() - start).isGreaterThan(200_000_000L);
+    }
+}
@@ -0,0 +1,196 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends a file from a throttled disk stand-in (a fixed latency per read plus limited bandwidth, like
+ * a spinning disk or a network mount) to a throttled client, once reading and writing in turn and
+ * once with {@link ReadAhead}. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class ReadAheadBenchmarkTest {
+
+    private static final long FILE_SIZE = 64L * 1024 * 1024;
+    private static final long READ_LATENCY_NANOS = 2_000_000;
+    private static final long DISK_BYTES_PER_SECOND = 150L * 1024 * 1024;
+    private static final long NETWORK_BYTES_PER_SECOND = 100L * 1024 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    interface Sender {
+        void send(FileChannel ch, OutputStream out) throws IOException;
+    }
+
+    @Test
+    void compareSequentialAndReadAhead() throws Exception {
+        Path file = tempDir.resolve("big.bin");
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(FILE_SIZE);
+        }
+
+        var readAhead = new ReadAhead(0);
+        measure(file, "sequential 64 KiB", (ch, out) -> FileSender.send(ch, 0, FILE_SIZE, out, TransferMode.CHANNEL));
+        for (int size : new int[] {ReadAhead.LOCAL_BUFFER_SIZE, ReadAhead.NETWORK_BUFFER_SIZE}) {
+            measure(file, "sequential " + size / 1024 + " KiB", (ch, out) -> sequential(ch, out, size));
+            measure(file, "read-ahead " + size / 1024 + " KiB", (ch, out) -> readAhead.send(ch, 0, FILE_SIZE, out, size, null));
+        }
+    }
+
+    private void measure(Path file, String name, Sender sender) throws Exception {
+        try (FileChannel ch = new SlowChannel(FileChannel.open(file, StandardOpenOption.READ))) {
+            long start = System.nanoTime();
+            sender.send(ch, new SlowOutputStream());
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-22s %6.1f MiB/s%n", name, FILE_SIZE / 1024.0 / 1024.0 / seconds);
+        }
+    }
+
+    /** Reads and writes in turn with one buffer of {@code size} bytes. */
+    private static void sequential(FileChannel ch, OutputStream out, int size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(size);
+        byte[] bytes = new byte[size];
+        for (long pos = 0; pos < FILE_SIZE; ) {
+            buf.clear();
+            while (buf.hasRemaining()) pos += ch.read(buf, pos);
+            buf.flip().get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    private static void pause(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        while (System.nanoTime() < deadline) LockSupport.parkNanos(deadline - System.nanoTime());
+    }
+
+    /** A client draining the response at {@link #NETWORK_BYTES_PER_SECOND}. */
+    private static final class SlowOutputStream extends OutputStream {
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            pause(len * 1_000_000_000L / NETWORK_BYTES_PER_SECOND);
+        }
+
+        @Override
+        public void write(int b) {
+            pause(1_000_000_000L / NETWORK_BYTES_PER_SECOND);
+        }
+    }
+
+    /** Positional reads pay {@link #READ_LATENCY_NANOS} plus transfer time at {@link #DISK_BYTES_PER_SECOND}. */
+    private static final class SlowChannel extends FileChannel {
+
+        private final FileChannel ch;
+
+        SlowChannel(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            int n = ch.read(dst, position);
+            if (n > 0) pause(READ_LATENCY_NANOS + n * 1_000_000_000L / DISK_BYTES_PER_SECOND);
+            return n;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(FileSender.CHUNK_SIZE, count));
+            buf.limit((int) Math.min(buf.capacity(), count));
+            int n = read(buf, position);
+            if (n <= 0) return 0;
+            target.write(buf.flip());
+            return n;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return ch.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            ch.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return ch.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void force(boolean metaData) {
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            ch.close();
+        }
+    }
+}
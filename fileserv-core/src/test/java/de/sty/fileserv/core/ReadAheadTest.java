@@ -0,0 +1,114 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReadAheadTest {
+
+    @TempDir
+    Path tempDir;
+
+    private byte[] content(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    void sendsRangeAcrossManyBuffers() throws Exception {
+        byte[] data = content(100_000);
+        Path p = Files.write(tempDir.resolve("big.bin"), data);
+
+        var out = new ByteArrayOutputStream();
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            new ReadAhead(0).send(ch, 123, 90_001, out, 4096, null);
+            assertThat(ch.position()).isZero();
+        }
+
+        assertThat(out.toByteArray()).isEqualTo(Arrays.copyOfRange(data, 123, 123 + 90_001));
+    }
+
+    @Test
+    void sendsPartSmallerThanOneBuffer() throws Exception {
+        byte[] data = content(1000);
+        Path p = Files.write(tempDir.resolve("small.bin"), data);
+
+        var out = new ByteArrayOutputStream();
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            new ReadAhead(0).send(ch, 0, 1000, out, 64 * 1024, null);
+        }
+
+        assertThat(out.toByteArray()).isEqualTo(data);
+    }
+
+    @Test
+    void truncatedFileFails() throws Exception {
+        Path p = Files.write(tempDir.resolve("short.bin"), content(10_000));
+
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            assertThatThrownBy(() -> new ReadAhead(0).send(ch, 0, 20_000, new ByteArrayOutputStream(), 4096, null))
+                    .isInstanceOf(EOFException.class);
+        }
+    }
+
+    @Test
+    void sendsWithoutReadAheadBeyondMaxTransfers() throws Exception {
+        byte[] data = content(100_000);
+        Path p = Files.write(tempDir.resolve("big.bin"), data);
+        var readAhead = new ReadAhead(0, 1);
+        var second = new ByteArrayOutputStream();
+        var first = new ByteArrayOutputStream() {
+            boolean nested;
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                super.write(b, off, len);
+                if (nested) return;
+                nested = true;
+                // the only read-ahead slot is taken by the outer transfer
+                try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                    readAhead.send(ch, 0, 100_000, second, 4096, null);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            readAhead.send(ch, 0, 100_000, first, 4096, null);
+        }
+
+        assertThat(first.toByteArray()).isEqualTo(data);
+        assertThat(second.toByteArray()).isEqualTo(data);
+        assertThat(readAhead.toString()).contains("transfers=1", "without read-ahead=1");
+        readAhead.close();
+    }
+
+    @Test
+    void bufferSizeDependsOnFileStore() throws Exception {
+        Path p = Files.writeString(tempDir.resolve("a.txt"), "a");
+
+        assertThat(new ReadAhead(8192).bufferSize(p)).isEqualTo(8192);
+        assertThat(new ReadAhead(0).bufferSize(p))
+                .isEqualTo(ReadAhead.bufferSize(Files.getFileStore(tempDir)));
+        assertThat(ReadAhead.isNetwork("nfs4")).isTrue();
+        assertThat(ReadAhead.isNetwork("CIFS")).isTrue();
+        assertThat(ReadAhead.isNetwork("fuse.sshfs")).isTrue();
+        assertThat(ReadAhead.isNetwork("ext4")).isFalse();
+        assertThat(ReadAhead.isNetwork("apfs")).isFalse();
+    }
+}
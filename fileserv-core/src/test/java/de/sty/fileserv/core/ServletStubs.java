@@ -19,7 +19,8 @@ public class ServletStubs {
 
     @SuppressWarnings({"RedundantThrows", "unused"})
     public static class StubServletRequest implements ServletRequest {
-        public Object getAttribute(String name) { return null; }
+        private final Map<String, Object> attributes = new HashMap<>();
+        public Object getAttribute(String name) { return attributes.get(name); }
         public Enumeration<String> getAttributeNames() { return null; }
         public String getCharacterEncoding() { return null; }
         public void setCharacterEncoding(String env) throws UnsupportedEncodingException {}
@@ -38,8 +39,8 @@ public class ServletStubs {
         public BufferedReader getReader() throws IOException { return null; }
         public String getRemoteAddr() { return null; }
         public String getRemoteHost() { return null; }
-        public void setAttribute(String name, Object o) {}
-        public void removeAttribute(String name) {}
+        public void setAttribute(String name, Object o) { attributes.put(name, o); }
+        public void removeAttribute(String name) { attributes.remove(name); }
         public Locale getLocale() { return null; }
         public Enumeration<Locale> getLocales() { return null; }
         public boolean isSecure() { return false; }
@@ -72,6 +73,10 @@ public class ServletStubs {
         public void setHeader(String name, String value) { headers.put(name, value); }
         @Override public String getHeader(String name) { return headers.get(name); }
 
+        private String method;
+        public void setMethod(String method) { this.method = method; }
+        @Override public String getMethod() { return method; }
+
         public String getAuthType() { return null; }
         public Cookie[] getCookies() { return null; }
         public long getDateHeader(String name) { return 0; }
@@ -79,7 +84,6 @@ public class ServletStubs {
         public Enumeration<String> getHeaderNames() { return null; }
         public int getIntHeader(String name) { return 0; }
         public HttpServletMapping getHttpServletMapping() { return null; }
-        public String getMethod() { return null; }
         public String getPathInfo() { return null; }
         public String getPathTranslated() { return null; }
         public String getContextPath() { return null; }
@@ -0,0 +1,182 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Uploads from a throttled client stand-in to a throttled disk stand-in (a fixed latency per write
+ * plus limited bandwidth), once reading and writing in turn like {@link AtomicWrite} and once through
+ * an {@link UploadPipeline}. Slow disk, slow client and both slow are measured for one upload, then
+ * concurrent uploads to one slow disk with a small buffer pool. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class UploadPipelineBenchmarkTest {
+
+    private static final long UPLOAD_SIZE = 64L * 1024 * 1024;
+    private static final long FAST = Long.MAX_VALUE;
+    private static final long SLOW_CLIENT = 100L * 1024 * 1024;
+    private static final long SLOW_DISK = 100L * 1024 * 1024;
+    private static final long WRITE_LATENCY_NANOS = 1_000_000;
+    /** Bytes a client can send ahead of the server reading them. */
+    private static final long SOCKET_BUFFER_SIZE = 64 * 1024;
+    /** Bytes per client read; Jetty hands out request content in pieces of about this size. */
+    private static final int CLIENT_READ_SIZE = 16 * 1024;
+
+    interface Copier {
+        long copy(InputStream in, WritableByteChannel out) throws IOException;
+    }
+
+    @Test
+    void compareSequentialAndPipelined() throws Exception {
+        try (UploadPipeline pipeline = new UploadPipeline(UploadPipeline.DEFAULT_BUFFERS, UploadPipeline.BUFFER_SIZE)) {
+            measure("slow disk", FAST, SLOW_DISK, 1, pipeline);
+            measure("slow client", SLOW_CLIENT, 0, 1, pipeline);
+            measure("both slow", SLOW_CLIENT, SLOW_DISK, 1, pipeline);
+        }
+        // 16 uploads share one disk, 16 buffers and 4 writers: readers wait for the disk and the pool
+        try (UploadPipeline pipeline = new UploadPipeline(16, UploadPipeline.BUFFER_SIZE)) {
+            measure("both slow", SLOW_CLIENT, SLOW_DISK, 16, pipeline);
+        }
+    }
+
+    private void measure(String name, long clientBytesPerSecond, long diskBytesPerSecond, int uploads,
+                         UploadPipeline pipeline) throws Exception {
+        double sequential = run(clientBytesPerSecond, diskBytesPerSecond, uploads, (in, out) -> sequential(in, out));
+        double pipelined = run(clientBytesPerSecond, diskBytesPerSecond, uploads, pipeline::copy);
+        System.out.printf("%-12s %2d upload(s): sequential %6.1f MiB/s, pipelined %6.1f MiB/s%n",
+                name, uploads, sequential, pipelined);
+    }
+
+    /** Returns the total throughput in MiB/s. */
+    private double run(long clientBytesPerSecond, long diskBytesPerSecond, int uploads, Copier copier) throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(uploads);
+        try {
+            long start = System.nanoTime();
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < uploads; i++) {
+                futures.add(clients.submit(() -> copier.copy(new SlowClient(clientBytesPerSecond),
+                        new SlowDisk(diskBytesPerSecond))));
+            }
+            for (Future<Long> f : futures) {
+                if (f.get() != UPLOAD_SIZE) throw new IllegalStateException("Short upload");
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            return uploads * UPLOAD_SIZE / 1024.0 / 1024.0 / seconds;
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    /** Reads and writes in turn, like {@link AtomicWrite} does for large bodies. */
+    private static long sequential(InputStream in, WritableByteChannel out) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(UploadPipeline.BUFFER_SIZE);
+        byte[] chunk = new byte[FileSender.CHUNK_SIZE];
+        long size = 0;
+        int n;
+        while ((n = in.read(chunk, 0, Math.min(chunk.length, buf.remaining()))) > 0) {
+            buf.put(chunk, 0, n);
+            size += n;
+            if (!buf.hasRemaining()) {
+                buf.flip();
+                while (buf.hasRemaining()) out.write(buf);
+                buf.clear();
+            }
+        }
+        buf.flip();
+        while (buf.hasRemaining()) out.write(buf);
+        return size;
+    }
+
+    private static void pause(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        while (System.nanoTime() < deadline) LockSupport.parkNanos(deadline - System.nanoTime());
+    }
+
+    /**
+     * A client sending {@link #UPLOAD_SIZE} bytes at a fixed rate; {@link #FAST} is unthrottled. While
+     * the server does not read, the client keeps sending until {@link #SOCKET_BUFFER_SIZE} bytes are
+     * buffered, like TCP with a full receive window.
+     */
+    private static final class SlowClient extends InputStream {
+
+        private final long bytesPerSecond;
+        private long remaining = UPLOAD_SIZE;
+        /** Bytes received but not read yet, as of {@link #last}. */
+        private long buffered;
+        private long last = System.nanoTime();
+
+        SlowClient(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) return -1;
+            int n = (int) Math.min(Math.min(len, CLIENT_READ_SIZE), remaining);
+            if (bytesPerSecond != FAST) {
+                long now = System.nanoTime();
+                buffered = Math.min(SOCKET_BUFFER_SIZE, buffered + (now - last) * bytesPerSecond / 1_000_000_000L);
+                if (buffered < n) {
+                    pause((n - buffered) * 1_000_000_000L / bytesPerSecond);
+                    buffered = n;
+                }
+                buffered -= n;
+                last = Math.max(now, System.nanoTime());
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Writes pay {@link #WRITE_LATENCY_NANOS} plus transfer time; a rate of {@code 0} makes the disk
+     * free. All instances share one device, so concurrent uploads queue for it.
+     */
+    private static final class SlowDisk implements WritableByteChannel {
+
+        private static final Object DEVICE = new Object();
+
+        private final long bytesPerSecond;
+
+        SlowDisk(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            if (bytesPerSecond > 0) {
+                synchronized (DEVICE) {
+                    pause(WRITE_LATENCY_NANOS + n * 1_000_000_000L / bytesPerSecond);
+                }
+            }
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UploadPipelineTest {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    @TempDir
+    Path tempDir;
+
+    private final UploadPipeline pipeline = new UploadPipeline(8, BUFFER_SIZE);
+
+    @AfterEach
+    void tearDown() {
+        pipeline.close();
+    }
+
+    private static byte[] content(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    /** A channel whose writes block until {@link #open} is counted down. */
+    private static class GatedChannel implements WritableByteChannel {
+        final CountDownLatch open = new CountDownLatch(1);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            try {
+                open.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return Channels.newChannel(written).write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    void copiesManyBuffersInOrder() throws Exception {
+        byte[] data = content(100_000);
+        var out = new ByteArrayOutputStream();
+
+        long size = pipeline.copy(new ByteArrayInputStream(data), Channels.newChannel(out));
+
+        assertThat(size).isEqualTo(data.length);
+        assertThat(out.toByteArray()).isEqualTo(data);
+        assertThat(pipeline.copy(InputStream.nullInputStream(), Channels.newChannel(out))).isZero();
+    }
+
+    @Test
+    void slowDiskStopsReadingTheBody() throws Exception {
+        byte[] data = content(100 * BUFFER_SIZE);
+        AtomicLong read = new AtomicLong();
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) read.addAndGet(n);
+                return n;
+            }
+        };
+        GatedChannel disk = new GatedChannel();
+
+        CompletableFuture<Long> copy = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pipeline.copy(in, disk);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(200);
+
+        // the buffers waiting for the disk and the one being filled
+        assertThat(read.get()).isEqualTo((UploadPipeline.MAX_IN_FLIGHT + 1L) * BUFFER_SIZE);
+        assertThat(copy).isNotDone();
+
+        disk.open.countDown();
+        assertThat(copy.get(10, TimeUnit.SECONDS)).isEqualTo(data.length);
+        assertThat(disk.written.toByteArray()).isEqualTo(data);
+        assertThat(pipeline.toString()).doesNotContain("waits for disk=0,");
+    }
+
+    @Test
+    void exhaustedPoolFallsBackToHeapBuffers() throws Exception {
+        byte[] data = content(10 * BUFFER_SIZE);
+        GatedChannel disk = new GatedChannel();
+        try (UploadPipeline small = new UploadPipeline(2, BUFFER_SIZE, TimeUnit.MILLISECONDS.toNanos(20))) {
+            // holds both pooled buffers: one waiting for the gated disk, one being filled
+            CompletableFuture<Long> first = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return small.copy(new ByteArrayInputStream(data), disk);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Thread.sleep(200);
+            var out = new ByteArrayOutputStream();
+            CompletableFuture<Long> second = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return small.copy(new ByteArrayInputStream(data), Channels.newChannel(out));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Thread.sleep(200);
+            disk.open.countDown();
+
+            assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo(data.length);
+            assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo(data.length);
+            assertThat(disk.written.toByteArray()).isEqualTo(data);
+            assertThat(out.toByteArray()).isEqualTo(data);
+            assertThat(small.toString()).contains("allocated=2,").doesNotContain("heap buffers=0,");
+        }
+    }
+
+    @Test
+    void writeFailureFailsTheUpload() {
+        WritableByteChannel broken = new GatedChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                throw new IOException("No space left on device");
+            }
+        };
+
+        assertThatThrownBy(() -> pipeline.copy(new ByteArrayInputStream(content(100_000)), broken))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("No space left on device");
+    }
+
+    @Test
+    void buffersAreReusedAfterFailedReads() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            InputStream truncated = new FilterInputStream(new ByteArrayInputStream(content(10 * BUFFER_SIZE))) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n < 0) throw new IOException("Connection reset");
+                    return n;
+                }
+            };
+            assertThatThrownBy(() -> pipeline.copy(truncated, Channels.newChannel(new ByteArrayOutputStream())))
+                    .hasMessage("Connection reset");
+        }
+
+        Path file = tempDir.resolve("after.bin");
+        byte[] data = content(50_000);
+        AtomicWrite.write(new ByteArrayInputStream(data), file,
+                AtomicWrite.Options.of(FsyncPolicy.NONE).withLength(data.length).withPipeline(pipeline));
+
+        assertThat(Files.readAllBytes(file)).isEqualTo(data);
+        assertThat(pipeline.toString()).contains("waits for buffers=0");
+    }
+}
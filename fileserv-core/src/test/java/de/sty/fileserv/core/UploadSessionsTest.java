@@ -0,0 +1,183 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UploadSessionsTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static InputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static UploadSessions.ContentRange range(String header) {
+        return UploadSessions.ContentRange.parse(header);
+    }
+
+    @Test
+    void parsesContentRange() {
+        assertThat(range("bytes 0-9/20")).isEqualTo(new UploadSessions.ContentRange(0, 9, 20));
+        assertThat(range("bytes 10-19/20").isFinal()).isTrue();
+        assertThat(range("bytes 0-9/*")).isEqualTo(new UploadSessions.ContentRange(0, 9, -1));
+        assertThat(range("bytes 0-9/*").isFinal()).isFalse();
+        assertThat(range("bytes 9-0/20")).isNull();
+        assertThat(range("bytes 0-20/20")).isNull();
+        assertThat(range("bytes */20")).isNull();
+        assertThat(range("items 0-9/20")).isNull();
+    }
+
+    @Test
+    void collectsPartsAndCommits() throws Exception {
+        Path target = tempDir.resolve("big.txt");
+        try (var sessions = new UploadSessions(tempDir, 0)) {
+            assertThat(sessions.offset(target)).isEqualTo(-1);
+
+            assertThat(sessions.write(target, range("bytes 0-4/11"), stream("hello"), FsyncPolicy.NONE)).isEqualTo(5);
+            assertThat(sessions.offset(target)).isEqualTo(5);
+            // a repeated part overlapping what arrived is fine
+            assertThat(sessions.write(target, range("bytes 3-10/11"), stream("lo world"), FsyncPolicy.FILE)).isEqualTo(11);
+
+            assertThat(Files.readString(target)).isEqualTo("hello world");
+            assertThat(sessions.offset(target)).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void rejectsGapWithCurrentOffset() throws Exception {
+        Path target = tempDir.resolve("big.txt");
+        try (var sessions = new UploadSessions(tempDir, 0)) {
+            sessions.write(target, range("bytes 0-4/20"), stream("01234"), FsyncPolicy.NONE);
+
+            assertThatThrownBy(() -> sessions.write(target, range("bytes 10-19/20"), stream("0123456789"), FsyncPolicy.NONE))
+                    .isInstanceOfSatisfying(UploadSessions.ConflictException.class,
+                            e -> assertThat(e.offset()).isEqualTo(5));
+        }
+    }
+
+    @Test
+    void rejectsPartsThatDisagreeWithFirstTotal() throws Exception {
+        Path target = tempDir.resolve("big.txt");
+        try (var sessions = new UploadSessions(tempDir, 0)) {
+            sessions.write(target, range("bytes 0-4/10"), stream("01234"), FsyncPolicy.NONE);
+
+            assertThatThrownBy(() -> sessions.write(target, range("bytes 5-9/20"), stream("56789"), FsyncPolicy.NONE))
+                    .isInstanceOfSatisfying(UploadSessions.ConflictException.class,
+                            e -> assertThat(e.offset()).isEqualTo(5));
+            assertThatThrownBy(() -> sessions.write(target, range("bytes 5-14/*"), stream("5678901234"), FsyncPolicy.NONE))
+                    .isInstanceOf(UploadSessions.ConflictException.class);
+            assertThat(sessions.write(target, range("bytes 5-7/*"), stream("567"), FsyncPolicy.NONE)).isEqualTo(8);
+            assertThat(sessions.write(target, range("bytes 8-9/10"), stream("89"), FsyncPolicy.NONE)).isEqualTo(10);
+            assertThat(Files.readString(target)).isEqualTo("0123456789");
+
+            // a new upload of the same target may announce another total
+            sessions.write(target, range("bytes 0-1/4"), stream("ab"), FsyncPolicy.NONE);
+            sessions.write(target, range("bytes 0-1/3"), stream("ab"), FsyncPolicy.NONE);
+            assertThat(sessions.write(target, range("bytes 2-2/3"), stream("c"), FsyncPolicy.NONE)).isEqualTo(3);
+            assertThat(Files.readString(target)).isEqualTo("abc");
+            try (var files = Files.list(sessions.staging(target).getParent())) {
+                assertThat(files).isEmpty();
+            }
+        }
+    }
+
+    @Test
+    void keepsBytesOfBrokenPart() throws Exception {
+        Path target = tempDir.resolve("big.txt");
+        InputStream broken = new SequenceInputStream(stream("0123"), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        });
+        try (var sessions = new UploadSessions(tempDir, 0)) {
+            assertThatThrownBy(() -> sessions.write(target, range("bytes 0-9/10"), broken, FsyncPolicy.NONE))
+                    .hasMessage("connection reset");
+
+            assertThat(sessions.offset(target)).isEqualTo(4);
+            assertThat(sessions.write(target, range("bytes 4-9/10"), stream("456789"), FsyncPolicy.NONE)).isEqualTo(10);
+        }
+    }
+
+    @Test
+    void rejectsConcurrentPartOfSameSession() throws Exception {
+        Path target = tempDir.resolve("big.txt");
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        InputStream slow = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return -1;
+            }
+        };
+        try (var sessions = new UploadSessions(tempDir, 0)) {
+            var first = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return sessions.write(target, range("bytes 0-4/5"), slow, FsyncPolicy.NONE);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            reading.await();
+
+            assertThatThrownBy(() -> sessions.write(target, range("bytes 0-4/5"), stream("01234"), FsyncPolicy.NONE))
+                    .isInstanceOf(UploadSessions.ConflictException.class);
+
+            release.countDown();
+            assertThat(first.get(10, TimeUnit.SECONDS)).isZero();
+            assertThat(sessions.write(target, range("bytes 0-4/5"), stream("01234"), FsyncPolicy.NONE)).isEqualTo(5);
+            assertThat(Files.readString(target)).isEqualTo("01234");
+        }
+    }
+
+    @Test
+    void sweepStartsWithFirstPart() throws Exception {
+        try (var sessions = new UploadSessions(tempDir, 60_000)) {
+            assertThat(sessions.isSweeping()).isFalse();
+            sessions.write(tempDir.resolve("a.bin"), range("bytes 0-0/2"), stream("x"), FsyncPolicy.NONE);
+            assertThat(sessions.isSweeping()).isTrue();
+        }
+    }
+
+    @Test
+    void sweepRemovesAbandonedSessions() throws Exception {
+        Path stale = tempDir.resolve("stale.bin");
+        Path fresh = tempDir.resolve("fresh.bin");
+        try (var sessions = new UploadSessions(tempDir, 60_000)) {
+            sessions.write(stale, range("bytes 0-0/2"), stream("x"), FsyncPolicy.NONE);
+            sessions.write(fresh, range("bytes 0-0/2"), stream("y"), FsyncPolicy.NONE);
+            Files.setLastModifiedTime(sessions.staging(stale), FileTime.fromMillis(System.currentTimeMillis() - 120_000));
+
+            assertThat(sessions.sweep()).isEqualTo(1);
+
+            assertThat(sessions.offset(stale)).isEqualTo(-1);
+            assertThat(sessions.offset(fresh)).isEqualTo(1);
+            try (var files = Files.list(sessions.staging(fresh).getParent())) {
+                assertThat(files).hasSize(2);
+            }
+            assertThat(AtomicWrite.isTemp(sessions.staging(fresh).getParent())).isTrue();
+        }
+    }
+}
@@ -14,8 +14,10 @@ import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -76,6 +78,663 @@ class WebDavServletTest {
         assertThat(outputStream.getContent()).isEqualTo(content);
     }
 
+    @Test
+    void testDoGetStreamTransferMode() throws Exception {
+        Files.writeString(tempDir.resolve("stream.txt"), "streamed");
+        TestServletConfig config = new TestServletConfig();
+        config.initParams.put(WebDavServlet.DATA_DIR, tempDir.toString());
+        config.initParams.put(WebDavServlet.TRANSFER_MODE, "stream");
+        servlet.init(config);
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.pathInfo = "/stream.txt";
+        response.outputStream = new StubServletOutputStream();
+
+        servlet.doGet(request, response);
+
+        assertThat(servlet.transferMode).isEqualTo(TransferMode.STREAM);
+        assertThat(response.outputStream.getContent()).isEqualTo("streamed");
+    }
+
+    @Test
+    void testDoGetFromMappedFilePool() throws Exception {
+        Files.writeString(tempDir.resolve("mapped.txt"), "0123456789");
+        TestServletConfig config = new TestServletConfig();
+        config.initParams.put(WebDavServlet.DATA_DIR, tempDir.toString());
+        config.initParams.put(WebDavServlet.MMAP_POOL_SIZE, "1024");
+        config.initParams.put(WebDavServlet.MMAP_MIN_FILE_SIZE, "1");
+        servlet.init(config);
+
+        for (int i = 0; i < 2; i++) {
+            TestHttpServletRequest request = new TestHttpServletRequest();
+            TestHttpServletResponse response = new TestHttpServletResponse();
+            request.pathInfo = "/mapped.txt";
+            request.headers.put("Range", "bytes=3-");
+            response.outputStream = new StubServletOutputStream();
+
+            servlet.doGet(request, response);
+
+            assertThat(response.status).isEqualTo(206);
+            assertThat(response.outputStream.getContent()).isEqualTo("3456789");
+        }
+        assertThat(servlet.getMappedFilePool().stats().hits()).isEqualTo(1);
+        assertThat(servlet.getMappedFilePool().stats().misses()).isEqualTo(1);
+    }
+
+    private void initWithCompression() throws Exception {
+        TestServletConfig config = new TestServletConfig();
+        config.initParams.put(WebDavServlet.DATA_DIR, tempDir.toString());
+        config.initParams.put(WebDavServlet.COMPRESSION, "true");
+        servlet.init(config);
+    }
+
+    private static String gunzip(byte[] data) throws Exception {
+        try (var in = new java.util.zip.GZIPInputStream(new java.io.ByteArrayInputStream(data))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void testDoGetServesPrecompressedSidecar() throws Exception {
+        Files.writeString(tempDir.resolve("app.js"), "plain");
+        Files.writeString(tempDir.resolve("app.js.br"), "brotli");
+        initWithCompression();
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.pathInfo = "/app.js";
+        request.headers.put("Accept-Encoding", "gzip, br");
+        response.outputStream = new StubServletOutputStream();
+
+        servlet.doGet(request, response);
+
+        assertThat(response.headers).containsEntry("Content-Encoding", "br").containsEntry("Vary", "Accept-Encoding");
+        assertThat(response.headers.get("ETag")).endsWith("-br\"");
+        assertThat(response.outputStream.getContent()).isEqualTo("brotli");
+    }
+
+    @Test
+    void testDoGetCompressesTextOnTheFly() throws Exception {
+        String text = "line of text\n".repeat(500);
+        Files.writeString(tempDir.resolve("notes.txt"), text);
+        initWithCompression();
+
+        for (String acceptEncoding : new String[] {"gzip", "identity"}) {
+            TestHttpServletRequest request = new TestHttpServletRequest();
+            TestHttpServletResponse response = new TestHttpServletResponse();
+            request.pathInfo = "/notes.txt";
+            request.headers.put("Accept-Encoding", acceptEncoding);
+            response.outputStream = new StubServletOutputStream();
+
+            servlet.doGet(request, response);
+
+            if (acceptEncoding.equals("gzip")) {
+                assertThat(response.headers).containsEntry("Content-Encoding", "gzip");
+                assertThat(response.contentLength).isLessThan(text.length());
+                assertThat(gunzip(response.outputStream.getBytes())).isEqualTo(text);
+            } else {
+                assertThat(response.headers).doesNotContainKey("Content-Encoding");
+                assertThat(response.outputStream.getContent()).isEqualTo(text);
+            }
+        }
+    }
+
+    @Test
+    void testDoPropFindCompressesResponse() throws Exception {
+        for (int i = 0; i < 10; i++) Files.writeString(tempDir.resolve("file" + i + ".txt"), "x");
+        initWithCompression();
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.pathInfo = "/";
+        request.headers.put("Depth", "1");
+        request.headers.put("Accept-Encoding", "gzip");
+        response.outputStream = new StubServletOutputStream();
+
+        servlet.doPropFind(request, response);
+
+        assertThat(response.status).isEqualTo(207);
+        assertThat(response.headers).containsEntry("Content-Encoding", "gzip");
+        assertThat(gunzip(response.outputStream.getBytes())).contains("file9.txt").endsWith("</D:multistatus>");
+    }
+
+    @Test
+    void testPutReplacesAtomicallyAndHidesTempFiles() throws Exception {
+        Files.writeString(tempDir.resolve("doc.txt"), "version 1");
+        Path stray = AtomicWrite.createTemp(tempDir.resolve("doc.txt"));
+
+        TestHttpServletRequest put = new TestHttpServletRequest();
+        TestHttpServletResponse putResponse = new TestHttpServletResponse();
+        put.pathInfo = "/doc.txt";
+        put.inputStream = new StubServletInputStream("version 2".getBytes(StandardCharsets.UTF_8));
+        servlet.doPut(put, putResponse);
+
+        assertThat(putResponse.status).isEqualTo(204);
+        assertThat(Files.readString(tempDir.resolve("doc.txt"))).isEqualTo("version 2");
+
+        TestHttpServletRequest propfind = new TestHttpServletRequest();
+        TestHttpServletResponse propfindResponse = new TestHttpServletResponse();
+        propfind.pathInfo = "/";
+        propfind.headers.put("Depth", "1");
+        StringWriter body = new StringWriter();
+        propfindResponse.writer = new PrintWriter(body);
+        servlet.doPropFind(propfind, propfindResponse);
+        assertThat(body.toString()).contains("doc.txt").doesNotContain(stray.getFileName().toString());
+    }
+
+    @Test
+    void testContentTypeOnGetAndPropFind() throws Exception {
+        Files.writeString(tempDir.resolve("page.html"), "<html></html>");
+
+        TestHttpServletRequest get = new TestHttpServletRequest();
+        TestHttpServletResponse getResponse = new TestHttpServletResponse();
+        get.pathInfo = "/page.html";
+        getResponse.outputStream = new StubServletOutputStream();
+        servlet.doGet(get, getResponse);
+        assertThat(getResponse.contentType).isEqualTo("text/html");
+
+        TestHttpServletRequest propfind = new TestHttpServletRequest();
+        TestHttpServletResponse propfindResponse = new TestHttpServletResponse();
+        propfind.pathInfo = "/page.html";
+        propfind.headers.put("Depth", "0");
+        StringWriter body = new StringWriter();
+        propfindResponse.writer = new PrintWriter(body);
+        servlet.doPropFind(propfind, propfindResponse);
+        assertThat(body.toString()).contains("<D:getcontenttype>text/html</D:getcontenttype>");
+    }
+
+    @Test
+    void testRangedReadsReuseOpenFile() throws Exception {
+        Files.writeString(tempDir.resolve("video.bin"), "0123456789");
+        TestServletConfig config = new TestServletConfig();
+        config.initParams.put(WebDavServlet.DATA_DIR, tempDir.toString());
+        config.initParams.put(WebDavServlet.OPEN_FILE_CACHE_SIZE, "8");
+        servlet.init(config);
+
+        for (int i = 0; i < 5; i++) {
+            TestHttpServletRequest request = new TestHttpServletRequest();
+            TestHttpServletResponse response = new TestHttpServletResponse();
+            request.pathInfo = "/video.bin";
+            request.headers.put("Range", "bytes=" + 2 * i + "-" + (2 * i + 1));
+            response.outputStream = new StubServletOutputStream();
+
+            servlet.doGet(request, response);
+
+            assertThat(response.outputStream.getContent()).isEqualTo("" + 2 * i + (2 * i + 1));
+        }
+        assertThat(servlet.getOpenFileCache().stats().misses()).isEqualTo(1);
+        assertThat(servlet.getOpenFileCache().stats().hits()).isEqualTo(4);
+        servlet.destroy();
+    }
+
+    @Test
+    void testDoGetWithReadAhead() throws Exception {
+        String content = "0123456789abcdef".repeat(1000);
+        Files.writeString(tempDir.resolve("large.txt"), content);
+        TestServletConfig config = new TestServletConfig();
+        config.initParams.put(WebDavServlet.DATA_DIR, tempDir.toString());
+        config.initParams.put(WebDavServlet.READ_AHEAD, "true");
+        config.initParams.put(WebDavServlet.READ_AHEAD_SIZE, "1000");
+        servlet.init(config);
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.pathInfo = "/large.txt";
+        request.headers.put("Range", "bytes=10-12009");
+        response.outputStream = new StubServletOutputStream();
+
+        servlet.doGet(request, response);
+
+        assertThat(response.status).isEqualTo(206);
+        assertThat(response.outputStream.getContent()).isEqualTo(content.substring(10, 12010));
+    }
+
+    @Test
+    void testDoGetDirectoryAsZip() throws Exception {
+        Files.createDirectories(tempDir.resolve("project/src"));
+        Files.writeString(tempDir.resolve("project/src/Main.java"), "class Main {}\n".repeat(100));
+        Files.write(tempDir.resolve("project/logo.png"), new byte[] {(byte) 0x89, 'P', 'N', 'G', 1, 2, 3});
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.pathInfo = "/project/";
+        request.parameters.put("archive", "zip");
+        response.outputStream = new StubServletOutputStream();
+
+        servlet.doGet(request, response);
+
+        assertThat(response.status).isEqualTo(200);
+        assertThat(response.contentType).isEqualTo("application/zip");
+        assertThat(response.headers.get("Content-Disposition")).endsWith("project.zip");
+        Map<String, java.util.zip.ZipEntry> entries = new HashMap<>();
+        Map<String, String> contents = new HashMap<>();
+        try (var zip = new java.util.zip.ZipInputStream(new ByteArrayInputStream(response.outputStream.getBytes()))) {
+            java.util.zip.ZipEntry e;
+            while ((e = zip.getNextEntry()) != null) {
+                entries.put(e.getName(), e);
+                contents.put(e.getName(), new String(zip.readAllBytes(), StandardCharsets.ISO_8859_1));
+            }
+        }
+        assertThat(entries).containsOnlyKeys("src/", "src/Main.java", "logo.png");
+        assertThat(entries.get("src/Main.java").getMethod()).isEqualTo(java.util.zip.ZipEntry.DEFLATED);
+        assertThat(entries.get("logo.png").getMethod()).isEqualTo(java.util.zip.ZipEntry.STORED);
+        assertThat(contents.get("src/Main.java")).isEqualTo("class Main {}\n".repeat(100));
+        assertThat(contents.get("logo.png")).hasSize(7);
+    }
+
+    @Test
+    void testZipOfRootLeavesOutUploadSessions() throws Exception {
+        Files.writeString(tempDir.resolve("readme.txt"), "hi");
+        TestHttpServletRequest part = new TestHttpServletRequest();
+        part.method = "PUT";
+        part.pathInfo = "/bob/secret.bin";
+        part.headers.put("Content-Range", "bytes 0-4/10");
+        part.inputStream = new StubServletInputStream("01234".getBytes(StandardCharsets.UTF_8));
+        TestHttpServletResponse partResponse = new TestHttpServletResponse();
+        servlet.doPut(part, partResponse);
+        assertThat(partResponse.status).isEqualTo(202);
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.pathInfo = "/";
+        request.parameters.put("archive", "zip");
+        response.outputStream = new StubServletOutputStream();
+        servlet.doGet(request, response);
+
+        assertThat(response.status).isEqualTo(200);
+        List<String> names = new ArrayList<>();
+        try (var zip = new java.util.zip.ZipInputStream(new ByteArrayInputStream(response.outputStream.getBytes()))) {
+            for (java.util.zip.ZipEntry e; (e = zip.getNextEntry()) != null; ) names.add(e.getName());
+        }
+        assertThat(names).contains("readme.txt").noneMatch(n -> n.contains(AtomicWrite.TEMP_SUFFIX));
+    }
+
+    @Test
+    void testCopyAndMoveIntoInternalDirectoriesAreForbidden() throws Exception {
+        Files.writeString(tempDir.resolve("x.txt"), "x");
+        for (String dest : new String[] {"/.uploads" + AtomicWrite.TEMP_SUFFIX + "/x",
+                "http://localhost/" + WriteBehind.DIRECTORY + "/segment-0", "/a/.b.txt.1" + AtomicWrite.TEMP_SUFFIX}) {
+            TestHttpServletRequest copy = new TestHttpServletRequest();
+            TestHttpServletResponse copyResponse = new TestHttpServletResponse();
+            copy.pathInfo = "/x.txt";
+            copy.headers.put("Destination", dest);
+            servlet.doCopy(copy, copyResponse);
+            assertThat(copyResponse.errorStatus).isEqualTo(403);
+
+            TestHttpServletRequest move = new TestHttpServletRequest();
+            TestHttpServletResponse moveResponse = new TestHttpServletResponse();
+            move.pathInfo = "/x.txt";
+            move.headers.put("Destination", dest);
+            servlet.doMove(move, moveResponse);
+            assertThat(moveResponse.errorStatus).isEqualTo(403);
+        }
+        assertThat(tempDir.resolve("x.txt")).exists();
+    }
+
+    @Test
+    void testDoGetDirectoryWithoutArchiveIsNotAllowed() throws Exception {
+        Files.createDirectories(tempDir.resolve("project"));
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.pathInfo = "/project/";
+
+        servlet.doGet(request, response);
+
+        assertThat(response.errorStatus).isEqualTo(405);
+    }
+
+    @Test
+    void testDoGetSingleRange() throws Exception {
+        Files.writeString(tempDir.resolve("range.txt"), "0123456789");
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.pathInfo = "/range.txt";
+        request.headers.put("Range", "bytes=2-5");
+        response.outputStream = new StubServletOutputStream();
+
+        servlet.doGet(request, response);
+
+        assertThat(response.status).isEqualTo(206);
+        assertThat(response.headers).containsEntry("Content-Range", "bytes 2-5/10").containsEntry("Accept-Ranges", "bytes");
+        assertThat(response.contentLength).isEqualTo(4);
+        assertThat(response.outputStream.getContent()).isEqualTo("2345");
+    }
+
+    @Test
+    void testDoGetMultipleRanges() throws Exception {
+        Files.writeString(tempDir.resolve("range.txt"), "0123456789");
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.pathInfo = "/range.txt";
+        request.headers.put("Range", "bytes=0-1,-2");
+        response.outputStream = new StubServletOutputStream();
+
+        servlet.doGet(request, response);
+
+        assertThat(response.status).isEqualTo(206);
+        assertThat(response.contentType).startsWith("multipart/byteranges; boundary=");
+        String body = response.outputStream.getContent();
+        assertThat(body).contains("Content-Range: bytes 0-1/10\r\n\r\n01\r\n")
+                .contains("Content-Range: bytes 8-9/10\r\n\r\n89\r\n");
+        assertThat(response.contentLength).isEqualTo(body.length());
+    }
+
+    @Test
+    void testDoGetUnsatisfiableRange() throws Exception {
+        Files.writeString(tempDir.resolve("range.txt"), "0123456789");
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.pathInfo = "/range.txt";
+        request.headers.put("Range", "bytes=20-");
+
+        servlet.doGet(request, response);
+
+        assertThat(response.errorStatus).isEqualTo(416);
+        assertThat(response.headers).containsEntry("Content-Range", "bytes */10");
+    }
+
+    @Test
+    void testDoGetStaleIfRangeServesFullContent() throws Exception {
+        Files.writeString(tempDir.resolve("range.txt"), "0123456789");
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.pathInfo = "/range.txt";
+        request.headers.put("Range", "bytes=2-5");
+        request.headers.put("If-Range", "\"stale\"");
+        response.outputStream = new StubServletOutputStream();
+
+        servlet.doGet(request, response);
+
+        assertThat(response.status).isEqualTo(200);
+        assertThat(response.outputStream.getContent()).isEqualTo("0123456789");
+    }
+
+    @Test
+    void testDoGetIfNoneMatchReturnsNotModified() throws Exception {
+        Path file = tempDir.resolve("cached.txt");
+        Files.writeString(file, "cached");
+        String etag = ResourceInfo.read(file).etag();
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.pathInfo = "/cached.txt";
+        request.headers.put("If-None-Match", "\"other\", " + etag);
+
+        servlet.doGet(request, response);
+
+        assertThat(response.status).isEqualTo(304);
+        assertThat(response.headers).containsEntry("ETag", etag);
+        assertThat(response.outputStream).isNull();
+    }
+
+    @Test
+    void testPutRecordsDigestForStrongETag() throws Exception {
+        servlet = new WebDavServlet();
+        TestServletConfig config = new TestServletConfig();
+        config.initParams.put(WebDavServlet.DATA_DIR, tempDir.toString());
+        config.initParams.put(WebDavServlet.CONTENT_DIGEST, "true");
+        servlet.init(config);
+
+        TestHttpServletRequest put = new TestHttpServletRequest();
+        put.method = "PUT";
+        put.pathInfo = "/hashed.txt";
+        put.inputStream = new StubServletInputStream("hashed".getBytes(StandardCharsets.UTF_8));
+        servlet.doPut(put, new TestHttpServletResponse());
+
+        byte[] sha256 = ContentDigests.newDigest().digest("hashed".getBytes(StandardCharsets.UTF_8));
+        TestHttpServletRequest get = new TestHttpServletRequest();
+        TestHttpServletResponse getResponse = new TestHttpServletResponse();
+        get.pathInfo = "/hashed.txt";
+        getResponse.outputStream = new StubServletOutputStream();
+        servlet.doGet(get, getResponse);
+
+        String etag = ContentDigests.etag(sha256);
+        assertThat(getResponse.headers).containsEntry("ETag", etag)
+                .containsEntry("Repr-Digest", ContentDigests.reprDigest(sha256))
+                .containsEntry("Digest", ContentDigests.legacyDigest(sha256));
+        assertThat(etag).isNotEqualTo(ResourceInfo.read(tempDir.resolve("hashed.txt")).etag());
+
+        // clients holding the strong tag revalidate against it
+        TestHttpServletRequest revalidate = new TestHttpServletRequest();
+        TestHttpServletResponse revalidateResponse = new TestHttpServletResponse();
+        revalidate.pathInfo = "/hashed.txt";
+        revalidate.headers.put("If-None-Match", etag);
+        servlet.doGet(revalidate, revalidateResponse);
+        assertThat(revalidateResponse.status).isEqualTo(304);
+    }
+
+    @Test
+    void testDoPutIfMatchMismatchFails() throws Exception {
+        Path file = tempDir.resolve("guarded.txt");
+        Files.writeString(file, "original");
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.method = "PUT";
+        request.pathInfo = "/guarded.txt";
+        request.headers.put("If-Match", "\"stale\"");
+        request.inputStream = new StubServletInputStream("changed".getBytes(StandardCharsets.UTF_8));
+
+        servlet.doPut(request, response);
+
+        assertThat(response.errorStatus).isEqualTo(412);
+        assertThat(Files.readString(file)).isEqualTo("original");
+    }
+
+    @Test
+    void testDoPutIfNoneMatchStarPreventsOverwrite() throws Exception {
+        Path file = tempDir.resolve("guarded.txt");
+        Files.writeString(file, "original");
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.method = "PUT";
+        request.pathInfo = "/guarded.txt";
+        request.headers.put("If-None-Match", "*");
+        request.inputStream = new StubServletInputStream("changed".getBytes(StandardCharsets.UTF_8));
+
+        servlet.doPut(request, response);
+
+        assertThat(response.errorStatus).isEqualTo(412);
+        assertThat(Files.readString(file)).isEqualTo("original");
+    }
+
+    @Test
+    void testBasicAttributesAreStattedOncePerResource() throws Exception {
+        StatCountingWebDavServlet counting = new StatCountingWebDavServlet();
+        TestServletConfig config = new TestServletConfig();
+        config.initParams.put(WebDavServlet.DATA_DIR, tempDir.toString());
+        counting.init(config);
+
+        Files.writeString(tempDir.resolve("a.txt"), "a");
+        Files.createDirectories(tempDir.resolve("dir"));
+        for (int i = 0; i < 5; i++) Files.writeString(tempDir.resolve("dir/f" + i), "x");
+
+        TestHttpServletRequest get = new TestHttpServletRequest();
+        TestHttpServletResponse getResponse = new TestHttpServletResponse();
+        get.pathInfo = "/a.txt";
+        getResponse.outputStream = new StubServletOutputStream();
+        counting.doGet(get, getResponse);
+        assertThat(counting.stats).isEqualTo(1);
+
+        counting.stats = 0;
+        TestHttpServletRequest head = new TestHttpServletRequest();
+        head.pathInfo = "/a.txt";
+        counting.doHead(head, new TestHttpServletResponse());
+        assertThat(counting.stats).isEqualTo(1);
+
+        counting.stats = 0;
+        TestHttpServletRequest propfind = new TestHttpServletRequest();
+        propfind.method = "PROPFIND";
+        propfind.pathInfo = "/dir";
+        propfind.headers.put("Depth", "1");
+        counting.doPropFind(propfind, new TestHttpServletResponse());
+        assertThat(counting.stats).isEqualTo(1 + 5);
+    }
+
+    @Test
+    void testPostExtractsZipIntoCollection() throws Exception {
+        Files.createDirectories(tempDir.resolve("upload"));
+        Files.writeString(tempDir.resolve("upload/existing.txt"), "old");
+        byte[] zip = ArchiveReaderTest.zip("docs/", null, "docs/a.txt", "alpha", "existing.txt", "new",
+                "../escape.txt", "evil", ".uploads.fileserv-tmp/x", "hidden", "nul\0.txt", "bad");
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.method = "POST";
+        request.pathInfo = "/upload";
+        request.headers.put("Content-Type", "application/zip");
+        request.inputStream = new StubServletInputStream(zip);
+
+        servlet.doPost(request, response);
+
+        assertThat(response.status).isEqualTo(207);
+        assertThat(Files.readString(tempDir.resolve("upload/docs/a.txt"))).isEqualTo("alpha");
+        assertThat(Files.readString(tempDir.resolve("upload/existing.txt"))).isEqualTo("new");
+        assertThat(tempDir.resolve("escape.txt")).doesNotExist();
+        String xml = response.written.toString();
+        assertThat(xml).contains("<D:href>/upload/docs/</D:href><D:status>HTTP/1.1 201 Created</D:status>")
+                .contains("<D:href>/upload/docs/a.txt</D:href><D:status>HTTP/1.1 201 Created</D:status>")
+                .contains("<D:href>/upload/existing.txt</D:href><D:status>HTTP/1.1 204 No Content</D:status>")
+                .contains("<D:href>/upload/../escape.txt</D:href><D:status>HTTP/1.1 400 Bad Request</D:status>")
+                .contains("<D:href>/upload/.uploads.fileserv-tmp/x</D:href><D:status>HTTP/1.1 400 Bad Request</D:status>")
+                .contains("<D:href>/upload/nul%00.txt</D:href><D:status>HTTP/1.1 400 Bad Request</D:status>");
+    }
+
+    @Test
+    void testPostStopsEntriesThatDoNotFitOnTheDisk() throws Exception {
+        servlet = new WebDavServlet() {
+            @Override protected long usableSpace() { return 10; }
+        };
+        TestServletConfig config = new TestServletConfig();
+        config.initParams.put(WebDavServlet.DATA_DIR, tempDir.toString());
+        servlet.init(config);
+        // deflated with a data descriptor: the size is not known up front
+        byte[] zip = ArchiveReaderTest.zip("small.txt", "tiny", "big.txt", "x".repeat(1000), "after.txt", "also");
+
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.method = "POST";
+        request.pathInfo = "/upload";
+        request.headers.put("Content-Type", "application/zip");
+        request.inputStream = new StubServletInputStream(zip);
+
+        servlet.doPost(request, response);
+
+        assertThat(response.status).isEqualTo(207);
+        assertThat(tempDir.resolve("upload/big.txt")).doesNotExist();
+        assertThat(Files.readString(tempDir.resolve("upload/after.txt"))).isEqualTo("also");
+        try (var files = Files.list(tempDir.resolve("upload"))) {
+            assertThat(files).noneMatch(AtomicWrite::isTemp);
+        }
+        assertThat(response.written.toString())
+                .contains("<D:href>/upload/small.txt</D:href><D:status>HTTP/1.1 201 Created</D:status>")
+                .contains("<D:href>/upload/big.txt</D:href><D:status>HTTP/1.1 507 Insufficient Storage</D:status>");
+    }
+
+    @Test
+    void testSmallPutOntoCollectionIsNotWrittenBehind() throws Exception {
+        Files.createDirectories(tempDir.resolve("coll"));
+        Files.writeString(tempDir.resolve("a.txt"), "a");
+        TestServletConfig config = new TestServletConfig();
+        config.initParams.put(WebDavServlet.DATA_DIR, tempDir.toString());
+        config.initParams.put(WebDavServlet.WRITE_BEHIND, "true");
+        servlet = new WebDavServlet();
+        servlet.init(config);
+        try {
+            TestHttpServletRequest put = new TestHttpServletRequest();
+            TestHttpServletResponse putResponse = new TestHttpServletResponse();
+            put.method = "PUT";
+            put.pathInfo = "/coll";
+            put.contentLength = 4;
+            put.inputStream = new StubServletInputStream("data".getBytes(StandardCharsets.UTF_8));
+            servlet.service(put, putResponse);
+            assertThat(putResponse.errorStatus).isEqualTo(405);
+
+            TestHttpServletRequest move = new TestHttpServletRequest();
+            TestHttpServletResponse moveResponse = new TestHttpServletResponse();
+            move.method = "MOVE";
+            move.pathInfo = "/a.txt";
+            move.headers.put("Destination", "/b.txt");
+            servlet.service(move, moveResponse);
+            assertThat(moveResponse.status).isEqualTo(201);
+            assertThat(tempDir.resolve("b.txt")).hasContent("a");
+        } finally {
+            servlet.destroy();
+        }
+    }
+
+    @Test
+    void testPostRejectsNonArchive() throws Exception {
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.method = "POST";
+        request.pathInfo = "/upload";
+        request.headers.put("Content-Type", "text/plain");
+        request.inputStream = new StubServletInputStream("text".getBytes(StandardCharsets.UTF_8));
+
+        servlet.doPost(request, response);
+
+        assertThat(response.errorStatus).isEqualTo(415);
+        assertThat(tempDir.resolve("upload")).doesNotExist();
+    }
+
+    @Test
+    void testPutRejectsBodyLargerThanFreeSpaceUnread() throws Exception {
+        TestHttpServletRequest request = new TestHttpServletRequest();
+        TestHttpServletResponse response = new TestHttpServletResponse();
+        request.method = "PUT";
+        request.pathInfo = "/huge.bin";
+        request.contentLength = Files.getFileStore(tempDir).getUsableSpace() + 1;
+        // no input stream: reading the body would fail the test
+
+        servlet.doPut(request, response);
+
+        assertThat(response.errorStatus).isEqualTo(507);
+        assertThat(tempDir.resolve("huge.bin")).doesNotExist();
+    }
+
+    @Test
+    void testHomeQuotaLimitsPutsAndShowsInPropFind() throws Exception {
+        Files.createDirectories(tempDir.resolve("alice"));
+        Files.writeString(tempDir.resolve("alice/old.txt"), "0123456789");
+        servlet = new WebDavServlet();
+        TestServletConfig config = new TestServletConfig();
+        config.initParams.put(WebDavServlet.DATA_DIR, tempDir.toString());
+        config.initParams.put(WebDavServlet.HOME_QUOTA, "30");
+        servlet.init(config);
+
+        TestHttpServletRequest put = new TestHttpServletRequest();
+        TestHttpServletResponse putResponse = new TestHttpServletResponse();
+        put.pathInfo = "/alice/new.txt";
+        put.contentLength = 15;
+        put.inputStream = new StubServletInputStream("fifteen bytes..".getBytes(StandardCharsets.UTF_8));
+        servlet.doPut(put, putResponse);
+        assertThat(putResponse.status).isEqualTo(201);
+
+        TestHttpServletRequest tooLarge = new TestHttpServletRequest();
+        TestHttpServletResponse tooLargeResponse = new TestHttpServletResponse();
+        tooLarge.pathInfo = "/alice/more.txt";
+        tooLarge.contentLength = 6;
+        // no input stream: the quota is checked before the body is read
+        servlet.doPut(tooLarge, tooLargeResponse);
+        assertThat(tooLargeResponse.errorStatus).isEqualTo(507);
+
+        TestHttpServletRequest propfind = new TestHttpServletRequest();
+        TestHttpServletResponse propfindResponse = new TestHttpServletResponse();
+        propfind.pathInfo = "/alice";
+        servlet.doPropFind(propfind, propfindResponse);
+        assertThat(propfindResponse.written.toString())
+                .contains("<D:quota-available-bytes>5</D:quota-available-bytes>")
+                .contains("<D:quota-used-bytes>25</D:quota-used-bytes>");
+    }
+
     @Test
     void testDoMkCol() throws Exception {
         TestHttpServletRequest request = new TestHttpServletRequest();
@@ -107,6 +766,19 @@ class WebDavServletTest {
 
     // --- Helper classes to avoid Mockito ---
 
+    /**
+     * Counts calls of the {@link WebDavServlet#stat} hook, through which handlers read basic
+     * attributes. Other file system access, such as content sniffing or digest lookups, is not
+     * counted.
+     */
+    static class StatCountingWebDavServlet extends WebDavServlet {
+        int stats;
+        @Override protected ResourceInfo stat(Path p) throws java.io.IOException {
+            stats++;
+            return super.stat(p);
+        }
+    }
+
     static class TestServletConfig implements ServletConfig {
         Map<String, String> initParams = new HashMap<>();
         @Override public String getServletName() { return "WebDavServlet"; }
@@ -118,10 +790,14 @@ class WebDavServletTest {
     static class TestHttpServletRequest implements HttpServletRequest {
         String pathInfo;
         jakarta.servlet.ServletInputStream inputStream;
+        Map<String, String> headers = new HashMap<>();
+        Map<String, String> parameters = new HashMap<>();
+        String method = "GET";
+        long contentLength = -1;
         @Override public String getPathInfo() { return pathInfo; }
         @Override public jakarta.servlet.ServletInputStream getInputStream() { return inputStream; }
-        @Override public String getHeader(String name) { return null; }
-        @Override public String getMethod() { return "GET"; }
+        @Override public String getHeader(String name) { return headers.get(name); }
+        @Override public String getMethod() { return method; }
         @Override public StringBuffer getRequestURL() { return new StringBuffer("http://localhost/"); }
         
         // Unimplemented methods
@@ -156,9 +832,9 @@ class WebDavServletTest {
         @Override public Enumeration<String> getAttributeNames() { return null; }
         @Override public String getCharacterEncoding() { return null; }
         @Override public void setCharacterEncoding(String env) {}
-        @Override public int getContentLength() { return 0; }
-        @Override public long getContentLengthLong() { return 0; }
-        @Override public String getContentType() { return null; }
+        @Override public int getContentLength() { return (int) contentLength; }
+        @Override public long getContentLengthLong() { return contentLength; }
+        @Override public String getContentType() { return headers.get("Content-Type"); }
         @Override public String getProtocol() { return null; }
         @Override public String getScheme() { return "http"; }
         @Override public String getServerName() { return "localhost"; }
@@ -186,7 +862,7 @@ class WebDavServletTest {
         @Override public String getRequestId() { return null; }
         @Override public String getProtocolRequestId() { return null; }
         @Override public jakarta.servlet.ServletConnection getServletConnection() { return null; }
-        @Override public String getParameter(String name) { return null; }
+        @Override public String getParameter(String name) { return parameters.get(name); }
         @Override public Map<String, String[]> getParameterMap() { return null; }
         @Override public Enumeration<String> getParameterNames() { return null; }
         @Override public String[] getParameterValues(String name) { return null; }
@@ -195,12 +871,17 @@ class WebDavServletTest {
     static class TestHttpServletResponse implements HttpServletResponse {
         int status = 200;
         int errorStatus;
+        long contentLength = -1;
+        String contentType;
+        Map<String, String> headers = new HashMap<>();
         StubServletOutputStream outputStream;
         @Override public void setStatus(int sc) { this.status = sc; }
         @Override public void sendError(int sc) { this.errorStatus = sc; }
         @Override public void sendError(int sc, String msg) { this.errorStatus = sc; }
         @Override public jakarta.servlet.ServletOutputStream getOutputStream() { return outputStream; }
-        @Override public PrintWriter getWriter() { return new PrintWriter(new StringWriter()); }
+        StringWriter written = new StringWriter();
+        PrintWriter writer = new PrintWriter(written);
+        @Override public PrintWriter getWriter() { return writer; }
         
         // Unimplemented methods
         @Override public void addCookie(jakarta.servlet.http.Cookie cookie) {}
@@ -210,20 +891,20 @@ class WebDavServletTest {
         @Override public void sendRedirect(String location) {}
         @Override public void setDateHeader(String name, long date) {}
         @Override public void addDateHeader(String name, long date) {}
-        @Override public void setHeader(String name, String value) {}
+        @Override public void setHeader(String name, String value) { headers.put(name, value); }
         @Override public void addHeader(String name, String value) {}
         @Override public void setIntHeader(String name, int value) {}
         @Override public void addIntHeader(String name, int value) {}
         @Override public int getStatus() { return status; }
-        @Override public String getHeader(String name) { return null; }
+        @Override public String getHeader(String name) { return headers.get(name); }
         @Override public java.util.Collection<String> getHeaders(String name) { return null; }
         @Override public java.util.Collection<String> getHeaderNames() { return null; }
         @Override public String getCharacterEncoding() { return null; }
-        @Override public String getContentType() { return null; }
+        @Override public String getContentType() { return contentType; }
         @Override public void setCharacterEncoding(String charset) {}
-        @Override public void setContentLength(int len) {}
-        @Override public void setContentLengthLong(long len) {}
-        @Override public void setContentType(String type) {}
+        @Override public void setContentLength(int len) { this.contentLength = len; }
+        @Override public void setContentLengthLong(long len) { this.contentLength = len; }
+        @Override public void setContentType(String type) { this.contentType = type; }
         @Override public void setBufferSize(int size) {}
         @Override public int getBufferSize() { return 0; }
         @Override public void flushBuffer() {}
@@ -249,5 +930,6 @@ class WebDavServletTest {
         @Override public boolean isReady() { return true; }
         @Override public void setWriteListener(jakarta.servlet.WriteListener writeListener) {}
         public String getContent() { return out.toString(StandardCharsets.UTF_8); }
+        public byte[] getBytes() { return out.toByteArray(); }
     }
 }
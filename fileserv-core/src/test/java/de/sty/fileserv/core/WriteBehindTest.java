@@ -0,0 +1,211 @@
+package de.sty.fileserv.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WriteBehindTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path dataDir;
+    private final List<Path> published = new ArrayList<>();
+    private final List<WriteBehind> opened = new ArrayList<>();
+    /** Makes the sink fail, like a full disk. */
+    private volatile boolean failing;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dataDir = tempDir.toAbsolutePath().normalize();
+        Files.createDirectories(dataDir.resolve(WriteBehind.DIRECTORY));
+    }
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(WriteBehind::close);
+    }
+
+    /** A journal whose writer is not started, so files stay pending until flushed. */
+    private WriteBehind idle(FsyncPolicy policy) {
+        WriteBehind wb = new WriteBehind(dataDir, policy, WriteBehind.DEFAULT_MAX_FILE_SIZE, this::publish);
+        opened.add(wb);
+        return wb;
+    }
+
+    private synchronized void publish(Path target, byte[] content) throws IOException {
+        if (failing) throw new IOException("No space left on device");
+        Files.createDirectories(target.getParent());
+        AtomicWrite.write(new ByteArrayInputStream(content), target,
+                AtomicWrite.Options.of(FsyncPolicy.NONE).withLength(content.length));
+        published.add(target);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (var files = Files.list(dataDir.resolve(WriteBehind.DIRECTORY))) {
+            return files.toList();
+        }
+    }
+
+    @Test
+    void flushPublishesPendingFilesAtAndBelowPath() throws Exception {
+        WriteBehind wb = idle(FsyncPolicy.FILE);
+        assertThat(wb.offer(dataDir.resolve("ci/a.txt"), bytes("a"))).isTrue();
+        assertThat(wb.offer(dataDir.resolve("ci/deep/b.txt"), bytes("b"))).isTrue();
+        assertThat(wb.offer(dataDir.resolve("cidr.txt"), bytes("c"))).isTrue();
+        assertThat(dataDir.resolve("ci")).doesNotExist();
+
+        wb.flush(dataDir.resolve("ci"));
+
+        assertThat(Files.readString(dataDir.resolve("ci/a.txt"))).isEqualTo("a");
+        assertThat(Files.readString(dataDir.resolve("ci/deep/b.txt"))).isEqualTo("b");
+        assertThat(dataDir.resolve("cidr.txt")).doesNotExist();
+        assertThat(wb.isEmpty()).isFalse();
+
+        wb.flush(dataDir.resolve("cidr.txt/below"));
+        assertThat(Files.readString(dataDir.resolve("cidr.txt"))).isEqualTo("c");
+        assertThat(wb.isEmpty()).isTrue();
+    }
+
+    @Test
+    void laterPutOfSamePathWins() throws Exception {
+        WriteBehind wb = idle(FsyncPolicy.NONE);
+        Path p = dataDir.resolve("report.txt");
+        wb.offer(p, bytes("first"));
+        wb.offer(p, bytes("second"));
+
+        wb.flushAll();
+
+        assertThat(Files.readString(p)).isEqualTo("second");
+        assertThat(published).containsExactly(p);
+    }
+
+    @Test
+    void recoverReplaysJournalAfterCrash() throws Exception {
+        WriteBehind crashed = idle(FsyncPolicy.FILE);
+        crashed.offer(dataDir.resolve("a.txt"), bytes("one"));
+        crashed.offer(dataDir.resolve("dir/b.txt"), bytes("two"));
+        crashed.offer(dataDir.resolve("a.txt"), bytes("three"));
+        Path segment = segments().get(0);
+        // a record torn by the crash
+        Files.write(segment, new byte[]{0x46, 0x53, 0x57}, StandardOpenOption.APPEND);
+        opened.remove(crashed);
+
+        WriteBehind restarted = idle(FsyncPolicy.FILE);
+        assertThat(restarted.recover()).isEqualTo(2);
+
+        assertThat(Files.readString(dataDir.resolve("a.txt"))).isEqualTo("three");
+        assertThat(Files.readString(dataDir.resolve("dir/b.txt"))).isEqualTo("two");
+        assertThat(segment).doesNotExist();
+    }
+
+    @Test
+    void recoverSkipsFilesPublishedBeforeCrash() throws Exception {
+        WriteBehind crashed = idle(FsyncPolicy.FILE);
+        Path deleted = dataDir.resolve("deleted.txt");
+        Path replaced = dataDir.resolve("replaced.txt");
+        crashed.offer(deleted, bytes("stale"));
+        crashed.offer(replaced, bytes("stale"));
+        crashed.offer(dataDir.resolve("pending.txt"), bytes("pending"));
+        crashed.flush(deleted);
+        crashed.flush(replaced);
+        // changed by requests after publishing, e.g. a DELETE and a large PUT
+        Files.delete(deleted);
+        Files.writeString(replaced, "new");
+        opened.remove(crashed);
+
+        WriteBehind restarted = idle(FsyncPolicy.FILE);
+        assertThat(restarted.recover()).isEqualTo(1);
+
+        assertThat(deleted).doesNotExist();
+        assertThat(Files.readString(replaced)).isEqualTo("new");
+        assertThat(Files.readString(dataDir.resolve("pending.txt"))).isEqualTo("pending");
+    }
+
+    @Test
+    void recoverQuarantinesFilesItCannotPublish() throws Exception {
+        Files.createDirectories(dataDir.resolve("coll/sub"));
+        WriteBehind crashed = idle(FsyncPolicy.FILE);
+        crashed.offer(dataDir.resolve("coll"), bytes("not a file"));
+        crashed.offer(dataDir.resolve("ok.txt"), bytes("ok"));
+        opened.remove(crashed);
+
+        WriteBehind restarted = idle(FsyncPolicy.FILE);
+        assertThat(restarted.recover()).isEqualTo(1);
+
+        assertThat(Files.readString(dataDir.resolve("ok.txt"))).isEqualTo("ok");
+        assertThat(dataDir.resolve("coll")).isDirectory();
+        assertThat(segments()).singleElement()
+                .satisfies(q -> assertThat(q.getFileName().toString()).startsWith("quarantine-"));
+        // not replayed again
+        opened.remove(restarted);
+        assertThat(idle(FsyncPolicy.FILE).recover()).isZero();
+    }
+
+    @Test
+    void failedPublishStaysPendingAndIsRetried() throws Exception {
+        WriteBehind wb = idle(FsyncPolicy.FILE);
+        wb.recover();
+        Path p = dataDir.resolve("a.txt");
+        failing = true;
+        wb.offer(p, bytes("a"));
+
+        assertThatThrownBy(() -> wb.flush(p)).isInstanceOf(IOException.class)
+                .hasMessageContaining("No space left on device");
+        Thread.sleep(200);
+        assertThat(wb.isEmpty()).isFalse();
+        assertThat(p).doesNotExist();
+
+        failing = false;
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!wb.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertThat(Files.readString(p)).isEqualTo("a");
+        assertThat(wb.toString()).doesNotContain("failed publishes=0,");
+    }
+
+    @Test
+    void unpublishedFilesStayInJournalOnClose() throws Exception {
+        WriteBehind wb = idle(FsyncPolicy.FILE);
+        Path p = dataDir.resolve("a.txt");
+        wb.offer(p, bytes("a"));
+        failing = true;
+        wb.close();
+        assertThat(segments()).isNotEmpty();
+
+        failing = false;
+        assertThat(idle(FsyncPolicy.FILE).recover()).isEqualTo(1);
+        assertThat(Files.readString(p)).isEqualTo("a");
+    }
+
+    @Test
+    void writerPublishesInBackgroundAndDeletesJournalOnClose() throws Exception {
+        WriteBehind wb = idle(FsyncPolicy.FILE);
+        wb.recover();
+        for (int i = 0; i < 100; i++) wb.offer(dataDir.resolve("burst/" + i + ".txt"), bytes("file " + i));
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!wb.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+
+        assertThat(wb.isEmpty()).isTrue();
+        assertThat(Files.readString(dataDir.resolve("burst/99.txt"))).isEqualTo("file 99");
+        wb.close();
+        assertThat(segments()).isEmpty();
+    }
+}